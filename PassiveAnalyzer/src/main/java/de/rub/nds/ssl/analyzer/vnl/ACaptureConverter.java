@@ -9,11 +9,13 @@ import de.rub.nds.ssl.stack.protocols.handshake.datatypes.EKeyExchangeAlgorithm;
 import de.rub.nds.ssl.stack.protocols.msgs.ChangeCipherSpec;
 import de.rub.nds.ssl.stack.protocols.msgs.TLSPlaintext;
 import de.rub.nds.virtualnetworklayer.connection.pcap.PcapTrace;
+import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import org.apache.log4j.Logger;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -30,6 +32,8 @@ public abstract class ACaptureConverter {
 
     /**
      * Converts a PcapTrace to a MessageContainer.
+     * Records are decoded from read-only views of the TLS headers of the trace, each
+     * associated with the packet holding it. The packets' bytes are not copied.
      *
      * @param trace PcapTrace containing record frames.
      * @return Message container of all included record frames and additional
@@ -38,48 +42,14 @@ public abstract class ACaptureConverter {
     public static MessageContainer[] convertToMessageContainer(
             final PcapTrace trace) {
         List<MessageContainer> container = new ArrayList<>(10);
-        List<Integer> offsets = new ArrayList<>(10);
 
-        int pointer = 0;
-        // determine overall byte length
-        for (PcapPacket packet : trace) {
-            pointer += packet.getLength();
-        }
-
-        byte[] traceBytes = new byte[pointer];
-        pointer = 0;
-        // extract bytes from trace and keep track of associated packets
         for (PcapPacket packet : trace) {
-            System.arraycopy(packet.getContent(), 0, traceBytes, pointer,
-                    packet.getLength());
-            pointer += packet.getLength();
-            offsets.add(pointer);
-        }
-
-        pointer = 0;
-        byte[] encodedRecord;
-        List<ARecordFrame> frames;
-        // extract all record frames and add them to the message container
-        while (pointer < traceBytes.length) {
-            // extract next record frame from byte[]
-            encodedRecord = sliceOfNextRecord(traceBytes, pointer);
-            pointer += encodedRecord.length;
-
-            // decode frame
-            frames = decodeRecordFrames(encodedRecord, null);
-            // add frame(s)
-            for (ARecordFrame frame : frames) {
-                // look up trace packet
-                int offset;
-                for (int i = 0; i < offsets.size(); i++) {
-                    offset = offsets.get(i);
-                    if (!(pointer > offset)) {
-                        // packet found
-                        container.add(new MessageContainer(frame, trace.get(i)));
-                        break;
-                    }
+            for (Header header : packet.getHeaders(Headers.Tls)) {
+                // decode frame(s) and add them
+                for (ARecordFrame frame : decodeRecordFrames(
+                        header.getHeaderAndPayloadView(), null)) {
+                    container.add(new MessageContainer(frame, packet));
                 }
-
             }
         }
 
@@ -118,19 +88,33 @@ public abstract class ACaptureConverter {
      */
     public static byte[] sliceOfNextRecord(final byte[] bytes,
             final int offset) {
-        int pointer = 0;
+        ByteBuffer record = sliceOfNextRecord(
+                (ByteBuffer) ByteBuffer.wrap(bytes).position(offset));
+
+        byte[] copy = new byte[record.remaining()];
+        record.get(copy);
+
+        return copy;
+    }
+
+    /**
+     * Slices the next record frame out of a stream, without copying.
+     *
+     * @param stream Record frame(s), positioned at the next record, which
+     *               is positioned after the sliced record afterwards.
+     * @return Read-only view of the next record.
+     */
+    public static ByteBuffer sliceOfNextRecord(final ByteBuffer stream) {
         //Determine the length of the frame
-        int length = (bytes[3 + offset] & 0xff) << Utility.BITS_IN_BYTE
-                | (bytes[4 + offset] & 0xff);
-        byte[] record = new byte[ARecordFrame.LENGTH_MINIMUM_ENCODED + length];
-        // copy header
-        System.arraycopy(bytes, offset, record, 0,
-                ARecordFrame.LENGTH_MINIMUM_ENCODED);
-        pointer += ARecordFrame.LENGTH_MINIMUM_ENCODED;
-        // copy payload
-        System.arraycopy(bytes, offset + pointer, record, pointer, length);
-
-        return record;
+        int offset = stream.position();
+        int length = (stream.get(3 + offset) & 0xff) << Utility.BITS_IN_BYTE
+                | (stream.get(4 + offset) & 0xff);
+
+        ByteBuffer record = stream.asReadOnlyBuffer();
+        record.limit(offset + ARecordFrame.LENGTH_MINIMUM_ENCODED + length);
+        stream.position(record.limit());
+
+        return record.slice();
     }
 
     /**
@@ -138,10 +122,17 @@ public abstract class ACaptureConverter {
      *
      * @param trace Record capture.
      * @return Decoded messages included in the captured PcapTrace.
+     * @see #convertToMessageContainer(PcapTrace)
      */
     public static ARecordFrame[] extractRecords(final PcapTrace trace) {
-        byte[] capturedBytes = getBytesFromTrace(trace);
-        return extractRecords(capturedBytes);
+        MessageContainer[] container = convertToMessageContainer(trace);
+
+        ARecordFrame[] recordFrames = new ARecordFrame[container.length];
+        for (int i = 0; i < container.length; i++) {
+            recordFrames[i] = container[i].getCurrentRecord();
+        }
+
+        return recordFrames;
     }
 
     /**
@@ -153,22 +144,40 @@ public abstract class ACaptureConverter {
     public static ARecordFrame[] extractRecords(final byte[] capture) {
         List<ARecordFrame> recordFrames = new ArrayList<>(10);
 
-        int offset = 0;
-        byte[] encodedRecord;
-        List<ARecordFrame> decodedFrames;
-        while (offset < capture.length) {
-            // extract next record frame from byte[]
-            encodedRecord = sliceOfNextRecord(capture, offset);
-            offset += encodedRecord.length;
-
-            // decode frame
-            decodedFrames = decodeRecordFrames(encodedRecord, null);
-            recordFrames.addAll(decodedFrames);
+        ByteBuffer stream = ByteBuffer.wrap(capture);
+        while (stream.hasRemaining()) {
+            // decode the view of the next record frame
+            recordFrames.addAll(decodeRecordFrames(sliceOfNextRecord(stream), null));
         }
 
         return recordFrames.toArray(new ARecordFrame[recordFrames.size()]);
     }
 
+    /**
+     * Decodes an encoded record.
+     * The record frames copy what they decode, thus a view is only copied
+     * once into the byte[] they are decoded from.
+     *
+     * @param record View of the encoded record, from position to limit
+     * @return Decoded record frames
+     * @see #decodeRecordFrames(byte[], EKeyExchangeAlgorithm)
+     */
+    public static List<ARecordFrame> decodeRecordFrames(final ByteBuffer record,
+            EKeyExchangeAlgorithm keyExchangeAlgorithm) {
+        byte[] bytes;
+        if (record.hasArray() && record.arrayOffset() == 0 && record.position() == 0
+                && record.remaining() == record.array().length) {
+            bytes = record.array();
+        } else {
+            int position = record.position();
+            bytes = new byte[record.remaining()];
+            record.get(bytes);
+            record.position(position);
+        }
+
+        return decodeRecordFrames(bytes, keyExchangeAlgorithm);
+    }
+
     /**
      * Decodes an encoded record.
      *
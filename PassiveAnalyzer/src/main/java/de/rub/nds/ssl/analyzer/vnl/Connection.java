@@ -18,32 +18,77 @@ import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
 import org.apache.log4j.Logger;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+/**
+ * TLS handshake of a {@link PcapConnection}, decoded incrementally.
+ * Every {@link #update()} decodes only the TLS records of packets, which were appended
+ * to the sequence order of the trace since the last update. Records split across tcp
+ * segments are held back by {@link PcapTrace} until they are reassembled, thus every
+ * record is decoded exactly once.
+ */
 public class Connection {
     private static Logger logger = Logger.getLogger(Connection.class);
 
+    private PcapConnection pcapConnection;
 	private PcapTrace trace;
-    private List<MessageContainer> frameList;
+    private List<MessageContainer> frameList = new ArrayList<>();
+    private boolean completed = false;
+    private boolean failed = false;
+
+    // sequence position up to which the trace was decoded
+    private int position = 0;
+    // by direction: whether we have seen a ChangeCipherSpec message
+    private final boolean[] directionCompleted = new boolean[Direction.values().length];
+    // by direction: index of the current TLSPlaintext record (different from frame, because of fragmentation)
+    private final int[] recordIndex = new int[Direction.values().length];
 
     private Fingerprint.Signature serverTcpSignature;
     private Fingerprint.Signature serverMtuSignature;
     private SessionIdentifier sessionIdentifier = new SessionIdentifier();
     private EKeyExchangeAlgorithm keyExchangeAlgorithm;
 
+    /**
+     * Decodes the trace of pcapConnection so far, call {@link #update()} for later packets.
+     */
     public Connection(PcapConnection pcapConnection) {
+        this.pcapConnection = pcapConnection;
 		this.trace = pcapConnection.getTrace();
-        //TODO: Direction.Request  if we serve TLS
-		this.serverTcpSignature = pcapConnection.getSignature(Direction.Response, Fingerprints.Tcp);
-		this.serverMtuSignature = pcapConnection.getSignature(Direction.Response, Fingerprints.Mtu);
-		this.frameList = this.decodeTrace();
+		update();
 	}
-	
+
+    /**
+     * Decodes the packets appended to the trace since the last update, until both
+     * directions have sent a ChangeCipherSpec message.
+     * If decoding fails, the exception is thrown once and the connection stays incomplete.
+     *
+     * @return whether the handshake is completed
+     */
+    public boolean update() {
+        if (completed || failed) {
+            return completed;
+        }
+
+        boolean decoded = false;
+        try {
+            decodeTrace();
+            decoded = true;
+        } finally {
+            failed = !decoded;
+        }
+
+        return completed;
+    }
+
 	public boolean isCompleted() {
-		return this.frameList != null;
+		return completed;
 	}
 
+    /**
+     * @return frames decoded so far, the unencrypted handshake if {@link #isCompleted()}
+     */
     public List<MessageContainer> getFrameList() {
         return frameList;
     }
@@ -78,7 +123,7 @@ public class Connection {
     }
 
 	public void printReport() {
-		if (frameList != null) {
+		if (completed) {
             StringBuilder sb = new StringBuilder();
             sb.append("Full connection report: begin trace\n");
 			for (MessageContainer aRecordFrame : frameList) {
@@ -93,32 +138,24 @@ public class Connection {
         return sessionIdentifier;
     }
 
-	private List<MessageContainer> decodeTrace() {
-		List<MessageContainer> frameList = new LinkedList<>();
+	private void decodeTrace() {
+		// iterate over the packets appended since the last update ...
+		Iterator<PcapPacket> packets = trace.getSequenceOrder(position);
+		while (packets.hasNext()) {
+            final PcapPacket packet = packets.next();
+            position++;
 
-        // whether we have seen a ChangeCipherSpec message
-        boolean clientCompleted = false;
-		boolean serverCompleted = false;
-
-        // index of the current TLSPlaintext record (different from frame, because of fragmentation
-        int clientRecordIndex = 0;
-        int serverRecordIndex = 0;
-	
-		// Now, iterate over all packets
-		for (PcapPacket packet : trace) {
-            final boolean request = packet.getDirection() == Direction.Request;
+            final int direction = packet.getDirection().ordinal();
             // ... and find TLS record layer frames
 			for (Header header : packet.getHeaders(Headers.Tls)) {
 
                 // we're not interested in any messages after we've seen ChangeCipherSpec
-                if(request && clientCompleted)
-                    continue;
-                if(!request && serverCompleted)
+                if (directionCompleted[direction])
                     continue;
 
-                // Decode the raw bytes of (TLS)-header and -payload
+                // Decode a view of the raw bytes of (TLS)-header and -payload
                 final List<ARecordFrame> frames = ACaptureConverter.decodeRecordFrames(
-                        header.getHeaderAndPayload(),
+                        header.getHeaderAndPayloadView(),
                         keyExchangeAlgorithm);
 
                 // Convert all Frames to MessageContainer and add them to the list
@@ -133,8 +170,7 @@ public class Connection {
 
                     //TODO: we cannot distinguish between TLS record and frame, see ARecordFrame
                     // set index of TLSPlaintext record holding frame
-                    messageContainer.addFragmentSourceRecord(
-                            request? clientRecordIndex : serverRecordIndex);
+                    messageContainer.addFragmentSourceRecord(recordIndex[direction]);
 
                     frameList.add(messageContainer);
 
@@ -142,14 +178,12 @@ public class Connection {
                      * Does this complete the unencrypted part of the handshake?
                      */
                     if (frame instanceof ChangeCipherSpec) {
-                        if (request) {
-                            clientCompleted = true;
-                        } else {
-                            serverCompleted = true;
-                        }
-                        if (clientCompleted && serverCompleted) {
+                        directionCompleted[direction] = true;
+                        if (directionCompleted[Direction.Request.ordinal()]
+                                && directionCompleted[Direction.Response.ordinal()]) {
                             // Both have sent a ChangeCipherSpec message -> Finalize
-                            return frameList;
+                            complete();
+                            return;
                         }
                     }
 
@@ -173,15 +207,19 @@ public class Connection {
                     }
                 }
 
-                if(request)
-                    ++clientRecordIndex;
-                else
-                    ++serverRecordIndex;
+                ++recordIndex[direction];
 			}
 		}
-		return null;
 	}
 
+    private void complete() {
+        completed = true;
+
+        //TODO: Direction.Request  if we serve TLS
+        serverTcpSignature = pcapConnection.getSignature(Direction.Response, Fingerprints.Tcp);
+        serverMtuSignature = pcapConnection.getSignature(Direction.Response, Fingerprints.Mtu);
+    }
+
     private SessionIdentifier extractSessionIdentifier(ClientHello clientHello,
                                                        PcapPacket packet) {
         String hostName;
@@ -208,6 +246,9 @@ public class Connection {
     public boolean hasIPv4Fragmentation() {
         // might be optimized by caching
         for (PcapPacket pcapPacket : trace) {
+            if (pcapPacket.isReassembled() && pcapPacket.hasHeader(Headers.Ip4)) {
+                return true;
+            }
             for (Header header : pcapPacket.getHeaders(Headers.Ip4)) {
                 if(header.isFragmented())
                     return true;
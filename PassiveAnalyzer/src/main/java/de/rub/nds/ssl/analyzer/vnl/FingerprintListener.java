@@ -1,8 +1,7 @@
 package de.rub.nds.ssl.analyzer.vnl;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.SetMultimap;
 import de.rub.nds.ssl.analyzer.vnl.fingerprint.TLSFingerprint;
 import de.rub.nds.ssl.analyzer.vnl.fingerprint.serialization.Serializer;
@@ -14,37 +13,67 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Store of the fingerprints seen by {@link SessionIdentifier}, which classifies reported
+ * fingerprints as new, update or change and notifies the {@link FingerprintReporter}s.
+ * <p>
+ * Safe for concurrent reports: the fingerprints of a {@link SessionIdentifier} are an
+ * immutable set, which is replaced by compare-and-set. A report is classified by the set it
+ * replaced (or found unchanged), thus concurrent reports are classified as if they had been
+ * reported one after another. Reporters are notified without holding any lock.
+ */
 public class FingerprintListener {
     private static Logger logger = Logger.getLogger(FingerprintListener.class);
 
     //TODO: get back insertion-order, store it in TLSFingerprint & use SortedSetMultimap (TreeMultimap) here
-    private SetMultimap<SessionIdentifier, TLSFingerprint> fingerprints =
-            HashMultimap.create();
+    private final ConcurrentMap<SessionIdentifier, ImmutableSet<TLSFingerprint>> fingerprints =
+            new ConcurrentHashMap<>();
     /**
      * {@link FingerprintReporter}s to notify about reported fingerprints
      */
-    private final Collection<FingerprintReporter> reporters = new LinkedList<>();
+    private final Collection<FingerprintReporter> reporters = new CopyOnWriteArrayList<>();
 
     public boolean addFingerprintReporter(FingerprintReporter fr) {
-        synchronized (reporters) {
-            return reporters.add(fr);
-        }
+        return reporters.add(fr);
     }
 
     public boolean removeFingerprintReporter(FingerprintReporter fr) {
-        synchronized (reporters) {
-            return reporters.remove(fr);
-        }
+        return reporters.remove(fr);
     }
 
     public void clearFingerprintReporters() {
-        synchronized (reporters) {
-            reporters.clear();
-            logger.info("Cleared all fingerprint reporters");
+        reporters.clear();
+        logger.info("Cleared all fingerprint reporters");
+    }
+
+    /**
+     * Adds tlsFingerprint to the fingerprints of sessionId.
+     * @return Fingerprints of sessionId before, null if sessionId was new. The same
+     * set as now, if tlsFingerprint was already known.
+     */
+    private ImmutableSet<TLSFingerprint> add(SessionIdentifier sessionId, TLSFingerprint tlsFingerprint) {
+        while (true) {
+            ImmutableSet<TLSFingerprint> previous = fingerprints.get(sessionId);
+
+            if (previous == null) {
+                if (fingerprints.putIfAbsent(sessionId, ImmutableSet.of(tlsFingerprint)) == null) {
+                    return null;
+                }
+            } else if (previous.contains(tlsFingerprint)) {
+                return previous;
+            } else {
+                ImmutableSet<TLSFingerprint> next = ImmutableSet.<TLSFingerprint>builder()
+                        .addAll(previous).add(tlsFingerprint).build();
+                if (fingerprints.replace(sessionId, previous, next)) {
+                    return previous;
+                }
+            }
         }
     }
 
@@ -55,35 +84,33 @@ public class FingerprintListener {
      * @see FingerprintReporter#reportArtificial(SessionIdentifier, TLSFingerprint)
      */
     boolean insertFingerprint(SessionIdentifier sessionId, TLSFingerprint tlsFingerprint) {
-        if (fingerprints.containsEntry(sessionId, tlsFingerprint)) {
+        ImmutableSet<TLSFingerprint> previous = add(sessionId, tlsFingerprint);
+        if (previous != null && previous.contains(tlsFingerprint)) {
             return false;
         }
-        fingerprints.put(sessionId, tlsFingerprint);
         reportFingerprintArtificial(sessionId, tlsFingerprint);
         return true;
     }
 
     public void reportConnection(SessionIdentifier sessionIdentifier,
             TLSFingerprint tlsFingerprint) {
-        if(fingerprints.containsEntry(sessionIdentifier, tlsFingerprint)) {
+        final ImmutableSet<TLSFingerprint> previousFingerprints =
+                add(sessionIdentifier, tlsFingerprint);
+
+        if (previousFingerprints == null) {
+            // the SessionIdentifier was not yet in fingerprints
+            reportFingerprintNew(sessionIdentifier, tlsFingerprint);
+        }
+        else if (previousFingerprints.contains(tlsFingerprint)) {
             // We have seen this!
             reportFingerprintUpdate(sessionIdentifier, tlsFingerprint);
             //TODO: store seen count
         }
-        else if(fingerprints.containsKey(sessionIdentifier)) {
+        else {
             // A new different fingerprint for this SessionIdentifier
-
-            final Set<TLSFingerprint> previousFingerprints =
-                    ImmutableSet.copyOf(fingerprints.get(sessionIdentifier));
             //TODO: make configurable if changed fingerprints should be added to store
-            fingerprints.put(sessionIdentifier, tlsFingerprint);
             reportFingerprintChange(sessionIdentifier, tlsFingerprint, previousFingerprints);
         }
-        else {
-            // the SessionIdentifier is not yet in fingerprints, add it
-            fingerprints.put(sessionIdentifier, tlsFingerprint);
-            reportFingerprintNew(sessionIdentifier, tlsFingerprint);
-        }
     }
 
     /**
@@ -91,10 +118,8 @@ public class FingerprintListener {
      */
     private void reportFingerprintNew(SessionIdentifier sessionIdentifier,
             TLSFingerprint tlsFingerprint) {
-        synchronized (reporters) {
-            for (FingerprintReporter fingerprintReporter : reporters) {
-                fingerprintReporter.reportNew(sessionIdentifier, tlsFingerprint);
-            }
+        for (FingerprintReporter fingerprintReporter : reporters) {
+            fingerprintReporter.reportNew(sessionIdentifier, tlsFingerprint);
         }
     }
 
@@ -103,10 +128,8 @@ public class FingerprintListener {
      */
     private void reportFingerprintUpdate(SessionIdentifier sessionIdentifier,
             TLSFingerprint tlsFingerprint) {
-        synchronized (reporters) {
-            for (FingerprintReporter fingerprintReporter : reporters) {
-                fingerprintReporter.reportUpdate(sessionIdentifier, tlsFingerprint);
-            }
+        for (FingerprintReporter fingerprintReporter : reporters) {
+            fingerprintReporter.reportUpdate(sessionIdentifier, tlsFingerprint);
         }
     }
 
@@ -116,12 +139,10 @@ public class FingerprintListener {
     private void reportFingerprintChange(SessionIdentifier sessionIdentifier,
             TLSFingerprint tlsFingerprint,
             Set<TLSFingerprint> previousFingerprints) {
-        synchronized (reporters) {
-            for (FingerprintReporter fingerprintReporter : reporters) {
-                fingerprintReporter.reportChange(sessionIdentifier,
-                        tlsFingerprint,
-                        previousFingerprints);
-            }
+        for (FingerprintReporter fingerprintReporter : reporters) {
+            fingerprintReporter.reportChange(sessionIdentifier,
+                    tlsFingerprint,
+                    previousFingerprints);
         }
     }
     /**
@@ -129,16 +150,25 @@ public class FingerprintListener {
      */
     private void reportFingerprintArtificial(SessionIdentifier sessionIdentifier,
             TLSFingerprint tlsFingerprint) {
-        synchronized (reporters) {
-            for (FingerprintReporter fingerprintReporter : reporters) {
-                fingerprintReporter.reportArtificial(sessionIdentifier, tlsFingerprint);
-            }
+        for (FingerprintReporter fingerprintReporter : reporters) {
+            fingerprintReporter.reportArtificial(sessionIdentifier, tlsFingerprint);
         }
     }
 
+    /**
+     * @return number of fingerprints of all endpoints
+     */
+    private int getFingerprintCount() {
+        int count = 0;
+        for (Set<TLSFingerprint> tlsFingerprints : fingerprints.values()) {
+            count += tlsFingerprints.size();
+        }
+        return count;
+    }
+
     public String toString() {
-        return fingerprints.keySet().size() + " known endpoints; " +
-                fingerprints.size() + " known fingerprints (total);" +
+        return fingerprints.size() + " known endpoints; " +
+                getFingerprintCount() + " known fingerprints (total);" +
                 reporters.size() + " attached reporters";
     }
 
@@ -146,8 +176,8 @@ public class FingerprintListener {
      * Write basic statistics to log
      */
     public void log() {
-        logger.info(fingerprints.keySet().size() + " known endpoints; " +
-                fingerprints.size() + " known fingerprints (total)");
+        logger.info(fingerprints.size() + " known endpoints; " +
+                getFingerprintCount() + " known fingerprints (total)");
     }
 
     /**
@@ -166,13 +196,13 @@ public class FingerprintListener {
 
         if (overrideExisting) {
             logger.info("clearing previously stored fingerprints");
-            this.fingerprints = fingerprints;
-        } else {
-            for (Map.Entry<SessionIdentifier, TLSFingerprint> e : fingerprints.entries()) {
-                if (! this.fingerprints.put(e.getKey(), e.getValue())) {
-                    logger.warn("fingerprint in file already known: " + e.getKey());
-                    logger.trace("fingerprint: " + e.getValue());
-                }
+            this.fingerprints.clear();
+        }
+        for (Map.Entry<SessionIdentifier, TLSFingerprint> e : fingerprints.entries()) {
+            ImmutableSet<TLSFingerprint> previous = add(e.getKey(), e.getValue());
+            if (previous != null && previous.contains(e.getValue())) {
+                logger.warn("fingerprint in file already known: " + e.getKey());
+                logger.trace("fingerprint: " + e.getValue());
             }
         }
 
@@ -180,9 +210,14 @@ public class FingerprintListener {
                 " New fingerprints: " + fingerprints.size());
     }
 
-    /** @return An unmodifiable view of the stored fingerprints. It is reflecting all
-     * subsequent changes to these. */
+    /** @return A snapshot of the stored fingerprints, which doesn't reflect later
+     * changes to these. Use a {@link FingerprintReporter} to follow them. */
     public SetMultimap<SessionIdentifier, TLSFingerprint> getFingerprints() {
-        return Multimaps.unmodifiableSetMultimap(fingerprints);
+        ImmutableSetMultimap.Builder<SessionIdentifier, TLSFingerprint> snapshot =
+                ImmutableSetMultimap.builder();
+        for (Map.Entry<SessionIdentifier, ImmutableSet<TLSFingerprint>> e : fingerprints.entrySet()) {
+            snapshot.putAll(e.getKey(), e.getValue());
+        }
+        return snapshot.build();
     }
 }
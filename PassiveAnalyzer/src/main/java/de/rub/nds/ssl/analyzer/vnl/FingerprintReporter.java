@@ -4,6 +4,10 @@ import de.rub.nds.ssl.analyzer.vnl.fingerprint.TLSFingerprint;
 
 import java.util.Set;
 
+/**
+ * Receives the fingerprints classified by a {@link FingerprintListener}. Reports of different
+ * connections may be made concurrently, so implementations must be thread-safe.
+ */
 public interface FingerprintReporter {
     /**
      * A new fingerprint for the {@link SessionIdentifier}.
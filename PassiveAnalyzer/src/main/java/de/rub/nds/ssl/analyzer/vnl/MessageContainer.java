@@ -5,7 +5,8 @@ import de.rub.nds.ssl.stack.workflows.TLS10HandshakeWorkflow.EStates;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
 import org.apache.log4j.Logger;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -26,9 +27,9 @@ public final class MessageContainer {
      */
     private ARecordFrame currentRecord = null;
     /**
-     * Newly encoded bytes to send *
+     * Newly encoded bytes to send, read-only view
      */
-    private byte[] currentRecordBytes = null;
+    private ByteBuffer currentRecordBytes = null;
     /**
      * Original SSL record before manipulation.
      */
@@ -194,10 +195,20 @@ public final class MessageContainer {
      * Set current record bytes representation. May differ from currentRecord,
      * processor decides if currentRecord or currentRecord bytes are processed.
      *
-     * @param currentBytes Current bytes representation.
+     * @param currentBytes Current bytes representation, not copied.
      */
     public void setCurrentRecordBytes(byte[] currentBytes) {
-        this.currentRecordBytes = currentBytes.clone();
+        setCurrentRecordBytes(ByteBuffer.wrap(currentBytes));
+    }
+
+    /**
+     * Set current record bytes representation, see {@link #setCurrentRecordBytes(byte[])}.
+     *
+     * @param currentBytes Current bytes representation from position to limit,
+     *                     kept as read-only view.
+     */
+    public void setCurrentRecordBytes(ByteBuffer currentBytes) {
+        this.currentRecordBytes = currentBytes.slice().asReadOnlyBuffer();
     }
 
     /**
@@ -205,12 +216,29 @@ public final class MessageContainer {
      * currentRecord, processor decides if currentRecord or currentRecord bytes
      * are processed.
      *
-     * @return Bytes of the current record if set, otherwise null.
+     * @return Copy of the bytes of the current record if set, otherwise null.
+     * @see #getCurrentRecordView()
      */
     public byte[] getCurrentRecordBytes() {
         byte[] result = null;
         if (this.currentRecordBytes != null) {
-            result = this.currentRecordBytes.clone();
+            result = new byte[this.currentRecordBytes.remaining()];
+            this.currentRecordBytes.duplicate().get(result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the current record bytes without copying.
+     *
+     * @return Read-only view of the bytes of the current record if set,
+     * otherwise null.
+     * @see #getCurrentRecordBytes()
+     */
+    public ByteBuffer getCurrentRecordView() {
+        ByteBuffer result = null;
+        if (this.currentRecordBytes != null) {
+            result = this.currentRecordBytes.duplicate();
         }
         return result;
     }
@@ -294,7 +322,7 @@ public final class MessageContainer {
      */
     public void prepare() {
         byte[] msg;
-        if (getCurrentRecordBytes() == null) {
+        if (this.currentRecordBytes == null) {
             msg = getCurrentRecord().encode(true);
             setCurrentRecordBytes(msg);
         }
@@ -302,11 +330,11 @@ public final class MessageContainer {
 
     /**
      * Only set after decoding.
-     * @return The indices of the TLSPlaintext record(s) which contained bytes of our
-     * ARecordFrame.
+     * @return Read-only view of the indices of the TLSPlaintext record(s) which contained
+     * bytes of our ARecordFrame.
      */
     public List<Integer> getFragmentSourceRecords() {
-        return new ArrayList<>(fragmentSourceRecords);
+        return Collections.unmodifiableList(fragmentSourceRecords);
     }
 
     void addFragmentSourceRecord(Integer recordIndex) {
@@ -41,7 +41,6 @@ public class PassiveSslReporter {
 	public void run(String filename) {
 		pcap = Pcap.openOffline(new File(filename));
         logger.info("now looping over file " + filename);
-        handler.setPcap(pcap);
         Pcap.Status status = pcap.loop(handler);
         logger.info("looping done, returned " + status);
 	}
@@ -53,7 +52,6 @@ public class PassiveSslReporter {
         logger.info("now looping over live capture");
         
         // Give control to pcap, pcap will use callbacks.
-        handler.setPcap(pcap);
         Pcap.Status status = pcap.loop(handler);
         
         logger.info("looping done, returned " + status);
@@ -63,7 +61,6 @@ public class PassiveSslReporter {
     public Pcap.Status runOnStdin() {
         pcap = Pcap.openOfflineStdin();
         logger.info("now looping over stdin");
-        handler.setPcap(pcap);
         Pcap.Status status = pcap.loop(handler);
         logger.info("looping done, returned " + status);
         return status;
@@ -152,6 +149,7 @@ public class PassiveSslReporter {
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             @Override
             public void run() {
+                psr.handler.closeCaptures();
                 psr.handler.saveStatistics();
             }
         }));
@@ -101,7 +101,7 @@ public class ResumptionFingerprintGuesser extends FingerprintReporterAdapter {
                 originalHandshakeHasTLS1_2 = true;
 
             if(! originalHandshakeHasTLS1_2)
-                signs.remove("supported-point-formats");
+                removeSign("supported-point-formats");
 
             // assemble extensions-layout
             try {
@@ -109,10 +109,10 @@ public class ResumptionFingerprintGuesser extends FingerprintReporterAdapter {
                 final List<Id> extensions = new ArrayList<>(origExtensions);
                 if(! originalHandshakeHasTLS1_2)
                     extensions.remove(pointFormats);
-                signs.put("extensions-layout", extensions);
+                addSign("extensions-layout", extensions);
             } catch (ClassCastException|NullPointerException e) {
                 logger.debug("Could not properly guess extensions-layout: " + e);
-                signs.put("extensions-layout", Collections.emptyList());
+                addSign("extensions-layout", Collections.emptyList());
             }
         }
 
@@ -181,9 +181,9 @@ public class ResumptionFingerprintGuesser extends FingerprintReporterAdapter {
             super(original); // copy
 
             // overwrite signs
-            signs.put("message-types", MESSAGE_TYPES);
-            signs.put("ssl-fragment-layout", FRAGMENT_LAYOUT);
-            signs.put("session-ids-match", true);
+            addSign("message-types", MESSAGE_TYPES);
+            addSign("ssl-fragment-layout", FRAGMENT_LAYOUT);
+            addSign("session-ids-match", true);
         }
 
         public static GuessedHandshakeFingerprint create(@Nonnull HandshakeFingerprint original) {
@@ -207,8 +207,8 @@ public class ResumptionFingerprintGuesser extends FingerprintReporterAdapter {
             super(original); // copy
 
             // overwrite signs
-            signs.put("session-id-empty", false);
-            signs.remove("supported-point-formats");
+            addSign("session-id-empty", false);
+            removeSign("supported-point-formats");
 
             // assemble extensions-layout
             try {
@@ -224,10 +224,10 @@ public class ResumptionFingerprintGuesser extends FingerprintReporterAdapter {
                     it.remove(); // don't keep
                 }
 
-                signs.put("extensions-layout", newExtensionsLayout);
+                addSign("extensions-layout", newExtensionsLayout);
             } catch (ClassCastException|NullPointerException e) {
                 logger.debug("Could not properly guess extensions-layout: " + e);
-                signs.put("extensions-layout", Collections.emptyList());
+                addSign("extensions-layout", Collections.emptyList());
             }
         }
 
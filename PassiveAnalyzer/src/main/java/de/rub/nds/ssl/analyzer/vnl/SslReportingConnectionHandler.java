@@ -11,6 +11,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Joiner;
 import de.rub.nds.ssl.analyzer.vnl.FingerprintReporter.FingerprintReporterAdapter;
@@ -18,13 +19,9 @@ import de.rub.nds.ssl.analyzer.vnl.fingerprint.*;
 import de.rub.nds.ssl.analyzer.vnl.fingerprint.serialization.SavefileFingerprintReporter;
 import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
 import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
-import de.rub.nds.virtualnetworklayer.connection.pcap.PcapTrace;
 import de.rub.nds.virtualnetworklayer.p0f.P0fFile;
-import de.rub.nds.virtualnetworklayer.packet.Headers;
-import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
-import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.pcap.CaptureWriter;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
-import de.rub.nds.virtualnetworklayer.pcap.PcapDumper;
 import org.apache.log4j.Logger;
 
 /**
@@ -49,13 +46,21 @@ public final class SslReportingConnectionHandler extends ConnectionHandler {
 
     private static final String statisticsFile = appDataDir + "statistics.ser";
 
+    private static final long CaptureFileSize = 64 * 1024 * 1024;
+    private static final long CaptureFileAge = TimeUnit.HOURS.toNanos(1);
+
     private FingerprintListener fingerprintListener = new FingerprintListener();
     private FingerprintStatistics statistics = new FingerprintStatistics();
 
-    private Set<SocketSession> reportedSessions = new HashSet<>();
-
-    private PcapConnection currentConnection = null;
-    private Pcap pcap = null;
+    /**
+     * connection handled by the current thread, read by the capture reporters it calls
+     */
+    private final ThreadLocal<PcapConnection> currentConnection = new ThreadLocal<>();
+    private CaptureWriter captureWriter = null;
+    /**
+     * raw packets are only kept, if captures are written
+     */
+    private boolean writeCaptures = false;
 
     public SslReportingConnectionHandler() {
         this(true);
@@ -156,6 +161,7 @@ public final class SslReportingConnectionHandler extends ConnectionHandler {
             }
         }
 
+        writeCaptures = false;
         if(writeCaptureOnNewFingerprint || writeCaptureOnChangedFingerprint) {
             final String what = Joiner.on(',').skipNulls().join(
                     writeCaptureOnNewFingerprint? "new" : null,
@@ -181,6 +187,7 @@ public final class SslReportingConnectionHandler extends ConnectionHandler {
                             writeCapture("new");
                     }
                 });
+                writeCaptures = true;
             } catch(IOException e) {
                 logger.info("Could not create capture directory " + e);
             }
@@ -198,116 +205,174 @@ public final class SslReportingConnectionHandler extends ConnectionHandler {
     }
 
     /**
-     * Check if connection contains any TLS packets. Relies on protocol recognition in
-     * {@link de.rub.nds.virtualnetworklayer.packet.header.application.TlsHeader}.
-     * @return <code>true</code> if any TLS packets were found. If not,
+     * Classifies connection with the {@link TlsClassifier} attached to it, until it is decided.
+     * Connections, which are not TLS, are unsubscribed and never handled again.
+     * @return <code>true</code> if connection is TLS. If undecided,
      * the connection may be in the TCP handshake, and TLS packets will occur later.
      */
-    private static boolean isSsl(final PcapConnection connection) {
-        PcapTrace trace = connection.getTrace();
-        if(trace == null) {
-            logger.debug("got connection without trace: " + connection);
-            return false;
+    private boolean isSsl(final PcapConnection connection) {
+        Object attachment = connection.attachment();
+        if (attachment instanceof Connection)
+            return true;
+
+        TlsClassifier classifier = (TlsClassifier) attachment;
+        if (classifier == null) {
+            classifier = new TlsClassifier();
+            connection.attach(classifier);
         }
 
-        Iterator<PcapPacket> packets = trace.getArrivalOrder();
-        while(packets.hasNext()) {
-            if(packets.next().getHeaders(Headers.Tls).size() > 0)
+        switch (classifier.update(connection)) {
+            case Tls:
+                // replaced by the decoder in handleUpdate
+                connection.attach(null);
                 return true;
+            case NotTls:
+                detach(connection);
+                return false;
+            default:
+                return false;
         }
-        return false;
     }
 
     @Override
     public void newConnection(final Event event, final PcapConnection connection) {
-        currentConnection = connection;
+        if (event == Event.Expired || ! connection.isSubscribed())
+            return;
+
+        currentConnection.set(connection);
         try {
             if (isSsl(connection)) {
-                if (event == Event.New) {
-                    // logger.info("new connection");
-                    // There is a new SSL connection
-                    handleUpdate(connection);
-                } else if (event == Event.Update) {
-                    // A new frame has arrived
-                    handleUpdate(connection);
-                }
+                // There is a new SSL connection, or a new frame has arrived
+                handleUpdate(connection);
             }
         } finally {
-            currentConnection = null;
+            currentConnection.remove();
         }
     }
 
+    /**
+     * Decodes the TLS records, which arrived since the last update of connection, with the
+     * {@link Connection} attached to it. Once the handshake is completed, it is fingerprinted
+     * and connection is detached from TLS processing.
+     */
 	public void handleUpdate(final PcapConnection connection) {
-        //TODO: on every packet (Ethernet frame) we do this again: parse the whole-so-far handshake
-
-		SocketSession session = connection.getSession();
-		if (reportedSessions.contains(session))
+		if (! connection.isSubscribed())
             return;
 
         // keep raw packets for dump capture. if not done yet,
         // we have to keep the current packet, too
-        if(! connection.keepRawPackets())
+        if(writeCaptures && ! connection.keepRawPackets()) {
             saveRawPacket(connection);
-        connection.setKeepRawPackets(true);
+            connection.setKeepRawPackets(true);
+        }
 
-        // parse TLS
-        Connection tlsConnection;
+        // parse TLS, only the new packets
+        Object attachment = connection.attachment();
+        Connection tlsConnection = attachment instanceof Connection ? (Connection) attachment : null;
         try {
-            tlsConnection = new Connection(connection);
+            if (tlsConnection == null) {
+                tlsConnection = new Connection(connection);
+                connection.attach(tlsConnection);
+            } else {
+                tlsConnection.update();
+            }
         } catch (Throwable e) {
             logger.warn("Error decoding connection: " + e);
             logger.trace("backtrace: ", e);
+
+            // decoding the same records again would fail again
+            detach(connection);
             return;
         }
 
         // if handshake is completed, fingerprint
         if (tlsConnection.isCompleted()) {
-            reportedSessions.add(session);
+            detach(connection);
 
             SessionIdentifier sessionIdentifier = tlsConnection.getSessionIdentifier();
             if(sessionIdentifier.isValid()) {
                 TLSFingerprint tlsFingerprint = new TLSFingerprint(tlsConnection);
                 fingerprintListener.reportConnection(sessionIdentifier, tlsFingerprint);
             }
+
+            // only the handshake is captured, the reporters are done with it
+            connection.setKeepRawPackets(false);
         }
 	}
 
     /**
-     * Takes the currently handled connection and write its stored packet data to a
-     * pcap file in {@link #captureDir}.
-     * Requires {@link #setPcap(Pcap)} to have set the looping pcap instance.
+     * No more callbacks, packets or raw packets for connection
+     */
+    private void detach(PcapConnection connection) {
+        connection.unsubscribe();
+        connection.attach(null);
+    }
+
+    /**
+     * Takes the currently handled connection and queues its stored packet data for the
+     * rotating pcap files in {@link #captureDir}, which are written on their own thread.
+     * The capture is listed in the index file by date, session and nameSuffix.
      *
+     * @return false if the capture was dropped, because the writer is busy
      * @see PcapConnection#getRawPackets()
-     * @see Pcap#openDump(File)
+     * @see CaptureWriter
      */
     private boolean writeCapture(String nameSuffix) {
-        if(currentConnection == null) {
+        PcapConnection connection = currentConnection.get();
+        if(connection == null) {
             logger.warn("no current connection");
             return false;
         }
 
-        final String name = captureDir +
-                (new SimpleDateFormat("yyyy-MM-dd HH-mm-ss-SSS ").format(new Date()) +
-                currentConnection.getSession() + " " +
-                nameSuffix).replaceAll("[^\\w\\s-]", "_") + ".pcap";
-        logger.debug("Writing capture to " + name);
+        final String id = new SimpleDateFormat("yyyy-MM-dd HH-mm-ss-SSS ").format(new Date()) +
+                connection.getSession() + " " + nameSuffix;
 
-        PcapDumper pcapDumper = this.pcap.openDump(new File(name));
-        for(RawPacket rawPacket : currentConnection.getRawPackets()) {
-            pcapDumper.dump(rawPacket);
+        Pcap.DataLinkType dataLinkType = getDataLinkType() != null ?
+                getDataLinkType() : Pcap.DataLinkType.Ethernet;
+        CaptureWriter captureWriter = getCaptureWriter(dataLinkType);
+
+        // copied, the ring might evict them before they are written
+        if(! captureWriter.write(id, connection.getRawPackets())) {
+            logger.debug("Dropped capture " + id + ", " + captureWriter.getDropped() + " so far");
+            return false;
         }
 
-        currentConnection.setKeepRawPackets(false, true);
         return true;
     }
 
     /**
-     * Set the {@link Pcap} instance that loops using this handler.
-     * <p>
-     * <b>This will break when more than one Pcap loops with the same handler</b>
+     * Captures were written with the looping {@link Pcap} instance,
+     * a {@link CaptureWriter} does not need it anymore.
      */
+    @Deprecated
     public void setPcap(Pcap pcap) {
-        this.pcap = pcap;
+    }
+
+    /**
+     * Shared by all threads reporting fingerprints.
+     *
+     * @return capture writer for dataLinkType, a writer for another link type is closed
+     */
+    private synchronized CaptureWriter getCaptureWriter(Pcap.DataLinkType dataLinkType) {
+        if(captureWriter == null || captureWriter.getDataLinkType() != dataLinkType) {
+            closeCaptures();
+            captureWriter = new CaptureWriter(new File(captureDir), "captures", dataLinkType);
+            captureWriter.setRotation(CaptureFileSize, CaptureFileAge);
+        }
+
+        return captureWriter;
+    }
+
+    /**
+     * Writes the queued captures and closes the capture files.
+     */
+    public synchronized void closeCaptures() {
+        if(captureWriter != null) {
+            captureWriter.close();
+            if(captureWriter.getDropped() > 0)
+                logger.info("Dropped " + captureWriter.getDropped() + " captures");
+            captureWriter = null;
+        }
     }
 
     public FingerprintListener getFingerprintListener() {
@@ -0,0 +1,170 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapTrace;
+import de.rub.nds.virtualnetworklayer.packet.Packet.Direction;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.application.TlsHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+
+import java.util.Iterator;
+
+/**
+ * Decides early, whether a connection carries a TLS handshake, from the first payload
+ * segments of each direction. A connection is TLS, once the stream of a direction starts with a sane
+ * record header holding a ClientHello. It is not TLS, if a stream starts with anything else than a
+ * record header, or if a direction sent {@link #Probes} segments without a ClientHello
+ * (more on {@link TlsHeader#DefaultPorts}). Connections without tcp are not TLS.
+ * <p>
+ * Record headers may be split across segments, so the first bytes of each stream are collected
+ * by sequence number, until they suffice for a verdict.
+ * <p>
+ * Every {@link #update(PcapConnection)} only examines packets, which arrived since the last one.
+ */
+public class TlsClassifier {
+    public static enum Verdict {
+        Tls,
+        NotTls,
+        Undecided
+    }
+
+    /**
+     * payload segments examined per direction, if no port is a {@link TlsHeader#DefaultPorts default port}
+     */
+    public static final int Probes = 2;
+    public static final int PortProbes = 4;
+
+    // TLSCiphertext.length must not exceed 2^14 + 2048
+    private static final int MaxRecordLength = (1 << 14) + 2048;
+    private static final int RecordHeaderLength = 5;
+    private static final int ClientHello = 1;
+    // record header, handshake type and length, major client_version
+    private static final int PrefixLength = RecordHeaderLength + 5;
+
+    // arrival position up to which the trace was examined
+    private int position = 0;
+    // payload segments examined by direction
+    private final int[] probes = new int[Direction.values().length];
+    // first stream bytes by direction, prefixes[direction][0, filled[direction]) are contiguous
+    private final byte[][] prefixes = new byte[Direction.values().length][PrefixLength];
+    private final int[] filled = new int[Direction.values().length];
+    private final long[] firstSequenceNumbers = new long[Direction.values().length];
+    private Verdict verdict = Verdict.Undecided;
+
+    /**
+     * Examines the packets of connection, which arrived since the last update.
+     *
+     * @return verdict, which doesn't change any more once decided
+     */
+    public Verdict update(PcapConnection connection) {
+        PcapTrace trace = connection.getTrace();
+        if (verdict != Verdict.Undecided || trace == null) {
+            return verdict;
+        }
+
+        Iterator<PcapPacket> packets = trace.getArrivalOrder(position);
+        while (packets.hasNext() && verdict == Verdict.Undecided) {
+            PcapPacket packet = packets.next();
+            position++;
+
+            TcpHeader header = packet.getHeader(TcpHeader.Id);
+            if (header == null) {
+                verdict = Verdict.NotTls;
+            } else if (header.getPayloadLength() > 0) {
+                int direction = packet.getDirection().ordinal();
+                verdict = classify(direction, header);
+
+                if (verdict == Verdict.Undecided && ++probes[direction] >= getProbes(header)) {
+                    verdict = Verdict.NotTls;
+                }
+            }
+        }
+
+        return verdict;
+    }
+
+    /**
+     * Adds the segment's bytes to the stream prefix of direction, if they continue it, and classifies the prefix.
+     */
+    private Verdict classify(int direction, TcpHeader header) {
+        if (probes[direction] == 0) {
+            firstSequenceNumbers[direction] = header.getSequenceNumber();
+        }
+
+        byte[] prefix = prefixes[direction];
+        long offset = (header.getSequenceNumber() - firstSequenceNumbers[direction]) & 0xffffffffL;
+        // retransmissions overlap the prefix, reordered segments are not used
+        if (offset <= filled[direction] && filled[direction] < prefix.length) {
+            byte[] payload = header.getPayload();
+            int from = filled[direction] - (int) offset;
+            int length = Math.min(payload.length - from, prefix.length - filled[direction]);
+
+            if (length > 0) {
+                System.arraycopy(payload, from, prefix, filled[direction], length);
+                filled[direction] += length;
+            }
+        }
+
+        return classify(prefix, filled[direction]);
+    }
+
+    public Verdict getVerdict() {
+        return verdict;
+    }
+
+    private static int getProbes(TcpHeader header) {
+        if (TlsHeader.DefaultPorts.contains(header.getSourcePort())
+                || TlsHeader.DefaultPorts.contains(header.getDestinationPort())) {
+            return PortProbes;
+        }
+
+        return Probes;
+    }
+
+    /**
+     * Classifies the first bytes of the stream of a direction.
+     *
+     * @param payload stream prefix
+     * @return {@link Verdict#Tls} for a ClientHello record, {@link Verdict#NotTls} if payload
+     * doesn't start with a sane record header, otherwise {@link Verdict#Undecided}
+     * @see #classify(byte[], int)
+     */
+    public static Verdict classify(byte[] payload) {
+        return classify(payload, payload.length);
+    }
+
+    /**
+     * Classifies the first length bytes of payload.
+     *
+     * @param payload stream prefix
+     * @param length  number of valid bytes
+     * @return verdict, {@link Verdict#Undecided} as long as the prefix is too short for one
+     */
+    public static Verdict classify(byte[] payload, int length) {
+        if (length < RecordHeaderLength) {
+            return Verdict.Undecided;
+        }
+
+        TlsHeader.ContentType contentType = TlsHeader.ContentType.valueOf(payload[0] & 0xff);
+        TlsHeader.Version version = TlsHeader.Version.valueOf(payload[1] & 0xff, payload[2] & 0xff);
+        int recordLength = (payload[3] & 0xff) << 8 | payload[4] & 0xff;
+        if (contentType == null || version == null || recordLength == 0 || recordLength > MaxRecordLength) {
+            return Verdict.NotTls;
+        }
+
+        // other records (e.g. ServerHello or application data of a connection captured
+        // mid-stream) are left to the probes of the other direction
+        if (contentType != TlsHeader.ContentType.Handshake || length <= RecordHeaderLength
+                || payload[RecordHeaderLength] != ClientHello) {
+            return Verdict.Undecided;
+        }
+
+        // type (1), length (3) and client_version of the ClientHello
+        int major = RecordHeaderLength + 4;
+        if (length > major && payload[major] != 3) {
+            return Verdict.NotTls;
+        }
+
+        return Verdict.Tls;
+    }
+}
@@ -12,18 +12,25 @@ import de.rub.nds.ssl.stack.protocols.handshake.extensions.SupportedPointFormats
 import de.rub.nds.ssl.stack.protocols.handshake.extensions.datatypes.EExtensionType;
 import org.apache.log4j.Logger;
 
-import java.util.Arrays;
 import java.util.List;
 
 public class ClientHelloFingerprint extends Fingerprint<ClientHelloFingerprint> {
     private static Logger logger = Logger.getLogger(ClientHelloFingerprint.class);
 
+    private static final Schema Signs = new Schema("version",
+            "message-version",
+            "compression-method-list",
+            "cipher-suite-list",
+            "extensions-layout",
+            "supported-point-formats",
+            "supported-curves");
+
     public static ClientHelloFingerprint create(ClientHello clientHello) {
-        return new ClientHelloFingerprint(clientHello);
+        return new ClientHelloFingerprint(clientHello).intern();
     }
 
     public static ClientHelloFingerprint create(Connection connection) {
-        return new ClientHelloFingerprint(connection.getClientHello());
+        return new ClientHelloFingerprint(connection.getClientHello()).intern();
     }
 
     public static ClientHelloFingerprint copy(ClientHelloFingerprint original) {
@@ -32,16 +39,16 @@ public class ClientHelloFingerprint extends Fingerprint<ClientHelloFingerprint>
 
     @Deprecated
     public static ClientHelloFingerprint deserializeFingerprint(String serialized) {
-        return new ClientHelloFingerprint().deserialize(serialized);
+        return new ClientHelloFingerprint().deserialize(serialized).intern();
     }
 
     public static ClientHelloFingerprint deserializeFingerprint(List<String> signs) {
-        return new ClientHelloFingerprint().deserialize(signs);
+        return new ClientHelloFingerprint().deserialize(signs).intern();
     }
 
 
     private ClientHelloFingerprint() {
-        super();
+        super(Signs);
     }
 
     protected ClientHelloFingerprint(ClientHelloFingerprint original) {
@@ -49,6 +56,7 @@ public class ClientHelloFingerprint extends Fingerprint<ClientHelloFingerprint>
     }
 
     private ClientHelloFingerprint(ClientHello clientHello) {
+        super(Signs);
         if(clientHello == null)
             throw new NotMatchingException();
 
@@ -84,17 +92,6 @@ public class ClientHelloFingerprint extends Fingerprint<ClientHelloFingerprint>
         }
     }
 
-    @Override
-    public List<String> serializationSigns() {
-        return Arrays.asList("version",
-                "message-version",
-                "compression-method-list",
-                "cipher-suite-list",
-                "extensions-layout",
-                "supported-point-formats",
-                "supported-curves");
-    }
-
     public ClientHelloFingerprint deserialize(final List<String> signs)
             throws IllegalArgumentException {
         if(signs.size() < 5) {
@@ -1,5 +1,7 @@
 package de.rub.nds.ssl.analyzer.vnl.fingerprint;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import de.rub.nds.ssl.analyzer.vnl.fingerprint.serialization.FingerprintSaveFileReader;
 import de.rub.nds.ssl.analyzer.vnl.fingerprint.serialization.Serializer;
 import de.rub.nds.virtualnetworklayer.util.Util;
@@ -19,12 +21,67 @@ import java.util.*;
  * <b>NOTE:</b> don't ever put arrays as sign values, or you'll break things
  * (e.g. <code>toString()</code> and <code>equals()</code>)
  *
+ * <p>The signs of each type of fingerprint are laid out by its {@link Schema}, the hash
+ * is computed once. Fingerprints created from connections or save files are
+ * {@link #intern() interned}, so that equal fingerprints of many sessions share one
+ * instance. Their signs must not be changed after creation.</p>
+ *
  * @author jBiegert azrdev@qrdn.de
  */
 public abstract class Fingerprint<F extends Fingerprint<F>> {
+    /**
+     * The signs a type of fingerprint may have, in serialization order. A fingerprint
+     * stores its sign values in an array indexed by the position of the sign here.
+     */
+    public static final class Schema {
+        private final List<String> signs;
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        public Schema(String... signs) {
+            if (signs.length > Long.SIZE) {
+                throw new IllegalArgumentException("Too many signs: " + signs.length);
+            }
+
+            this.signs = Collections.unmodifiableList(Arrays.asList(signs.clone()));
+            for (int i = 0; i < signs.length; i++) {
+                indices.put(signs[i], i);
+            }
+        }
+
+        public List<String> getSigns() {
+            return signs;
+        }
+
+        /**
+         * @return position of sign
+         * @throws IllegalArgumentException if sign isn't part of this schema
+         */
+        private int indexOf(String sign) {
+            Integer index = indices.get(sign);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown sign " + sign);
+            }
 
-    protected Fingerprint() {
-        signs = new HashMap<>();
+            return index;
+        }
+    }
+
+    /**
+     * fingerprints shared by all sessions, see {@link #intern()}
+     */
+    private static final Interner<Fingerprint> pool = Interners.newWeakInterner();
+
+    private final Schema schema;
+    /** sign values by position in schema, null if absent */
+    private final Object[] values;
+    /** bit i is set, if sign i has been added (possibly with a null value) */
+    private long present;
+    /** 64 bit hash of values, 0 if not yet computed */
+    private volatile long hash;
+
+    protected Fingerprint(Schema schema) {
+        this.schema = Objects.requireNonNull(schema);
+        values = new Object[schema.signs.size()];
     }
 
     /**
@@ -34,46 +91,97 @@ public abstract class Fingerprint<F extends Fingerprint<F>> {
      */
     protected Fingerprint(Fingerprint original) {
         Objects.requireNonNull(original);
-        this.signs = new HashMap<>(original.getSigns());
+        schema = original.schema;
+        values = original.values.clone();
+        present = original.present;
+        hash = original.hash;
     }
 
-    protected Map<String, Object> signs;
-
     /**
      * Add a sign "key" to this Signature
      * @param value may be null, but must not be an array,
      *              use {@link java.util.List} instead!
+     * @throws IllegalArgumentException if key isn't part of the {@link Schema}
      */
     protected void addSign(String key, Object value) {
-        signs.put(key, value);
+        int index = schema.indexOf(key);
+        values[index] = value;
+        present |= 1L << index;
+        hash = 0;
+    }
+
+    /**
+     * Remove the sign "key" from this Signature
+     */
+    protected void removeSign(String key) {
+        int index = schema.indexOf(key);
+        values[index] = null;
+        present &= ~(1L << index);
+        hash = 0;
     }
 
     public <T> T getSign(String key) {
-        return (T) signs.get(key);
+        Integer index = schema.indices.get(key);
+        return index != null ? (T) values[index] : null;
     }
 
+    /**
+     * @return A copy of all signs, in serialization order
+     */
     public Map<String, Object> getSigns() {
-        return new HashMap<>(signs);
+        Map<String, Object> signs = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if ((present & 1L << i) != 0) {
+                signs.put(schema.signs.get(i), values[i]);
+            }
+        }
+
+        return signs;
+    }
+
+    /**
+     * @return An equal fingerprint shared by all sessions, which is this one if no
+     * equal fingerprint has been interned yet. Don't add signs to it any more.
+     */
+    public F intern() {
+        return (F) pool.intern(this);
+    }
+
+    /**
+     * @return 64 bit hash of the sign values, computed once
+     */
+    public long longHashCode() {
+        long h = hash;
+        if (h == 0) {
+            for (Object value : values) {
+                h = (h + (value != null ? value.hashCode() : 0)) * 0x9E3779B97F4A7C15L;
+            }
+            h ^= h >>> 31;
+            // 0 marks a hash not yet computed
+            hash = h = (h != 0 ? h : 1);
+        }
+
+        return h;
     }
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
         if (!(o instanceof Fingerprint)) {
             return false;
         }
 
         Fingerprint other = (Fingerprint) o;
+        if (schema != other.schema || longHashCode() != other.longHashCode()) {
+            return false;
+        }
 
-        Set<String> allSigns = new HashSet<>();
-        allSigns.addAll(signs.keySet());
-        allSigns.addAll(other.signs.keySet());
-
-        for (String key : allSigns) {
-            Object value = signs.get(key);
-            Object oValue = other.signs.get(key);
-
+        // absent signs are null, thus equal to signs with a null value
+        for (int i = 0; i < values.length; i++) {
             //NOTE: don't put arrays as sign values!
-            if (! Util.equal(value, oValue)) {
+            if (! Util.equal(values[i], other.values[i])) {
                 return false;
             }
         }
@@ -81,8 +189,10 @@ public abstract class Fingerprint<F extends Fingerprint<F>> {
         return true;
     }
 
+    @Override
     public int hashCode() {
-        return Arrays.hashCode(signs.values().toArray());
+        long h = longHashCode();
+        return (int) (h ^ h >>> 32);
     }
 
     @Override
@@ -90,7 +200,7 @@ public abstract class Fingerprint<F extends Fingerprint<F>> {
         StringBuilder builder = new StringBuilder();
         //builder.append("- HashCode: ").append(hashCode()).append('\n');
 
-        for (Map.Entry<String, Object> entry : signs.entrySet()) {
+        for (Map.Entry<String, Object> entry : getSigns().entrySet()) {
             Object value = entry.getValue();
             builder.append("- ").append(entry.getKey()).append(": ").append(value);
             builder.append(" [").append(value.getClass().getCanonicalName());
@@ -125,7 +235,9 @@ public abstract class Fingerprint<F extends Fingerprint<F>> {
     /**
      * @return A List of all signs that should be serialized in that order.
      */
-    public abstract List<String> serializationSigns();
+    public List<String> serializationSigns() {
+        return schema.signs;
+    }
 
     /**
      * Read from serialized form. Use {@link #deserialize(List)} instead.
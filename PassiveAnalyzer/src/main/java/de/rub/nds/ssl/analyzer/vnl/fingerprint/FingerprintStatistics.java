@@ -16,6 +16,7 @@ import java.util.Set;
 
 /**
  * Collect statistics about fingerprint reports, especially about changes.
+ * Reports may be made concurrently; observers are notified outside of the lock.
  *
  * @author jBiegert azrdev@qrdn.de
  */
@@ -76,7 +77,7 @@ public final class FingerprintStatistics
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         StringBuilder sb = new StringBuilder("Fingerprint Reports - Total: ");
         sb.append(getReportCount()).append(", ");
         for (ReportType type : ReportType.values()) {
@@ -95,56 +96,56 @@ public final class FingerprintStatistics
     /**
      * @return Total number of reports seen so far.
      */
-    public Number getReportCount() {
+    public synchronized Number getReportCount() {
         return reportCounts.size();
     }
 
     /**
      * @return Number of reports seen so far for given type.
      */
-    public Number getReportCount(final ReportType type) {
+    public synchronized Number getReportCount(final ReportType type) {
         return reportCounts.count(type);
     }
 
     /**
      * @return Total count of "previous" fingerprints seen in all changed reports
      */
-    public Number getDiffsToPreviousCount() {
+    public synchronized Number getDiffsToPreviousCount() {
         return diffSize.size();
     }
 
     /**
      * @return Average count of "previous" fingerprints seen in changed reports
      */
-    public Number getDiffsToPreviousAverage() {
+    public synchronized Number getDiffsToPreviousAverage() {
         return getDiffsToPreviousCount().doubleValue() / changedPreviousCounts.size();
     }
 
     /**
      * @return Distribution: number of "previous" fingerprints -> count of "changed" reports
      */
-    public ImmutableMultiset<Number> getDiffsToPreviousDistribution() {
+    public synchronized ImmutableMultiset<Number> getDiffsToPreviousDistribution() {
         return ImmutableMultiset.copyOf(changedPreviousCounts);
     }
 
     /**
      * @return Total count of signs seen in all diffs to "previous" fingerprints
      */
-    public Number getChangedSignsCount() {
+    public synchronized Number getChangedSignsCount() {
         return changedSignCounts.size();
     }
 
     /**
      * @return Average count of signs seen in any diff to a "previous" fingerprint
      */
-    public Number getChangedSignsAverage() {
+    public synchronized Number getChangedSignsAverage() {
         return getChangedSignsCount().doubleValue() / getDiffsToPreviousCount().doubleValue();
     }
 
     /**
      * @return Distribution: Number of signs in diff -> count of "previous" fingerprints
      */
-    public ImmutableMultiset<Number> getDiffSizeDistribution() {
+    public synchronized ImmutableMultiset<Number> getDiffSizeDistribution() {
         return ImmutableMultiset.copyOf(diffSize);
     }
 
@@ -154,7 +155,7 @@ public final class FingerprintStatistics
      * @return The differing signs and how often they have been seen in any diff to a
      * "previous" fingerprint, ordered by that count
      */
-    public ImmutableMultiset<SignatureDifference.SignIdentifier> getMostCommonChangedSigns() {
+    public synchronized ImmutableMultiset<SignatureDifference.SignIdentifier> getMostCommonChangedSigns() {
         return Multisets.copyHighestCountFirst(changedSignCounts);
     }
 
@@ -164,16 +165,18 @@ public final class FingerprintStatistics
     public void reportChange(SessionIdentifier sessionIdentifier,
                              TLSFingerprint fingerprint,
                              Set<TLSFingerprint> previousFingerprints) {
-        reportCounts.add(ReportType.Change);
-
-        changedPreviousCounts.add(previousFingerprints.size());
-
-        for (TLSFingerprint previousFingerprint : previousFingerprints) {
-            final Set<SignatureDifference.SignDifference> differences =
-                    fingerprint.difference(previousFingerprint);
-            diffSize.add(differences.size());
-            for (SignatureDifference.SignDifference difference : differences) {
-                changedSignCounts.add(difference.getName());
+        synchronized (this) {
+            reportCounts.add(ReportType.Change);
+
+            changedPreviousCounts.add(previousFingerprints.size());
+
+            for (TLSFingerprint previousFingerprint : previousFingerprints) {
+                final Set<SignatureDifference.SignDifference> differences =
+                        fingerprint.difference(previousFingerprint);
+                diffSize.add(differences.size());
+                for (SignatureDifference.SignDifference difference : differences) {
+                    changedSignCounts.add(difference.getName());
+                }
             }
         }
         setChanged(); notifyObservers("Change");
@@ -181,19 +184,25 @@ public final class FingerprintStatistics
 
     @Override
     public void reportUpdate(SessionIdentifier sessionIdentifier, TLSFingerprint fingerprint) {
-        reportCounts.add(ReportType.Update);
+        synchronized (this) {
+            reportCounts.add(ReportType.Update);
+        }
         setChanged(); notifyObservers();
     }
 
     @Override
     public void reportNew(SessionIdentifier sessionIdentifier, TLSFingerprint tlsFingerprint) {
-        reportCounts.add(ReportType.New);
+        synchronized (this) {
+            reportCounts.add(ReportType.New);
+        }
         setChanged(); notifyObservers();
     }
 
     @Override
     public void reportArtificial(SessionIdentifier sessionIdentifier, TLSFingerprint fingerprint) {
-        reportCounts.add(ReportType.Generated);
+        synchronized (this) {
+            reportCounts.add(ReportType.Generated);
+        }
         setChanged(); notifyObservers();
     }
 }
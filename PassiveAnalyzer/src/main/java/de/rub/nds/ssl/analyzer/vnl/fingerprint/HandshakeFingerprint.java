@@ -28,9 +28,13 @@ import java.util.List;
 public class HandshakeFingerprint extends Fingerprint<HandshakeFingerprint> {
     private static Logger logger = Logger.getLogger(HandshakeFingerprint.class);
 
+    private static final Schema Signs = new Schema(
+            "message-types",
+            "session-ids-match",
+            "ssl-fragment-layout");
 
     public static HandshakeFingerprint create(List<MessageContainer> frameList) {
-        return new HandshakeFingerprint(frameList);
+        return new HandshakeFingerprint(frameList).intern();
     }
 
     public static HandshakeFingerprint copy(HandshakeFingerprint original) {
@@ -39,11 +43,11 @@ public class HandshakeFingerprint extends Fingerprint<HandshakeFingerprint> {
 
     @Deprecated
     public static HandshakeFingerprint deserializeHandshake(String serialized) {
-        return new HandshakeFingerprint().deserialize(serialized);
+        return new HandshakeFingerprint().deserialize(serialized).intern();
     }
 
     public static HandshakeFingerprint deserializeHandshake(List<String> signs) {
-        return new HandshakeFingerprint().deserialize(signs);
+        return new HandshakeFingerprint().deserialize(signs).intern();
     }
 
     /**
@@ -127,7 +131,7 @@ public class HandshakeFingerprint extends Fingerprint<HandshakeFingerprint> {
     }
 
     protected HandshakeFingerprint() {
-        super();
+        super(Signs);
     }
 
     protected HandshakeFingerprint(HandshakeFingerprint original) {
@@ -136,10 +140,12 @@ public class HandshakeFingerprint extends Fingerprint<HandshakeFingerprint> {
 
     @Deprecated
     private HandshakeFingerprint(String serialized) {
+        super(Signs);
         deserialize(serialized);
     }
 
     private HandshakeFingerprint(List<MessageContainer> frameList) {
+        super(Signs);
         // sign: message-types
 
         final List<MessageTypes> messageTypes = new LinkedList<>();
@@ -232,14 +238,6 @@ public class HandshakeFingerprint extends Fingerprint<HandshakeFingerprint> {
         addSign("ssl-fragment-layout", sslFragmentLayout);
     }
 
-    @Override
-    public List<String> serializationSigns() {
-        return Arrays.asList(
-                "message-types",
-                "session-ids-match",
-                "ssl-fragment-layout");
-    }
-
     @Override
     protected HandshakeFingerprint deserialize(final List<String> signs) {
         if(signs.size() < 1)
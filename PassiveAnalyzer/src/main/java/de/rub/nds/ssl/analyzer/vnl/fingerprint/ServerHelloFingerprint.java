@@ -14,21 +14,30 @@ import de.rub.nds.ssl.stack.protocols.handshake.extensions.SupportedPointFormats
 import de.rub.nds.ssl.stack.protocols.handshake.extensions.datatypes.EExtensionType;
 import org.apache.log4j.Logger;
 
-import java.util.Arrays;
 import java.util.List;
 
 public class ServerHelloFingerprint extends Fingerprint<ServerHelloFingerprint> {
     private static Logger logger = Logger.getLogger(ServerHelloFingerprint.class);
 
+    private static final Schema Signs = new Schema(
+            "version",
+            "message-version",
+            "cipher-suite",
+            "compression-method",
+            "session-id-empty",
+            "extensions-layout",
+            "supported-point-formats");
+
     protected ServerHelloFingerprint(ServerHelloFingerprint original) {
         super(original);
     }
 
     private ServerHelloFingerprint() {
-        super();
+        super(Signs);
     }
 
     private ServerHelloFingerprint(Connection connection) {
+        super(Signs);
         ServerHello serverHello = connection.getServerHello();
         if(serverHello == null)
             throw new NotMatchingException();
@@ -61,28 +70,15 @@ public class ServerHelloFingerprint extends Fingerprint<ServerHelloFingerprint>
 
     @Deprecated
     public static ServerHelloFingerprint deserializeFingerprint(String serialized) {
-        return new ServerHelloFingerprint().deserialize(serialized);
+        return new ServerHelloFingerprint().deserialize(serialized).intern();
     }
 
     public static ServerHelloFingerprint deserializeFingerprint(List<String> signs) {
-        return new ServerHelloFingerprint().deserialize(signs);
+        return new ServerHelloFingerprint().deserialize(signs).intern();
     }
 
     public static ServerHelloFingerprint create(Connection connection) {
-        return new ServerHelloFingerprint(connection);
-    }
-
-    @Override
-    public List<String> serializationSigns() {
-        return Arrays.asList(
-                "version",
-                "message-version",
-                "cipher-suite",
-                "compression-method",
-                "session-id-empty",
-                "extensions-layout",
-                "supported-point-formats"
-        );
+        return new ServerHelloFingerprint(connection).intern();
     }
 
     @Override
@@ -43,11 +43,9 @@ public class TLSFingerprint {
                    T.Signature serverMtuSignature) {
         this.handshakeSignature = handshakeSignature;
         this.serverHelloSignature = serverHelloSignature;
-        this.serverTcpSignature = serverTcpSignature;
-        this.serverMtuSignature = serverMtuSignature;
-
-        if(serverTcpSignature != null) serverTcpSignature.setFuzzy(true);
-        if(serverMtuSignature != null) serverMtuSignature.setFuzzy(true);
+        // signatures may be interned, so they are not set fuzzy themselves
+        if(serverTcpSignature != null) this.serverTcpSignature = serverTcpSignature.toFuzzy();
+        if(serverMtuSignature != null) this.serverMtuSignature = serverMtuSignature.toFuzzy();
     }
 
     /**
@@ -66,8 +64,9 @@ public class TLSFingerprint {
 
         serverTcpSignature = connection.getServerTcpSignature();
         serverMtuSignature = connection.getServerMtuSignature();
-        if(serverTcpSignature != null) serverTcpSignature.setFuzzy(true);
-        if(serverMtuSignature != null) serverMtuSignature.setFuzzy(true);
+        // signatures of connections are interned, so they are not set fuzzy themselves
+        if(serverTcpSignature != null) serverTcpSignature = serverTcpSignature.toFuzzy();
+        if(serverMtuSignature != null) serverMtuSignature = serverMtuSignature.toFuzzy();
     }
 
     public HandshakeFingerprint getHandshakeSignature() {
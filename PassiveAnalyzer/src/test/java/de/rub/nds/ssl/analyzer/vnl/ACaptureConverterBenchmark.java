@@ -0,0 +1,174 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import de.rub.nds.ssl.stack.protocols.ARecordFrame;
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.packet.header.application.TlsHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the bytes allocated per analysed handshake of the test captures (up to the
+ * ChangeCipherSpec messages, as {@link Connection} does), by slicing records
+ * out of copies as {@link ACaptureConverter} did up to now (one array of all record bytes, a
+ * copy per record, linear packet lookup) and by slicing read-only views.
+ * Framing is measured alone and together with decoding the records.
+ * <p>
+ * Run with {@code main}, optional argument is the number of rounds.
+ */
+public class ACaptureConverterBenchmark {
+    private static final String[] Captures = {"Fedora21_nginx1.6.3_FF37.pcap",
+            "Ubuntu1404_apache2.4.7_FF37.pcap", "Win7_apache2.4.12_FF37.pcap"};
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        List<Handshake> handshakes = new ArrayList<>();
+        for (String capture : Captures) {
+            handshakes.addAll(getHandshakes(new File(ACaptureConverterBenchmark.class.getResource(capture).getPath())));
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            long sum = 0;
+
+            long allocated = allocatedBytes();
+            for (Handshake handshake : handshakes) {
+                sum += frameCopies(handshake, false);
+            }
+            long copies = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            for (Handshake handshake : handshakes) {
+                sum += frameViews(handshake, false);
+            }
+            long views = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            for (Handshake handshake : handshakes) {
+                sum += frameCopies(handshake, true);
+            }
+            long decodedCopies = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            for (Handshake handshake : handshakes) {
+                sum += frameViews(handshake, true);
+            }
+            long decodedViews = allocatedBytes() - allocated;
+
+            System.out.printf("round %d, %d handshakes: framing copies %d, views %d bytes/handshake, "
+                            + "with decoding copies %d, views %d bytes/handshake (%d)%n",
+                    round, handshakes.size(), copies / handshakes.size(), views / handshakes.size(),
+                    decodedCopies / handshakes.size(), decodedViews / handshakes.size(), sum);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Unencrypted records of a handshake, up to the ChangeCipherSpec of each direction
+     */
+    private static class Handshake {
+        private final List<Header> records = new ArrayList<>();
+        private final List<PcapPacket> packets = new ArrayList<>();
+    }
+
+    /**
+     * @return handshakes of all connections in capture
+     */
+    private static List<Handshake> getHandshakes(File capture) {
+        ConnectionHandler handler = new ConnectionHandler.Quiet();
+        Pcap.openOffline(capture, Pcap.OfflineReader.Mapped).loop(handler);
+
+        List<Handshake> handshakes = new ArrayList<>();
+        for (PcapConnection connection : handler.getConnections()) {
+            Handshake handshake = new Handshake();
+            boolean[] completed = new boolean[Packet.Direction.values().length];
+
+            for (PcapPacket packet : connection.getTrace()) {
+                for (Header header : packet.getHeaders(Headers.Tls)) {
+                    if (!completed[packet.getDirection().ordinal()]) {
+                        handshake.records.add(header);
+                        handshake.packets.add(packet);
+                        completed[packet.getDirection().ordinal()] =
+                                ((TlsHeader) header).getContentType() == TlsHeader.ContentType.ChangeCipherSpec;
+                    }
+                }
+            }
+
+            if (!handshake.records.isEmpty()) {
+                handshakes.add(handshake);
+            }
+        }
+
+        return handshakes;
+    }
+
+    /**
+     * Framing as done by ACaptureConverter up to now, on the record bytes of handshake.
+     */
+    private static int frameCopies(Handshake handshake, boolean decode) {
+        List<byte[]> records = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+
+        int pointer = 0;
+        for (Header header : handshake.records) {
+            byte[] record = header.getHeaderAndPayload();
+            records.add(record);
+            pointer += record.length;
+            offsets.add(pointer);
+        }
+
+        byte[] traceBytes = new byte[pointer];
+        pointer = 0;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, traceBytes, pointer, record.length);
+            pointer += record.length;
+        }
+
+        int found = 0;
+        pointer = 0;
+        while (pointer < traceBytes.length) {
+            byte[] encodedRecord = ACaptureConverter.sliceOfNextRecord(traceBytes, pointer);
+            pointer += encodedRecord.length;
+
+            List<ARecordFrame> frames = decode ? ACaptureConverter.decodeRecordFrames(encodedRecord, null)
+                    : null;
+            for (int i = 0; i < offsets.size(); i++) {
+                if (!(pointer > offsets.get(i))) {
+                    found += decode ? frames.size() : handshake.packets.get(i).getLength();
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private static int frameViews(Handshake handshake, boolean decode) {
+        int found = 0;
+        for (int i = 0; i < handshake.records.size(); i++) {
+            ByteBuffer record = handshake.records.get(i).getHeaderAndPayloadView();
+            if (decode) {
+                found += ACaptureConverter.decodeRecordFrames(record, null).size();
+            } else {
+                found += record.remaining() > 0 ? handshake.packets.get(i).getLength() : 0;
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,249 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import de.rub.nds.ssl.analyzer.vnl.fingerprint.TLSFingerprint;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many threads reporting the fingerprints of the test captures for a few hundred endpoints
+ * to one {@link FingerprintListener}: the reports must be classified as a single thread
+ * classifies them.
+ */
+public class FingerprintListenerStressTest {
+    private static final String[] Captures = {"Fedora21_nginx1.6.3_FF37.pcap",
+            "Ubuntu1404_apache2.4.7_FF37.pcap", "Win7_apache2.4.12_FF37.pcap"};
+    private static final int Threads = 8;
+    private static final int Endpoints = 256;
+    private static final int Reports = 50000;
+    // distinct fingerprints reported per endpoint at most
+    private static final int Variants = 4;
+
+    private static final List<SessionIdentifier> endpoints = new ArrayList<>();
+    private static final List<TLSFingerprint> fingerprints = new ArrayList<>();
+
+    /**
+     * Counts the classifications and checks the previous fingerprints of every change
+     */
+    private static class Classifications extends FingerprintReporter.FingerprintReporterAdapter {
+        private final AtomicInteger newReports = new AtomicInteger();
+        private final AtomicInteger updates = new AtomicInteger();
+        private final AtomicInteger changes = new AtomicInteger();
+        private final Map<SessionIdentifier, Queue<Integer>> previousCounts = new ConcurrentHashMap<>();
+        private final AtomicReference<String> failure = new AtomicReference<>();
+
+        @Override
+        public void reportNew(SessionIdentifier sessionIdentifier, TLSFingerprint tlsFingerprint) {
+            newReports.incrementAndGet();
+        }
+
+        @Override
+        public void reportUpdate(SessionIdentifier sessionIdentifier, TLSFingerprint fingerprint) {
+            updates.incrementAndGet();
+        }
+
+        @Override
+        public void reportChange(SessionIdentifier sessionIdentifier, TLSFingerprint fingerprint,
+                                 Set<TLSFingerprint> previousFingerprints) {
+            changes.incrementAndGet();
+            if (previousFingerprints.isEmpty() || previousFingerprints.contains(fingerprint)) {
+                failure.set("change of " + sessionIdentifier + " to a known fingerprint");
+            }
+
+            Queue<Integer> counts = new ConcurrentLinkedQueue<>();
+            Queue<Integer> previous = previousCounts.putIfAbsent(sessionIdentifier, counts);
+            (previous != null ? previous : counts).add(previousFingerprints.size());
+        }
+    }
+
+    @BeforeClass
+    public static void collectFingerprints() {
+        final Set<TLSFingerprint> seen = Collections.newSetFromMap(new ConcurrentHashMap<TLSFingerprint, Boolean>());
+        final Set<SessionIdentifier> sessions = Collections.newSetFromMap(new ConcurrentHashMap<SessionIdentifier, Boolean>());
+
+        for (String capture : Captures) {
+            SslReportingConnectionHandler handler = new SslReportingConnectionHandler(false);
+            handler.setFingerprintReporting(false, null, null, null, false, false, false);
+            handler.getFingerprintListener().addFingerprintReporter(
+                    new FingerprintReporter.FingerprintReporterAdapter() {
+                        @Override
+                        public void reportNew(SessionIdentifier sessionIdentifier, TLSFingerprint tlsFingerprint) {
+                            sessions.add(sessionIdentifier);
+                            seen.add(tlsFingerprint);
+                        }
+
+                        @Override
+                        public void reportChange(SessionIdentifier sessionIdentifier, TLSFingerprint fingerprint,
+                                                 Set<TLSFingerprint> previousFingerprints) {
+                            seen.add(fingerprint);
+                        }
+                    });
+
+            File file = new File(FingerprintListenerStressTest.class.getResource(capture).getPath());
+            Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+            handler.setPcap(pcap);
+            assertEquals(Pcap.Status.Success, pcap.loop(handler));
+        }
+        fingerprints.addAll(seen);
+        assertTrue("too few fingerprints in the test captures", fingerprints.size() >= 2);
+
+        List<SessionIdentifier> real = new ArrayList<>(sessions);
+        for (int i = 0; i < Endpoints; i++) {
+            endpoints.add(new SessionIdentifier("host" + i + ".example",
+                    real.get(i % real.size()).getClientHelloSignature()));
+        }
+    }
+
+    /**
+     * @return endpoint and fingerprint index of every report
+     */
+    private static int[][] workload(long seed) {
+        Random random = new Random(seed);
+        int[][] reports = new int[Reports][];
+        for (int i = 0; i < Reports; i++) {
+            int endpoint = random.nextInt(Endpoints);
+            // few variants per endpoint, so most reports are updates
+            int fingerprint = (endpoint + random.nextInt(Variants)) % fingerprints.size();
+            reports[i] = new int[]{endpoint, fingerprint};
+        }
+
+        return reports;
+    }
+
+    private static void report(FingerprintListener listener, int[] report) {
+        listener.reportConnection(endpoints.get(report[0]), fingerprints.get(report[1]));
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentReports() throws InterruptedException {
+        final int[][] reports = workload(24);
+
+        FingerprintListener sequential = new FingerprintListener();
+        Classifications expected = new Classifications();
+        sequential.addFingerprintReporter(expected);
+        for (int[] report : reports) {
+            report(sequential, report);
+        }
+        assertNull(expected.failure.get());
+
+        final FingerprintListener concurrent = new FingerprintListener();
+        final Classifications actual = new Classifications();
+        concurrent.addFingerprintReporter(actual);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(Threads + 1);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        for (int t = 0; t < Threads; t++) {
+            final int thread = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = thread; i < reports.length; i += Threads) {
+                            report(concurrent, reports[i]);
+                        }
+                    } catch (Exception e) {
+                        failure.set(e.toString());
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // snapshots taken while reporting are consistent
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (done.getCount() > 1) {
+                        SetMultimap<SessionIdentifier, TLSFingerprint> snapshot = concurrent.getFingerprints();
+                        for (SessionIdentifier endpoint : snapshot.keySet()) {
+                            if (snapshot.get(endpoint).size() > Variants) {
+                                failure.set("inconsistent snapshot of " + endpoint);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.set(e.toString());
+                }
+                done.countDown();
+            }
+        }.start();
+
+        start.countDown();
+        done.await();
+        assertNull(failure.get());
+        assertNull(actual.failure.get());
+
+        assertEquals(expected.newReports.get(), actual.newReports.get());
+        assertEquals(expected.updates.get(), actual.updates.get());
+        assertEquals(expected.changes.get(), actual.changes.get());
+        assertEquals(Reports, actual.newReports.get() + actual.updates.get() + actual.changes.get());
+        assertEquals(ImmutableSetMultimap.copyOf(sequential.getFingerprints()),
+                ImmutableSetMultimap.copyOf(concurrent.getFingerprints()));
+
+        // every change of an endpoint added one fingerprint to the ones before
+        for (Map.Entry<SessionIdentifier, Queue<Integer>> e : actual.previousCounts.entrySet()) {
+            List<Integer> counts = new ArrayList<>(e.getValue());
+            Collections.sort(counts);
+            for (int i = 0; i < counts.size(); i++) {
+                assertEquals(e.getKey().toString(), i + 1, (int) counts.get(i));
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentInserts() throws InterruptedException {
+        final FingerprintListener listener = new FingerprintListener();
+        final AtomicInteger inserted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(Threads);
+
+        // every thread tries to insert the same fingerprints
+        for (int t = 0; t < Threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < Endpoints; i++) {
+                            for (int variant = 0; variant < Variants; variant++) {
+                                TLSFingerprint fingerprint = fingerprints.get((i + variant) % fingerprints.size());
+                                if (listener.insertFingerprint(endpoints.get(i), fingerprint)) {
+                                    inserted.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+        assertEquals(listener.getFingerprints().size(), inserted.get());
+    }
+}
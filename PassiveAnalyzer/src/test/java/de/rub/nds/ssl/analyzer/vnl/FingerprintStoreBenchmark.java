@@ -0,0 +1,107 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import com.google.common.collect.SetMultimap;
+import de.rub.nds.ssl.analyzer.vnl.fingerprint.TLSFingerprint;
+import de.rub.nds.ssl.analyzer.vnl.fingerprint.serialization.Serializer;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the heap retained per entry of a fingerprint store loaded from a save file, and
+ * the throughput of looking up the fingerprints of other sessions in it. The store holds
+ * the fingerprints of the test captures for many endpoints, as a long running capture does.
+ * <p>
+ * Run with {@code main}, optional argument is the number of endpoints.
+ */
+public class FingerprintStoreBenchmark {
+    private static final String[] Captures = {"Fedora21_nginx1.6.3_FF37.pcap",
+            "Ubuntu1404_apache2.4.7_FF37.pcap", "Win7_apache2.4.12_FF37.pcap",
+            "Win7_IIS_FF37.pcap"};
+    private static final int Rounds = 10;
+    private static final int Probes = 10000;
+
+    public static void main(String[] args) throws IOException {
+        int endpoints = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        final List<SessionIdentifier> sessions = new ArrayList<>();
+        final List<TLSFingerprint> fingerprints = new ArrayList<>();
+        for (String capture : Captures) {
+            SslReportingConnectionHandler handler = new SslReportingConnectionHandler(false);
+            handler.setFingerprintReporting(false, null, null, null, false, false, false);
+            handler.getFingerprintListener().addFingerprintReporter(
+                    new FingerprintReporter.FingerprintReporterAdapter() {
+                        @Override
+                        public void reportNew(SessionIdentifier sessionIdentifier, TLSFingerprint tlsFingerprint) {
+                            sessions.add(sessionIdentifier);
+                            fingerprints.add(tlsFingerprint);
+                        }
+                    });
+
+            File file = new File(FingerprintStoreBenchmark.class.getResource(capture).getPath());
+            Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+            handler.setPcap(pcap);
+            pcap.loop(handler);
+        }
+
+        String saveFile = saveFile(sessions, fingerprints, 0, endpoints);
+        // other sessions of endpoints in the store
+        String probeFile = saveFile(sessions, fingerprints, endpoints - Probes, endpoints);
+
+        long used = usedHeap();
+        SetMultimap<SessionIdentifier, TLSFingerprint> store = load(saveFile);
+        long storeSize = usedHeap() - used;
+        System.out.printf("%d endpoints of %d fingerprints: %d bytes/entry%n",
+                store.size(), fingerprints.size(), storeSize / store.size());
+
+        List<Map.Entry<SessionIdentifier, TLSFingerprint>> probes =
+                new ArrayList<>(load(probeFile).entries());
+        for (int round = 0; round < Rounds; round++) {
+            int found = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                for (Map.Entry<SessionIdentifier, TLSFingerprint> probe : probes) {
+                    found += store.containsEntry(probe.getKey(), probe.getValue()) ? 1 : 0;
+                }
+            }
+            long time = System.nanoTime() - start;
+
+            System.out.printf("round %d: %.0f lookups/ms (%d found)%n",
+                    round, found * 1e6 / time, found);
+        }
+    }
+
+    private static String saveFile(List<SessionIdentifier> sessions,
+                                   List<TLSFingerprint> fingerprints, int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            int fingerprint = i % fingerprints.size();
+            SessionIdentifier session = new SessionIdentifier("host" + i + ".example",
+                    sessions.get(fingerprint).getClientHelloSignature());
+            sb.append(Serializer.serialize(session, fingerprints.get(fingerprint))).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    private static SetMultimap<SessionIdentifier, TLSFingerprint> load(String saveFile)
+            throws IOException {
+        return Serializer.deserialize(new BufferedReader(new StringReader(saveFile)));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -78,6 +78,13 @@ public class FingerprintingTest {
         }
     }
 
+    /**
+     * @return dump opened with libpcap
+     */
+    protected Pcap open(String file) {
+        return Pcap.openOffline(new File(file));
+    }
+
     @Before
     public void setUp() {
         handler = new SslReportingConnectionHandler(false);
@@ -88,8 +95,7 @@ public class FingerprintingTest {
     @Test
     public void testSingleFedora() {
         reportCounter.resetCounters(2, 3, 0);
-        File f = new File(pcap_fedora_nginx);
-        pcap = Pcap.openOffline(f);
+        pcap = open(pcap_fedora_nginx);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
@@ -98,7 +104,7 @@ public class FingerprintingTest {
     @Test
     public void testSingleUbuntuApache() {
         reportCounter.resetCounters(2, 1, 0);
-        pcap = Pcap.openOffline(new File(pcap_ubuntu_apache));
+        pcap = open(pcap_ubuntu_apache);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
@@ -107,7 +113,7 @@ public class FingerprintingTest {
     @Test
     public void testSingleWinApache() {
         reportCounter.resetCounters(2, 4, 0);
-        pcap = Pcap.openOffline(new File(pcap_win_apache));
+        pcap = open(pcap_win_apache);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
@@ -116,7 +122,7 @@ public class FingerprintingTest {
     @Test
     public void testSingleWinIIS() {
         reportCounter.resetCounters(2, 3, 0);
-        pcap = Pcap.openOffline(new File(pcap_win_iis));
+        pcap = open(pcap_win_iis);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
@@ -129,28 +135,28 @@ public class FingerprintingTest {
     public void testChangedFingerprints() {
         // loop file fedora nginx
         reportCounter.resetCounters(2, 3, 0);
-        pcap = Pcap.openOffline(new File(pcap_fedora_nginx));
+        pcap = open(pcap_fedora_nginx);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
 
         // loop file ubuntu apache
         reportCounter.resetCounters(0, 2, 1);
-        pcap = Pcap.openOffline(new File(pcap_ubuntu_apache));
+        pcap = open(pcap_ubuntu_apache);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
 
         // loop file win apache
         reportCounter.resetCounters(0, 6, 0);
-        pcap = Pcap.openOffline(new File(pcap_win_apache));
+        pcap = open(pcap_win_apache);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
 
         // loop file win IIS
         reportCounter.resetCounters(1, 3, 1);
-        pcap = Pcap.openOffline(new File(pcap_win_iis));
+        pcap = open(pcap_win_iis);
         handler.setPcap(pcap);
         assertEquals(Pcap.Status.Success, pcap.loop(handler));
         reportCounter.assertFinished();
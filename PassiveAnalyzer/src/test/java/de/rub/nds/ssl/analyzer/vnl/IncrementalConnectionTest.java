@@ -0,0 +1,146 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.connection.pcap.ReassembledPacket;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link Connection} updated after every packet has to decode the same handshake as one
+ * decoding the whole trace at once, also if records are split across tcp segments.
+ * The tls segments of the test dumps are cut into {@link #SegmentLength} bytes, so
+ * records and even record headers span several updates.
+ */
+public class IncrementalConnectionTest {
+    private static final int SegmentLength = 17;
+    private static final String[] Dumps = {
+            "Fedora21_nginx1.6.3_FF37.pcap",
+            "Ubuntu1404_apache2.4.7_FF37.pcap",
+            "Win7_apache2.4.12_FF37.pcap",
+            "Win7_IIS_FF37.pcap"
+    };
+
+    /**
+     * Updates the connection attached to every tls connection and compares it with
+     * a fresh decoder, once the handshake is completed.
+     */
+    private static class Handler extends ConnectionHandler {
+        private int completed;
+        private int splitRecords;
+        private int updates;
+
+        void feed(PcapPacket packet) {
+            newPacket(packet);
+        }
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+            if (event == Event.Expired || !connection.isSubscribed()
+                    || connection.getSession().getDestinationPort() != 443) {
+                return;
+            }
+
+            Connection incremental = (Connection) connection.attachment();
+            if (incremental == null) {
+                incremental = new Connection(connection);
+                connection.attach(incremental);
+            } else {
+                incremental.update();
+                updates++;
+            }
+
+            if (incremental.isCompleted()) {
+                assertSameHandshake(new Connection(connection), incremental);
+                completed++;
+
+                connection.unsubscribe();
+                connection.attach(null);
+            }
+        }
+
+        private void assertSameHandshake(Connection expected, Connection actual) {
+            assertTrue(expected.isCompleted());
+            assertEquals(expected.getSessionIdentifier(), actual.getSessionIdentifier());
+
+            List<MessageContainer> expectedFrames = expected.getFrameList();
+            List<MessageContainer> actualFrames = actual.getFrameList();
+            assertEquals(expectedFrames.size(), actualFrames.size());
+            for (int i = 0; i < expectedFrames.size(); i++) {
+                MessageContainer expectedFrame = expectedFrames.get(i);
+                MessageContainer actualFrame = actualFrames.get(i);
+
+                assertSame(expectedFrame.getPcapPacket(), actualFrame.getPcapPacket());
+                assertEquals(expectedFrame.getCurrentRecord().getClass(), actualFrame.getCurrentRecord().getClass());
+                assertArrayEquals(expectedFrame.getCurrentRecordBytes(), actualFrame.getCurrentRecordBytes());
+                assertEquals(expectedFrame.getFragmentSourceRecords(), actualFrame.getFragmentSourceRecords());
+
+                if (actualFrame.getPcapPacket() instanceof ReassembledPacket) {
+                    splitRecords++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cuts ip4 tls segments into segments of at most {@link #SegmentLength} bytes.
+     */
+    private static class Splitter extends PacketHandler {
+        private final Handler handler;
+
+        Splitter(Handler handler) {
+            super(true);
+            this.handler = handler;
+        }
+
+        @Override
+        protected void newPacket(PcapPacket packet) {
+            Header ip4Header = packet.getHeader(Ip4Header.Id);
+            TcpHeader tcpHeader = packet.getHeader(TcpHeader.Id);
+            if (ip4Header == null || tcpHeader == null || tcpHeader.getPayloadLength() <= SegmentLength) {
+                handler.feed(packet);
+                return;
+            }
+
+            int headerLength = tcpHeader.getPayloadOffset();
+            for (int from = 0; from < tcpHeader.getPayloadLength(); from += SegmentLength) {
+                int length = Math.min(SegmentLength, tcpHeader.getPayloadLength() - from);
+
+                ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+                frame.put(packet.getContent(0, headerLength)).put(packet.getContent(headerLength + from, length));
+                frame.putShort(ip4Header.getOffset() + 2, (short) (headerLength - ip4Header.getOffset() + length));
+                frame.putInt(tcpHeader.getOffset() + 4, (int) (tcpHeader.getSequenceNumber() + from));
+                frame.flip();
+
+                handler.feed(new PcapPacket(frame, packet.getTimeStamp(),
+                        PacketHandler.getPacketHeaders(frame, frame.limit(), dataLinkType)));
+            }
+        }
+    }
+
+    @Test
+    public void splitHandshakes() {
+        Handler handler = new Handler();
+
+        for (String dump : Dumps) {
+            Pcap pcap = Pcap.openOffline(new File(getClass().getResource(dump).getPath()), Pcap.OfflineReader.Mapped);
+            assertEquals(Pcap.Status.Success, pcap.loop(new Splitter(handler)));
+        }
+
+        // every dump holds at least one handshake
+        assertTrue(handler.completed >= Dumps.length);
+        assertTrue(handler.splitRecords > 0);
+        assertTrue(handler.updates > handler.completed);
+    }
+}
@@ -0,0 +1,16 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+
+import java.io.File;
+
+/**
+ * {@link FingerprintingTest} with the dumps read by the pure Java reader instead of libpcap.
+ */
+public class MappedFingerprintingTest extends FingerprintingTest {
+
+    @Override
+    protected Pcap open(String file) {
+        return Pcap.openOffline(new File(file), Pcap.OfflineReader.Mapped);
+    }
+}
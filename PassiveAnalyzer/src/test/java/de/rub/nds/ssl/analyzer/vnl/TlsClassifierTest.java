@@ -0,0 +1,138 @@
+package de.rub.nds.ssl.analyzer.vnl;
+
+import de.rub.nds.ssl.analyzer.vnl.TlsClassifier.Verdict;
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TlsClassifierTest {
+    private static final byte[] ClientHello = bytes(22, 3, 1, 2, 0, 1, 0, 1, 252, 3, 3);
+
+    private static class Handler extends ConnectionHandler {
+        private int timeStamp = 0;
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+        }
+
+        /**
+         * Feeds a segment from 10.0.0.1:40000 to 10.0.0.2:443.
+         */
+        void feed(long sequenceNumber, byte[] payload) {
+            ByteBuffer frame = ByteBuffer.allocate(54 + payload.length);
+            frame.put(new byte[12]).putShort((short) 0x0800);
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) (40 + payload.length)).putInt(0)
+                    .put((byte) 64).put((byte) 6).putShort((short) 0)
+                    .put(new byte[]{10, 0, 0, 1}).put(new byte[]{10, 0, 0, 2});
+            frame.putShort((short) 40000).putShort((short) 443).putInt((int) sequenceNumber).putInt(0)
+                    .put((byte) 0x50).put((byte) 0x18).putShort((short) 8192).putInt(0);
+            frame.put(payload);
+            frame.flip();
+
+            newPacket(new PcapPacket(frame, timeStamp++,
+                    PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet)));
+        }
+
+        /**
+         * Feeds payload[from, to) as the segment at stream offset from.
+         */
+        void feed(byte[] payload, int from, int to) {
+            byte[] segment = new byte[to - from];
+            System.arraycopy(payload, from, segment, 0, segment.length);
+            feed(0xfffffffeL + from, segment);
+        }
+
+        Verdict update(TlsClassifier classifier) {
+            return classifier.update(getConnections().get(0));
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+
+        return bytes;
+    }
+
+    @Test
+    public void clientHello() {
+        // handshake record, TLS 1.0, length 512: ClientHello, length 508, client_version TLS 1.2
+        assertEquals(Verdict.Tls, TlsClassifier.classify(bytes(22, 3, 1, 2, 0, 1, 0, 1, 252, 3, 3)));
+        // client_version not yet captured
+        assertEquals(Verdict.Tls, TlsClassifier.classify(bytes(22, 3, 1, 2, 0, 1, 0)));
+        assertEquals(Verdict.NotTls, TlsClassifier.classify(bytes(22, 3, 1, 2, 0, 1, 0, 1, 252, 4, 3)));
+    }
+
+    @Test
+    public void otherRecords() {
+        // ServerHello, application data, record header only
+        assertEquals(Verdict.Undecided, TlsClassifier.classify(bytes(22, 3, 3, 0, 80, 2, 0, 0, 76, 3, 3)));
+        assertEquals(Verdict.Undecided, TlsClassifier.classify(bytes(23, 3, 3, 64, 0)));
+        assertEquals(Verdict.Undecided, TlsClassifier.classify(bytes(22, 3, 3, 0, 80)));
+        assertEquals(Verdict.Undecided, TlsClassifier.classify(bytes(22, 3, 3)));
+    }
+
+    @Test
+    public void notTls() {
+        assertEquals(Verdict.NotTls, TlsClassifier.classify("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(Verdict.NotTls, TlsClassifier.classify("220 mail ESMTP\r\n".getBytes(StandardCharsets.US_ASCII)));
+        // SSLv2 compatible ClientHello, empty and oversized records
+        assertEquals(Verdict.NotTls, TlsClassifier.classify(bytes(0x80, 46, 1, 3, 1, 0, 21)));
+        assertEquals(Verdict.NotTls, TlsClassifier.classify(bytes(22, 3, 1, 0, 0, 1)));
+        assertEquals(Verdict.NotTls, TlsClassifier.classify(bytes(23, 3, 3, 0x48, 1)));
+    }
+
+    @Test
+    public void splitPrefix() {
+        assertEquals(Verdict.Undecided, TlsClassifier.classify(ClientHello, 2));
+        assertEquals(Verdict.Undecided, TlsClassifier.classify(ClientHello, 5));
+        assertEquals(Verdict.Tls, TlsClassifier.classify(ClientHello, 6));
+    }
+
+    @Test
+    public void splitRecordHeader() {
+        for (int split = 1; split < ClientHello.length; split++) {
+            Handler handler = new Handler();
+            TlsClassifier classifier = new TlsClassifier();
+
+            handler.feed(ClientHello, 0, split);
+            assertEquals(split < 6 ? Verdict.Undecided : Verdict.Tls, handler.update(classifier));
+            handler.feed(ClientHello, split, ClientHello.length);
+            assertEquals("split at " + split, Verdict.Tls, handler.update(classifier));
+        }
+    }
+
+    @Test
+    public void splitRetransmitted() {
+        Handler handler = new Handler();
+        TlsClassifier classifier = new TlsClassifier();
+
+        handler.feed(ClientHello, 0, 2);
+        handler.feed(ClientHello, 0, 4);
+        assertEquals(Verdict.Undecided, handler.update(classifier));
+        handler.feed(ClientHello, 2, ClientHello.length);
+        assertEquals(Verdict.Tls, handler.update(classifier));
+    }
+
+    @Test
+    public void splitNotTls() {
+        byte[] request = "GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII);
+        Handler handler = new Handler();
+        TlsClassifier classifier = new TlsClassifier();
+
+        handler.feed(request, 0, 2);
+        assertEquals(Verdict.Undecided, handler.update(classifier));
+        handler.feed(request, 2, request.length);
+        assertEquals(Verdict.NotTls, handler.update(classifier));
+    }
+}
@@ -0,0 +1,54 @@
+package de.rub.nds.ssl.analyzer.vnl.fingerprint;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FingerprintTest {
+    private static final String ch_TLS1_complete =
+            "0301:0301:00:" +
+            "c02b,c02f,009e,c00a,c009,c013,c014,c007,c011,0033,0032,0039,009c,002f,0035,000a,0005,0004:" +
+            "0000,ff01,000a,000b,0023,3374,0010,7550,0005,0012,000d:" +
+            "00:0017,0018,0019";
+    private static final String ch_ssl3 =
+            "0300:0300:00:00ff,009e,0033,0032,0039,009c,002f,0035,000a,0005,0004:::";
+
+    private static List<String> signs(String serialized) {
+        return Arrays.asList(serialized.split(Fingerprint.SERIALIZATION_DELIMITER, -1));
+    }
+
+    @Test
+    public void interned() {
+        ClientHelloFingerprint chf = ClientHelloFingerprint.deserializeFingerprint(signs(ch_TLS1_complete));
+
+        assertSame(chf, ClientHelloFingerprint.deserializeFingerprint(signs(ch_TLS1_complete)));
+        assertNotSame(chf, ClientHelloFingerprint.deserializeFingerprint(signs(ch_ssl3)));
+        assertNotEquals(chf, ClientHelloFingerprint.deserializeFingerprint(signs(ch_ssl3)));
+    }
+
+    @Test
+    public void copy() {
+        ClientHelloFingerprint chf = ClientHelloFingerprint.deserializeFingerprint(signs(ch_TLS1_complete));
+        ClientHelloFingerprint copy = ClientHelloFingerprint.copy(chf);
+
+        assertNotSame(chf, copy);
+        assertEquals(chf, copy);
+        assertEquals(chf.hashCode(), copy.hashCode());
+        assertEquals(chf.longHashCode(), copy.longHashCode());
+        assertSame(chf, copy.intern());
+    }
+
+    @Test
+    public void signs() {
+        ClientHelloFingerprint chf = ClientHelloFingerprint.deserializeFingerprint(signs(ch_ssl3));
+
+        // absent signs are left out, in serialization order
+        assertEquals(chf.serializationSigns().subList(0, 4), new ArrayList<>(chf.getSigns().keySet()));
+        assertNull(chf.getSign("supported-curves"));
+        assertNull(chf.getSign("no-sign"));
+    }
+}
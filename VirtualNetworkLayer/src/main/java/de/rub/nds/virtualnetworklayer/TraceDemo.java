@@ -44,10 +44,8 @@ public class TraceDemo {
             connection.write(request.getBytes());
 
             //wait until http response reassembly is complete
-            synchronized (connection) {
-                while (connection.available() < 8 || connection.getTrace().hasIncompleteSequences()) {
-                    connection.wait();
-                }
+            while (connection.available() < 8 || connection.getTrace().hasIncompleteSequences()) {
+                connection.awaitTrace(connection.getTrace().size() + 1, PcapConnection.DefaultTimeout);
             }
 
             //default iterator uses reassembled sequence order, use connection.getTrace().getArrivalOrder() elsewise
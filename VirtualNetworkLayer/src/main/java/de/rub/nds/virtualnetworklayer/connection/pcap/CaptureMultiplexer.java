@@ -0,0 +1,254 @@
+package de.rub.nds.virtualnetworklayer.connection.pcap;
+
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.pcap.Device;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Shares one live {@link Pcap} handle per device among all active connections.
+ * <p>
+ * The handle captures with a BPF filter, which is the disjunction of one clause per remote endpoint
+ * (host and tcp port) of the registered connections. The filter is only recompiled, if the first
+ * connection to an endpoint is registered or the last one is unregistered. Captured packets are
+ * demultiplexed by 5-tuple to the registered connections by a single {@link ConnectionHandler}.
+ * <p>
+ * The handle is opened by the first {@link #register(SocketSession)} and closed by the last
+ * {@link #unregister(PcapConnection)}, nothing is left to garbage collection. Connections expired by the
+ * handler are unregistered by the next call of a user thread, the capture thread must not close
+ * the handle it is dispatching from.
+ *
+ * @see PcapConnection#create(String, int)
+ */
+public class CaptureMultiplexer {
+    private static final Logger logger = Logger.getLogger(CaptureMultiplexer.class);
+
+    /**
+     * multiplexers by device name, guarded by itself
+     */
+    private static final Map<String, CaptureMultiplexer> multiplexers = new HashMap<>();
+
+    private final Device device;
+    final ConnectionHandler handler = new ConnectionHandler.Quiet() {
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+            if (event == Event.Expired && connection.multiplexer == CaptureMultiplexer.this) {
+                expired.add(connection);
+            }
+        }
+    };
+    /**
+     * registered connections expired by the capture thread
+     */
+    private final Queue<PcapConnection> expired = new ConcurrentLinkedQueue<>();
+    /**
+     * filter clause by endpoint, with the number of registered connections
+     */
+    private final Map<String, Integer> clauses = new LinkedHashMap<>();
+    private final Map<PcapConnection, String> connections = new IdentityHashMap<>();
+
+    private Pcap pcap;
+    private String filter = "";
+    private long compilations;
+
+    CaptureMultiplexer(Device device) {
+        this.device = device;
+    }
+
+    /**
+     * @return multiplexer of device, created on first use
+     */
+    public static CaptureMultiplexer getInstance(Device device) {
+        synchronized (multiplexers) {
+            CaptureMultiplexer multiplexer = multiplexers.get(device.getName());
+            if (multiplexer == null) {
+                multiplexer = new CaptureMultiplexer(device);
+                multiplexers.put(device.getName(), multiplexer);
+            }
+
+            return multiplexer;
+        }
+    }
+
+    /**
+     * Registers the connection of session and extends the filter by its remote endpoint,
+     * so it is captured before the first packet is sent.
+     *
+     * @param session local address and port as source, remote ones as destination
+     * @return connection of session
+     * @throws IllegalArgumentException if the live handle could not be opened
+     */
+    public synchronized PcapConnection register(SocketSession session) {
+        unregisterExpired();
+
+        PcapConnection connection = handler.getConnection(session);
+        if (connections.containsKey(connection)) {
+            return connection;
+        }
+
+        String clause = getClause(session);
+        connections.put(connection, clause);
+        connection.multiplexer = this;
+
+        Integer count = clauses.get(clause);
+        clauses.put(clause, count == null ? 1 : count + 1);
+        if (count == null) {
+            try {
+                update();
+            } catch (RuntimeException e) {
+                connection.multiplexer = null;
+                connections.remove(connection);
+                clauses.remove(clause);
+                handler.remove(connection);
+                throw e;
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Unregisters connection, the handle is closed with the last connection.
+     */
+    public synchronized void unregister(PcapConnection connection) {
+        unregisterExpired();
+        remove(connection);
+    }
+
+    private void unregisterExpired() {
+        PcapConnection connection;
+        while ((connection = expired.poll()) != null) {
+            remove(connection);
+        }
+    }
+
+    private void remove(PcapConnection connection) {
+        String clause = connections.remove(connection);
+        if (clause == null) {
+            return;
+        }
+
+        handler.remove(connection);
+
+        int count = clauses.get(clause);
+        if (count > 1) {
+            clauses.put(clause, count - 1);
+        } else {
+            clauses.remove(clause);
+            update();
+        }
+    }
+
+    private static String getClause(SocketSession session) {
+        return "(tcp and host " + IpFormatter.toString(session.getDestinationAddress())
+                + " and port " + session.getDestinationPort() + ")";
+    }
+
+    /**
+     * Compiles the filter of all endpoints, opens or closes the handle if needed.
+     */
+    private void update() {
+        if (clauses.isEmpty()) {
+            close();
+            filter = "";
+
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (String clause : clauses.keySet()) {
+            if (builder.length() > 0) {
+                builder.append(" or ");
+            }
+            builder.append(clause);
+        }
+
+        if (filter.isEmpty()) {
+            open(builder.toString());
+        } else {
+            compile(builder.toString());
+        }
+        filter = builder.toString();
+
+        compilations++;
+        logger.debug(device.getName() + ": " + clauses.size() + " endpoints, " + connections.size() + " connections");
+    }
+
+    /**
+     * Opens the live handle capturing with filter and starts dispatching to the handler.
+     */
+    void open(String filter) {
+        pcap = openLive();
+
+        try {
+            pcap.filter(filter);
+            pcap.loopAsynchronous(handler);
+        } catch (RuntimeException e) {
+            // otherwise the next registration opens a second handle
+            close();
+            throw e;
+        }
+    }
+
+    Pcap openLive() {
+        return Pcap.openLive(device);
+    }
+
+    /**
+     * Replaces the filter of the open handle.
+     */
+    void compile(String filter) {
+        pcap.filter(filter);
+    }
+
+    void close() {
+        pcap.close();
+        pcap = null;
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    /**
+     * @return current BPF filter, empty if no connection is registered
+     */
+    public synchronized String getFilter() {
+        unregisterExpired();
+
+        return filter;
+    }
+
+    /**
+     * @return number of registered connections
+     */
+    public synchronized int getConnectionCount() {
+        unregisterExpired();
+
+        return connections.size();
+    }
+
+    /**
+     * @return number of filter compilations so far
+     */
+    public synchronized long getCompilations() {
+        return compilations;
+    }
+
+    /**
+     * @return whether the live handle is open
+     */
+    public synchronized boolean isOpen() {
+        unregisterExpired();
+
+        return !filter.isEmpty();
+    }
+}
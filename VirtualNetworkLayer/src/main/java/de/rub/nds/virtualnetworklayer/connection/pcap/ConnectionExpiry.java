@@ -0,0 +1,81 @@
+package de.rub.nds.virtualnetworklayer.connection.pcap;
+
+/**
+ * Idle expiry of the connections handled by one thread.
+ * <p>
+ * Connections are kept in one intrusive list per {@link PcapConnection.State}, ordered by their
+ * last packet. All connections of a list share the same timeout, so a list is ordered by deadline
+ * as well and only its head has to be checked. Touching a connection and expiring it are O(1).
+ *
+ * @see ConnectionHandler#setTimeout(PcapConnection.State, long)
+ */
+final class ConnectionExpiry {
+    private final PcapConnection[] heads = new PcapConnection[PcapConnection.State.values().length];
+    private final PcapConnection[] tails = new PcapConnection[PcapConnection.State.values().length];
+
+    /**
+     * Moves connection to the tail of the list of state.
+     *
+     * @param connection connection, which received a packet
+     * @param state      state after that packet
+     * @param timeStamp  time stamp of that packet in nanoseconds
+     */
+    synchronized void touch(PcapConnection connection, PcapConnection.State state, long timeStamp) {
+        if (connection.expiry == this) {
+            unlink(connection);
+        }
+
+        connection.expiry = this;
+        connection.state = state;
+        connection.lastSeen = timeStamp;
+
+        int index = state.ordinal();
+        connection.previous = tails[index];
+        if (tails[index] != null) {
+            tails[index].next = connection;
+        } else {
+            heads[index] = connection;
+        }
+        tails[index] = connection;
+    }
+
+    /**
+     * Removes the first connection, which timed out.
+     *
+     * @param timeStamp current time stamp in nanoseconds
+     * @param timeouts  idle timeouts in nanoseconds, indexed by state
+     * @return timed out connection or null if there is none
+     */
+    synchronized PcapConnection poll(long timeStamp, long[] timeouts) {
+        for (int i = 0; i < heads.length; i++) {
+            PcapConnection head = heads[i];
+
+            if (head != null && head.lastSeen + timeouts[i] <= timeStamp) {
+                unlink(head);
+                head.expiry = null;
+                return head;
+            }
+        }
+
+        return null;
+    }
+
+    private void unlink(PcapConnection connection) {
+        int index = connection.state.ordinal();
+
+        if (connection.previous != null) {
+            connection.previous.next = connection.next;
+        } else {
+            heads[index] = connection.next;
+        }
+
+        if (connection.next != null) {
+            connection.next.previous = connection.previous;
+        } else {
+            tails[index] = connection.previous;
+        }
+
+        connection.previous = null;
+        connection.next = null;
+    }
+}
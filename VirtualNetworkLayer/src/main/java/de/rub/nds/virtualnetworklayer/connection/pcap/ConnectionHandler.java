@@ -2,23 +2,32 @@ package de.rub.nds.virtualnetworklayer.connection.pcap;
 
 import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprint;
 import de.rub.nds.virtualnetworklayer.fingerprint.MtuFingerprint;
+import de.rub.nds.virtualnetworklayer.fingerprint.SignatureIndex;
 import de.rub.nds.virtualnetworklayer.fingerprint.TcpFingerprint;
 import de.rub.nds.virtualnetworklayer.p0f.Group;
 import de.rub.nds.virtualnetworklayer.p0f.Label;
 import de.rub.nds.virtualnetworklayer.p0f.P0fFile;
+import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
 import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.UdpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.RawPacketRing;
 import de.rub.nds.virtualnetworklayer.pcap.structs.pcap_pkthdr;
+import de.rub.nds.virtualnetworklayer.util.FlowTable;
 import org.apache.log4j.Logger;
 import org.bridj.Pointer;
 
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class extends {@link PacketHandler} with session and fingerprinting capabilities.
@@ -30,14 +39,22 @@ import java.util.Map.Entry;
 public abstract class ConnectionHandler extends PacketHandler {
 
     /**
-     * TIMEOUT after which a connection should be considered dead and <b>be removed</b>
-     * from the internal connection list (like TCP keepalive). In nanoseconds.
+     * Default idle timeouts in nanoseconds, after which a connection is considered dead and
+     * <b>removed</b> from the internal connection list (like TCP keepalive).
+     *
+     * @see #setTimeout(PcapConnection.State, long)
      */
-	private static final long TIMEOUT = 120 * 1000000000L; // 120 seconds
+    public static final long DefaultOpeningTimeout = 30 * 1000000000L;
+    public static final long DefaultEstablishedTimeout = 120 * 1000000000L;
+    public static final long DefaultClosingTimeout = 30 * 1000000000L;
+
     /**
-     * Interval how often TIMEOUT should be checked - number of packets to newPacket()
+     * Default limits of out-of-order bytes buffered for stream reassembly, per connection and in total.
+     *
+     * @see #setStreamBudget(long, long)
      */
-	private static final int TIMEOUT_INTERVAL = 5000; // Every 5000 Packets
+    public static final long DefaultConnectionStreamBudget = 1 << 20;
+    public static final long DefaultStreamBudget = 64 << 20;
 
     /**
      * A quiet connection handler discards all reporting.
@@ -57,26 +74,55 @@ public abstract class ConnectionHandler extends PacketHandler {
         /**
          * new packet was added to an existing connection
          */
-        Update
+        Update,
+        /**
+         * connection was idle longer than its timeout and is removed, its packets are
+         * released after the callback, unless it is owned by a socket
+         */
+        Expired
     }
 
     private static final Logger logger = Logger.getLogger(ConnectionHandler.class);
 
-    private static Map<Fingerprint.Signature, Label>[] signatures;
+    /**
+     * p0f signatures are bucketed by direction, ip version, options layout, window size and mtu
+     */
+    private static SignatureIndex signatures = new SignatureIndex("direction", "version", "optionsLayout",
+            "windowSize", "mtu");
     private static List<Fingerprint> prints = new LinkedList<>();
 
-    private Map<SocketSession, PcapConnection> connections = new HashMap<>();
     /**
-     * income packets since the last {@link #gc(long)}
+     * number of independently locked flow tables
      */
-    private int timeout_counter = 0;
+    private static final int Stripes = 16;
 
-    static {
-        signatures = (Map<Fingerprint.Signature, Label>[]) new HashMap<?, ?>[getHeaderCount()];
-        for (int i = 0; i < signatures.length; i++) {
-            signatures[i] = new HashMap<Fingerprint.Signature, Label>();
+    private static ThreadLocal<FlowKey> keys = new ThreadLocal<FlowKey>() {
+        @Override
+        protected FlowKey initialValue() {
+            return new FlowKey();
         }
+    };
+
+    private FlowTable<PcapConnection>[] connections = createStripes();
+    private long[] timeouts = {DefaultOpeningTimeout, DefaultEstablishedTimeout, DefaultClosingTimeout};
 
+    private TcpReassembler.Listener streamListener;
+    private TcpReassembler.Overlap overlap = TcpReassembler.Overlap.First;
+    private long connectionStreamBudget = DefaultConnectionStreamBudget;
+    private long streamBudget = DefaultStreamBudget;
+    private AtomicLong streamBytes = new AtomicLong();
+    private RawPacketRing rawPacketRing;
+    /**
+     * every thread only expires the connections it handles
+     */
+    private ThreadLocal<ConnectionExpiry> expiries = new ThreadLocal<ConnectionExpiry>() {
+        @Override
+        protected ConnectionExpiry initialValue() {
+            return new ConnectionExpiry();
+        }
+    };
+
+    static {
         registerFingerprint(new MtuFingerprint());
         registerFingerprint(new TcpFingerprint());
     }
@@ -87,13 +133,7 @@ public abstract class ConnectionHandler extends PacketHandler {
      * @throws IllegalArgumentException if signature with identical signs is already registered
      */
     public static void registerSignature(Fingerprint.Signature signature, Label label) {
-        Map<Fingerprint.Signature, Label> signatures = ConnectionHandler.signatures[label.getType().ordinal()];
-
-        if (!signatures.containsKey(signature)) {
-            signatures.put(signature, label);
-        } else {
-            throw new IllegalArgumentException("signature doubles " + signatures.get(signature));
-        }
+        signatures.register(signature, label);
     }
 
     /**
@@ -128,106 +168,361 @@ public abstract class ConnectionHandler extends PacketHandler {
 
     /**
      * Register single fingerprint.
+     *
+     * @throws IllegalArgumentException if id of fingerprint is not below 32
      */
     public static void registerFingerprint(Fingerprint fingerprint) {
+        if (fingerprint.getId() < 0 || fingerprint.getId() >= Integer.SIZE) {
+            throw new IllegalArgumentException("fingerprint id " + fingerprint.getId());
+        }
+
         prints.add(fingerprint);
     }
 
+    @SuppressWarnings("unchecked")
+    private static FlowTable<PcapConnection>[] createStripes() {
+        FlowTable<PcapConnection>[] stripes = (FlowTable<PcapConnection>[]) new FlowTable<?>[Stripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new FlowTable<>();
+        }
+
+        return stripes;
+    }
+
+    /**
+     * Flow tables index with the low bits of the hash, stripes use the high bits.
+     */
+    private FlowTable<PcapConnection> getStripe(FlowKey key) {
+        return connections[key.hashCode() >>> 28];
+    }
+
+    private PcapConnection lookup(FlowKey key) {
+        FlowTable<PcapConnection> stripe = getStripe(key);
+
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * @return tcp connection of session, created if not tracked yet
+     */
     PcapConnection getConnection(SocketSession session) {
-        if (!connections.containsKey(session)) {
-            connections.put(session, new PcapConnection(session));
-            PcapConnection connection = connections.get(session);
+        return getConnection(new FlowKey().set(session, Ip.Protocol.Tcp.getId()), session);
+    }
 
-            newConnection(Event.New, connection);
+    private PcapConnection getConnection(FlowKey key, SocketSession session) {
+        FlowTable<PcapConnection> stripe = getStripe(key);
+        PcapConnection connection;
 
-            return connection;
-        } else {
-            return connections.get(session);
+        synchronized (stripe) {
+            PcapConnection existing = stripe.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            connection = new PcapConnection(session);
+            connection.key = key.copy();
+            stripe.put(key, connection);
         }
+
+        newConnection(Event.New, connection);
+
+        return connection;
+    }
+
+    /**
+     * Removes connection from the connection list before it expires, e.g. when it is closed.
+     */
+    void remove(PcapConnection connection) {
+        FlowTable<PcapConnection> stripe = getStripe(connection.key);
+
+        synchronized (stripe) {
+            stripe.remove(connection.key, connection);
+        }
+    }
+
+    /**
+     * Removes all connections of the current thread, which were idle longer than their timeout.
+     */
+    private void expire(long timeStamp) {
+        ConnectionExpiry expiry = expiries.get();
+        PcapConnection connection;
+
+        while ((connection = expiry.poll(timeStamp, timeouts)) != null) {
+            FlowTable<PcapConnection> stripe = getStripe(connection.key);
+            synchronized (stripe) {
+                stripe.remove(connection.key, connection);
+            }
+
+            try {
+                newConnection(Event.Expired, connection);
+            } finally {
+                // a socket's connection is still read by its owner
+                if (!connection.isOwned()) {
+                    connection.release();
+                }
+            }
+        }
+    }
+
+    private static PcapConnection.State getState(PcapConnection.State state, PcapPacket packet) {
+        TcpHeader header = packet.getHeader(Headers.Tcp);
+
+        if (header == null) {
+            return PcapConnection.State.Established;
+        }
+
+        Set<TcpHeader.Flag> flags = header.getFlags();
+        if (state == PcapConnection.State.Closing
+                || flags.contains(TcpHeader.Flag.FIN) || flags.contains(TcpHeader.Flag.RST)) {
+            return PcapConnection.State.Closing;
+        }
+
+        if (flags.contains(TcpHeader.Flag.SYN) && (state == null || state == PcapConnection.State.Opening)) {
+            return PcapConnection.State.Opening;
+        }
+
+        return PcapConnection.State.Established;
+    }
+
+    /**
+     * Sets the idle timeout of connections in state.
+     *
+     * @param state       connection state
+     * @param nanoseconds idle time after which a connection is removed
+     */
+    public void setTimeout(PcapConnection.State state, long nanoseconds) {
+        timeouts[state.ordinal()] = nanoseconds;
+    }
+
+    public long getTimeout(PcapConnection.State state) {
+        return timeouts[state.ordinal()];
+    }
+
+    /**
+     * Enables tcp stream reassembly, each direction of a tcp connection is delivered to listener
+     * as in-order byte stream. Has to be set before looping.
+     *
+     * @param listener stream listener, null disables reassembly (default)
+     * @see TcpReassembler
+     */
+    public void setStreamListener(TcpReassembler.Listener listener) {
+        this.streamListener = listener;
     }
-    
-    private void gc(long timestamp) {
-    	HashMap<SocketSession, PcapConnection> tmp = new HashMap<SocketSession, PcapConnection>();
-    	for (Entry<SocketSession, PcapConnection> e : this.connections.entrySet()) {
-			if (e.getValue().getTrace().getLastTimeStamp() + TIMEOUT > timestamp) {
-				tmp.put(e.getKey(), e.getValue());
-			}
-		}
-    	int cleared = this.connections.size() - tmp.size();
-    	if (cleared > 0) {
-    		logger.debug("cleared " + cleared + " connections");
-    	}
-    	this.connections = tmp;
-    	
+
+    /**
+     * @param overlap which bytes are kept for overlapping segments, default is {@link TcpReassembler.Overlap#First}
+     */
+    public void setOverlap(TcpReassembler.Overlap overlap) {
+        this.overlap = overlap;
     }
 
+    /**
+     * Limits the out-of-order bytes buffered for stream reassembly.
+     * Applies to connections created afterwards.
+     *
+     * @param connection bytes per connection (both directions)
+     * @param total      bytes of all connections
+     */
+    public void setStreamBudget(long connection, long total) {
+        this.connectionStreamBudget = connection;
+        this.streamBudget = total;
+    }
+
+    /**
+     * @return out-of-order bytes currently buffered by all connections
+     */
+    public long getBufferedStreamBytes() {
+        return streamBytes.get();
+    }
+
+    /**
+     * Sets the ring, which raw packets of connections {@link PcapConnection#keepRawPackets() keeping them}
+     * are retained in. Has to be set before looping.
+     *
+     * @param ring ring, null for the {@link RawPacketRing#getShared() shared} one (default)
+     */
+    public void setRawPacketRing(RawPacketRing ring) {
+        this.rawPacketRing = ring;
+    }
+
+    public RawPacketRing getRawPacketRing() {
+        return rawPacketRing != null ? rawPacketRing : RawPacketRing.getShared();
+    }
+
+    private TcpReassembler getReassembler(PcapConnection connection, Packet.Direction direction) {
+        if (connection.reassemblers == null) {
+            TcpReassembler.Budget budget = new TcpReassembler.Budget(connectionStreamBudget, streamBytes, streamBudget);
+
+            connection.reassemblers = new TcpReassembler[Packet.Direction.values().length];
+            for (Packet.Direction value : Packet.Direction.values()) {
+                connection.reassemblers[value.ordinal()] = new TcpReassembler(connection, value, streamListener, overlap, budget);
+            }
+        }
+
+        return connection.reassemblers[direction.ordinal()];
+    }
+
+    /**
+     * When looping with a {@link de.rub.nds.virtualnetworklayer.pcap.Pipeline}, this method is
+     * called concurrently by all workers, but packets of one connection always by the same worker.
+     * Idle connections are expired by the thread, which handled their last packet.
+     */
     @Override
     protected final void newPacket(PcapPacket packet) {
-    	timeout_counter++;
-    	if (timeout_counter > TIMEOUT_INTERVAL) {
-    		this.gc(packet.getTimeStamp());
-    		timeout_counter = 0;
-    	}
-        SocketSession session = packet.getSession();
+        expire(packet.getTimeStamp());
 
-        if (session != null) {
-            PcapConnection connection = getConnection(session);
-
-            if(connection.keepRawPackets())
-                saveRawPacket(connection);
+        FlowKey key = keys.get();
 
-            packet.setDirection(connection.getSession().getDirection(packet));
-            connection.getTrace().add(packet);
+        if (packet.toFlowKey(key)) {
+            PcapConnection connection = lookup(key);
+            if (connection == null) {
+                connection = getConnection(key, packet.getSession());
+            }
 
-            for (Fingerprint print : prints) {
-                if (print.isBound(packet)) {
-                    Fingerprint.Signature signature = print.peer(packet, connection);
-                    Label label = lookupSignature(signature);
+            boolean subscribed = connection.isSubscribed();
+            if(subscribed && connection.keepRawPackets())
+                saveRawPacket(connection);
 
-                    connection.updateFingerprint(packet.getDirection(), print, signature, label);
+            // same as SocketSession.getDirection(packet), without copying addresses
+            boolean request = key.isReversed() == connection.key.isReversed() && packet.hasHeader(TcpHeader.Id);
+            packet.setDirection(request ? Packet.Direction.Request : Packet.Direction.Response);
+            if (subscribed) {
+                connection.getTrace().add(packet.retain());
 
-                    if (label == null) {
-                        logger.info(connection +
-                                "\nunknown " + print.toString() +
-                                ":\n" + signature.toString());
-                    }
+                if (streamListener != null && packet.hasHeader(TcpHeader.Id)) {
+                    getReassembler(connection, packet.getDirection()).add(packet);
                 }
             }
 
-            synchronized (connection) {
-                connection.notify();
+            ConnectionExpiry expiry = connection.expiry != null ? connection.expiry : expiries.get();
+            expiry.touch(connection, getState(connection.state, packet), packet.getTimeStamp());
+
+            fingerprint(packet, connection);
+
+            if (subscribed) {
+                connection.signal.signal(packet.getDirection());
                 newConnection(Event.Update, connection);
             }
         }
     }
 
-    protected void saveRawPacket(PcapConnection connection) {
-        connection.getRawPackets().add(getCurrentRawPacket());
+    /**
+     * Evaluates the fingerprints triggered by packet, each one only once per direction
+     * unless it is continuous. {@link Fingerprint.Trigger#FirstPayload} is consumed per fingerprint,
+     * when the fingerprint is taken, so a later payload packet may still be bound.
+     *
+     * @see Fingerprint#getTriggers()
+     */
+    private void fingerprint(PcapPacket packet, PcapConnection connection) {
+        int direction = packet.getDirection().ordinal();
+        Set<Fingerprint.Trigger> triggers = null;
+
+        for (Fingerprint print : prints) {
+            int mask = 1 << print.getId();
+            if ((connection.fingerprinted[direction] & mask) != 0) {
+                continue;
+            }
+
+            if (triggers == null) {
+                triggers = getTriggers(packet);
+            }
+
+            boolean firstPayload = print.getTriggers().contains(Fingerprint.Trigger.FirstPayload);
+            if (firstPayload && (connection.payloadFingerprinted[direction] & mask) != 0) {
+                continue;
+            }
+
+            if (!triggers.containsAll(print.getTriggers()) || !print.isBound(packet)) {
+                continue;
+            }
+
+            Fingerprint.Signature signature = print.peer(packet, connection);
+            SignatureIndex.Match match = signatures.lookup(signature);
+            Label label = match.getLabel();
+            if (match.isFuzzy()) {
+                // the interned signature is shared, the connection keeps a fuzzy copy
+                signature = signature.toFuzzy();
+            }
+
+            connection.updateFingerprint(packet.getDirection(), print, signature, label);
+            if (!print.isContinuous()) {
+                connection.fingerprinted[direction] |= mask;
+            }
+            if (firstPayload) {
+                connection.payloadFingerprinted[direction] |= mask;
+            }
+
+            if (label == null) {
+                logger.info(connection +
+                        "\nunknown " + print.toString() +
+                        ":\n" + signature.toString());
+            }
+        }
     }
 
-    private Label lookupSignature(Fingerprint.Signature signature) {
-        for (int i = 0; i < signatures.length; i++) {
-            if (signatures[i].containsKey(signature)) {
-                return signatures[i].get(signature);
+    /**
+     * @return triggers met by packet, {@link Fingerprint.Trigger#FirstPayload} for any payload
+     */
+    private static Set<Fingerprint.Trigger> getTriggers(PcapPacket packet) {
+        Set<Fingerprint.Trigger> triggers = EnumSet.noneOf(Fingerprint.Trigger.class);
+        int payloadLength = 0;
+
+        TcpHeader tcpHeader = packet.getHeader(TcpHeader.Id);
+        if (tcpHeader != null) {
+            if (tcpHeader.getFlags().contains(TcpHeader.Flag.SYN)) {
+                triggers.add(Fingerprint.Trigger.Syn);
             }
 
-            signature.setFuzzy(true);
-            if (signatures[i].containsKey(signature)) {
-                return signatures[i].get(signature);
+            if (tcpHeader.hasOption(TcpHeader.Option.MaximumSegmentSize)) {
+                triggers.add(Fingerprint.Trigger.MaximumSegmentSize);
+            }
+
+            payloadLength = tcpHeader.getPayloadLength();
+        } else {
+            UdpHeader udpHeader = packet.getHeader(UdpHeader.Id);
+            if (udpHeader != null) {
+                // length field includes the udp header
+                payloadLength = udpHeader.getPayloadLength() - udpHeader.getLength();
             }
         }
 
-        return null;
+        if (payloadLength > 0) {
+            triggers.add(Fingerprint.Trigger.FirstPayload);
+        }
+
+        return triggers;
+    }
+
+    /**
+     * Retains the current packet in the raw packet ring, as part of connection's flow.
+     *
+     * @see #setRawPacketRing(RawPacketRing)
+     */
+    protected void saveRawPacket(PcapConnection connection) {
+        if (connection.rawPackets == null) {
+            connection.rawPackets = getRawPacketRing().newFlow();
+        }
+
+        retainCurrentPacket(connection.rawPackets);
     }
 
     public List<PcapConnection> getConnections() {
-        return new LinkedList<>(connections.values());
+        List<PcapConnection> list = new LinkedList<>();
+        for (FlowTable<PcapConnection> stripe : connections) {
+            synchronized (stripe) {
+                list.addAll(stripe.values());
+            }
+        }
+
+        return list;
     }
 
 
     /**
      * Connection event.
-     * Callback method has to be non-blocking.
+     * Callback method has to be non-blocking and, if looping with workers, thread-safe.
      *
      * @param event      cause of invocation
      * @param connection the event source
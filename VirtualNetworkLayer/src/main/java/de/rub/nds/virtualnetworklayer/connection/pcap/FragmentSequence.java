@@ -3,6 +3,7 @@ package de.rub.nds.virtualnetworklayer.connection.pcap;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import org.apache.log4j.Logger;
 
 import java.io.ByteArrayOutputStream;
 import java.util.LinkedList;
@@ -11,6 +12,8 @@ import java.util.LinkedList;
  * @author Marco Faltermeier <faltermeier@me.com>
  */
 public class FragmentSequence {
+    private static final Logger logger = Logger.getLogger(FragmentSequence.class);
+
     private LinkedList<PcapPacket> packets = new LinkedList<PcapPacket>();
     private LinkedList<Integer> lengths = new LinkedList<Integer>();
     private Header fragmentedHeader;
@@ -53,11 +56,13 @@ public class FragmentSequence {
     }
 
     private void add(PcapPacket packet, int offset) {
-        int length = Math.min(packet.getLength() - offset, remaining);
+        int length = Math.max(Math.min(packet.getLength() - offset, remaining), 0);
         lengths.add(length);
         remaining -= length;
 
-        payload.write(packet.getContent(), offset, length);
+        if (length > 0) {
+            payload.write(packet.getContent(), offset, length);
+        }
         packets.add(packet);
     }
 
@@ -74,17 +79,17 @@ public class FragmentSequence {
         return remaining == 0 || tcpHeader.getFlags().contains(TcpHeader.Flag.FIN);
     }
 
+    /**
+     * Appends the packets of sequence, payload beyond this sequence's length is ignored.
+     */
     public void merge(FragmentSequence sequence) {
-		try {
-
-			for (PcapPacket packet : sequence.getPackets()) {
-				add(packet);
-
-			}
-		} catch (Exception e) {
-			// TODO: Fix this, this might trow exceptions
-
-		}
+        for (PcapPacket packet : sequence.getPackets()) {
+            if (packet.hasHeader(TcpHeader.Id)) {
+                add(packet);
+            } else {
+                logger.warn("cannot merge packet without tcp header " + packet);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,91 @@
+package de.rub.nds.virtualnetworklayer.connection.pcap;
+
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.util.Util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wakes threads waiting for packets of a connection without a monitor.
+ * <p>
+ * The capture thread publishes a packet in the {@link PcapTrace} before it signals its direction,
+ * a waiter registers before it checks the trace, so no packet is missed. Only waiters of the
+ * packet's direction (and those waiting for any direction) are unparked.
+ */
+class PacketSignal {
+    /**
+     * Condition a waiter waits for, checked after every wake up.
+     */
+    static abstract class Condition {
+        abstract boolean isMet();
+    }
+
+    private static final int Any = Packet.Direction.values().length;
+
+    private final Queue<Thread>[] waiters = createWaiters();
+
+    @SuppressWarnings("unchecked")
+    private static Queue<Thread>[] createWaiters() {
+        Queue<Thread>[] waiters = (Queue<Thread>[]) new Queue<?>[Any + 1];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        return waiters;
+    }
+
+    /**
+     * Called by the capture thread, after a packet of direction was added.
+     */
+    void signal(Packet.Direction direction) {
+        if (direction != null) {
+            unpark(waiters[direction.ordinal()]);
+        }
+        unpark(waiters[Any]);
+    }
+
+    private static void unpark(Queue<Thread> waiters) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+
+        for (Thread thread : waiters) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Parks the current thread until condition is met.
+     *
+     * @param direction direction of the awaited packets, null for any
+     * @param timeout   in nanoseconds
+     * @return whether condition is met, false after timeout or if the thread is interrupted
+     */
+    boolean await(Packet.Direction direction, Condition condition, long timeout) {
+        if (condition.isMet()) {
+            return true;
+        }
+
+        Queue<Thread> queue = waiters[direction != null ? direction.ordinal() : Any];
+        Thread thread = Thread.currentThread();
+        long deadline = Util.now() + timeout;
+
+        queue.add(thread);
+        try {
+            while (!condition.isMet()) {
+                long remaining = deadline - Util.now();
+                if (remaining <= 0 || thread.isInterrupted()) {
+                    return false;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            return true;
+        } finally {
+            queue.remove(thread);
+        }
+    }
+}
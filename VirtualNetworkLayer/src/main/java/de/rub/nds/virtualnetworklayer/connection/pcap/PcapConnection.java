@@ -7,9 +7,11 @@ import de.rub.nds.virtualnetworklayer.p0f.Label;
 import de.rub.nds.virtualnetworklayer.packet.Packet;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
 import de.rub.nds.virtualnetworklayer.packet.header.link.family.Family;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
-import de.rub.nds.virtualnetworklayer.pcap.PcapHandler;
+import de.rub.nds.virtualnetworklayer.pcap.PcapDumper;
+import de.rub.nds.virtualnetworklayer.pcap.RawPacketRing;
 import de.rub.nds.virtualnetworklayer.util.Util;
 import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
 import org.apache.log4j.Logger;
@@ -19,7 +21,7 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -32,18 +34,62 @@ import java.util.List;
 public class PcapConnection implements Connection {
     private static Logger logger = Logger.getLogger(PcapConnection.class);
 
+    /**
+     * Tcp state of a connection, which selects its idle timeout.
+     *
+     * @see ConnectionHandler#setTimeout(State, long)
+     */
+    public static enum State {
+        /**
+         * only SYN segments seen so far
+         */
+        Opening,
+        /**
+         * handshake completed, also any connection without tcp
+         */
+        Established,
+        /**
+         * FIN or RST seen
+         */
+        Closing
+    }
+
     private PcapTrace trace = new PcapTrace();
     private Label[][] labels;
     private Fingerprint.Signature[][] signatures;
     private SocketSession session;
 
-    private Socket socket;
-    private Pcap pcap;
-    private int lastPacketPosition;
+    Socket socket;
+    CaptureMultiplexer multiplexer;
+    private int timeout = DefaultTimeout;
+    private volatile int lastPacketPosition;
 
     private boolean keepRawPackets = false;
+    private volatile Object attachment;
+    private volatile boolean subscribed = true;
+
+    // raw packets in the ring of ConnectionHandler, created with the first one
+    RawPacketRing.Flow rawPackets;
+
+    // signaled by ConnectionHandler after every packet
+    final PacketSignal signal = new PacketSignal();
 
-    private List<ConnectionHandler.RawPacket> rawPackets = new LinkedList<>();
+    // flow table key, set by ConnectionHandler
+    FlowKey key;
+
+    // stream reassembly by direction, created by ConnectionHandler if enabled
+    TcpReassembler[] reassemblers;
+
+    // fingerprints done and fingerprints taken on a payload (bit per id) by direction, see ConnectionHandler#fingerprint
+    int[] fingerprinted = new int[Packet.Direction.values().length];
+    int[] payloadFingerprinted = new int[Packet.Direction.values().length];
+
+    // idle expiry, see ConnectionExpiry (guarded by expiry)
+    ConnectionExpiry expiry;
+    PcapConnection previous;
+    PcapConnection next;
+    long lastSeen;
+    volatile State state;
 
     /**
      * Creates a connection and connects to the specified port number at the specified IP address.
@@ -102,17 +148,16 @@ public class PcapConnection implements Connection {
         SocketSession session = new SocketSession(localAddress, remoteAddress,
                 localSocketAddress.getPort(), remoteSocketAddress.getPort());
 
-        Pcap pcap = Pcap.getInstanceForRemoteHost(remoteSocketAddress.getAddress().getHostAddress());
-        pcap.loopAsynchronous(new ConnectionHandler.Quiet());
+        CaptureMultiplexer multiplexer = CaptureMultiplexer.getInstance(
+                Pcap.getDeviceForHost(remoteSocketAddress.getAddress().getHostAddress()));
 
-        PcapConnection connection = ((ConnectionHandler) pcap.getHandler()).getConnection(session);
+        PcapConnection connection = multiplexer.register(session);
         connection.socket = socket;
-        connection.pcap = pcap;
         
         try {
             socket.connect(remoteSocketAddress, timeout);
         } catch (IOException e) {
-            pcap.close();
+            connection.close();
             System.err.println("Failed to connect to: " + remoteSocketAddress.toString());
             System.err.println("Local address was: " + localSocketAddress.toString());
             System.err.println("Device was: " + device);
@@ -120,14 +165,9 @@ public class PcapConnection implements Connection {
             throw e;
         }
         
-        synchronized (connection) {
-            try {
-                while (connection.trace.size() < 3) {
-                    // TODO deadlocked
-                    logger.debug("deadlocked: " + connection);
-                    connection.wait();
-                }
-            } catch (InterruptedException e) {}
+        connection.timeout = timeout;
+        if (!connection.awaitTrace(3, timeout)) {
+            logger.debug("handshake not captured: " + connection);
         }
 
         return connection;
@@ -168,54 +208,90 @@ public class PcapConnection implements Connection {
         return trace.size() - lastPacketPosition;
     }
 
+    /**
+     * Reads the next response packet, waiting at most timeout.
+     *
+     * @param timeout in milliseconds
+     * @return next response packet, after timeout the last one read
+     * @throws IOException
+     */
     public PcapPacket read(int timeout) throws IOException {
         checkSocket();
 
-        int next;
-        long start = Util.now();
-
-        synchronized (this) {
-            while ((next = trace.getNextPosition(lastPacketPosition, Packet.Direction.Response)) == lastPacketPosition) {
-                try {
-                    this.wait(timeout);
-
-                    if ((Util.now() - start) >= timeout * 1000 * 1000) {
-                        break;
-                    }
-
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
+        PcapPacket packet = await(Packet.Direction.Response, timeout);
+        if (packet == null) {
+            return trace.get(lastPacketPosition);
         }
 
-        lastPacketPosition = next;
-
-        return trace.get(next);
+        return packet;
     }
 
+    /**
+     * Writes data to the socket and waits for the captured request packet.
+     *
+     * @return captured request packet, the last one sent if it is not captured within the connect timeout
+     * @throws IOException
+     */
     public PcapPacket write(byte[] data) throws IOException {
         checkSocket();
 
-        lastPacketPosition = trace.getLastPosition(Packet.Direction.Request);
+        final int position = trace.getLastPosition(Packet.Direction.Request);
         socket.getOutputStream().write(data);
 
-        int next;
+        signal.await(Packet.Direction.Request, new PacketSignal.Condition() {
+            @Override
+            boolean isMet() {
+                return trace.getNextPosition(position, Packet.Direction.Request) != position;
+            }
+        }, timeout * 1000000L);
+
+        int next = trace.getNextPosition(position, Packet.Direction.Request);
+        lastPacketPosition = next;
 
-        synchronized (this) {
-            while ((next = trace.getNextPosition(lastPacketPosition, Packet.Direction.Request)) == lastPacketPosition) {
-                try {
-                    // TODO deadlocked
-                    this.wait();
-                } catch (InterruptedException e) {
-                    break;
-                }
+        return trace.get(next);
+    }
+
+    /**
+     * Waits for the next packet of direction after the packet read last, without a socket
+     * (e.g. for captured connections). Only one thread should read a connection at a time.
+     *
+     * @param timeout in milliseconds
+     * @return next packet of direction, null after timeout or if the thread is interrupted
+     */
+    public PcapPacket await(final Packet.Direction direction, int timeout) {
+        final int position = lastPacketPosition;
+        PacketSignal.Condition arrived = new PacketSignal.Condition() {
+            @Override
+            boolean isMet() {
+                return trace.getNextPosition(position, direction) != position;
             }
+        };
+
+        if (!signal.await(direction, arrived, timeout * 1000000L)) {
+            return null;
         }
 
+        int next = trace.getNextPosition(position, direction);
+        lastPacketPosition = next;
+
         return trace.get(next);
     }
 
+    /**
+     * Waits until the trace holds size packets.
+     *
+     * @param timeout in milliseconds
+     * @return whether the trace holds size packets, false after timeout or if the thread is interrupted
+     */
+    public boolean awaitTrace(final int size, int timeout) {
+        return signal.await(null, new PacketSignal.Condition() {
+            @Override
+            boolean isMet() {
+                return trace.size() >= size;
+            }
+        }, timeout * 1000000L);
+    }
+
     void updateFingerprint(Packet.Direction direction, Fingerprint print,
                            Fingerprint.Signature signature, Label label) {
         if (getLabel(direction, print.getId()) == null
@@ -229,9 +305,13 @@ public class PcapConnection implements Connection {
         return trace;
     }
 
+    /**
+     * Closes the socket and unregisters from the {@link CaptureMultiplexer}, whose handle is closed
+     * with its last connection. Captured connections are not affected.
+     */
     @Override
     public void close() {
-        if (socket != null && socket.isClosed()) {
+        if (socket != null && !socket.isClosed()) {
             try {
                 socket.close();
             } catch (IOException e) {
@@ -239,8 +319,9 @@ public class PcapConnection implements Connection {
             }
         }
 
-        if (pcap != null) {
-            pcap.close();
+        if (multiplexer != null) {
+            multiplexer.unregister(this);
+            multiplexer = null;
         }
     }
 
@@ -252,10 +333,30 @@ public class PcapConnection implements Connection {
         return getLabel(direction, print.ordinal());
     }
 
+    /**
+     * @return whether fingerprint is done for direction and won't be evaluated again
+     * @see Fingerprint#isContinuous()
+     */
+    public boolean isFingerprinted(Packet.Direction direction, int id) {
+        return (fingerprinted[direction.ordinal()] & (1 << id)) != 0;
+    }
+
+    public boolean isFingerprinted(Packet.Direction direction, Fingerprints print) {
+        return isFingerprinted(direction, print.ordinal());
+    }
+
     public List<Label> getLabels(Packet.Direction direction) {
         return Arrays.asList(labels[direction.ordinal()]);
     }
 
+    /**
+     * @return stream reassembler of direction, null if stream reassembly is disabled
+     * @see ConnectionHandler#setStreamListener(TcpReassembler.Listener)
+     */
+    public TcpReassembler getReassembler(Packet.Direction direction) {
+        return reassemblers != null ? reassemblers[direction.ordinal()] : null;
+    }
+
     public Fingerprint.Signature getSignature(Packet.Direction direction, int id) {
         return signatures[direction.ordinal()][id];
     }
@@ -272,14 +373,57 @@ public class PcapConnection implements Connection {
         return session;
     }
 
-    @Override
-    public String toString() {
-        return session.toString();
+    /**
+     * @return tcp state as tracked by {@link ConnectionHandler}, null before the first packet
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Attaches per-connection state of a handler (e.g. an incremental protocol decoder),
+     * replacing the previous attachment.
+     *
+     * @param attachment state or null to detach
+     * @return previous attachment, null if there was none
+     */
+    public Object attach(Object attachment) {
+        Object previous = this.attachment;
+        this.attachment = attachment;
+
+        return previous;
+    }
+
+    /**
+     * @return current attachment, null if there is none
+     * @see #attach(Object)
+     */
+    public Object attachment() {
+        return attachment;
+    }
+
+    /**
+     * Stops all further handling of this connection's packets by {@link ConnectionHandler},
+     * except fingerprinting and expiry: packets are no longer traced, reassembled or kept raw,
+     * and there are no more {@link ConnectionHandler.Event#Update} callbacks.
+     * Used by handlers, which classified a connection as not interesting.
+     * Packets traced or kept so far stay until the connection expires.
+     */
+    public void unsubscribe() {
+        subscribed = false;
+        keepRawPackets = false;
+    }
+
+    /**
+     * @see #unsubscribe()
+     */
+    public boolean isSubscribed() {
+        return subscribed;
     }
 
     @Override
-    protected void finalize() throws Throwable {
-        close();
+    public String toString() {
+        return session.toString();
     }
 
     public boolean keepRawPackets() {
@@ -301,19 +445,77 @@ public class PcapConnection implements Connection {
      * <em>current</em> packet manually with {@link ConnectionHandler#saveRawPacket
      * (PcapConnection)}.
      *
+     * Packets are retained in a bounded {@link RawPacketRing}, which may evict them or
+     * drop them beyond its flow limits.
+     *
      * @param keepCurrent If true, don't throw away currently kept raw packets when
      *                    setting keepRawPackets to false. Default: false.
-     * @see PcapHandler#getCurrentRawPacket()
+     * @see ConnectionHandler#setRawPacketRing(RawPacketRing)
      * @see ConnectionHandler#newConnection(ConnectionHandler.Event, PcapConnection)
      */
     public void setKeepRawPackets(boolean keepRawPackets, boolean keepCurrent) {
         this.keepRawPackets = keepRawPackets;
         if(! keepRawPackets && ! keepCurrent) {
+            releaseRawPackets();
+        }
+    }
+
+    private void releaseRawPackets() {
+        if (rawPackets != null) {
             rawPackets.clear();
         }
     }
 
+    /**
+     * @return whether this connection was created for a socket, which reads its trace
+     * beyond expiry
+     */
+    boolean isOwned() {
+        return socket != null || multiplexer != null;
+    }
+
+    /**
+     * Drops all packets and the attachment of this connection, pooled packet buffers are returned to their pool.
+     * Called by {@link ConnectionHandler}, after the connection {@link ConnectionHandler.Event#Expired expired},
+     * unless it {@link #isOwned() is owned} by a socket.
+     *
+     * @see de.rub.nds.virtualnetworklayer.pcap.PcapHandler#setBufferPool(de.rub.nds.virtualnetworklayer.pcap.BufferPool)
+     */
+    public void release() {
+        if (reassemblers != null) {
+            for (TcpReassembler reassembler : reassemblers) {
+                reassembler.release();
+            }
+        }
+
+        trace.release();
+        releaseRawPackets();
+        attachment = null;
+    }
+
+    /**
+     * @return copies of the kept raw packets, packets evicted from the ring are missing
+     * @see #dumpRawPackets(PcapDumper)
+     */
     public List<ConnectionHandler.RawPacket> getRawPackets() {
-        return rawPackets;
+        if (rawPackets == null) {
+            return Collections.emptyList();
+        }
+
+        return rawPackets.toList();
+    }
+
+    /**
+     * Writes the kept raw packets to dumper, straight from the ring they are retained in.
+     *
+     * @return number of packets written
+     * @see ConnectionHandler#setRawPacketRing(RawPacketRing)
+     */
+    public int dumpRawPackets(PcapDumper dumper) {
+        if (rawPackets == null) {
+            return 0;
+        }
+
+        return rawPackets.dump(dumper);
     }
 }
@@ -10,28 +10,167 @@ import java.util.*;
 /**
  * This class holds a trace of all packets in arrival order and
  * reassembled sequence order.
+ * <p>
+ * Both orders are append-only, a single thread adds packets while others may read.
+ * Iterators are snapshots of the packets added so far and don't copy.
+ * Positions are stable, so a reader can continue from where it stopped with
+ * {@link #getSequenceOrder(int)} or {@link #getArrivalOrder(int)}.
  *
  * @author Marco Faltermeier <faltermeier@me.com>
  */
 public class PcapTrace extends Connection.Trace<PcapPacket> {
-    private ArrayList<PcapPacket> arrivalOrder = new ArrayList<PcapPacket>();
-    private ArrayList<PcapPacket> sequenceOrder = new ArrayList<PcapPacket>();
+
+    /**
+     * Append-only list, which publishes its size after the packet.
+     */
+    private static class Packets {
+        private PcapPacket[] packets = new PcapPacket[16];
+        private volatile int size;
+
+        void add(PcapPacket packet) {
+            if (size == packets.length) {
+                packets = Arrays.copyOf(packets, size * 2);
+            }
+
+            packets[size] = packet;
+            size = size + 1;
+        }
+
+        PcapPacket get(int position) {
+            int size = this.size;
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+            }
+
+            return packets[position];
+        }
+
+        List<PcapPacket> snapshot() {
+            int size = this.size;
+
+            return Collections.unmodifiableList(Arrays.asList(packets).subList(0, size));
+        }
+
+        Iterator<PcapPacket> iterator(final int from) {
+            final int size = this.size;
+            final PcapPacket[] packets = this.packets;
+
+            return new Iterator<PcapPacket>() {
+                private int position = Math.max(from, 0);
+
+                @Override
+                public boolean hasNext() {
+                    return position < size;
+                }
+
+                @Override
+                public PcapPacket next() {
+                    if (position >= size) {
+                        throw new NoSuchElementException();
+                    }
+
+                    return packets[position++];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Sequence positions of one direction, ascending.
+     */
+    private static class Positions {
+        private int[] positions = new int[16];
+        private volatile int size;
+
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+
+            positions[size] = position;
+            size = size + 1;
+        }
+
+        int getLast(int otherwise) {
+            int size = this.size;
+
+            return size > 0 ? positions[size - 1] : otherwise;
+        }
+
+        /**
+         * @return first position greater than position, otherwise position
+         */
+        int getNext(int position) {
+            int size = this.size;
+            int index = Arrays.binarySearch(positions, 0, size, position + 1);
+            if (index < 0) {
+                index = -index - 1;
+            }
+
+            return index < size ? positions[index] : position;
+        }
+    }
+
+    private Packets arrivalOrder = new Packets();
+    private Packets sequenceOrder = new Packets();
+    private Positions[] directions = createPositions();
+    private volatile long lastTimeStamp = Long.MIN_VALUE;
 
     private HashMap<Long, FragmentSequence> fragmentSequences = new HashMap<Long, FragmentSequence>();
     private ArrayList<PcapPacket> retransmitted = new ArrayList<PcapPacket>();
 
+    private static Positions[] createPositions() {
+        Positions[] positions = new Positions[Packet.Direction.values().length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new Positions();
+        }
+
+        return positions;
+    }
+
     PcapPacket add(PcapPacket packet) {
         arrivalOrder.add(packet);
+        lastTimeStamp = Math.max(lastTimeStamp, packet.getTimeStamp());
 
         if (packet.hasHeader(TcpHeader.Id)) {
             reassembleTcp(packet);
         } else {
-            sequenceOrder.add(packet);
+            addSequence(packet);
         }
 
         return packet;
     }
 
+    private void addSequence(PcapPacket packet) {
+        int position = sequenceOrder.size;
+
+        sequenceOrder.add(packet);
+        if (packet.getDirection() != null) {
+            directions[packet.getDirection().ordinal()].add(position);
+        }
+    }
+
+    /**
+     * Releases all packets and clears this trace.
+     */
+    void release() {
+        Iterator<PcapPacket> packets = arrivalOrder.iterator(0);
+        while (packets.hasNext()) {
+            packets.next().release();
+        }
+
+        arrivalOrder = new Packets();
+        sequenceOrder = new Packets();
+        directions = createPositions();
+        fragmentSequences.clear();
+        retransmitted.clear();
+    }
+
     private boolean sequenceOrderisContinued(PcapPacket packet) {
         TcpHeader tcpHeader = packet.getHeader(TcpHeader.Id);
 
@@ -60,8 +199,10 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
              * Some incomplete payload header is waiting to be continued by this packet
              */
             FragmentSequence sequence = fragmentSequences.remove(tcpHeader.getSequenceNumber());
-            if (sequence.isComplete()) {
-                sequenceOrder.add(packet);
+            if (sequence.isComplete() && packet.isFragmented()) {
+                fragmentSequences.put(tcpHeader.getNextSequenceNumber(), new FragmentSequence(packet));
+            } else if (sequence.isComplete()) {
+                addSequence(packet);
             } else {
 
                 sequence.add(packet);
@@ -79,7 +220,7 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
             fragmentSequences.put(tcpHeader.getSequenceNumber(), afterLostFragment);
             fragmentSequences.put(tcpHeader.getNextSequenceNumber(), afterLostFragment);
         } else {
-            sequenceOrder.add(packet);
+            addSequence(packet);
         }
     }
 
@@ -96,10 +237,21 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
     private void addReassembledPacket(FragmentSequence sequence) {
         ReassembledPacket croppedPacket = sequence.getCroppedPacket();
         if (croppedPacket != null) {
-            sequenceOrder.add(croppedPacket);
+            addSequence(croppedPacket);
         }
 
-        sequenceOrder.add(sequence.getExtendedPacket());
+        ReassembledPacket extendedPacket = sequence.getExtendedPacket();
+        FragmentSequence continued = extendedPacket.isFragmented() ? new FragmentSequence(extendedPacket) : null;
+        if (continued != null && !continued.isComplete()) {
+            /**
+             * The last packet starts the next incomplete payload header, hold it back
+             * until it is continued as well
+             */
+            TcpHeader tcpHeader = sequence.getPackets().getLast().getHeader(TcpHeader.Id);
+            fragmentSequences.put(tcpHeader.getNextSequenceNumber(), continued);
+        } else {
+            addSequence(extendedPacket);
+        }
     }
 
     public List<FragmentSequence> getFragmentSequences() {
@@ -118,22 +270,45 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
      * @return reassembled packets in sequence order
      */
     public Iterator<PcapPacket> getSequenceOrder() {
-        return getPackets().iterator();
+        return getSequenceOrder(0);
+    }
+
+    /**
+     * @param from sequence position to start at, e.g. previous {@link #size()}
+     * @return reassembled packets in sequence order, starting at from
+     */
+    public Iterator<PcapPacket> getSequenceOrder(int from) {
+        return sequenceOrder.iterator(from);
     }
 
     /**
      * @return original packets in arrival order
      */
     public Iterator<PcapPacket> getArrivalOrder() {
-        return arrivalOrder.iterator();
+        return getArrivalOrder(0);
+    }
+
+    /**
+     * @param from arrival position to start at, e.g. previous {@link #getArrivalCount()}
+     * @return original packets in arrival order, starting at from
+     */
+    public Iterator<PcapPacket> getArrivalOrder(int from) {
+        return arrivalOrder.iterator(from);
+    }
+
+    /**
+     * @return number of original packets
+     */
+    public int getArrivalCount() {
+        return arrivalOrder.size;
     }
 
     /**
-     * @return list of reassembled packets in sequence order
+     * @return unmodifiable snapshot of reassembled packets in sequence order
      */
     @Override
     protected List<PcapPacket> getPackets() {
-        return new ArrayList<PcapPacket>(sequenceOrder);
+        return sequenceOrder.snapshot();
     }
 
     public boolean hasIncompleteSequences() {
@@ -156,13 +331,7 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
     }
 
     int getLastPosition(Packet.Direction direction) {
-        for (int i = sequenceOrder.size() - 1; i >= 0; i--) {
-            if (get(i).getDirection() == direction) {
-                return i;
-            }
-        }
-
-        return 0;
+        return directions[direction.ordinal()].getLast(0);
     }
 
     public PcapPacket getLast(Packet.Direction direction) {
@@ -184,13 +353,7 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
     }
 
     int getNextPosition(int position, Packet.Direction direction) {
-        for (int i = position + 1; i < sequenceOrder.size(); i++) {
-            if (sequenceOrder.get(i).getDirection() == direction) {
-                return i;
-            }
-        }
-
-        return position;
+        return directions[direction.ordinal()].getNext(position);
     }
 
     /**
@@ -202,7 +365,7 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
 
     @Override
     public int size() {
-        return sequenceOrder.size();
+        return sequenceOrder.size;
     }
 
     /**
@@ -212,15 +375,7 @@ public class PcapTrace extends Connection.Trace<PcapPacket> {
      * @return The newest timestamp seen in this trace.
      */
     public long getLastTimeStamp() {
-        if(size() > 0) {
-            return getLast().getTimeStamp();
-        }
-
-        long latest = Long.MIN_VALUE;
-        for(Packet p : arrivalOrder) {
-            latest = Math.max(latest, p.getTimeStamp());
-        }
-        return latest;
+        return lastTimeStamp;
     }
 
 }
@@ -41,10 +41,10 @@ public class ReassembledPacket extends PcapPacket {
         int remaining = lastPacket.getLength() - length;
 
         ByteBuffer byteBuffer = ByteBuffer.allocate(tcpHeader.getPayloadOffset() + sequence.getReassembledPayloadLength() + remaining);
-        byteBuffer.put(lastPacket.getContent(), 0, tcpHeader.getPayloadOffset());
+        byteBuffer.put(lastPacket.getContent(0, tcpHeader.getPayloadOffset()));
         byteBuffer.put(sequence.getReassembledPayload());
         if (remaining > 0) {
-            byteBuffer.put(lastPacket.getContent(), length, remaining);
+            byteBuffer.put(lastPacket.getContent(length, remaining));
         }
 
         byteBuffer.flip();
@@ -60,7 +60,7 @@ public class ReassembledPacket extends PcapPacket {
         if (fragmentedHeader != null && fragmentedHeader.getOffset() != tcpHeader.getPayloadOffset()) {
             int length = fragmentedHeader.getOffset();
             ByteBuffer byteBuffer = ByteBuffer.allocate(length);
-            byteBuffer.put(firstPacket.getContent(), 0, length);
+            byteBuffer.put(firstPacket.getContent(0, length));
             byteBuffer.flip();
 
             return new ReassembledPacket(ReassembledPacket.Type.Cropped, byteBuffer, firstPacket, sequence);
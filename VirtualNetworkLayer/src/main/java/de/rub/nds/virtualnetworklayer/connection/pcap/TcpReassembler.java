@@ -0,0 +1,361 @@
+package de.rub.nds.virtualnetworklayer.connection.pcap;
+
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reassembles the tcp payload of one direction of a connection into an in-order byte stream.
+ * <p>
+ * Segments are keyed by their offset relative to the initial sequence number, which takes care of
+ * sequence number wraparound. In-order data is delivered right away, out-of-order segments are kept
+ * as zero-copy views of their packets in a sorted segment map, until the gap in front of them closes.
+ * <p>
+ * Buffered bytes count against a per-connection and a global {@link Budget}. If a segment
+ * does not fit, the oldest gap is given up and reported with {@link Listener#newGap}.
+ *
+ * @see ConnectionHandler#setStreamListener(Listener)
+ */
+public class TcpReassembler {
+
+    /**
+     * Which data is kept, if segments overlap with different content.
+     */
+    public static enum Overlap {
+        /**
+         * bytes received first are kept (like most BSD stacks)
+         */
+        First,
+        /**
+         * bytes received last replace earlier ones
+         */
+        Last
+    }
+
+    /**
+     * Stream callback, called by the thread handling the connection.
+     */
+    public interface Listener {
+
+        /**
+         * In-order stream data. The buffer is a view of the packet's bytes, which stays valid as long as
+         * the connection's trace. Each byte of the stream is reported at most once.
+         *
+         * @param connection connection
+         * @param direction  direction of stream
+         * @param offset     stream offset of the first byte, relative to the initial sequence number
+         * @param data       stream data
+         */
+        void newData(PcapConnection connection, Packet.Direction direction, long offset, ByteBuffer data);
+
+        /**
+         * Bytes of the stream, which were never received and are skipped.
+         *
+         * @param connection connection
+         * @param direction  direction of stream
+         * @param offset     stream offset of the first missing byte
+         * @param length     number of missing bytes
+         */
+        void newGap(PcapConnection connection, Packet.Direction direction, long offset, long length);
+    }
+
+    /**
+     * Limits the out-of-order bytes buffered by the reassemblers of one connection and by all connections.
+     * One budget is shared by both directions of a connection, which are handled by the same thread.
+     */
+    static final class Budget {
+        private final long limit;
+        private final AtomicLong global;
+        private final long globalLimit;
+        private long used;
+
+        Budget(long limit, AtomicLong global, long globalLimit) {
+            this.limit = limit;
+            this.global = global;
+            this.globalLimit = globalLimit;
+        }
+
+        boolean acquire(long bytes) {
+            if (used + bytes > limit) {
+                return false;
+            }
+
+            if (global.addAndGet(bytes) > globalLimit) {
+                global.addAndGet(-bytes);
+                return false;
+            }
+
+            used += bytes;
+            return true;
+        }
+
+        void release(long bytes) {
+            used -= bytes;
+            global.addAndGet(-bytes);
+        }
+    }
+
+    private final PcapConnection connection;
+    private final Packet.Direction direction;
+    private final Listener listener;
+    private final Overlap overlap;
+    private final Budget budget;
+
+    private TreeMap<Long, ByteBuffer> segments = new TreeMap<>();
+    private boolean initialized = false;
+    private boolean finished = false;
+    private long initialSequenceNumber;
+    private long next;
+    private long fin = -1;
+    private long buffered;
+
+    TcpReassembler(PcapConnection connection, Packet.Direction direction, Listener listener,
+                   Overlap overlap, Budget budget) {
+        this.connection = connection;
+        this.direction = direction;
+        this.listener = listener;
+        this.overlap = overlap;
+        this.budget = budget;
+    }
+
+    /**
+     * Adds the tcp payload of packet, packets without tcp header are ignored.
+     *
+     * @param packet packet of this direction
+     */
+    void add(PcapPacket packet) {
+        TcpHeader header = packet.getHeader(TcpHeader.Id);
+        if (header == null || finished) {
+            return;
+        }
+
+        Set<TcpHeader.Flag> flags = header.getFlags();
+        long sequenceNumber = header.getSequenceNumber();
+        if (flags.contains(TcpHeader.Flag.SYN)) {
+            sequenceNumber++;
+        }
+
+        if (!initialized) {
+            initialSequenceNumber = sequenceNumber & 0xffffffffL;
+            initialized = true;
+        }
+
+        long start = getOffset(sequenceNumber);
+        int length = Math.min(header.getPayloadLength(), packet.getLength() - header.getPayloadOffset());
+
+        if (length > 0) {
+            // the trace retains the packet, so its bytes outlive the buffered view
+            insert(start, packet.getContent(header.getPayloadOffset(), length));
+        }
+
+        if (flags.contains(TcpHeader.Flag.FIN)) {
+            fin = start + Math.max(length, 0);
+        }
+
+        if (fin >= 0 && next >= fin) {
+            finished = true;
+            release();
+        }
+    }
+
+    /**
+     * @return stream offset of sequenceNumber, the one closest to the next expected byte
+     */
+    private long getOffset(long sequenceNumber) {
+        long relative = (sequenceNumber - initialSequenceNumber) & 0xffffffffL;
+
+        return next + (int) (relative - (next & 0xffffffffL));
+    }
+
+    private void insert(long start, ByteBuffer data) {
+        while (true) {
+            long end = start + data.remaining();
+            if (end <= next) {
+                return;
+            }
+
+            if (start < next) {
+                data = slice(data, next - start, end - next);
+                start = next;
+            }
+
+            if (start == next && segments.isEmpty()) {
+                emit(start, data);
+                deliver();
+                return;
+            }
+
+            if (budget.acquire(data.remaining())) {
+                break;
+            }
+
+            if (segments.isEmpty()) {
+                // does not fit at all, give up everything in front of it
+                listener.newGap(connection, direction, next, start - next);
+                next = start;
+            } else {
+                skipGap();
+            }
+        }
+
+        long acquired = data.remaining();
+        long stored = overlap == Overlap.First ? insertFirst(start, data) : insertLast(start, data);
+
+        buffered += stored;
+        budget.release(acquired - stored);
+        deliver();
+    }
+
+    /**
+     * Stores only those parts of data, which are not buffered yet.
+     *
+     * @return number of stored bytes
+     */
+    private long insertFirst(long start, ByteBuffer data) {
+        long end = start + data.remaining();
+        long position = start;
+        long stored = 0;
+
+        Map.Entry<Long, ByteBuffer> floor = segments.floorEntry(start);
+        if (floor != null) {
+            position = Math.max(position, getEnd(floor));
+        }
+
+        while (position < end) {
+            Map.Entry<Long, ByteBuffer> ceiling = segments.ceilingEntry(position);
+            long gapEnd = ceiling == null ? end : Math.min(end, ceiling.getKey());
+
+            if (gapEnd > position) {
+                segments.put(position, slice(data, position - start, gapEnd - position));
+                stored += gapEnd - position;
+            }
+
+            if (ceiling == null) {
+                break;
+            }
+            position = getEnd(ceiling);
+        }
+
+        return stored;
+    }
+
+    /**
+     * Stores data and cuts everything it overlaps out of the buffered segments.
+     *
+     * @return number of stored bytes minus number of cut bytes
+     */
+    private long insertLast(long start, ByteBuffer data) {
+        long end = start + data.remaining();
+        long cut = 0;
+
+        Map.Entry<Long, ByteBuffer> lower = segments.lowerEntry(start);
+        if (lower != null && getEnd(lower) > start) {
+            long lowerEnd = getEnd(lower);
+            segments.put(lower.getKey(), slice(lower.getValue(), 0, start - lower.getKey()));
+
+            if (lowerEnd > end) {
+                segments.put(end, slice(lower.getValue(), end - lower.getKey(), lowerEnd - end));
+            }
+            cut += Math.min(lowerEnd, end) - start;
+        }
+
+        Map.Entry<Long, ByteBuffer> covered;
+        while ((covered = segments.ceilingEntry(start)) != null && covered.getKey() < end) {
+            long coveredEnd = getEnd(covered);
+            segments.remove(covered.getKey());
+
+            if (coveredEnd > end) {
+                segments.put(end, slice(covered.getValue(), end - covered.getKey(), coveredEnd - end));
+            }
+            cut += Math.min(coveredEnd, end) - covered.getKey();
+        }
+
+        segments.put(start, data);
+
+        return data.remaining() - cut;
+    }
+
+    /**
+     * Delivers all buffered segments, which continue the stream.
+     */
+    private void deliver() {
+        Map.Entry<Long, ByteBuffer> first;
+
+        while ((first = segments.firstEntry()) != null && first.getKey() <= next) {
+            segments.remove(first.getKey());
+
+            ByteBuffer data = first.getValue();
+            buffered -= data.remaining();
+            budget.release(data.remaining());
+
+            long end = getEnd(first);
+            if (end > next) {
+                emit(next, slice(data, next - first.getKey(), end - next));
+            }
+        }
+    }
+
+    /**
+     * Gives up the gap in front of the first buffered segment.
+     */
+    private void skipGap() {
+        long start = segments.firstKey();
+
+        listener.newGap(connection, direction, next, start - next);
+        next = start;
+        deliver();
+    }
+
+    private void emit(long offset, ByteBuffer data) {
+        next = offset + data.remaining();
+        listener.newData(connection, direction, offset, data);
+    }
+
+    private static long getEnd(Map.Entry<Long, ByteBuffer> segment) {
+        return segment.getKey() + segment.getValue().remaining();
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, long offset, long length) {
+        ByteBuffer slice = data.duplicate();
+        slice.position(data.position() + (int) offset);
+        slice.limit(slice.position() + (int) length);
+
+        return slice.slice();
+    }
+
+    /**
+     * Drops all buffered segments and returns their bytes to the budget.
+     */
+    void release() {
+        budget.release(buffered);
+        buffered = 0;
+        segments.clear();
+    }
+
+    /**
+     * @return stream offset of the next byte to deliver
+     */
+    public long getNextOffset() {
+        return next;
+    }
+
+    /**
+     * @return number of out-of-order bytes waiting for a gap to close
+     */
+    public long getBufferedBytes() {
+        return buffered;
+    }
+
+    /**
+     * @return true, if the stream was delivered up to FIN
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
@@ -7,16 +7,20 @@ import de.rub.nds.virtualnetworklayer.util.Util;
 import de.rub.nds.virtualnetworklayer.util.formatter.StringFormatter;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A fingerprint can be registered with {@link de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler}:
  * <ul>
  * <li>add type to registy {@link de.rub.nds.virtualnetworklayer.fingerprint.Fingerprints}</li>
  * <li>implement {@link #getId()} (for uniqueness use id from registry {@code Fingerprints.*.getId()})</li>
- * <li>implement {@link #isBound(de.rub.nds.virtualnetworklayer.packet.PcapPacket)}</li>
+ * <li>implement {@link #isBound(de.rub.nds.virtualnetworklayer.packet.PcapPacket)}, declare the packets it
+ * needs with {@link #Fingerprint(Trigger...)}</li>
  * <li>
  * implement {@link #match(Fingerprint.Signature, de.rub.nds.virtualnetworklayer.packet.PcapPacket, de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection)}
  * using {@link Signature#addSign(String, Object)}. If the sign is fuzzy the passed {@code value} has to subclass
@@ -34,36 +38,207 @@ public abstract class Fingerprint {
         public int compareTo(T other);
     }
 
+    /**
+     * Conditions a packet has to meet, before a fingerprint is evaluated on it.
+     *
+     * @see #getTriggers()
+     */
+    public static enum Trigger {
+        /**
+         * tcp SYN or SYN+ACK
+         */
+        Syn,
+        /**
+         * first tcp or udp payload in this direction, the fingerprint {@link #isBound(PcapPacket) is bound} to
+         */
+        FirstPayload,
+        /**
+         * tcp maximum segment size option
+         */
+        MaximumSegmentSize
+    }
+
+    /**
+     * Fixed sign slots for the signatures of one fingerprint, so signatures need no map.
+     * Integer signs are stored as primitives.
+     */
+    public static final class Schema {
+        /**
+         * all signs are kept in a map
+         */
+        public static final Schema Dynamic = new Schema(new String[0]);
+
+        private final String[] names;
+        private final int intCount;
+        private final Map<String, Integer> slots = new HashMap<>();
+
+        /**
+         * @param intSigns    names of signs with {@link Integer} values
+         * @param objectSigns names of other signs
+         */
+        public Schema(String[] intSigns, String... objectSigns) {
+            names = Arrays.copyOf(intSigns, intSigns.length + objectSigns.length);
+            System.arraycopy(objectSigns, 0, names, intSigns.length, objectSigns.length);
+            intCount = intSigns.length;
+
+            if (names.length > Long.SIZE) {
+                throw new IllegalArgumentException("too many signs " + Arrays.toString(names));
+            }
+
+            for (int i = 0; i < names.length; i++) {
+                slots.put(names[i], i);
+            }
+        }
+
+        private int getSlot(String name) {
+            Integer slot = slots.get(name);
+
+            return slot != null ? slot : -1;
+        }
+    }
+
+    /**
+     * Signatures, which are identical including quirks and maximum distance.
+     */
+    static final class Identity {
+        private final Signature signature;
+
+        Identity(Signature signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && signature.isIdentical(((Identity) o).signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return signature.hashCode();
+        }
+    }
+
     public static class Signature {
-        private Map<String, Object> signs = new HashMap<>();
-        private EnumSet<Quirk> quirks = EnumSet.noneOf(Quirk.class);
+        private static final Quirk[] Quirks = Quirk.values();
+        /**
+         * quirks, which may differ in fuzzy matches
+         */
+        private static final long FuzzyQuirks = getMask(Quirk.DF) | getMask(Quirk.NZ_ID)
+                | getMask(Quirk.ZERO_ID) | getMask(Quirk.ECN);
+
+        private final Schema schema;
+        /**
+         * bit i is set, if slot i holds a sign
+         */
+        private long present;
+        private final int[] ints;
+        private final Object[] objects;
+        /**
+         * signs without slot, created on demand
+         */
+        private Map<String, Object> signs;
+        private long quirks;
         private boolean fuzzy = false;
         private int maximumDistance = 0;
-        protected int hashCode = 0;
+        private int hashCode = 0;
+
+        public Signature() {
+            this(Schema.Dynamic);
+        }
+
+        public Signature(Schema schema) {
+            this.schema = schema;
+            this.ints = new int[schema.intCount];
+            this.objects = new Object[schema.names.length - schema.intCount];
+        }
+
+        private static long getMask(Quirk quirk) {
+            return 1L << quirk.ordinal();
+        }
 
         protected void addSign(String key, Object value) {
-            signs.put(key, value);
+            int slot = schema.getSlot(key);
+            hashCode = 0;
+
+            if (slot < 0) {
+                if (signs == null) {
+                    signs = new HashMap<>(4);
+                }
+                signs.put(key, value);
+            } else if (value == null) {
+                present &= ~(1L << slot);
+                setValue(slot, null);
+            } else {
+                present |= 1L << slot;
+                setValue(slot, value);
+            }
+        }
+
+        private void setValue(int slot, Object value) {
+            if (slot < schema.intCount) {
+                ints[slot] = value != null ? (Integer) value : 0;
+            } else {
+                objects[slot - schema.intCount] = value;
+            }
+        }
+
+        private Object getValue(int slot) {
+            if ((present & (1L << slot)) == 0) {
+                return null;
+            }
+
+            if (slot < schema.intCount) {
+                return ints[slot];
+            }
+
+            return objects[slot - schema.intCount];
         }
 
         public <T> T getSign(String key) {
-            return (T) signs.get(key);
+            int slot = schema.getSlot(key);
+
+            Object value;
+            if (slot < 0) {
+                value = signs != null ? signs.get(key) : null;
+            } else {
+                value = getValue(slot);
+            }
+
+            @SuppressWarnings("unchecked")
+            T sign = (T) value;
+            return sign;
         }
 
         /**
          * @return a (deep) copy of the signs in this signature
          */
         public Map<String, Object> getSigns() {
-        	return new HashMap<>(signs);
+            Map<String, Object> copy = signs != null ? new HashMap<>(signs) : new HashMap<String, Object>();
+
+            for (int slot = 0; slot < schema.names.length; slot++) {
+                if ((present & (1L << slot)) != 0) {
+                    copy.put(schema.names[slot], getValue(slot));
+                }
+            }
+
+            return copy;
         }
 
         public EnumSet<Quirk> getQuirks() {
-            return EnumSet.copyOf(quirks);
+            EnumSet<Quirk> copy = EnumSet.noneOf(Quirk.class);
+
+            for (Quirk quirk : Quirks) {
+                if ((quirks & getMask(quirk)) != 0) {
+                    copy.add(quirk);
+                }
+            }
+
+            return copy;
         }
 
         protected void addQuirk(Quirk quirk) {
-            if (!quirks.contains(quirk)) {
-                quirks.add(quirk);
-            }
+            quirks |= getMask(quirk);
+            hashCode = 0;
         }
 
         @Override
@@ -72,54 +247,145 @@ public abstract class Fingerprint {
                 return false;
             }
 
-            Signature other = (Signature) o;
+            return getDistance((Signature) o, fuzzy) >= 0;
+        }
+
+        /**
+         * Compares this signature with a registered one of the same schema. Signs missing in either signature
+         * match anything, quirks of the registered signature have to be present.
+         *
+         * @param other registered signature
+         * @param fuzzy whether {@link Fuzzy} signs may differ and some quirks may be missing
+         * @return sum of the distances of fuzzy signs, -1 if the signatures don't match
+         */
+        int getDistance(Signature other, boolean fuzzy) {
+            if (schema != other.schema) {
+                return -1;
+            }
+
             int distance = 0;
+            long common = present & other.present;
 
-            for (Map.Entry<String, Object> entry : other.signs.entrySet()) {
-                Object value = signs.get(entry.getKey());
+            while (common != 0) {
+                int slot = Long.numberOfTrailingZeros(common);
+                common &= common - 1;
 
-                if (value != null && !Util.equal(value, entry.getValue())) {
-                    if (!(fuzzy && value instanceof Fuzzy)) {
-                        return false;
-                    } else {
-                        distance += ((Fuzzy) value).compareTo(entry.getValue());
+                if (slot < schema.intCount) {
+                    if (ints[slot] != other.ints[slot]) {
+                        return -1;
                     }
+                } else {
+                    int index = slot - schema.intCount;
+                    int signDistance = getDistance(objects[index], other.objects[index], fuzzy);
+                    if (signDistance < 0) {
+                        return -1;
+                    }
+                    distance += signDistance;
+                }
+            }
+
+            if (other.signs != null) {
+                for (Map.Entry<String, Object> entry : other.signs.entrySet()) {
+                    int signDistance = getDistance(getSign(entry.getKey()), entry.getValue(), fuzzy);
+                    if (signDistance < 0) {
+                        return -1;
+                    }
+                    distance += signDistance;
                 }
             }
 
             if (distance > maximumDistance) {
-                return false;
+                return -1;
             }
 
-            for (Quirk quirk : other.quirks) {
-                if (!quirks.contains(quirk)) {
+            long missing = other.quirks & ~quirks;
 
-                    /* If there is a difference in quirks, but it amounts to 'df' or 'id+'
-                    disappearing, or 'id-' or 'ecn' appearing, allow a fuzzy match. */
-                    if (!(fuzzy && (quirk.equals(Quirk.DF) || quirk.equals(Quirk.NZ_ID) ||
-                            quirk.equals(Quirk.ZERO_ID) || quirk.equals(Quirk.ECN)))) {
-                        return false;
-                    }
-                }
+            /* If there is a difference in quirks, but it amounts to 'df' or 'id+'
+            disappearing, or 'id-' or 'ecn' appearing, allow a fuzzy match. */
+            if (missing != 0 && !(fuzzy && (missing & ~FuzzyQuirks) == 0)) {
+                return -1;
+            }
+
+            return distance;
+        }
+
+        private static int getDistance(Object value, Object other, boolean fuzzy) {
+            if (value == null || other == null || Util.equal(value, other)) {
+                return 0;
+            }
+
+            if (!(fuzzy && value instanceof Fuzzy)) {
+                return -1;
             }
 
-            return true;
+            return ((Fuzzy) value).compareTo(other);
+        }
+
+        /**
+         * @return whether both signatures have the same signs, quirks and maximum distance
+         */
+        boolean isIdentical(Signature other) {
+            return schema == other.schema && present == other.present && quirks == other.quirks
+                    && maximumDistance == other.maximumDistance
+                    && Arrays.equals(ints, other.ints) && Arrays.equals(objects, other.objects)
+                    && Util.equal(signs, other.signs);
         }
 
         public void setFuzzy(boolean fuzzy) {
             this.fuzzy = fuzzy;
         }
 
+        /**
+         * Interned signatures must not be set fuzzy, use this instead.
+         *
+         * @return this signature, if it is fuzzy, otherwise a fuzzy copy (which is not interned)
+         */
+        public Signature toFuzzy() {
+            if (fuzzy) {
+                return this;
+            }
+
+            Signature copy = new Signature(schema);
+            copy.present = present;
+            System.arraycopy(ints, 0, copy.ints, 0, ints.length);
+            System.arraycopy(objects, 0, copy.objects, 0, objects.length);
+            copy.signs = signs != null ? new HashMap<>(signs) : null;
+            copy.quirks = quirks;
+            copy.maximumDistance = maximumDistance;
+            copy.fuzzy = true;
+
+            return copy;
+        }
+
+        public boolean isFuzzy() {
+            return fuzzy;
+        }
+
         public void setMaximumDistance(int maximumDistance) {
             this.maximumDistance = maximumDistance;
         }
 
+        public int getMaximumDistance() {
+            return maximumDistance;
+        }
+
+        /**
+         * Computed once, after the last sign or quirk is added.
+         */
+        @Override
         public int hashCode() {
             if (hashCode != 0) {
                 return hashCode;
             }
 
-            return Arrays.hashCode(signs.values().toArray());
+            int result = (int) (present ^ (present >>> 32));
+            result = 31 * result + Arrays.hashCode(ints);
+            result = 31 * result + Arrays.hashCode(objects);
+            result = 31 * result + (signs != null ? signs.hashCode() : 0);
+            result = 31 * result + (int) (quirks ^ (quirks >>> 32));
+            hashCode = result != 0 ? result : 1;
+
+            return hashCode;
         }
 
         @Override
@@ -128,7 +394,7 @@ public abstract class Fingerprint {
             builder.append("- HashCode").append(": ").append(hashCode());
             builder.append('\n');
 
-            for (Map.Entry<String, Object> entry : signs.entrySet()) {
+            for (Map.Entry<String, Object> entry : getSigns().entrySet()) {
                 Object value = entry.getValue();
                 builder.append("- ");
                 builder.append(StringFormatter.firstToUppercase(entry.getKey()));
@@ -137,7 +403,7 @@ public abstract class Fingerprint {
                 builder.append("]\n");
             }
 
-            builder.append("- Quirks: ").append(quirks.toString());
+            builder.append("- Quirks: ").append(getQuirks().toString());
             builder.append('\n');
             builder.append("- Fuzzy: ").append(fuzzy);
 
@@ -146,11 +412,80 @@ public abstract class Fingerprint {
 
     }
 
+    /**
+     * number of distinct signatures kept by {@link #intern(Signature)}
+     */
+    private static final int CanonicalCount = 4096;
+
+    private static final Map<Identity, Signature> canonical = new LinkedHashMap<Identity, Signature>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Identity, Signature> eldest) {
+            return size() > CanonicalCount;
+        }
+    };
+
+    /**
+     * Identical signatures of many connections share one instance this way.
+     * Interned signatures must not be changed.
+     *
+     * @return an identical signature interned before, otherwise signature
+     */
+    public static Signature intern(Signature signature) {
+        Identity identity = new Identity(signature);
+
+        synchronized (canonical) {
+            Signature existing = canonical.get(identity);
+            if (existing != null) {
+                return existing;
+            }
+
+            canonical.put(identity, signature);
+        }
+
+        return signature;
+    }
+
+    /**
+     * @return slots of the signatures matched by this fingerprint
+     */
+    protected Schema getSchema() {
+        return Schema.Dynamic;
+    }
+
+    private final EnumSet<Trigger> triggers;
+
+    /**
+     * @param triggers conditions, which all have to hold for {@link #isBound(PcapPacket)} to be asked
+     */
+    protected Fingerprint(Trigger... triggers) {
+        this.triggers = triggers.length > 0 ? EnumSet.copyOf(Arrays.asList(triggers)) : EnumSet.noneOf(Trigger.class);
+    }
+
+    /**
+     * A connection handler evaluates a fingerprint only on packets meeting all triggers and,
+     * unless it is {@link #isContinuous() continuous}, only once per direction.
+     *
+     * @return conditions, empty if every packet is asked
+     */
+    public final Set<Trigger> getTriggers() {
+        return Collections.unmodifiableSet(triggers);
+    }
+
+    /**
+     * Continuous fingerprints are evaluated on every triggering packet, others stop after the first
+     * signature of a direction.
+     *
+     * @return false, override to opt out
+     */
+    public boolean isContinuous() {
+        return false;
+    }
+
     public final Fingerprint.Signature peer(PcapPacket packet, PcapConnection connection) {
-        Fingerprint.Signature newSignature = new Fingerprint.Signature();
+        Fingerprint.Signature newSignature = new Fingerprint.Signature(getSchema());
         match(newSignature, packet, connection);
 
-        return newSignature;
+        return intern(newSignature);
     }
 
     protected abstract void match(Fingerprint.Signature signature, PcapPacket packet, PcapConnection connection);
@@ -15,6 +15,10 @@ import java.util.Set;
  */
 public abstract class IpFingerprint extends Fingerprint {
 
+    protected IpFingerprint(Trigger... triggers) {
+        super(triggers);
+    }
+
     @Override
     public void match(Signature signature, PcapPacket packet, PcapConnection connection) {
         Ip ipHeader;
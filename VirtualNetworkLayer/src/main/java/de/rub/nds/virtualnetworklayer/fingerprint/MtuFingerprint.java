@@ -16,6 +16,11 @@ import java.util.Set;
  */
 public class MtuFingerprint extends Fingerprint {
     public static int Id = Fingerprints.Mtu.getId();
+    public static final Schema Signs = new Schema(new String[]{"mtu"});
+
+    public MtuFingerprint() {
+        super(Trigger.Syn, Trigger.MaximumSegmentSize);
+    }
 
     @Override
     public void match(Signature signature, PcapPacket packet, PcapConnection connection) {
@@ -57,6 +62,11 @@ public class MtuFingerprint extends Fingerprint {
         return false;
     }
 
+    @Override
+    protected Schema getSchema() {
+        return Signs;
+    }
+
     @Override
     public int getId() {
         return Id;
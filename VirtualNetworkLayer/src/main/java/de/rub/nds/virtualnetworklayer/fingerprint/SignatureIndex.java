@@ -0,0 +1,344 @@
+package de.rub.nds.virtualnetworklayer.fingerprint;
+
+import de.rub.nds.virtualnetworklayer.p0f.Label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compiled index of registered signatures for nearest-neighbour lookup of observed signatures.
+ * <p>
+ * Signatures are bucketed by the values of their key signs, which have to match exactly
+ * (e.g. direction, options layout and window size of a tcp signature). A registered signature without
+ * a key sign is a wildcard for it, an observed signature without a key sign never matches a registered
+ * one with it. A lookup only probes the wildcard combinations actually registered and scores the
+ * signatures of those buckets with {@link Fingerprint.Fuzzy#compareTo(Object)}.
+ * <p>
+ * Exact matches are preferred, specific labels before generic ones. Otherwise the registered signature
+ * with the smallest distance wins. Results of recent lookups are kept in a bounded LRU cache per thread,
+ * so concurrent lookups, e.g. by {@link de.rub.nds.virtualnetworklayer.pcap.Pipeline} workers, only share
+ * the index itself, which they read concurrently.
+ *
+ * @see Fingerprint.Signature#getDistance(Fingerprint.Signature, boolean)
+ */
+public class SignatureIndex {
+    public static final int DefaultCacheSize = 4096;
+
+    private static class Entry {
+        private final Fingerprint.Signature signature;
+        private final Label label;
+        private final int position;
+
+        private Entry(Fingerprint.Signature signature, Label label, int position) {
+            this.signature = signature;
+            this.label = label;
+            this.position = position;
+        }
+    }
+
+    /**
+     * LRU cache of one thread, cleared when a signature was registered since.
+     */
+    private static class Cache extends LinkedHashMap<Fingerprint.Identity, Match> {
+        private final int capacity;
+        private int generation;
+
+        private Cache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint.Identity, Match> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Result of a lookup, shared by all lookups of identical signatures.
+     */
+    public static final class Match {
+        private final Label label;
+        private final boolean fuzzy;
+
+        private Match(Label label, boolean fuzzy) {
+            this.label = label;
+            this.fuzzy = fuzzy;
+        }
+
+        /**
+         * @return label of the best matching registered signature, null if none matches
+         */
+        public Label getLabel() {
+            return label;
+        }
+
+        /**
+         * @return true, if there is no exact match
+         */
+        public boolean isFuzzy() {
+            return fuzzy;
+        }
+    }
+
+    private final String[] keySigns;
+    private final Map<List<Object>, List<Entry>> buckets = new HashMap<>();
+    /**
+     * bit i is set, if key sign i is present
+     */
+    private final List<Integer> masks = new ArrayList<>();
+    private final List<Entry>[] entries;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Cache> caches;
+    /**
+     * incremented by every registration, invalidates the caches
+     */
+    private volatile int generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param keySigns names of signs, which never hold a {@link Fingerprint.Fuzzy} value
+     */
+    public SignatureIndex(String... keySigns) {
+        this(DefaultCacheSize, keySigns);
+    }
+
+    /**
+     * @param cacheSize maximum number of cached lookups per thread, 0 disables the cache
+     * @param keySigns  names of signs, which never hold a {@link Fingerprint.Fuzzy} value
+     */
+    public SignatureIndex(final int cacheSize, String... keySigns) {
+        if (keySigns.length > Integer.SIZE - 1) {
+            throw new IllegalArgumentException("too many key signs " + Arrays.toString(keySigns));
+        }
+
+        this.keySigns = keySigns.clone();
+        this.caches = new ThreadLocal<Cache>() {
+            @Override
+            protected Cache initialValue() {
+                return new Cache(cacheSize);
+            }
+        };
+
+        entries = createEntries();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Entry>[] createEntries() {
+        List<Entry>[] entries = (List<Entry>[]) new List<?>[Label.Type.values().length];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new ArrayList<>();
+        }
+
+        return entries;
+    }
+
+    /**
+     * @throws IllegalArgumentException if signature with identical signs is already registered for this label type
+     */
+    public void register(Fingerprint.Signature signature, Label label) {
+        lock.writeLock().lock();
+        try {
+            add(signature, label);
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(Fingerprint.Signature signature, Label label) {
+        for (Entry entry : entries[label.getType().ordinal()]) {
+            if (signature.getDistance(entry.signature, false) >= 0) {
+                throw new IllegalArgumentException("signature doubles " + entry.label);
+            }
+        }
+
+        int mask = 0;
+        List<Object> key = new ArrayList<>(keySigns.length);
+        for (int i = 0; i < keySigns.length; i++) {
+            Object value = signature.getSign(keySigns[i]);
+            if (value != null) {
+                mask |= 1 << i;
+            }
+            key.add(value);
+        }
+
+        if (!masks.contains(mask)) {
+            masks.add(mask);
+        }
+
+        List<Entry> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(2);
+            buckets.put(key, bucket);
+        }
+
+        Entry entry = new Entry(signature, label, count());
+        bucket.add(entry);
+        entries[label.getType().ordinal()].add(entry);
+    }
+
+    /**
+     * Looks up the label of an observed signature, which is not changed (it is usually
+     * {@link Fingerprint#intern(Fingerprint.Signature) interned}).
+     *
+     * @param signature observed signature
+     * @return best match, its label is null if none matches
+     */
+    public Match lookup(Fingerprint.Signature signature) {
+        Cache cache = caches.get();
+        // read before searching, so a match found in an older index is dropped by the next lookup
+        int current = generation;
+        if (cache.generation != current) {
+            cache.clear();
+            cache.generation = current;
+        }
+
+        Fingerprint.Identity cacheKey = new Fingerprint.Identity(signature);
+        Match match = cache.get(cacheKey);
+
+        if (match == null) {
+            misses.incrementAndGet();
+
+            lock.readLock().lock();
+            try {
+                match = find(signature);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            cache.put(cacheKey, match);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return match;
+    }
+
+    private Match find(Fingerprint.Signature signature) {
+        List<List<Entry>> candidates = getCandidates(signature);
+
+        Entry exact = null;
+        for (List<Entry> bucket : candidates) {
+            for (Entry entry : bucket) {
+                if (isPreferred(entry, exact) && signature.getDistance(entry.signature, false) >= 0) {
+                    exact = entry;
+                }
+            }
+        }
+
+        if (exact != null) {
+            return new Match(exact.label, false);
+        }
+
+        Entry nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+        for (List<Entry> bucket : candidates) {
+            for (Entry entry : bucket) {
+                int distance = signature.getDistance(entry.signature, true);
+
+                if (distance >= 0 && (distance < nearestDistance
+                        || (distance == nearestDistance && isPreferred(entry, nearest)))) {
+                    nearest = entry;
+                    nearestDistance = distance;
+                }
+            }
+        }
+
+        return new Match(nearest != null ? nearest.label : null, true);
+    }
+
+    /**
+     * @return whether entry has a more specific label type than best or was registered before it
+     */
+    private boolean isPreferred(Entry entry, Entry best) {
+        if (best == null) {
+            return true;
+        }
+
+        int type = entry.label.getType().ordinal();
+        int bestType = best.label.getType().ordinal();
+        if (type != bestType) {
+            return type < bestType;
+        }
+
+        return entry.position < best.position;
+    }
+
+    /**
+     * @return buckets of all registered wildcard combinations, which signature's key signs can match
+     */
+    private List<List<Entry>> getCandidates(Fingerprint.Signature signature) {
+        Object[] values = new Object[keySigns.length];
+        for (int i = 0; i < keySigns.length; i++) {
+            values[i] = signature.getSign(keySigns[i]);
+        }
+
+        List<List<Entry>> candidates = new ArrayList<>(masks.size());
+        List<Object> key = Arrays.asList(new Object[keySigns.length]);
+
+        masks:
+        for (int mask : masks) {
+            for (int i = 0; i < keySigns.length; i++) {
+                if ((mask & (1 << i)) == 0) {
+                    key.set(i, null);
+                } else if (values[i] != null) {
+                    key.set(i, values[i]);
+                } else {
+                    continue masks;
+                }
+            }
+
+            List<Entry> bucket = buckets.get(key);
+            if (bucket != null) {
+                candidates.add(bucket);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * @return number of registered signatures
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int count() {
+        int size = 0;
+        for (List<Entry> typeEntries : entries) {
+            size += typeEntries.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * @return number of lookups answered by the caches
+     */
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of lookups, which had to search the index
+     */
+    public long getCacheMisses() {
+        return misses.get();
+    }
+}
@@ -8,7 +8,6 @@ import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
-import de.rub.nds.virtualnetworklayer.util.Util;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -20,6 +19,13 @@ import java.util.Set;
  */
 public class TcpFingerprint extends IpFingerprint {
     public static int Id = Fingerprints.Tcp.getId();
+    public static final Schema Signs = new Schema(
+            new String[]{"version", "optionsLength", "maximumSegmentSize", "windowScale"},
+            "timeToLive", "optionsLayout", "windowSize", "payloadClass", "direction");
+
+    public TcpFingerprint() {
+        super(Trigger.Syn);
+    }
 
     @Override
     public void match(Signature signature, PcapPacket packet, PcapConnection connection) {
@@ -32,7 +38,6 @@ public class TcpFingerprint extends IpFingerprint {
 
         List<TcpHeader.Option> optionsLayout = getOptionsLayout(tcpHeader);
         signature.addSign("optionsLayout", optionsLayout);
-        signature.hashCode = Util.enumHashCode(optionsLayout);
 
         int maxiumSegmentSize = 0;
 
@@ -195,6 +200,11 @@ public class TcpFingerprint extends IpFingerprint {
         return false;
     }
 
+    @Override
+    protected Schema getSchema() {
+        return Signs;
+    }
+
     @Override
     public int getId() {
         return Id;
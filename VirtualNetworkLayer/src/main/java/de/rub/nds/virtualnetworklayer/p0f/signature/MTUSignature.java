@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.p0f.signature;
 
 import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprint;
+import de.rub.nds.virtualnetworklayer.fingerprint.MtuFingerprint;
 import de.rub.nds.virtualnetworklayer.util.Util;
 
 import java.util.List;
@@ -14,6 +15,7 @@ import java.util.List;
 public class MTUSignature extends Fingerprint.Signature {
 
     public MTUSignature(final List<String> signs) {
+        super(MtuFingerprint.Signs);
         if(signs.size() > 1)
             throw new IllegalArgumentException("Too many signs: " + signs);
         if(signs.size() > 0)
@@ -21,6 +23,7 @@ public class MTUSignature extends Fingerprint.Signature {
     }
 
     public MTUSignature(String value) {
+        super(MtuFingerprint.Signs);
         readFromString(value);
     }
 
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.p0f.signature;
 
 import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprint;
+import de.rub.nds.virtualnetworklayer.fingerprint.TcpFingerprint;
 import de.rub.nds.virtualnetworklayer.p0f.Module;
 import de.rub.nds.virtualnetworklayer.p0f.signature.tcp.Option;
 import de.rub.nds.virtualnetworklayer.p0f.signature.tcp.Quirk;
@@ -61,8 +62,6 @@ public class TCPSignature extends Fingerprint.Signature {
         }
     }
 
-    private List<TcpHeader.Option> optionsLayout;
-
     private void readFromString(String value) {
         readFromString(Arrays.asList(value.trim().split(SIGN_DELIMITER)));
     }
@@ -94,6 +93,7 @@ public class TCPSignature extends Fingerprint.Signature {
      * Parse serialized form
      */
     public TCPSignature(String serialized) {
+        super(TcpFingerprint.Signs);
         readFromString(serialized);
     }
 
@@ -101,6 +101,7 @@ public class TCPSignature extends Fingerprint.Signature {
      * Parse serialized form and set sign direction
      */
     public TCPSignature(String serialized, Module.Direction direction) {
+        super(TcpFingerprint.Signs);
         readFromString(serialized);
         addSign("direction", direction.getMapping());
     }
@@ -109,12 +110,13 @@ public class TCPSignature extends Fingerprint.Signature {
      * Parse serialized form, already split, and set sign direction
      */
     public TCPSignature(List<String> signs, Module.Direction direction) {
+        super(TcpFingerprint.Signs);
         readFromString(signs);
         addSign("direction", direction.getMapping());
     }
 
     private void readOptions(String options) {
-        optionsLayout = new LinkedList<>();
+        List<TcpHeader.Option> optionsLayout = new LinkedList<>();
 
         if(! options.isEmpty()) {
             String[] parts = options.split(PART_DELIMITER);
@@ -147,11 +149,6 @@ public class TCPSignature extends Fingerprint.Signature {
         }
     }
 
-    @Override
-    public int hashCode() {
-        return Util.enumHashCode(optionsLayout);
-    }
-
     private static final String SIGN_DELIMITER = ":";
     private static final String PART_DELIMITER = ",";
 
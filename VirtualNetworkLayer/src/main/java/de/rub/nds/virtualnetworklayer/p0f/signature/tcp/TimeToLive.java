@@ -42,6 +42,11 @@ public class TimeToLive implements Fingerprint.Fuzzy<TimeToLive> {
         return initialTTL == other.initialTTL;
     }
 
+    @Override
+    public int hashCode() {
+        return initialTTL;
+    }
+
     @Override
     public String toString() {
         return String.valueOf(initialTTL);
@@ -113,6 +113,11 @@ public class WindowSize {
         return true;
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * size + type.ordinal();
+    }
+
     @Override
     public String toString() {
         return type.value + type.separator + size;
@@ -0,0 +1,197 @@
+package de.rub.nds.virtualnetworklayer.packet;
+
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A decoder context owns reusable views of all headers registered with {@link PacketHandler}.
+ * Views are rebound with {@link Header#peer(java.nio.ByteBuffer)} for every packet,
+ * so the registered prototypes are never touched while decoding.
+ * <p>
+ * A context must only be used by one thread at a time, but any number of contexts
+ * may decode concurrently. {@link PacketHandler} uses one context per thread.
+ * <p>
+ * Packets are either decoded into cloned headers ({@link #getPacketHeaders}),
+ * in flyweight mode ({@link #getPacket}), where the packet only holds
+ * the header layout and creates header objects on first access,
+ * or lazily one header at a time, when a lazy {@link PcapPacket} is asked for a header it has not decoded yet.
+ */
+public class DecoderContext {
+    /**
+     * views.get(depth)[index] is the view of the index<sup>th</sup> registered header at depth
+     */
+    private final List<Header[]> views = new ArrayList<>();
+    private final LinkedList<Header> previousHeaders = new LinkedList<>();
+    private int headerCount = -1;
+
+    /**
+     * layout of last decoded packet, see {@link PcapPacket.Layout}
+     */
+    private int[] layout = new int[4 * 8];
+    private int layoutSize;
+
+    private Header[] getViews(int depth) {
+        if (headerCount != PacketHandler.getHeaderCount()) {
+            views.clear();
+            headerCount = PacketHandler.getHeaderCount();
+        }
+
+        while (views.size() <= depth) {
+            Header[] headers = new Header[headerCount];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = PacketHandler.getPrototype(i).clone();
+            }
+
+            views.add(headers);
+        }
+
+        return views.get(depth);
+    }
+
+    /**
+     * Binds the views of all headers of byteBuffer, results in {@link #previousHeaders} and {@link #layout}.
+     */
+    private void decode(ByteBuffer byteBuffer, int length, Pcap.DataLinkType dataLinkType, boolean quirky, long[] mask) {
+        previousHeaders.clear();
+        layoutSize = 0;
+
+        int offset = 0;
+        int limit = byteBuffer.capacity();
+
+        while (offset < length) {
+            //TODO: slice throws IllegalArgumentException if offset > byteBuffer.limit catch here?
+            byteBuffer.position(offset);
+            ByteBuffer sliced = (ByteBuffer) byteBuffer.slice().limit(Math.min(byteBuffer.remaining(), limit));
+
+            Header[] views = getViews(previousHeaders.size());
+            int index = PacketHandler.getDispatchTable().bind(views, previousHeaders, sliced, dataLinkType, mask);
+            if (index < 0) {
+                break;
+            }
+
+            Header header = views[index];
+            previousHeaders.add(header);
+            addLayout(index, header.getId(), offset, sliced.limit());
+
+            boolean greedy = PacketHandler.isGreedy(index);
+            offset += header.getLength();
+            if (greedy) {
+                offset += header.getPayloadLength();
+            }
+
+            if (!quirky && !greedy) {
+                limit = Math.min(header.getPayloadLength(), length);
+            }
+        }
+
+        byteBuffer.position(0);
+    }
+
+    private void addLayout(int index, int id, int offset, int limit) {
+        if (layoutSize + 4 > layout.length) {
+            layout = Arrays.copyOf(layout, layout.length * 2);
+        }
+
+        layout[layoutSize++] = index;
+        layout[layoutSize++] = id;
+        layout[layoutSize++] = offset;
+        layout[layoutSize++] = limit;
+    }
+
+    /**
+     * Decodes all headers of byteBuffer.
+     *
+     * @param byteBuffer   packet
+     * @param length       captured length
+     * @param dataLinkType link type of packet
+     * @param quirky       if true, headers are not limited by the payload length of their predecessor
+     * @return independent copies of all headers
+     */
+    public LinkedList<Header> getPacketHeaders(ByteBuffer byteBuffer, int length, Pcap.DataLinkType dataLinkType, boolean quirky) {
+        return getPacketHeaders(byteBuffer, length, dataLinkType, quirky, null);
+    }
+
+    /**
+     * @param mask registration indices of headers which may be decoded, null for all
+     * @see PacketHandler#setDepth(Headers.Layer)
+     */
+    LinkedList<Header> getPacketHeaders(ByteBuffer byteBuffer, int length, Pcap.DataLinkType dataLinkType, boolean quirky, long[] mask) {
+        decode(byteBuffer, length, dataLinkType, quirky, mask);
+
+        LinkedList<Header> packetHeaders = new LinkedList<>();
+        for (Header header : previousHeaders) {
+            packetHeaders.add(header.clone());
+        }
+        previousHeaders.clear();
+
+        return packetHeaders;
+    }
+
+    /**
+     * Decodes byteBuffer in flyweight mode, i.e. no header object is created until
+     * the packet's headers are accessed.
+     *
+     * @param byteBuffer   packet
+     * @param timeStamp    in nanoseconds
+     * @param length       captured length
+     * @param dataLinkType link type of packet
+     * @return packet
+     */
+    public PcapPacket getPacket(ByteBuffer byteBuffer, long timeStamp, int length, Pcap.DataLinkType dataLinkType) {
+        return getPacket(byteBuffer, timeStamp, length, dataLinkType, null);
+    }
+
+    /**
+     * @param mask registration indices of headers which may be decoded, null for all
+     * @see PacketHandler#setDepth(Headers.Layer)
+     */
+    PcapPacket getPacket(ByteBuffer byteBuffer, long timeStamp, int length, Pcap.DataLinkType dataLinkType, long[] mask) {
+        decode(byteBuffer, length, dataLinkType, false, mask);
+        previousHeaders.clear();
+
+        return new PcapPacket(byteBuffer, timeStamp, new PcapPacket.Layout(Arrays.copyOf(layout, layoutSize)));
+    }
+
+    /**
+     * Decodes the header following headers of a lazy packet.
+     *
+     * @param byteBuffer packet
+     * @param headers    headers decoded so far
+     * @param lazy       decoding state of packet, advanced past the returned header
+     * @return copy of next header, null if there is none
+     */
+    Header decodeNext(ByteBuffer byteBuffer, LinkedList<Header> headers, PcapPacket.Lazy lazy) {
+        if (lazy.offset >= lazy.length) {
+            return null;
+        }
+
+        ByteBuffer view = byteBuffer.duplicate();
+        view.position(lazy.offset);
+        ByteBuffer sliced = (ByteBuffer) view.slice().limit(Math.min(view.remaining(), lazy.limit));
+
+        Header[] views = getViews(headers.size());
+        int index = PacketHandler.getDispatchTable().bind(views, headers, sliced, lazy.dataLinkType, lazy.mask);
+        if (index < 0) {
+            lazy.offset = lazy.length;
+            return null;
+        }
+
+        Header header = views[index].clone();
+
+        boolean greedy = PacketHandler.isGreedy(index);
+        lazy.offset += header.getLength();
+        if (greedy) {
+            lazy.offset += header.getPayloadLength();
+        } else {
+            lazy.limit = Math.min(header.getPayloadLength(), lazy.length);
+        }
+
+        return header;
+    }
+}
@@ -0,0 +1,175 @@
+package de.rub.nds.virtualnetworklayer.packet;
+
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
+import de.rub.nds.virtualnetworklayer.packet.header.link.family.Family;
+import de.rub.nds.virtualnetworklayer.packet.header.link.ppp.PPP;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.Port;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Dispatch graph of all registered headers: link type &rarr; ether type &rarr; ip protocol &rarr; port/heuristic.
+ * <p>
+ * Every {@link Binding} maps to a bit set of header indices (registration order).
+ * The candidates for the next header are looked up by the fields of the previous header,
+ * so only headers which might be bound are tried. Headers without bindings are tried everywhere.
+ * The first candidate (in registration order) which is bound wins, as with linear trial decoding.
+ *
+ * @see Header#bindings()
+ */
+final class DispatchTable {
+    private static final long[] None = new long[0];
+
+    private long[] wildcards = None;
+    private final long[][][] tables = new long[Binding.Kind.values().length][][];
+
+    DispatchTable() {
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = new long[0][];
+        }
+    }
+
+    /**
+     * @param index    registration index of header
+     * @param bindings {@link Header#bindings()}, null for wildcard
+     */
+    void add(int index, Binding[] bindings) {
+        if (bindings == null) {
+            wildcards = set(wildcards, index);
+            return;
+        }
+
+        for (Binding binding : bindings) {
+            long[][] table = tables[binding.getKind().ordinal()];
+
+            if (binding.getValue() >= table.length) {
+                table = Arrays.copyOf(table, binding.getValue() + 1);
+                tables[binding.getKind().ordinal()] = table;
+            }
+
+            table[binding.getValue()] = set(table[binding.getValue()] == null ? None : table[binding.getValue()], index);
+        }
+    }
+
+    /**
+     * Finds the first prototype bound to previousHeaders.
+     *
+     * @param prototypes      copies of registered headers in registration order
+     * @param previousHeaders already decoded headers
+     * @param sliced          buffer positioned at the next header
+     * @param dataLinkType    link type of packet
+     * @param mask            bit set of indices which may be tried, null for all
+     * @return index of bound prototype, otherwise -1
+     */
+    int bind(Header[] prototypes, LinkedList<Header> previousHeaders, ByteBuffer sliced, Pcap.DataLinkType dataLinkType, long[] mask) {
+        long[] first;
+        long[] second = None;
+        long[] third = None;
+        long[] fourth = None;
+
+        if (previousHeaders.isEmpty()) {
+            first = get(Binding.Kind.LinkType, dataLinkType);
+        } else {
+            Header previous = previousHeaders.getLast();
+            first = get(Binding.Kind.Header, previous.getId());
+
+            if (previous instanceof Ethernet) {
+                second = get(Binding.Kind.EtherType, ((Ethernet) previous).getType());
+            } else if (previous instanceof PPP) {
+                second = get(Binding.Kind.PppProtocol, ((PPP) previous).getProtocol());
+            } else if (previous instanceof Family) {
+                second = get(Binding.Kind.AddressFamily, ((Family) previous).getAddressFamily());
+            } else if (previous instanceof Ip) {
+                second = get(Binding.Kind.IpProtocol, ((Ip) previous).getNextHeader());
+            }
+
+            if (previous instanceof Port) {
+                third = get(Binding.Kind.Port, ((Port) previous).getSourcePort());
+                fourth = get(Binding.Kind.Port, ((Port) previous).getDestinationPort());
+            }
+        }
+
+        int words = Math.min(prototypes.length + 63 >> 6, Math.max(Math.max(wildcards.length, first.length),
+                Math.max(Math.max(second.length, third.length), fourth.length)));
+
+        for (int word = 0; word < words; word++) {
+            long candidates = get(wildcards, word) | get(first, word) | get(second, word)
+                    | get(third, word) | get(fourth, word);
+            if (mask != null) {
+                candidates &= get(mask, word);
+            }
+
+            while (candidates != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+
+                if (index >= prototypes.length) {
+                    return -1;
+                }
+
+                prototypes[index].peer(sliced);
+                if (prototypes[index].isBound(previousHeaders, dataLinkType)) {
+                    return index;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param layers layer of every registered header, in registration order
+     * @param depth  deepest layer
+     * @return bit set of all indices up to depth
+     */
+    static long[] getMask(List<Headers.Layer> layers, Headers.Layer depth) {
+        long[] mask = None;
+        for (int i = 0; i < layers.size(); i++) {
+            if (layers.get(i).compareTo(depth) <= 0) {
+                mask = set(mask, i);
+            }
+        }
+
+        return mask;
+    }
+
+    private long[] get(Binding.Kind kind, Enum<?> value) {
+        if (value == null) {
+            return None;
+        }
+
+        return get(kind, value.ordinal());
+    }
+
+    private long[] get(Binding.Kind kind, int value) {
+        long[][] table = tables[kind.ordinal()];
+
+        if (value < 0 || value >= table.length || table[value] == null) {
+            return None;
+        }
+
+        return table[value];
+    }
+
+    private static long get(long[] bits, int word) {
+        return word < bits.length ? bits[word] : 0;
+    }
+
+    private static long[] set(long[] bits, int index) {
+        int word = index >> 6;
+
+        if (word >= bits.length) {
+            bits = Arrays.copyOf(bits, word + 1);
+        }
+        bits[word] |= 1L << index;
+
+        return bits;
+    }
+}
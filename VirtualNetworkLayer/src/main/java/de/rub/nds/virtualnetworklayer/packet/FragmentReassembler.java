@@ -0,0 +1,363 @@
+package de.rub.nds.virtualnetworklayer.packet;
+
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reassembles fragmented Ip4 and Ip6 datagrams.
+ * <p>
+ * Fragments are cached by (source, destination, identification, protocol) until the datagram is complete.
+ * The reassembled frame consists of the link layer and Ip header of the first fragment followed by
+ * the complete payload, so it decodes as if it had arrived whole.
+ * <p>
+ * The cache is bounded by number of datagrams and buffered bytes (the oldest datagram is evicted) and
+ * datagrams are dropped after a timeout. Overlapping fragments drop the whole datagram (see RFC 5722).
+ * Ip6 fragments are only recognized, if the fragment header directly follows the Ip6 header.
+ *
+ * @see PacketHandler#setFragmentReassembler(FragmentReassembler)
+ */
+public class FragmentReassembler {
+    public static final int DefaultMaxDatagrams = 1024;
+    public static final int DefaultMaxBytes = 4 << 20;
+    /**
+     * default reassembly timeout in nanoseconds (like Linux ipfrag_time)
+     */
+    public static final long DefaultTimeout = 30 * 1000000000L;
+
+    private static final int Ip6Fragment = 44;
+
+    private static class Key {
+        private final byte[] source;
+        private final byte[] destination;
+        private final int identification;
+        private final int protocol;
+
+        private Key(byte[] source, byte[] destination, int identification, int protocol) {
+            this.source = source;
+            this.destination = destination;
+            this.identification = identification;
+            this.protocol = protocol;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return identification == other.identification && protocol == other.protocol
+                    && Arrays.equals(source, other.source) && Arrays.equals(destination, other.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((Arrays.hashCode(source) * 31 + Arrays.hashCode(destination)) * 31 + identification) * 31 + protocol;
+        }
+    }
+
+    private static class Datagram {
+        private final long timeStamp;
+        private final TreeMap<Integer, byte[]> fragments = new TreeMap<>();
+        private byte[] head;
+        private int ipOffset;
+        private int nextHeader;
+        private int length = -1;
+        private int bytes;
+
+        private Datagram(long timeStamp) {
+            this.timeStamp = timeStamp;
+        }
+
+        private boolean overlaps(int offset, int length) {
+            Map.Entry<Integer, byte[]> floor = fragments.floorEntry(offset);
+            if (floor != null && floor.getKey() + floor.getValue().length > offset) {
+                return true;
+            }
+
+            Map.Entry<Integer, byte[]> ceiling = fragments.ceilingEntry(offset);
+            return ceiling != null && ceiling.getKey() < offset + length;
+        }
+
+        private boolean isComplete() {
+            if (head == null || length < 0) {
+                return false;
+            }
+
+            int position = 0;
+            for (Map.Entry<Integer, byte[]> fragment : fragments.entrySet()) {
+                if (fragment.getKey() != position) {
+                    return false;
+                }
+                position += fragment.getValue().length;
+            }
+
+            return position == length;
+        }
+    }
+
+    private final int maxDatagrams;
+    private final int maxBytes;
+    private final long timeout;
+
+    private LinkedHashMap<Key, Datagram> datagrams = new LinkedHashMap<>();
+    private int bytes;
+
+    private long reassembled;
+    private long timedOut;
+    private long overlapping;
+    private long evicted;
+
+    public FragmentReassembler() {
+        this(DefaultMaxDatagrams, DefaultMaxBytes, DefaultTimeout);
+    }
+
+    /**
+     * @param maxDatagrams maximum number of incomplete datagrams
+     * @param maxBytes     maximum number of buffered payload bytes
+     * @param timeout      nanoseconds after the first fragment, until an incomplete datagram is dropped
+     */
+    public FragmentReassembler(int maxDatagrams, int maxBytes, long timeout) {
+        this.maxDatagrams = maxDatagrams;
+        this.maxBytes = maxBytes;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return Ip header of packet if it is a fragment, otherwise null
+     */
+    static Ip getFragment(PcapPacket packet) {
+        Ip4Header ip4Header = packet.getHeader(Ip4Header.Id);
+        if (ip4Header != null) {
+            // masks MF too, so first fragments are included
+            return ip4Header.getFragmentOffset() > 0 ? ip4Header : null;
+        }
+
+        Ip6Header ip6Header = packet.getHeader(Ip6Header.Id);
+        if (ip6Header != null && ip6Header.getNextHeader() == null) {
+            byte[] content = packet.getContent();
+            int offset = ip6Header.getOffset();
+
+            if (content.length >= offset + 48 && (content[offset + 6] & 0xff) == Ip6Fragment) {
+                return ip6Header;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a fragment, its bytes are copied.
+     *
+     * @param packet   fragment
+     * @param ipHeader Ip header of fragment
+     * @return reassembled frame, null if datagram is not complete yet
+     */
+    synchronized ByteBuffer add(PcapPacket packet, Ip ipHeader) {
+        expire(packet.getTimeStamp());
+
+        byte[] content = packet.getContent();
+        int ipOffset = ipHeader.getOffset();
+        Key key;
+        int offset;
+        boolean more;
+        int payloadOffset;
+        int payloadLength;
+        int nextHeader = 0;
+
+        if (ipHeader instanceof Ip4Header) {
+            int headerLength = (content[ipOffset] & 0x0f) * 4;
+            int flags = getUShort(content, ipOffset + 6);
+
+            key = new Key(Arrays.copyOfRange(content, ipOffset + 12, ipOffset + 16),
+                    Arrays.copyOfRange(content, ipOffset + 16, ipOffset + 20),
+                    getUShort(content, ipOffset + 4), content[ipOffset + 9] & 0xff);
+            offset = (flags & 0x1fff) * 8;
+            more = (flags & 0x2000) != 0;
+            payloadOffset = ipOffset + headerLength;
+            payloadLength = Math.min(ipOffset + getUShort(content, ipOffset + 2), content.length) - payloadOffset;
+        } else {
+            int fragmentOffset = ipOffset + 40;
+            int flags = getUShort(content, fragmentOffset + 2);
+
+            nextHeader = content[fragmentOffset] & 0xff;
+            key = new Key(Arrays.copyOfRange(content, ipOffset + 8, ipOffset + 24),
+                    Arrays.copyOfRange(content, ipOffset + 24, ipOffset + 40),
+                    ByteBuffer.wrap(content, fragmentOffset + 4, 4).getInt(), nextHeader);
+            offset = flags & 0xfff8;
+            more = (flags & 0x01) != 0;
+            payloadOffset = fragmentOffset + 8;
+            payloadLength = Math.min(fragmentOffset + getUShort(content, ipOffset + 4), content.length) - payloadOffset;
+        }
+
+        if (payloadLength <= 0 && more) {
+            return null;
+        }
+        payloadLength = Math.max(payloadLength, 0);
+
+        Datagram datagram = datagrams.get(key);
+        if (datagram == null) {
+            if (datagrams.size() >= maxDatagrams) {
+                evictOldest();
+            }
+
+            datagram = new Datagram(packet.getTimeStamp());
+            datagrams.put(key, datagram);
+        }
+
+        if (datagram.overlaps(offset, payloadLength) || (!more && datagram.length >= 0)) {
+            overlapping++;
+            remove(key);
+            return null;
+        }
+
+        datagram.fragments.put(offset, Arrays.copyOfRange(content, payloadOffset, payloadOffset + payloadLength));
+        datagram.bytes += payloadLength;
+        bytes += payloadLength;
+
+        if (offset == 0) {
+            datagram.head = Arrays.copyOf(content, ipHeader instanceof Ip4Header ? payloadOffset : ipOffset + 40);
+            datagram.ipOffset = ipOffset;
+            datagram.nextHeader = nextHeader;
+        }
+
+        if (!more) {
+            datagram.length = offset + payloadLength;
+        }
+
+        while (bytes > maxBytes && !datagrams.isEmpty()) {
+            evictOldest();
+        }
+
+        if (datagrams.get(key) != datagram || !datagram.isComplete()) {
+            return null;
+        }
+
+        remove(key);
+        return build(datagram, ipHeader instanceof Ip4Header);
+    }
+
+    private ByteBuffer build(Datagram datagram, boolean ip4) {
+        int ipOffset = datagram.ipOffset;
+        int headerLength = datagram.head.length - ipOffset;
+
+        if (ip4 && headerLength + datagram.length > 0xffff) {
+            overlapping++;
+            return null;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(datagram.head.length + datagram.length);
+        frame.put(datagram.head);
+        for (byte[] fragment : datagram.fragments.values()) {
+            frame.put(fragment);
+        }
+        frame.flip();
+
+        if (ip4) {
+            frame.putShort(ipOffset + 2, (short) (headerLength + datagram.length));
+            // keep DF, clear MF and fragment offset
+            frame.putShort(ipOffset + 6, (short) (frame.getShort(ipOffset + 6) & 0x4000));
+            frame.putShort(ipOffset + 10, (short) 0);
+            frame.putShort(ipOffset + 10, getChecksum(frame, ipOffset, headerLength));
+        } else {
+            frame.putShort(ipOffset + 4, (short) datagram.length);
+            frame.put(ipOffset + 6, (byte) datagram.nextHeader);
+        }
+
+        reassembled++;
+        return frame;
+    }
+
+    private static short getChecksum(ByteBuffer frame, int offset, int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i += 2) {
+            sum += frame.getShort(i) & 0xffff;
+        }
+
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+
+        return (short) ~sum;
+    }
+
+    private static int getUShort(byte[] content, int offset) {
+        return ((content[offset] & 0xff) << 8) | (content[offset + 1] & 0xff);
+    }
+
+    private void expire(long timeStamp) {
+        Iterator<Datagram> iterator = datagrams.values().iterator();
+
+        while (iterator.hasNext()) {
+            Datagram datagram = iterator.next();
+            if (datagram.timeStamp + timeout > timeStamp) {
+                break;
+            }
+
+            iterator.remove();
+            bytes -= datagram.bytes;
+            timedOut++;
+        }
+    }
+
+    private void evictOldest() {
+        Iterator<Datagram> iterator = datagrams.values().iterator();
+        bytes -= iterator.next().bytes;
+        iterator.remove();
+        evicted++;
+    }
+
+    private void remove(Key key) {
+        bytes -= datagrams.remove(key).bytes;
+    }
+
+    /**
+     * @return number of datagrams reassembled
+     */
+    public synchronized long getReassembled() {
+        return reassembled;
+    }
+
+    /**
+     * @return number of incomplete datagrams dropped after timeout
+     */
+    public synchronized long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return number of datagrams dropped, because of overlapping fragments
+     */
+    public synchronized long getOverlapping() {
+        return overlapping;
+    }
+
+    /**
+     * @return number of incomplete datagrams evicted, because the cache was full
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return number of incomplete datagrams
+     */
+    public synchronized int getPending() {
+        return datagrams.size();
+    }
+
+    /**
+     * @return number of buffered payload bytes
+     */
+    public synchronized int getBufferedBytes() {
+        return bytes;
+    }
+}
@@ -3,36 +3,70 @@ package de.rub.nds.virtualnetworklayer.packet;
 /**
  * Registry of all headers.
  * {@link Enum#ordinal()} is used as id.
+ * <p>
+ * Every header belongs to a {@link Layer}, which lets handlers limit decoding to the layers they need.
  *
  * @author Marco Faltermeier <faltermeier@me.com>
  */
 public enum Headers {
-    Ethernet,
-    Null,
-    Radiotap,
-    Prism,
-    IEEE802_11,
-    IEEE802_1Q,
-    IEEE802_2,
-    IEEE802_3,
-    Snap,
-    Sll,
-    PfLog,
-    Arp,
-    PPP,
-    PPPoE,
-    Gre,
-    Ip4,
-    Ip6,
-    Udp,
-    Tcp,
-    Tls,
-    Http,
-    Sip,
-    Dhcp,
-    Smtp;
+    Ethernet(Layer.Link),
+    Null(Layer.Link),
+    Radiotap(Layer.Link),
+    Prism(Layer.Link),
+    IEEE802_11(Layer.Link),
+    IEEE802_1Q(Layer.Link),
+    IEEE802_2(Layer.Link),
+    IEEE802_3(Layer.Link),
+    Snap(Layer.Link),
+    Sll(Layer.Link),
+    PfLog(Layer.Link),
+    Arp(Layer.Link),
+    PPP(Layer.Link),
+    PPPoE(Layer.Link),
+    Gre(Layer.Link),
+    Ip4(Layer.Internet),
+    Ip6(Layer.Internet),
+    Udp(Layer.Transport),
+    Tcp(Layer.Transport),
+    Tls(Layer.Application),
+    Http(Layer.Application),
+    Sip(Layer.Application),
+    Dhcp(Layer.Application),
+    Smtp(Layer.Application);
+
+    /**
+     * Layers of the internet protocol suite, in decoding order.
+     */
+    public enum Layer {
+        Link,
+        Internet,
+        Transport,
+        Application
+    }
+
+    private Layer layer;
+
+    private Headers(Layer layer) {
+        this.layer = layer;
+    }
 
     public int getId() {
         return this.ordinal();
     }
+
+    public Layer getLayer() {
+        return layer;
+    }
+
+    /**
+     * @param id header id
+     * @return layer of header, {@link Layer#Application} if id is not in this registry
+     */
+    public static Layer getLayer(int id) {
+        if (id >= 0 && id < values().length) {
+            return values()[id].layer;
+        }
+
+        return Layer.Application;
+    }
 }
@@ -2,6 +2,7 @@ package de.rub.nds.virtualnetworklayer.packet;
 
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.application.*;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ArpHeader;
@@ -15,11 +16,13 @@ import de.rub.nds.virtualnetworklayer.packet.header.link.wlan.PrismHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.link.wlan.RadiotapHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.UdpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.PacketBuffer;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.pcap.PcapHandler;
 import de.rub.nds.virtualnetworklayer.util.Util;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -27,14 +30,48 @@ import java.util.Set;
 
 /**
  * This class extends {@link PcapHandler} with packet parsing capabilities.
+ * Registered headers are prototypes only, decoding is done by the {@link DecoderContext} of the current thread.
+ * <p>
+ * How much of a packet is decoded is chosen with {@link #setDecoding(Decoding)} and {@link #setDepth(Headers.Layer)}.
  *
  * @author Marco Faltermeier <faltermeier@me.com>
  * @see Header
  */
 public abstract class PacketHandler extends PcapHandler {
-    private static List<Header> headers = new LinkedList<Header>();
+
+    public enum Decoding {
+        /**
+         * all headers are decoded and copied before {@link #newPacket(PcapPacket)}
+         */
+        Eager,
+        /**
+         * all headers are decoded before {@link #newPacket(PcapPacket)}, but header objects are
+         * created on first access
+         */
+        Flyweight,
+        /**
+         * headers are decoded on first access, as far as needed, e.g. {@code getHeader(Headers.Tcp)}
+         * never tries application layer headers. Packets have to stay valid until decoded,
+         * i.e. copied (see {@link #PacketHandler(boolean)}) or retained, if pooled.
+         */
+        Lazy
+    }
+
+    private static List<Header> headers = new ArrayList<Header>();
+    private static List<Headers.Layer> layers = new ArrayList<Headers.Layer>();
+    private static long[][] layerMasks = new long[Headers.Layer.values().length][];
     private static Set<Header> greedyHeaders = new HashSet<Header>();
+    private static DispatchTable dispatchTable = new DispatchTable();
+    private static ThreadLocal<DecoderContext> decoderContexts = new ThreadLocal<DecoderContext>() {
+        @Override
+        protected DecoderContext initialValue() {
+            return new DecoderContext();
+        }
+    };
     private boolean deepCopy;
+    private Decoding decoding = Decoding.Eager;
+    private Headers.Layer depth = Headers.Layer.Application;
+    private FragmentReassembler fragmentReassembler;
 
     static {
         registerHeader(new EthernetHeader());
@@ -78,12 +115,20 @@ public abstract class PacketHandler extends PcapHandler {
      * </p>
      * Greedy headers swallow the complete payload,
      * so no header might follow.
+     * </p>
+     * The header is only tried at its {@link Header#bindings()}.
      *
      * @param header
      * @param greedy
      */
     public static void registerHeader(Header header, boolean greedy) {
+        dispatchTable.add(headers.size(), header.bindings());
         headers.add(header);
+        layers.add(Headers.getLayer(header.getId()));
+
+        for (Headers.Layer layer : Headers.Layer.values()) {
+            layerMasks[layer.ordinal()] = DispatchTable.getMask(layers, layer);
+        }
 
         if (greedy) {
             greedyHeaders.add(header);
@@ -94,6 +139,9 @@ public abstract class PacketHandler extends PcapHandler {
         return headers.size();
     }
 
+    /**
+     * @param deepCopy copy packet bytes, which are only valid during the pcap callback otherwise
+     */
     protected PacketHandler(boolean deepCopy) {
         this.deepCopy = deepCopy;
     }
@@ -102,19 +150,77 @@ public abstract class PacketHandler extends PcapHandler {
         this(true);
     }
 
-    private static Header getHeader(LinkedList<Header> packetHeaders, ByteBuffer byteBuffer, int offset, int limit, Pcap.DataLinkType dataLinkType) {
-        byteBuffer.position(offset);
-        ByteBuffer sliced = (ByteBuffer) byteBuffer.slice().limit(Math.min(byteBuffer.remaining(), limit));
+    static Header getPrototype(int index) {
+        return headers.get(index);
+    }
 
-        for (Header header : headers) {
-            header.peer(sliced);
+    static boolean isGreedy(int index) {
+        return greedyHeaders.contains(headers.get(index));
+    }
 
-            if (header.isBound(packetHeaders, dataLinkType)) {
-                return header;
-            }
+    static DispatchTable getDispatchTable() {
+        return dispatchTable;
+    }
+
+    /**
+     * @return registration indices of all headers up to depth, null if all headers may be decoded
+     */
+    private static long[] getLayerMask(Headers.Layer depth) {
+        if (depth == Headers.Layer.Application) {
+            return null;
         }
 
-        return null;
+        return layerMasks[depth.ordinal()];
+    }
+
+    /**
+     * @param decoding when headers are decoded, default is {@link Decoding#Eager}
+     */
+    public void setDecoding(Decoding decoding) {
+        this.decoding = decoding;
+    }
+
+    public Decoding getDecoding() {
+        return decoding;
+    }
+
+    /**
+     * Declares the deepest layer this handler needs, headers of deeper layers are never tried.
+     * E.g. with {@link Headers.Layer#Transport} application layer headers are not decoded at all.
+     *
+     * @param depth deepest layer to decode, default is {@link Headers.Layer#Application}
+     */
+    public void setDepth(Headers.Layer depth) {
+        this.depth = depth;
+    }
+
+    public Headers.Layer getDepth() {
+        return depth;
+    }
+
+    /**
+     * Reassembles fragmented ip datagrams before {@link #newPacket(PcapPacket)}.
+     * Fragments are consumed, the reassembled datagram is delivered as one packet
+     * with the time stamp of its last fragment.
+     * <p>
+     * A {@link de.rub.nds.virtualnetworklayer.pcap.Pipeline} shards fragments by their address pair like
+     * all other packets, so the datagram is delivered by the worker handling its flow.
+     *
+     * @param fragmentReassembler reassembler, default is null (fragments are delivered as they are)
+     */
+    public void setFragmentReassembler(FragmentReassembler fragmentReassembler) {
+        this.fragmentReassembler = fragmentReassembler;
+    }
+
+    public FragmentReassembler getFragmentReassembler() {
+        return fragmentReassembler;
+    }
+
+    /**
+     * @return decoder context of the current thread
+     */
+    public static DecoderContext getDecoderContext() {
+        return decoderContexts.get();
     }
 
     public static LinkedList<Header> getPacketHeaders(ByteBuffer byteBuffer) {
@@ -126,41 +232,72 @@ public abstract class PacketHandler extends PcapHandler {
     }
 
     public static LinkedList<Header> getPacketHeaders(ByteBuffer byteBuffer, int length, Pcap.DataLinkType dataLinkType, boolean quirky) {
-        LinkedList<Header> packetHeaders = new LinkedList<Header>();
-        int offset = 0;
-        int limit = byteBuffer.capacity();
+        return getDecoderContext().getPacketHeaders(byteBuffer, length, dataLinkType, quirky);
+    }
 
-        Header header;
-        while (offset < length && (header = getHeader(packetHeaders, byteBuffer, offset, limit, dataLinkType)) != null) {
-            //TODO: getHeader throws IllegalArgumentException if offset < byteBuffer.limit catch here?
+    @Override
+    protected final void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
+        PacketBuffer buffer = getCurrentBuffer();
 
-            Header packetHeader = header.clone();
-            packetHeaders.add(packetHeader);
+        if (buffer == null && deepCopy) {
+            byteBuffer = Util.clone(byteBuffer);
+        }
 
-            offset += header.getLength();
-            if (greedyHeaders.contains(header)) {
-                offset += header.getPayloadLength();
-            }
+        PcapPacket packet = decode(byteBuffer, timeStamp, length);
 
-            if (!quirky && !greedyHeaders.contains(header)) {
-                limit = Math.min(header.getPayloadLength(), length);
-            }
+        if (buffer != null) {
+            packet.setBuffer(buffer.retain());
         }
 
-        return packetHeaders;
-    }
+        FragmentReassembler fragmentReassembler = this.fragmentReassembler;
+        if (fragmentReassembler != null) {
+            Ip ipHeader = FragmentReassembler.getFragment(packet);
 
-    @Override
-    protected final void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
-        if (deepCopy) {
-            byteBuffer = Util.clone(byteBuffer);
+            if (ipHeader != null) {
+                ByteBuffer datagram;
+                try {
+                    datagram = fragmentReassembler.add(packet, ipHeader);
+                } finally {
+                    packet.release();
+                }
+
+                if (datagram == null) {
+                    return;
+                }
+
+                packet = decode(datagram, timeStamp, datagram.limit());
+                packet.setReassembled(true);
+            }
         }
 
-        LinkedList<Header> packetHeaders = getPacketHeaders(byteBuffer, length, dataLinkType);
+        try {
+            newPacket(packet);
+        } finally {
+            packet.release();
+        }
+    }
 
-        newPacket(new PcapPacket(byteBuffer, timeStamp, packetHeaders));
+    private PcapPacket decode(ByteBuffer byteBuffer, long timeStamp, int length) {
+        DecoderContext context = getDecoderContext();
+        long[] mask = getLayerMask(depth);
+
+        switch (decoding) {
+            case Flyweight:
+                return context.getPacket(byteBuffer, timeStamp, length, dataLinkType, mask);
+            case Lazy:
+                return new PcapPacket(byteBuffer, timeStamp, new PcapPacket.Lazy(dataLinkType, length, mask));
+            default:
+                return new PcapPacket(byteBuffer, timeStamp, context.getPacketHeaders(byteBuffer, length, dataLinkType, false, mask));
+        }
     }
 
+    /**
+     * Packet callback.
+     * If a {@link #setBufferPool(de.rub.nds.virtualnetworklayer.pcap.BufferPool) buffer pool} is set,
+     * the packet's bytes are only valid during the callback unless {@link PcapPacket#retain()} is called.
+     *
+     * @param packet decoded packet
+     */
     protected abstract void newPacket(PcapPacket packet);
 
 }
@@ -2,9 +2,14 @@ package de.rub.nds.virtualnetworklayer.packet;
 
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.Session;
+import de.rub.nds.virtualnetworklayer.packet.header.SessionHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.pcap.PacketBuffer;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.StringFormattable;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -14,11 +19,78 @@ import java.util.List;
  * @author Marco Faltermeier <faltermeier@me.com>
  */
 public class PcapPacket implements Packet, StringFormattable {
-    private LinkedList<Header> headers;
+    /**
+     * Header layout of a packet decoded in flyweight mode,
+     * i.e. (registration index, id, offset, limit) of every header.
+     *
+     * @see DecoderContext#getPacket(java.nio.ByteBuffer, long, int, de.rub.nds.virtualnetworklayer.pcap.Pcap.DataLinkType)
+     */
+    static class Layout {
+        private final int[] layout;
+
+        Layout(int[] layout) {
+            this.layout = layout;
+        }
+
+        int size() {
+            return layout.length / 4;
+        }
+
+        int getId(int position) {
+            return layout[position * 4 + 1];
+        }
+
+        LinkedList<Header> getHeaders(ByteBuffer byteBuffer) {
+            LinkedList<Header> headers = new LinkedList<>();
+            ByteBuffer view = byteBuffer.duplicate();
+
+            for (int i = 0; i < layout.length; i += 4) {
+                view.limit(view.capacity()).position(layout[i + 2]);
+
+                Header header = PacketHandler.getPrototype(layout[i]).clone();
+                header.peer((ByteBuffer) view.slice().limit(layout[i + 3]));
+                headers.add(header);
+            }
+
+            return headers;
+        }
+    }
+
+    /**
+     * Decoding state of a lazy packet, i.e. where the next header starts and
+     * which headers may be decoded.
+     *
+     * @see DecoderContext#decodeNext(java.nio.ByteBuffer, java.util.LinkedList, Lazy)
+     */
+    static class Lazy {
+        final Pcap.DataLinkType dataLinkType;
+        final int length;
+        final long[] mask;
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
+
+        Lazy(Pcap.DataLinkType dataLinkType, int length, long[] mask) {
+            this.dataLinkType = dataLinkType;
+            this.length = length;
+            this.mask = mask;
+        }
+    }
+
+    private volatile LinkedList<Header> headers;
+    /**
+     * first header of every id, indexed by id
+     */
+    private volatile Header[] index;
+    private Layout layout;
+    private Lazy lazy;
+    private LinkedList<Header> decoded;
+    private Header[] decodedIndex;
+    private PacketBuffer buffer;
     private long timeStamp;
     private ByteBuffer byteBuffer;
     private Direction direction;
     private int length;
+    private boolean reassembled;
 
     public PcapPacket(ByteBuffer byteBuffer, long timeStamp, LinkedList<Header> headers) {
         this.byteBuffer = byteBuffer;
@@ -26,28 +98,209 @@ public class PcapPacket implements Packet, StringFormattable {
         this.headers = headers;
     }
 
+    /**
+     * Creates a flyweight packet, headers are created on first access.
+     */
+    PcapPacket(ByteBuffer byteBuffer, long timeStamp, Layout layout) {
+        this.byteBuffer = byteBuffer;
+        this.timeStamp = timeStamp;
+        this.layout = layout;
+    }
+
+    /**
+     * Creates a lazy packet, every header is decoded when it is asked for the first time.
+     */
+    PcapPacket(ByteBuffer byteBuffer, long timeStamp, Lazy lazy) {
+        this.byteBuffer = byteBuffer;
+        this.timeStamp = timeStamp;
+        this.lazy = lazy;
+        this.decoded = new LinkedList<>();
+        this.decodedIndex = new Header[Headers.values().length];
+    }
+
+    void setBuffer(PacketBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    void setReassembled(boolean reassembled) {
+        this.reassembled = reassembled;
+    }
+
+    /**
+     * @return whether this packet was reassembled from ip fragments
+     * @see FragmentReassembler
+     */
+    public boolean isReassembled() {
+        return reassembled;
+    }
+
+    /**
+     * Keeps a pooled packet valid beyond the current callback, until {@link #release()}.
+     * Has no effect on packets, which are not pooled.
+     *
+     * @return this packet
+     * @see de.rub.nds.virtualnetworklayer.pcap.PcapHandler#setBufferPool(de.rub.nds.virtualnetworklayer.pcap.BufferPool)
+     */
+    public PcapPacket retain() {
+        PacketBuffer buffer = this.buffer;
+        if (buffer != null) {
+            buffer.retain();
+        }
+
+        return this;
+    }
+
+    /**
+     * Drops a reference taken by {@link #retain()}, the last one returns the bytes to the pool.
+     */
+    public void release() {
+        PacketBuffer buffer = this.buffer;
+        if (buffer != null && buffer.release()) {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * @return whether the bytes of this packet are pooled
+     */
+    public boolean isPooled() {
+        return buffer != null;
+    }
+
+    private LinkedList<Header> headers() {
+        LinkedList<Header> headers = this.headers;
+
+        if (headers == null) {
+            synchronized (this) {
+                if (this.headers == null) {
+                    if (layout != null) {
+                        this.headers = layout.getHeaders(byteBuffer);
+                    } else {
+                        while (decodeNext() != null) {
+                        }
+                    }
+                }
+                headers = this.headers;
+            }
+        }
+
+        return headers;
+    }
+
+    private Header[] index() {
+        Header[] index = this.index;
+
+        if (index == null) {
+            index = new Header[Headers.values().length];
+            for (Header header : headers()) {
+                index = addToIndex(index, header);
+            }
+            this.index = index;
+        }
+
+        return index;
+    }
+
+    private static Header[] addToIndex(Header[] index, Header header) {
+        int id = header.getId();
+
+        if (id >= 0) {
+            if (id >= index.length) {
+                index = Arrays.copyOf(index, id + 1);
+            }
+
+            if (index[id] == null) {
+                index[id] = header;
+            }
+        }
+
+        return index;
+    }
+
+    private boolean isDecoded() {
+        return headers != null || layout != null;
+    }
+
+    /**
+     * Decodes the next header of a lazy packet, has to be called with lock held.
+     *
+     * @return decoded header, null if packet is decoded completely
+     */
+    private Header decodeNext() {
+        if (lazy == null) {
+            return null;
+        }
+
+        Header header = PacketHandler.getDecoderContext().decodeNext(byteBuffer, decoded, lazy);
+
+        if (header != null) {
+            decoded.add(header);
+            decodedIndex = addToIndex(decodedIndex, header);
+        } else {
+            index = decodedIndex;
+            headers = decoded;
+            lazy = null;
+            decoded = null;
+            decodedIndex = null;
+        }
+
+        return header;
+    }
+
+    /**
+     * Lazy lookup, has to be called with lock held.
+     */
+    private Header decodeUntil(int id) {
+        if (id >= 0 && id < decodedIndex.length && decodedIndex[id] != null) {
+            return decodedIndex[id];
+        }
+
+        Header header;
+        while ((header = decodeNext()) != null) {
+            if (header.getId() == id) {
+                return header;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public long getTimeStamp() {
         return timeStamp;
     }
 
     public List<Header> getHeaders() {
-        return headers;
+        return headers();
     }
 
     /**
      * Returns header (by id) if found, else null.
+     * Lazy packets decode only up to the requested header.
      *
      * @param id header id
      * @return header
      */
     public <T extends Header> T getHeader(int id) {
-        for (Header header : headers) {
-            if (header.getId() == id) {
-                return (T) header;
+        @SuppressWarnings("unchecked")
+        T header = (T) findHeader(id);
+        return header;
+    }
+
+    private Header findHeader(int id) {
+        if (!isDecoded()) {
+            synchronized (this) {
+                if (headers == null) {
+                    return decodeUntil(id);
+                }
             }
         }
 
+        Header[] index = index();
+        if (id >= 0 && id < index.length) {
+            return index[id];
+        }
+
         return null;
     }
 
@@ -69,7 +322,7 @@ public class PcapPacket implements Packet, StringFormattable {
      */
 	public <T extends Header> List<T> getHeaders(Headers header) {
 		List<T> filteredHeaders = new LinkedList<>();
-		for(Header h : headers) {
+		for(Header h : headers()) {
 			if(h.getId() == header.getId()) {
 				filteredHeaders.add((T) h);
 			}
@@ -86,7 +339,7 @@ public class PcapPacket implements Packet, StringFormattable {
      */
     public <T extends Header> T getHeader(int id, int ordinal) {
         int position = 0;
-        for (Header header : headers) {
+        for (Header header : headers()) {
             if (header.getId() == id) {
 
                 if (position == ordinal) {
@@ -119,6 +372,16 @@ public class PcapPacket implements Packet, StringFormattable {
      * @return whether packet contains a header of this id
      */
     public boolean hasHeader(int id) {
+        if (headers == null && layout != null) {
+            for (int i = 0; i < layout.size(); i++) {
+                if (layout.getId(i) == id) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
         return getHeader(id) != null;
     }
 
@@ -133,9 +396,40 @@ public class PcapPacket implements Packet, StringFormattable {
         return hasHeader(header.getId());
     }
 
+    /**
+     * Only a packet owning its whole heap array returns that array, the bytes of pooled,
+     * mapped or sliced packets are copied on every call. Use {@link #getContent(int, int)}
+     * or {@link #getLength()}, where a view or the length suffices.
+     *
+     * @return bytes of this packet
+     */
     @Override
     public byte[] getContent() {
-        return byteBuffer.array();
+        if (byteBuffer.hasArray() && byteBuffer.arrayOffset() == 0 && byteBuffer.array().length == byteBuffer.limit()) {
+            return byteBuffer.array();
+        }
+
+        byte[] content = new byte[byteBuffer.limit()];
+        ByteBuffer view = byteBuffer.duplicate();
+        view.position(0);
+        view.get(content);
+
+        return content;
+    }
+
+    /**
+     * Unlike {@link #getContent()}, never copies. The view is valid as long as the packet's bytes,
+     * for pooled packets until the last {@link #release()}.
+     *
+     * @param offset offset within packet
+     * @param length number of bytes
+     * @return view of the packet's bytes [offset, offset + length)
+     */
+    public ByteBuffer getContent(int offset, int length) {
+        ByteBuffer view = byteBuffer.duplicate();
+        view.limit(offset + length).position(offset);
+
+        return view.slice();
     }
 
     @Override
@@ -148,7 +442,7 @@ public class PcapPacket implements Packet, StringFormattable {
     }
 
     public boolean isFragmented() {
-        return headers.getLast().isFragmented();
+        return headers().getLast().isFragmented();
     }
 
     public int getLength() {
@@ -160,13 +454,68 @@ public class PcapPacket implements Packet, StringFormattable {
             return null;
         }
 
-        return headers.getLast();
+        return headers().getLast();
     }
 
     public SocketSession getSession() {
-        for (Header header : headers) {
+        Header session = findSession();
+
+        return session != null ? ((Session) session).getSession(this) : null;
+    }
+
+    /**
+     * Sets key to the flow of this packet. A {@link SessionHeader} sets it without allocating
+     * a {@link SocketSession}, any other {@link Session} is keyed by its session with protocol 0,
+     * i.e. flows are told apart by addresses and ports only.
+     *
+     * @param key key to set
+     * @return false if this packet has no session, key is unchanged then
+     */
+    public boolean toFlowKey(FlowKey key) {
+        Header session = findSession();
+        if (session == null) {
+            return false;
+        }
+
+        if (session instanceof SessionHeader) {
+            ((SessionHeader) session).toFlowKey(this, key);
+            return true;
+        }
+
+        SocketSession socketSession = ((Session) session).getSession(this);
+        if (socketSession == null) {
+            return false;
+        }
+
+        key.set(socketSession, 0);
+        return true;
+    }
+
+    private Header findSession() {
+        if (!isDecoded()) {
+            synchronized (this) {
+                if (headers == null) {
+                    for (Header header : decoded) {
+                        if (header instanceof Session) {
+                            return header;
+                        }
+                    }
+
+                    Header header;
+                    while ((header = decodeNext()) != null) {
+                        if (header instanceof Session) {
+                            return header;
+                        }
+                    }
+
+                    return null;
+                }
+            }
+        }
+
+        for (Header header : headers()) {
             if (header instanceof Session) {
-                return ((Session) header).getSession(this);
+                return header;
             }
         }
 
@@ -182,7 +531,7 @@ public class PcapPacket implements Packet, StringFormattable {
         StringBuilder builder = new StringBuilder();
 
         builder.append(toString()).append('\n');
-        for (Header header : headers) {
+        for (Header header : headers()) {
             builder.append(header.toFormattedString());
         }
 
@@ -0,0 +1,93 @@
+package de.rub.nds.virtualnetworklayer.packet.header;
+
+import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
+import de.rub.nds.virtualnetworklayer.packet.header.link.family.Family;
+import de.rub.nds.virtualnetworklayer.packet.header.link.ppp.PPP;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+
+/**
+ * A binding names a position in the dispatch graph of
+ * {@link de.rub.nds.virtualnetworklayer.packet.PacketHandler}, where a header might follow:
+ * <ul>
+ * <li>{@link Kind#LinkType}: first header of a packet with this {@link Pcap.DataLinkType}</li>
+ * <li>{@link Kind#EtherType}: after an {@link Ethernet} header of this {@link Ethernet.Type}</li>
+ * <li>{@link Kind#PppProtocol}: after a {@link PPP} header of this {@link PPP.Protocol}</li>
+ * <li>{@link Kind#AddressFamily}: after a {@link Family} header of this {@link Family.AddressFamily}</li>
+ * <li>{@link Kind#IpProtocol}: after an {@link Ip} header of this {@link Ip.Protocol}</li>
+ * <li>{@link Kind#Port}: after a {@link de.rub.nds.virtualnetworklayer.packet.header.transport.Port}
+ * header with this source or destination port</li>
+ * <li>{@link Kind#Header}: after a header with this id (e.g. heuristic binding to any Tcp payload)</li>
+ * </ul>
+ *
+ * @see Header#bindings()
+ */
+public final class Binding {
+
+    public static enum Kind {
+        LinkType,
+        EtherType,
+        PppProtocol,
+        AddressFamily,
+        IpProtocol,
+        Port,
+        Header
+    }
+
+    private final Kind kind;
+    private final int value;
+
+    private Binding(Kind kind, int value) {
+        this.kind = kind;
+        this.value = value;
+    }
+
+    public static Binding linkType(Pcap.DataLinkType dataLinkType) {
+        return new Binding(Kind.LinkType, dataLinkType.ordinal());
+    }
+
+    public static Binding etherType(Ethernet.Type type) {
+        return new Binding(Kind.EtherType, type.ordinal());
+    }
+
+    public static Binding pppProtocol(PPP.Protocol protocol) {
+        return new Binding(Kind.PppProtocol, protocol.ordinal());
+    }
+
+    public static Binding addressFamily(Family.AddressFamily addressFamily) {
+        return new Binding(Kind.AddressFamily, addressFamily.ordinal());
+    }
+
+    public static Binding ipProtocol(Ip.Protocol protocol) {
+        return new Binding(Kind.IpProtocol, protocol.ordinal());
+    }
+
+    public static Binding port(int port) {
+        return new Binding(Kind.Port, port);
+    }
+
+    public static Binding after(Headers header) {
+        return after(header.getId());
+    }
+
+    /**
+     * @param id {@link Header#getId()} of previous header
+     */
+    public static Binding after(int id) {
+        return new Binding(Kind.Header, id);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return kind + "(" + value + ")";
+    }
+}
@@ -16,6 +16,7 @@ import java.util.LinkedList;
  * <li>implement {@link #getId()} (for uniqueness use id from registry {@code Headers.*.getId()})</li>
  * <li>implement {@link #getLength()}</li>
  * <li>implement {@link #isBound(java.util.LinkedList, de.rub.nds.virtualnetworklayer.pcap.Pcap.DataLinkType)}</li>
+ * <li><i>optionally</i> implement {@link #bindings()}, so the header is only tried where it might be bound</li>
  * <li><i>optionally</i></i> implement {@link #getPayloadLength()}</li>
  * <li><i>optionally</i> implement {@link #isFragmented()}</li>
  * <li>implement header fields with {@code get<b>FieldName</b>} using the protected getters</li>
@@ -144,6 +145,19 @@ public abstract class Header implements Cloneable, StringFormattable {
     public final byte[] getHeaderAndPayload() {
     	return getBytes(0, getLength() + getPayloadLength());
     }
+
+    /**
+     * @return read-only view of header and payload, limited to the captured bytes
+     * (of a fragmented header), nothing is copied
+     * @see #getHeaderAndPayload()
+     */
+    public final ByteBuffer getHeaderAndPayloadView() {
+        ByteBuffer view = payload.asReadOnlyBuffer();
+        view.limit((int) Math.min((long) getLength() + getPayloadLength(), payload.limit()));
+        view.position(0);
+
+        return view.slice();
+    }
     
     public Header clone() {
         try {
@@ -154,10 +168,18 @@ public abstract class Header implements Cloneable, StringFormattable {
     }
 
     public final void peer(ByteBuffer payload) {
+        invalidate();
         this.payload = decode(payload);
         payload.position(0);
     }
 
+    /**
+     * Discards fields cached from the previous payload, called on every {@link #peer(java.nio.ByteBuffer)}.
+     * Headers caching decoded fields have to override.
+     */
+    protected void invalidate() {
+    }
+
     public boolean isCorrupted() {
         if (this instanceof Checksum) {
             Checksum checksum = (Checksum) this;
@@ -220,6 +242,16 @@ public abstract class Header implements Cloneable, StringFormattable {
      */
     public abstract boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType);
 
+    /**
+     * Returns all positions, where {@link #isBound(java.util.LinkedList, de.rub.nds.virtualnetworklayer.pcap.Pcap.DataLinkType)}
+     * might return true. The header is not tried anywhere else.
+     *
+     * @return bindings or null, if this header has to be tried at every position
+     */
+    public Binding[] bindings() {
+        return null;
+    }
+
     @Override
     public String toString() {
         String canonicalName = this.getClass().getCanonicalName();
@@ -0,0 +1,22 @@
+package de.rub.nds.virtualnetworklayer.packet.header;
+
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
+
+/**
+ * Base class of {@link Session} headers, which key their flow straight from the packet.
+ * Other {@link Session} implementations are keyed through a {@link Session#getSession(PcapPacket) session}.
+ *
+ * @see PcapPacket#toFlowKey(FlowKey)
+ */
+public abstract class SessionHeader extends Header implements Session {
+
+    /**
+     * Allocation free alternative to {@link #getSession(PcapPacket)}.
+     *
+     * @param packet packet containing this header
+     * @param key    key to set
+     * @return key
+     */
+    public abstract FlowKey toFlowKey(PcapPacket packet, FlowKey key);
+}
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.application;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.UdpHeader;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
@@ -123,6 +124,11 @@ public class DhcpHeader extends Header {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.port(67), Binding.port(68)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof UdpHeader)) {
@@ -2,10 +2,12 @@ package de.rub.nds.virtualnetworklayer.packet.header.application;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.EncodedHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
 import org.apache.log4j.Logger;
 
@@ -48,20 +50,26 @@ public class HttpHeader extends EncodedHeader {
         ClientError(4),
         ServerError(5);
 
-        private String startsWith;
+        private int startsWith;
 
         private Status(int startsWith) {
-            this.startsWith = String.valueOf(startsWith);
+            this.startsWith = startsWith;
         }
 
+        private static final EnumTable<Status> statuses = new EnumTable<>(values(), new EnumTable.Code<Status>() {
+            @Override
+            public int of(Status status) {
+                return status.startsWith;
+            }
+        });
+
         public static Status valueOf(int code) {
-            for (Status status : values()) {
-                if (String.valueOf(code).startsWith(status.startsWith)) {
-                    return status;
-                }
+            // first digit of the status code
+            while (code >= 10) {
+                code /= 10;
             }
 
-            return null;
+            return statuses.get(code);
         }
     }
 
@@ -170,6 +178,12 @@ public class HttpHeader extends EncodedHeader {
         return Charset.forName("ISO-8859-1");
     }
 
+    @Override
+    protected void invalidate() {
+        headers = null;
+        length = -1;
+    }
+
     @Override
     public Header clone() {
         HttpHeader header = (HttpHeader) super.clone();
@@ -179,6 +193,15 @@ public class HttpHeader extends EncodedHeader {
         return header;
     }
 
+    @Override
+    public Binding[] bindings() {
+        if (bindToDefaultPorts) {
+            return new Binding[]{Binding.port(80)};
+        }
+
+        return new Binding[]{Binding.after(TcpHeader.Id)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof TcpHeader)) {
@@ -2,8 +2,11 @@ package de.rub.nds.virtualnetworklayer.packet.header.application;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.Port;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.UdpHeader;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
 
@@ -66,6 +69,15 @@ public class SipHeader extends HttpHeader {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        if (bindToDefaultPorts) {
+            return new Binding[]{Binding.port(5060)};
+        }
+
+        return new Binding[]{Binding.after(TcpHeader.Id), Binding.after(UdpHeader.Id)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof Port)) {
@@ -2,6 +2,7 @@ package de.rub.nds.virtualnetworklayer.packet.header.application;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.EncodedHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
@@ -156,6 +157,15 @@ public class SmtpHeader extends EncodedHeader {
     }
 
 
+    @Override
+    public Binding[] bindings() {
+        if (bindToDefaultPorts) {
+            return new Binding[]{Binding.port(25), Binding.port(587)};
+        }
+
+        return new Binding[]{Binding.after(TcpHeader.Id)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof TcpHeader)) {
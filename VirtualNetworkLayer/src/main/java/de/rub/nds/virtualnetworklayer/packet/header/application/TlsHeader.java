@@ -1,13 +1,17 @@
 package de.rub.nds.virtualnetworklayer.packet.header.application;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -54,14 +58,15 @@ public class TlsHeader extends Header {
             this.type = type;
         }
 
-        public static ContentType valueOf(int type) {
-            for (ContentType content : values()) {
-                if (type == content.type) {
-                    return content;
-                }
+        private static final EnumTable<ContentType> contentTypes = new EnumTable<>(values(), new EnumTable.Code<ContentType>() {
+            @Override
+            public int of(ContentType content) {
+                return content.type;
             }
+        });
 
-            return null;
+        public static ContentType valueOf(int type) {
+            return contentTypes.get(type);
         }
     }
 
@@ -80,14 +85,19 @@ public class TlsHeader extends Header {
             this.minor = minor;
         }
 
+        private static final EnumTable<Version> versions = new EnumTable<>(values(), new EnumTable.Code<Version>() {
+            @Override
+            public int of(Version version) {
+                return version.major << 8 | version.minor;
+            }
+        });
+
         public static Version valueOf(int major, int minor) {
-            for (Version version : values()) {
-                if (major == version.major && minor == version.minor) {
-                    return version;
-                }
+            if ((major & ~0xff) != 0 || (minor & ~0xff) != 0) {
+                return null;
             }
 
-            return null;
+            return versions.get(major << 8 | minor);
         }
     }
 
@@ -128,6 +138,21 @@ public class TlsHeader extends Header {
         return getContentType() != null && getVersion() != null;
     }
 
+    @Override
+    public Binding[] bindings() {
+        if (bindToDefaultPorts) {
+            List<Binding> bindings = new ArrayList<Binding>();
+            for (int port : DefaultPorts) {
+                bindings.add(Binding.port(port));
+            }
+            bindings.add(Binding.after(Id));
+
+            return bindings.toArray(new Binding[bindings.size()]);
+        }
+
+        return new Binding[]{Binding.after(TcpHeader.Id), Binding.after(Id)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
     	if (previousHeaders.size() > 0) {
@@ -1,6 +1,9 @@
 package de.rub.nds.virtualnetworklayer.packet.header.internet;
 
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
 
 /**
  * This is the common base class for both Ip protocols.
@@ -26,14 +29,15 @@ public abstract class Ip extends Header {
             return this.id;
         }
 
-        public static Protocol valueOf(int type) {
-            for (Protocol protocol : values()) {
-                if (protocol.id == type) {
-                    return protocol;
-                }
+        private static final EnumTable<Protocol> protocols = new EnumTable<>(values(), new EnumTable.Code<Protocol>() {
+            @Override
+            public int of(Protocol protocol) {
+                return protocol.id;
             }
+        });
 
-            return null;
+        public static Protocol valueOf(int type) {
+            return protocols.get(type);
         }
 
     }
@@ -50,4 +54,16 @@ public abstract class Ip extends Header {
 
     public abstract int getHopLimit();
 
+    /**
+     * Packs protocol, addresses and ports into key. Subclasses should override this
+     * to read the addresses without copying them.
+     *
+     * @param protocol transport protocol of the ports
+     * @return key
+     */
+    public FlowKey toFlowKey(FlowKey key, Protocol protocol, int sourcePort, int destinationPort) {
+        return key.set(new SocketSession(getSourceAddress(), getDestinationAddress(), sourcePort, destinationPort),
+                protocol.getId());
+    }
+
 }
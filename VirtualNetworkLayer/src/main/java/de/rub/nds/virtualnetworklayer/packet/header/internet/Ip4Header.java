@@ -1,10 +1,12 @@
 package de.rub.nds.virtualnetworklayer.packet.header.internet;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
 import de.rub.nds.virtualnetworklayer.packet.header.link.family.Family;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ppp.PPP;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Format;
 import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
@@ -37,6 +39,11 @@ public class Ip4Header extends Ip {
 
     private Set<Flag> flags;
 
+    @Override
+    protected void invalidate() {
+        flags = null;
+    }
+
     @Override
     public int getLength() {
         return getSecondNibble(0) * 4;
@@ -117,6 +124,11 @@ public class Ip4Header extends Ip {
         return getBytes(16, 4);
     }
 
+    @Override
+    public FlowKey toFlowKey(FlowKey key, Protocol protocol, int sourcePort, int destinationPort) {
+        return key.setIp4(protocol.getId(), getUInteger(12), getUInteger(16), sourcePort, destinationPort);
+    }
+
     @Override
     public int getId() {
         return Id;
@@ -127,6 +139,12 @@ public class Ip4Header extends Ip {
         return getFlags().contains(Flag.MF);
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.etherType(Ethernet.Type.Ip4), Binding.pppProtocol(PPP.Protocol.IP),
+                Binding.addressFamily(Family.AddressFamily.INET), Binding.linkType(Pcap.DataLinkType.Raw)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof Ethernet)) {
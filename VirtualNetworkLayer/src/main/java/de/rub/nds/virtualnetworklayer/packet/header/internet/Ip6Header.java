@@ -1,11 +1,13 @@
 package de.rub.nds.virtualnetworklayer.packet.header.internet;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.EthernetHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.link.family.Family;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ppp.PPP;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Format;
 import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
@@ -56,6 +58,11 @@ public class Ip6Header extends Ip {
         return getBytes(24, 16);
     }
 
+    @Override
+    public FlowKey toFlowKey(FlowKey key, Protocol protocol, int sourcePort, int destinationPort) {
+        return key.setIp6(protocol.getId(), getLong(8), getLong(16), getLong(24), getLong(32), sourcePort, destinationPort);
+    }
+
     @Override
     public int getLength() {
         return 40;
@@ -66,6 +73,13 @@ public class Ip6Header extends Ip {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.etherType(Ethernet.Type.Ip6), Binding.pppProtocol(PPP.Protocol.IPv6),
+                Binding.addressFamily(Family.AddressFamily.INET6OpenBSD), Binding.addressFamily(Family.AddressFamily.INET6FreeBSD),
+                Binding.addressFamily(Family.AddressFamily.INET6OSX), Binding.linkType(Pcap.DataLinkType.Raw)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof EthernetHeader)) {
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
@@ -70,6 +71,11 @@ public class ArpHeader extends Header {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.etherType(Ethernet.Type.Arp)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast()) instanceof Ethernet) {
@@ -1,5 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ethernet;
 
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
+
 /**
  * A {@link de.rub.nds.virtualnetworklayer.packet.header.Header} class implements the Ethernet interface to indicate that it
  * contains a {@link Ethernet.Type} field.
@@ -29,14 +31,15 @@ public interface Ethernet {
             return this.id;
         }
 
-        public static Type valueOf(int type) {
-            for (Type t : values()) {
-                if (t.id == type) {
-                    return t;
-                }
+        private static final EnumTable<Type> types = new EnumTable<>(values(), new EnumTable.Code<Type>() {
+            @Override
+            public int of(Type t) {
+                return t.id;
             }
+        });
 
-            return null;
+        public static Type valueOf(int type) {
+            return types.get(type);
         }
 
     }
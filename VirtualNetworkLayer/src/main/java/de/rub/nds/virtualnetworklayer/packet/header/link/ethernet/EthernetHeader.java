@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ethernet;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Format;
@@ -43,6 +44,11 @@ public class EthernetHeader extends Header implements Ethernet {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.linkType(Pcap.DataLinkType.Ethernet)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         return previousHeaders.isEmpty()
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ethernet;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
@@ -52,6 +53,11 @@ public class GreHeader extends Header implements Ethernet {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.ipProtocol(Ip.Protocol.Gre)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof Ip)) {
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ethernet;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
@@ -43,6 +44,11 @@ public class IEEE802_1QHeader extends Header implements Ethernet {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.etherType(Type.IEEE802_1Q)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast()) instanceof Ethernet) {
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ethernet;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
@@ -42,6 +43,11 @@ public class IEEE802_2Header extends Header {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.after(IEEE802_3Header.Id)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         return previousHeaders.size() == 1 && previousHeaders.getLast() instanceof IEEE802_3Header;
@@ -2,6 +2,7 @@ package de.rub.nds.virtualnetworklayer.packet.header.link.ethernet;
 
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Format;
@@ -44,6 +45,11 @@ public class IEEE802_3Header extends Header {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.linkType(Pcap.DataLinkType.Ethernet)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         return previousHeaders.isEmpty()
@@ -1,5 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.family;
 
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
+
 /**
  * A {@link de.rub.nds.virtualnetworklayer.packet.header.Header} class implements the Family interface to indicate that it
  * contains a {@link AddressFamily} field.
@@ -25,14 +27,15 @@ public interface Family {
             this.id = id;
         }
 
-        public static AddressFamily valueOf(int type) {
-            for (AddressFamily t : values()) {
-                if (t.id == type) {
-                    return t;
-                }
+        private static final EnumTable<AddressFamily> families = new EnumTable<>(values(), new EnumTable.Code<AddressFamily>() {
+            @Override
+            public int of(AddressFamily t) {
+                return t.id;
             }
+        });
 
-            return null;
+        public static AddressFamily valueOf(int type) {
+            return families.get(type);
         }
 
         public boolean isCategory(Category category) {
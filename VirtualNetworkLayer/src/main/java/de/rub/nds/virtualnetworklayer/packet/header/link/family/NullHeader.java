@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.family;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
@@ -52,6 +53,11 @@ public class NullHeader extends Header implements Family {
         return payload;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.linkType(Pcap.DataLinkType.Null)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         return previousHeaders.isEmpty() && dataLinkType == Pcap.DataLinkType.Null;
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.family;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
@@ -58,6 +59,11 @@ public class PfLogHeader extends Header implements Family {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.linkType(Pcap.DataLinkType.PfLog)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         return previousHeaders.isEmpty() && dataLinkType == Pcap.DataLinkType.PfLog;
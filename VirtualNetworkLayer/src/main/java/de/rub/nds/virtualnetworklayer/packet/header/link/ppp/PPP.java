@@ -1,5 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ppp;
 
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
+
 /**
  * A {@link de.rub.nds.virtualnetworklayer.packet.header.Header} class implements the PPP interface to indicate that it
  * contains a {@link PPP.Protocol} field.
@@ -30,14 +32,15 @@ public interface PPP {
             return this.id;
         }
 
-        public static Protocol valueOf(int value) {
-            for (Protocol p : values()) {
-                if (p.id == value) {
-                    return p;
-                }
+        private static final EnumTable<Protocol> protocols = new EnumTable<>(values(), new EnumTable.Code<Protocol>() {
+            @Override
+            public int of(Protocol p) {
+                return p.id;
             }
+        });
 
-            return null;
+        public static Protocol valueOf(int value) {
+            return protocols.get(value);
         }
 
     }
@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.ppp;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
@@ -53,6 +54,12 @@ public class PPPoEHeader extends Header implements PPP {
         return Id;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.etherType(Ethernet.Type.PPPoE_Discovery), Binding.etherType(Ethernet.Type.PPPoE_Session),
+                Binding.linkType(Pcap.DataLinkType.PPPoE)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof Ethernet)) {
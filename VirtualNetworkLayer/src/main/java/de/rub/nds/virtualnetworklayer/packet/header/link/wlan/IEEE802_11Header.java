@@ -1,6 +1,7 @@
 package de.rub.nds.virtualnetworklayer.packet.header.link.wlan;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Checksum;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
@@ -387,6 +388,12 @@ public class IEEE802_11Header extends Header implements Checksum {
         return Id;
     }
 
+    @Override
+    protected void invalidate() {
+        addresses = null;
+        flags = null;
+    }
+
     @Override
     public Header clone() {
         IEEE802_11Header header = (IEEE802_11Header) super.clone();
@@ -396,6 +403,11 @@ public class IEEE802_11Header extends Header implements Checksum {
         return header;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.after(Headers.Radiotap), Binding.linkType(Pcap.DataLinkType.IEEE802_11)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof RadiotapHeader)) {
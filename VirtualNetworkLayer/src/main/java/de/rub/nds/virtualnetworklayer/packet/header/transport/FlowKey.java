@@ -0,0 +1,199 @@
+package de.rub.nds.virtualnetworklayer.packet.header.transport;
+
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+
+/**
+ * Canonical key of a flow (transport protocol, addresses and ports of both endpoints) packed into longs.
+ * <p>
+ * Endpoints are ordered, so both directions of a flow yield the same key and
+ * {@link #isReversed()} tells, whether the endpoints were swapped. Ip4 addresses are stored
+ * as Ip4-mapped Ip6 addresses, the address family and protocol are part of the key, so e.g. tcp and udp
+ * flows between the same endpoints differ. Flows with equal keys always share the address pair, by which
+ * {@link de.rub.nds.virtualnetworklayer.pcap.Pipeline} shards them.
+ * <p>
+ * A key is mutable and meant to be reused, e.g. one per thread with {@link PcapPacket#toFlowKey(FlowKey)},
+ * so looking up a flow needs no allocation.
+ *
+ * @see SocketSession
+ * @see de.rub.nds.virtualnetworklayer.util.FlowTable
+ */
+public final class FlowKey {
+    /**
+     * number of longs a key consists of
+     */
+    public static final int Length = 5;
+
+    private static final long Ip4Mapped = 0xffff00000000L;
+
+    private final long[] words = new long[Length];
+    private boolean reversed;
+    private int hash;
+
+    /**
+     * Sets this key to an Ip4 flow.
+     *
+     * @param protocol transport protocol number, e.g. {@link de.rub.nds.virtualnetworklayer.packet.header.internet.Ip.Protocol#getId()}
+     * @return this key
+     */
+    public FlowKey setIp4(int protocol, long sourceAddress, long destinationAddress, int sourcePort, int destinationPort) {
+        return set(4, protocol, 0, Ip4Mapped | sourceAddress, 0, Ip4Mapped | destinationAddress, sourcePort, destinationPort);
+    }
+
+    /**
+     * Sets this key to an Ip6 flow, addresses are split into high and low 64 bits.
+     *
+     * @param protocol transport protocol number, e.g. {@link de.rub.nds.virtualnetworklayer.packet.header.internet.Ip.Protocol#getId()}
+     * @return this key
+     */
+    public FlowKey setIp6(int protocol, long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                          int sourcePort, int destinationPort) {
+        return set(6, protocol, sourceHigh, sourceLow, destinationHigh, destinationLow, sourcePort, destinationPort);
+    }
+
+    /**
+     * Sets this key to the flow of session.
+     *
+     * @param protocol transport protocol number of session
+     * @return this key
+     */
+    public FlowKey set(SocketSession session, int protocol) {
+        byte[] source = session.getSourceAddress();
+        byte[] destination = session.getDestinationAddress();
+
+        if (source.length == 4 && destination.length == 4) {
+            return setIp4(protocol, toLong(source, 0, 4), toLong(destination, 0, 4),
+                    session.getSourcePort(), session.getDestinationPort());
+        }
+
+        return setIp6(protocol, toLong(source, 0, 8), toLong(source, 8, 16), toLong(destination, 0, 8), toLong(destination, 8, 16),
+                session.getSourcePort(), session.getDestinationPort());
+    }
+
+    private FlowKey set(int version, int protocol, long sourceHigh, long sourceLow, long destinationHigh, long destinationLow,
+                        int sourcePort, int destinationPort) {
+        reversed = compare(sourceHigh, sourceLow, sourcePort, destinationHigh, destinationLow, destinationPort) > 0;
+
+        if (reversed) {
+            words[0] = destinationHigh;
+            words[1] = destinationLow;
+            words[2] = sourceHigh;
+            words[3] = sourceLow;
+            words[4] = pack(version, protocol, destinationPort, sourcePort);
+        } else {
+            words[0] = sourceHigh;
+            words[1] = sourceLow;
+            words[2] = destinationHigh;
+            words[3] = destinationLow;
+            words[4] = pack(version, protocol, sourcePort, destinationPort);
+        }
+
+        long h = 0x9e3779b97f4a7c15L;
+        for (long word : words) {
+            h = mix(h ^ word);
+        }
+        hash = (int) (h ^ (h >>> 32));
+
+        return this;
+    }
+
+    private static long pack(int version, int protocol, int firstPort, int secondPort) {
+        return ((long) version << 40) | ((long) (protocol & 0xff) << 32)
+                | ((long) (firstPort & 0xffff) << 16) | (secondPort & 0xffff);
+    }
+
+    private static int compare(long firstHigh, long firstLow, int firstPort,
+                               long secondHigh, long secondLow, int secondPort) {
+        if (firstHigh != secondHigh) {
+            return firstHigh + Long.MIN_VALUE < secondHigh + Long.MIN_VALUE ? -1 : 1;
+        }
+
+        if (firstLow != secondLow) {
+            return firstLow + Long.MIN_VALUE < secondLow + Long.MIN_VALUE ? -1 : 1;
+        }
+
+        return Integer.compare(firstPort, secondPort);
+    }
+
+    private static long toLong(byte[] bytes, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+
+        return value;
+    }
+
+    /**
+     * murmur3 64 bit finalizer
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /**
+     * @param index 0 to {@link #Length} - 1
+     * @return packed word of this key
+     */
+    public long word(int index) {
+        return words[index];
+    }
+
+    /**
+     * @return true, if source and destination were swapped to canonicalise this key
+     */
+    public boolean isReversed() {
+        return reversed;
+    }
+
+    /**
+     * @return copy of this key, which is not affected by reusing this key
+     */
+    public FlowKey copy() {
+        FlowKey copy = new FlowKey();
+        System.arraycopy(words, 0, copy.words, 0, Length);
+        copy.reversed = reversed;
+        copy.hash = hash;
+
+        return copy;
+    }
+
+    /**
+     * @return well mixed hash, equal for both directions of a flow
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FlowKey)) {
+            return false;
+        }
+
+        FlowKey other = (FlowKey) o;
+        for (int i = 0; i < Length; i++) {
+            if (words[i] != other.words[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (long word : words) {
+            builder.append(String.format("%016x", word));
+        }
+
+        return builder.append(reversed ? ", reversed]" : "]").toString();
+    }
+}
@@ -5,7 +5,6 @@ import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
-import de.rub.nds.virtualnetworklayer.util.Util;
 import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
 
 import java.util.Arrays;
@@ -19,6 +18,7 @@ public class SocketSession {
 
     private int sourcePort;
     private int destinationPort;
+    private int hashCode;
 
     public SocketSession(byte[] sourceAddress, byte[] destinationAddress, int sourcePort, int destinationPort) {
         this.sourceAddress = sourceAddress;
@@ -74,16 +74,32 @@ public class SocketSession {
     /**
      * Calculate hash code for a socket session.
      * Keep the hash commutative for source{Address, Port} and destination{Address, Port}.
+     * Computed once without allocation, sessions don't change.
      *
      * @return commutative hash code
-     * @see Util#hashCode(Object...)
      */
     @Override
     public int hashCode() {
-        int firstGroup = Util.hashCode(Arrays.hashCode(sourceAddress), sourcePort);
-        int secondGroup = Util.hashCode(Arrays.hashCode(destinationAddress), destinationPort);
+        if (hashCode == 0) {
+            int hash = mix(Arrays.hashCode(sourceAddress) * 31 + sourcePort)
+                    + mix(Arrays.hashCode(destinationAddress) * 31 + destinationPort);
+            hashCode = hash != 0 ? hash : 1;
+        }
+
+        return hashCode;
+    }
 
-        return firstGroup * secondGroup;
+    /**
+     * murmur3 32 bit finalizer
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h;
     }
 
     @Override
@@ -3,12 +3,14 @@ package de.rub.nds.virtualnetworklayer.packet.header.transport;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
-import de.rub.nds.virtualnetworklayer.packet.header.Session;
+import de.rub.nds.virtualnetworklayer.packet.header.SessionHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
 import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
 import de.rub.nds.virtualnetworklayer.util.formatter.Protocol;
 
 import java.nio.ByteBuffer;
@@ -23,7 +25,7 @@ import java.util.Set;
  * @author Marco Faltermeier <faltermeier@me.com>
  */
 @Protocol(layer = Protocol.Osi.Transport)
-public class TcpHeader extends Header implements Session, Port {
+public class TcpHeader extends SessionHeader implements Port {
     public final static int Id = Headers.Tcp.getId();
 
     public static enum Flag {
@@ -64,14 +66,15 @@ public class TcpHeader extends Header implements Session, Port {
             this.id = id;
         }
 
-        public static Option valueOf(int id) {
-            for (Option option : values()) {
-                if (option.id == id) {
-                    return option;
-                }
+        private static final EnumTable<Option> options = new EnumTable<>(values(), new EnumTable.Code<Option>() {
+            @Override
+            public int of(Option option) {
+                return option.id;
             }
+        });
 
-            return null;
+        public static Option valueOf(int id) {
+            return options.get(id);
         }
     }
 
@@ -190,6 +193,12 @@ public class TcpHeader extends Header implements Session, Port {
         return Id;
     }
 
+    @Override
+    protected void invalidate() {
+        flags = null;
+        options = null;
+    }
+
     @Override
     public Header clone() {
         TcpHeader header = (TcpHeader) super.clone();
@@ -199,6 +208,11 @@ public class TcpHeader extends Header implements Session, Port {
         return header;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.ipProtocol(Ip.Protocol.Tcp)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof Ip)) {
@@ -226,4 +240,10 @@ public class TcpHeader extends Header implements Session, Port {
                 getSourcePort(), getDestinationPort());
     }
 
+    @Override
+    public FlowKey toFlowKey(PcapPacket packet, FlowKey key) {
+        Ip ipHeader = (Ip) (packet.hasHeader(Ip4Header.Id) ? packet.getHeader(Ip4Header.Id) : packet.getHeader(Ip6Header.Id));
+
+        return ipHeader.toFlowKey(key, Ip.Protocol.Tcp, getSourcePort(), getDestinationPort());
+    }
 }
@@ -2,8 +2,9 @@ package de.rub.nds.virtualnetworklayer.packet.header.transport;
 
 import de.rub.nds.virtualnetworklayer.packet.Headers;
 import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Binding;
 import de.rub.nds.virtualnetworklayer.packet.header.Header;
-import de.rub.nds.virtualnetworklayer.packet.header.Session;
+import de.rub.nds.virtualnetworklayer.packet.header.SessionHeader;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
 import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
@@ -18,7 +19,7 @@ import java.util.LinkedList;
  * @author Marco Faltermeier <faltermeier@me.com>
  */
 @Protocol(layer = Protocol.Osi.Transport)
-public class UdpHeader extends Header implements Session, Port {
+public class UdpHeader extends SessionHeader implements Port {
     public static int Id = Headers.Udp.getId();
 
     public int getSourcePort() {
@@ -48,6 +49,11 @@ public class UdpHeader extends Header implements Session, Port {
         return 8;
     }
 
+    @Override
+    public Binding[] bindings() {
+        return new Binding[]{Binding.ipProtocol(Ip.Protocol.Udp)};
+    }
+
     @Override
     public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
         if ((previousHeaders.size() > 0) && (previousHeaders.getLast() instanceof Ip)) {
@@ -66,4 +72,11 @@ public class UdpHeader extends Header implements Session, Port {
         return new SocketSession(ipHeader.getSourceAddress(), ipHeader.getDestinationAddress(),
                 getSourcePort(), getDestinationPort());
     }
+
+    @Override
+    public FlowKey toFlowKey(PcapPacket packet, FlowKey key) {
+        Ip ipHeader = (Ip) (packet.hasHeader(Ip4Header.Id) ? packet.getHeader(Ip4Header.Id) : packet.getHeader(Ip6Header.Id));
+
+        return ipHeader.toFlowKey(key, Ip.Protocol.Udp, getSourcePort(), getDestinationPort());
+    }
 }
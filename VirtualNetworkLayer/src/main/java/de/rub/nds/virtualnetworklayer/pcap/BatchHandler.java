@@ -0,0 +1,20 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+/**
+ * Callback for batch capturing, which receives up to batch size packets at once.
+ * Every {@link PcapHandler} is a batch handler, which delivers the packets one by one.
+ *
+ * @see Pcap#loopBatch(BatchHandler, int, boolean)
+ */
+public interface BatchHandler {
+
+    /**
+     * Called once per batch. The array is reused for the next batch and pooled packets are
+     * released after this call, so packets kept beyond it have to be copied.
+     *
+     * @param packets      captured packets, only the first count entries are valid
+     * @param count        number of packets in batch (at least 1)
+     * @param dataLinkType link type of all packets in batch
+     */
+    void newBatch(PcapHandler.RawPacket[] packets, int count, Pcap.DataLinkType dataLinkType);
+}
@@ -0,0 +1,119 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of packet buffers in power of two size classes
+ * ({@link #MinimumSize} up to {@link #MaximumSize} bytes).
+ * <p>
+ * Each size class keeps at most capacity / size free arrays, released buffers
+ * beyond that and packets larger than {@link #MaximumSize} are left to the garbage collector.
+ * The pool is safe for concurrent use.
+ *
+ * @see PacketBuffer
+ * @see PcapHandler#setBufferPool(BufferPool)
+ */
+public class BufferPool {
+    public static final int MinimumSize = 1 << 6;
+    public static final int MaximumSize = 1 << 16;
+
+    /**
+     * default number of bytes each size class may keep
+     */
+    public static final long DefaultCapacity = 8 * 1024 * 1024;
+
+    private static final int MinimumShift = Integer.numberOfTrailingZeros(MinimumSize);
+
+    private final BlockingQueue<byte[]>[] free;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public BufferPool() {
+        this(DefaultCapacity);
+    }
+
+    /**
+     * @param capacity bytes each size class may keep
+     */
+    public BufferPool(long capacity) {
+        free = createQueues(Integer.numberOfTrailingZeros(MaximumSize) - MinimumShift + 1, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BlockingQueue<byte[]>[] createQueues(int classes, long capacity) {
+        BlockingQueue<byte[]>[] queues = (BlockingQueue<byte[]>[]) new BlockingQueue<?>[classes];
+        for (int i = 0; i < classes; i++) {
+            int size = MinimumSize << i;
+            queues[i] = new ArrayBlockingQueue<>((int) Math.max(1, Math.min(Integer.MAX_VALUE, capacity / size)));
+        }
+
+        return queues;
+    }
+
+    private static int getSizeClass(int length) {
+        if (length <= MinimumSize) {
+            return 0;
+        }
+
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MinimumShift;
+    }
+
+    /**
+     * @param length packet length
+     * @return buffer with one reference
+     */
+    public PacketBuffer allocate(int length) {
+        if (length > MaximumSize) {
+            allocated.incrementAndGet();
+            return new PacketBuffer(this, new byte[length], length);
+        }
+
+        int sizeClass = getSizeClass(length);
+        byte[] array = free[sizeClass].poll();
+
+        if (array == null) {
+            allocated.incrementAndGet();
+            array = new byte[MinimumSize << sizeClass];
+        } else {
+            reused.incrementAndGet();
+        }
+
+        return new PacketBuffer(this, array, length);
+    }
+
+    /**
+     * Copies the remaining bytes of source into a new buffer.
+     *
+     * @param source packet bytes
+     * @return buffer with one reference
+     */
+    public PacketBuffer copy(ByteBuffer source) {
+        PacketBuffer buffer = allocate(source.remaining());
+        buffer.getByteBuffer().put(source.duplicate());
+
+        return buffer;
+    }
+
+    void recycle(byte[] array) {
+        if (array.length <= MaximumSize && Integer.bitCount(array.length) == 1) {
+            free[getSizeClass(array.length)].offer(array);
+        }
+    }
+
+    /**
+     * @return number of arrays allocated, because no free one was available
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * @return number of buffers served by reusing a released array
+     */
+    public long getReused() {
+        return reused.get();
+    }
+}
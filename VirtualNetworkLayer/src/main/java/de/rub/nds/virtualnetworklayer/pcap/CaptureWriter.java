@@ -0,0 +1,486 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pure Java pcap writer, which writes captures on its own thread.
+ * <p>
+ * {@link #write(String, List)} only queues a capture (the packets of one connection) and never blocks.
+ * If the queue holds too many captures or bytes, the capture is dropped and counted instead.
+ * The writer thread drains the queue in batches into a large buffer, which is written to the current
+ * file at once.
+ * <p>
+ * Captures are appended to files named {@code prefix-0000.pcap}, {@code prefix-0001.pcap}, ...
+ * (classic pcap, nanosecond timestamps, native byte order). A new file is started, if the current one
+ * would exceed the maximum size or is older than the maximum age, see {@link #setRotation(long, long)}.
+ * The sidecar index {@code prefix.index} has a line "id, file, offset, packets" (tab separated)
+ * per capture, offset is the position of its first packet record in file.
+ *
+ * @see PcapFileReader
+ */
+public class CaptureWriter implements Closeable {
+    private static final Logger logger = Logger.getLogger(CaptureWriter.class);
+
+    /**
+     * default number of captures the queue can hold
+     */
+    public static final int DefaultCapacity = 1024;
+    /**
+     * default number of packet bytes the queue can hold
+     */
+    public static final long DefaultQueuedBytes = 64 * 1024 * 1024;
+
+    private static final int BufferSize = 1 << 20;
+    private static final int FileHeaderLength = 24;
+    private static final int RecordHeaderLength = 16;
+    private static final int PcapNanosecondMagic = 0xa1b23c4d;
+    private static final int Snaplen = 262144;
+
+    /**
+     * maximum number of captures taken from the queue at once
+     */
+    private static final int DrainSize = 64;
+
+    private static final Capture EndOfCaptures = new Capture(null, Collections.<PcapHandler.RawPacket>emptyList());
+
+    private static class Capture {
+        private final String id;
+        private final List<PcapHandler.RawPacket> packets;
+        private final long bytes;
+
+        private Capture(String id, List<PcapHandler.RawPacket> packets) {
+            this.id = id;
+            this.packets = packets;
+
+            long bytes = 0;
+            for (PcapHandler.RawPacket packet : packets) {
+                bytes += RecordHeaderLength + packet.getCaplen();
+            }
+            this.bytes = bytes;
+        }
+
+        private void release() {
+            for (PcapHandler.RawPacket packet : packets) {
+                packet.release();
+            }
+        }
+    }
+
+    private final File directory;
+    private final String prefix;
+    private final Pcap.DataLinkType dataLinkType;
+    private final long maximumQueuedBytes;
+
+    private final BlockingQueue<Capture> queue;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    private volatile long maximumFileBytes;
+    private volatile long maximumFileAge;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+
+    // owned by the writer thread
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BufferSize).order(ByteOrder.nativeOrder());
+    private FileChannel channel;
+    private int fileNumber;
+    private String fileName;
+    private long fileSize;
+    // file offset of the first byte in buffer
+    private long bufferOffset;
+    private long fileOpened;
+    private Writer index;
+
+    /**
+     * @see #CaptureWriter(File, String, Pcap.DataLinkType, int, long)
+     */
+    public CaptureWriter(File directory, String prefix, Pcap.DataLinkType dataLinkType) {
+        this(directory, prefix, dataLinkType, DefaultCapacity, DefaultQueuedBytes);
+    }
+
+    /**
+     * Starts the writer thread, files are created with the first capture.
+     *
+     * @param directory          directory of the pcap files and the index
+     * @param prefix             file name prefix
+     * @param dataLinkType       link type of all written packets
+     * @param capacity           maximum number of queued captures
+     * @param maximumQueuedBytes maximum number of queued packet bytes
+     */
+    public CaptureWriter(File directory, String prefix, Pcap.DataLinkType dataLinkType,
+                         int capacity, long maximumQueuedBytes) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.dataLinkType = dataLinkType;
+        this.maximumQueuedBytes = maximumQueuedBytes;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CaptureWriter.this.run();
+            }
+        });
+        thread.setName("Capture-Writer-" + prefix);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param maximumFileBytes size after which a new file is started, 0 for no limit
+     * @param maximumFileAge   nanoseconds after which a new file is started, 0 for no limit
+     */
+    public void setRotation(long maximumFileBytes, long maximumFileAge) {
+        this.maximumFileBytes = maximumFileBytes;
+        this.maximumFileAge = maximumFileAge;
+    }
+
+    /**
+     * Queues the packets of a capture, never blocks.
+     * The packets belong to the writer afterwards and are released after they were written or dropped.
+     *
+     * @param id      identifier of the capture in the index, e.g. the connection
+     * @param packets packets in capture order
+     * @return false if the capture was dropped, because the queue is full or the writer closed
+     * @throws IllegalArgumentException if id is null, the packets are not taken then
+     */
+    public boolean write(String id, List<PcapHandler.RawPacket> packets) {
+        if (id == null) {
+            throw new IllegalArgumentException("id must not be null");
+        }
+
+        Capture capture = new Capture(id.replaceAll("[\t\r\n]", " "), packets);
+
+        if (closed) {
+            drop(capture);
+            return false;
+        }
+
+        if (queuedBytes.addAndGet(capture.bytes) <= maximumQueuedBytes && queue.offer(capture)) {
+            return true;
+        }
+
+        queuedBytes.addAndGet(-capture.bytes);
+        drop(capture);
+
+        return false;
+    }
+
+    private void drop(Capture capture) {
+        capture.release();
+        dropped.incrementAndGet();
+        droppedBytes.addAndGet(capture.bytes);
+    }
+
+    private void run() {
+        List<Capture> batch = new ArrayList<>(DrainSize);
+
+        try {
+            while (true) {
+                // wait for one capture, then take whatever else is queued at once
+                batch.add(queue.take());
+                queue.drainTo(batch, DrainSize - 1);
+
+                boolean end = false;
+                for (Capture capture : batch) {
+                    if (capture == EndOfCaptures) {
+                        end = true;
+                        continue;
+                    }
+
+                    queuedBytes.addAndGet(-capture.bytes);
+                    if (end) {
+                        // queued by a concurrent write after the end
+                        drop(capture);
+                        continue;
+                    }
+
+                    try {
+                        append(capture);
+                        written.incrementAndGet();
+                    } catch (IOException e) {
+                        logger.warn(thread.getName() + ": could not write " + capture.id + ": " + e);
+                        drop(capture);
+                        closeFile();
+                        continue;
+                    }
+
+                    capture.release();
+                }
+
+                try {
+                    flush();
+                } catch (IOException e) {
+                    logger.warn(thread.getName() + ": could not flush " + fileName + ": " + e);
+                    if (channel != null) {
+                        // a partly written buffer must not be written again
+                        rollback(bufferOffset);
+                    }
+                    closeFile();
+                }
+
+                batch.clear();
+                if (end) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.debug(thread.getName() + " interrupted");
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * Appends the records of capture and its index line. If that fails, the capture's records
+     * are rolled back, so the file ends with the last complete capture.
+     */
+    private void append(Capture capture) throws IOException {
+        if (channel == null || isRotationDue(capture.bytes)) {
+            openFile();
+        }
+
+        long offset = fileSize;
+        try {
+            appendRecords(capture);
+            index.write(capture.id + "\t" + fileName + "\t" + offset + "\t" + capture.packets.size() + "\n");
+        } catch (IOException e) {
+            rollback(offset);
+            throw e;
+        }
+    }
+
+    private void appendRecords(Capture capture) throws IOException {
+        for (PcapHandler.RawPacket packet : capture.packets) {
+            ByteBuffer bytes = packet.getBytes();
+            bytes.limit(packet.getCaplen());
+
+            if (buffer.remaining() < RecordHeaderLength + packet.getCaplen()) {
+                writeBuffer();
+            }
+
+            buffer.putInt((int) (packet.getTimeStamp() / 1000000000L));
+            buffer.putInt((int) (packet.getTimeStamp() % 1000000000L));
+            buffer.putInt(packet.getCaplen());
+            buffer.putInt(packet.getLen());
+
+            if (buffer.remaining() < packet.getCaplen()) {
+                // larger than the buffer, written as is
+                writeBuffer();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                bufferOffset += packet.getCaplen();
+            } else {
+                buffer.put(bytes);
+            }
+
+            fileSize += RecordHeaderLength + packet.getCaplen();
+        }
+    }
+
+    /**
+     * Discards everything from offset on, buffered or already written.
+     * If the file can't be cut, the buffer is discarded completely, so no partial record follows.
+     */
+    private void rollback(long offset) {
+        buffer.clear();
+        fileSize = offset;
+
+        try {
+            if (offset >= bufferOffset) {
+                // the complete records in front of offset are still buffered
+                buffer.position((int) (offset - bufferOffset));
+                offset = bufferOffset;
+            } else {
+                bufferOffset = offset;
+            }
+
+            if (channel.position() > offset) {
+                channel.truncate(offset);
+            }
+        } catch (IOException e) {
+            logger.warn(thread.getName() + ": could not roll back " + fileName + ": " + e);
+            buffer.clear();
+        }
+    }
+
+    private boolean isRotationDue(long bytes) {
+        if (fileSize == FileHeaderLength) {
+            return false;
+        }
+
+        return (maximumFileBytes > 0 && fileSize + bytes > maximumFileBytes)
+                || (maximumFileAge > 0 && System.nanoTime() - fileOpened >= maximumFileAge);
+    }
+
+    private void openFile() throws IOException {
+        closeFile();
+
+        if (index == null) {
+            index = new OutputStreamWriter(new FileOutputStream(new File(directory, prefix + ".index"), true),
+                    StandardCharsets.UTF_8);
+        }
+
+        File file;
+        do {
+            file = new File(directory, String.format("%s-%04d.pcap", prefix, fileNumber++));
+        } while (file.exists());
+        files.incrementAndGet();
+
+        fileName = file.getName();
+        channel = new FileOutputStream(file).getChannel();
+        fileOpened = System.nanoTime();
+
+        buffer.putInt(PcapNanosecondMagic);
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 4);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putInt(Snaplen);
+        buffer.putInt(dataLinkType.getId());
+        fileSize = FileHeaderLength;
+        bufferOffset = 0;
+
+        logger.debug(thread.getName() + ": writing " + file);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        bufferOffset += buffer.limit();
+        buffer.clear();
+    }
+
+    private void flush() throws IOException {
+        if (channel != null) {
+            writeBuffer();
+        }
+        if (index != null) {
+            index.flush();
+        }
+    }
+
+    private void closeFile() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.warn(thread.getName() + ": could not flush " + fileName + ": " + e);
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug(thread.getName() + ": could not close " + fileName + ": " + e);
+        }
+
+        buffer.clear();
+        channel = null;
+    }
+
+    /**
+     * Writes all queued captures and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            queue.put(EndOfCaptures);
+            thread.join();
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        // queued by a concurrent write after the end
+        Capture capture;
+        while ((capture = queue.poll()) != null) {
+            if (capture != EndOfCaptures) {
+                queuedBytes.addAndGet(-capture.bytes);
+                drop(capture);
+            }
+        }
+
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                logger.debug(thread.getName() + ": could not close index: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return number of captures waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of captures written
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return number of captures dropped, because the queue was full or writing failed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of record bytes of the dropped captures
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * @return number of pcap files started
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public Pcap.DataLinkType getDataLinkType() {
+        return dataLinkType;
+    }
+}
@@ -0,0 +1,79 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted packet bytes from a {@link BufferPool}.
+ * <p>
+ * A buffer is created with one reference, every holder which keeps the buffer
+ * beyond the current callback has to {@link #retain()} and later {@link #release()} it.
+ * When the last reference is released, the bytes are returned to the pool and
+ * must not be accessed anymore.
+ */
+public final class PacketBuffer {
+    private final BufferPool pool;
+    private final byte[] array;
+    private final int length;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    PacketBuffer(BufferPool pool, byte[] array, int length) {
+        this.pool = pool;
+        this.array = array;
+        this.length = length;
+    }
+
+    /**
+     * @return view of the packet bytes, capacity is the packet length and array offset is 0
+     */
+    public ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(array, 0, length).slice();
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Adds a reference.
+     *
+     * @return this buffer
+     * @throws IllegalStateException if buffer was already returned to the pool
+     */
+    public PacketBuffer retain() {
+        int count;
+        do {
+            count = references.get();
+
+            if (count <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+
+        return this;
+    }
+
+    /**
+     * Drops a reference, the last one returns the buffer to its pool.
+     *
+     * @return true if buffer was returned to the pool
+     * @throws IllegalStateException if buffer was already returned to the pool
+     */
+    public boolean release() {
+        int count = references.decrementAndGet();
+
+        if (count == 0) {
+            pool.recycle(array);
+            return true;
+        } else if (count < 0) {
+            references.set(0);
+            throw new IllegalStateException("buffer already released");
+        }
+
+        return false;
+    }
+
+    public int getReferenceCount() {
+        return references.get();
+    }
+}
@@ -5,19 +5,23 @@ import de.rub.nds.virtualnetworklayer.pcap.structs.bpf_program;
 import de.rub.nds.virtualnetworklayer.pcap.structs.pcap_dumper_t;
 import de.rub.nds.virtualnetworklayer.pcap.structs.pcap_if;
 import de.rub.nds.virtualnetworklayer.pcap.structs.pcap_t;
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
 import de.rub.nds.virtualnetworklayer.util.Util;
 import org.bridj.Pointer;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Pcap wrapper
@@ -25,78 +29,216 @@ import java.util.Set;
  * To create a new instance use one of the following factory methods:
  * <ul>
  * <li>live capturing: {@link #openLive()}, {@link #openLive(Device)}, {@link #openLive(Device, java.util.Set)}</li>
- * <li>opening an pcap dump: {@link #openOffline(java.io.File)}</li>
+ * <li>opening an pcap dump: {@link #openOffline(java.io.File)}, {@link #openOffline(java.io.File, OfflineReader)}</li>
  * <li>opening standard input as pcap: {@link #openOfflineStdin()}</li>
  * <li>radio frequence monitoring: {@link #openRadioFrequencyMonitor()}, {@link #openRadioFrequencyMonitor(Device)}</li>
  * </ul>
- * The wrapper does reference counting, so an instance might be also looked up by
- * address {@link #getInstance(byte[])}.
- * If an instance was not closed or garbage collected, when the Java virtual machine is
- * shutting down, {@link Pcap.GarbageCollector} kicks in.
+ * The wrapper does reference counting, so an open live instance might be also looked up by
+ * address {@link #getInstance(byte[])}. Instances are released by {@link #close()} only,
+ * there is no finalizer.
  * <p>
  * Register a callback {@link PcapHandler} with {@link #loopAsynchronous(PcapHandler)} or {@link #loop(PcapHandler)}.
+ * To receive packets in batches (one native transition each) use {@link #loopBatch(BatchHandler, int, boolean)}.
+ * To decode on several threads use {@link #loop(PcapHandler, boolean, int)}, which puts a flow-sharded
+ * {@link Pipeline} in front of the handler.
  *
  * @author Marco Faltermeier <faltermeier@me.com>
- * @see Runtime#addShutdownHook(Thread)
  * @see PcapLibrary
+ * @see de.rub.nds.virtualnetworklayer.connection.pcap.CaptureMultiplexer
  */
 public class Pcap {
     private static Pointer<Byte> errbuf = Pointer.allocateBytes(256);
     private Pointer<Integer> pcap_datalink = Pointer.allocateInt();
+    /**
+     * resolved once, handlers get it before looping
+     */
+    private DataLinkType dataLinkType;
     private pcap_t pcap_t;
+    private PcapFileReader reader;
     private Status status = Status.Success;
     private Loop loop;
     private File file;
     private Device device;
     private int referenceCount = 0;
-    private int referencePosition = 0;
     private String filter = "";
     private List<WeakReference<PcapDumper>> dumperReferences = new LinkedList<>();
 
+    /**
+     * suggested batch size for {@link #loopBatch(BatchHandler, int, boolean)}
+     */
+    public static final int DefaultBatchSize = 64;
+
     private static int snaplen = 65535;
-    private static int mode = 0;
     private static int timeout = 250;
-    private static List<WeakReference<Pcap>> references = new LinkedList<>();
+    /**
+     * open live instances, guarded by itself
+     */
+    private static final List<Pcap> instances = new LinkedList<>();
     private static Device liveDevice;
 
     private class Loop implements Runnable {
-        private PcapHandler handler;
+        private BatchHandler handler;
+        private Pipeline pipeline;
         private boolean asynchronous;
+        private int batchSize = 0;
+        private volatile boolean stopped = false;
+        private volatile Thread thread;
+        private final CountDownLatch finished = new CountDownLatch(1);
 
-        private Loop(PcapHandler handler, boolean asynchronous) {
+        private Loop(BatchHandler handler, boolean asynchronous) {
             this.handler = handler;
             this.asynchronous = asynchronous;
         }
 
+        private Loop(BatchHandler handler, boolean asynchronous, Pipeline pipeline) {
+            this(handler, asynchronous);
+            this.pipeline = pipeline;
+        }
+
         @Override
         public void run() {
-            setStatus(PcapLibrary.pcap_loop(pcap_t, 0, Pointer.pointerTo(handler), pcap_datalink));
+            thread = Thread.currentThread();
+
+            try {
+                if (stopped) {
+                    setStatus(Status.Terminated.code);
+                } else if (pipeline == null) {
+                    setStatus(capture(handler));
+                } else {
+                    pipeline.start();
+                    int code = capture(pipeline);
+                    pipeline.close();
+                    setStatus(code);
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private int capture(BatchHandler handler) {
+            if (handler instanceof PcapHandler) {
+                ((PcapHandler) handler).dataLinkType = dataLinkType;
+            }
+
+            if (batchSize > 0) {
+                return captureBatches(handler);
+            }
+
+            if (reader != null) {
+                return reader.loop((PcapHandler) handler).code;
+            }
+
+            return PcapLibrary.pcap_loop(pcap_t, 0, Pointer.pointerTo((PcapHandler) handler), pcap_datalink);
+        }
+
+        /**
+         * Captures with one pcap_dispatch per batch, until end of dump or {@link #breakloop()}.
+         */
+        private int captureBatches(BatchHandler handler) {
+            Batch batch = new Batch(batchSize);
+            batch.dataLinkType = dataLinkType;
+            if (handler instanceof PcapHandler) {
+                batch.setBufferPool(((PcapHandler) handler).getBufferPool());
+            }
+            Pointer<Batch> callback = Pointer.pointerTo(batch);
+
+            while (!stopped) {
+                int code = reader != null ? batch.read(reader) : PcapLibrary.pcap_dispatch(pcap_t, batchSize, callback, pcap_datalink);
+
+                if (code < 0) {
+                    return code;
+                }
+
+                if (batch.count > 0) {
+                    try {
+                        handler.newBatch(batch.packets, batch.count, batch.getDataLinkType());
+                    } finally {
+                        batch.clear();
+                    }
+                } else if (device == null) {
+                    // end of dump, live captures return 0 on timeout
+                    return Status.Success.code;
+                }
+            }
+
+            return Status.Terminated.code;
+        }
+
+        /**
+         * Waits until this loop returned, unless called by the loop itself.
+         */
+        private void await() {
+            if (thread == Thread.currentThread()) {
+                return;
+            }
+
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         public PcapHandler getHandler() {
-            return handler;
+            return handler instanceof PcapHandler ? (PcapHandler) handler : null;
         }
     }
 
-    private static class GarbageCollector implements Runnable {
+    /**
+     * Collects the packets of one pcap_dispatch call.
+     */
+    private static class Batch extends PcapHandler {
+        private final RawPacket[] packets;
+        private int count = 0;
+        private RawPacket pending;
+
+        private Batch(int size) {
+            packets = new RawPacket[size];
+        }
+
         @Override
-        public void run() {
-            for (WeakReference<Pcap> reference : new LinkedList<>(references)) {
-                Pcap instance = reference.get();
-                if (instance != null) {
-                    try {
-                        Thread.sleep(10L);
-                        instance.finalize();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+        protected void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
+            packets[count++] = getCurrentRawPacket();
+        }
+
+        /**
+         * Fills this batch from reader, a batch ends early if the link type changes.
+         *
+         * @return number of packets read or {@link Status#Failure}
+         */
+        private int read(PcapFileReader reader) {
+            try {
+                if (pending != null) {
+                    packets[count++] = pending;
+                    dataLinkType = reader.getDataLinkType();
+                    pending = null;
+                }
+
+                RawPacket rawPacket;
+                while (count < packets.length && (rawPacket = reader.next()) != null) {
+                    if (count > 0 && reader.getDataLinkType() != dataLinkType) {
+                        pending = rawPacket;
+                        break;
                     }
+
+                    packets[count++] = rawPacket;
+                    dataLinkType = reader.getDataLinkType();
                 }
+            } catch (IOException e) {
+                return Status.Failure.code;
             }
+
+            return count;
         }
-    }
 
-    static {
-        Runtime.getRuntime().addShutdownHook(new Thread(new GarbageCollector()));
+        private void clear() {
+            for (int i = 0; i < count; i++) {
+                packets[i].release();
+                packets[i] = null;
+            }
+
+            count = 0;
+        }
     }
 
     public enum Status {
@@ -114,14 +256,15 @@ public class Pcap {
             this.code = code;
         }
 
-        public static Status valueOf(int code) {
-            for (Status status : values()) {
-                if (status.code == code) {
-                    return status;
-                }
+        private static final EnumTable<Status> statuses = new EnumTable<>(values(), new EnumTable.Code<Status>() {
+            @Override
+            public int of(Status status) {
+                return status.code;
             }
+        });
 
-            return null;
+        public static Status valueOf(int code) {
+            return statuses.get(code);
         }
     }
 
@@ -139,6 +282,22 @@ public class Pcap {
         }
     }
 
+    /**
+     * Implementation used to read pcap dumps.
+     *
+     * @see #openOffline(java.io.File, OfflineReader)
+     */
+    public enum OfflineReader {
+        /**
+         * libpcap's pcap_open_offline
+         */
+        Libpcap,
+        /**
+         * memory mapped {@link PcapFileReader}, which needs no native library and also reads pcapng
+         */
+        Mapped
+    }
+
     /**
      * @see <a href="http://www.tcpdump.org/linktypes.html">tcpdump.org/linktypes.html</a>
      */
@@ -161,14 +320,22 @@ public class Pcap {
             this.id = id;
         }
 
-        public static DataLinkType valueOf(int id) {
-            for (DataLinkType dlt : values()) {
-                if (dlt.id == id) {
-                    return dlt;
-                }
+        /**
+         * @return LINKTYPE_ value as used in pcap files
+         */
+        public int getId() {
+            return id;
+        }
+
+        private static final EnumTable<DataLinkType> dataLinkTypes = new EnumTable<>(values(), new EnumTable.Code<DataLinkType>() {
+            @Override
+            public int of(DataLinkType dlt) {
+                return dlt.id;
             }
+        });
 
-            return null;
+        public static DataLinkType valueOf(int id) {
+            return dataLinkTypes.get(id);
         }
     }
 
@@ -209,7 +376,7 @@ public class Pcap {
         }
 
         PcapLibrary.pcap_set_snaplen(pcap_t, snaplen);
-        PcapLibrary.pcap_set_promisc(pcap_t, mode);
+        PcapLibrary.pcap_set_promisc(pcap_t, 0);
         PcapLibrary.pcap_set_timeout(pcap_t, timeout);
 
         PcapLibrary.pcap_activate(pcap_t);
@@ -227,11 +394,12 @@ public class Pcap {
      * @throws IllegalArgumentException if device was not found
      */
     public static Pcap openLive(Device device, Set<OpenFlag> flags) {
+        int mode = 0;
         for (OpenFlag flag : flags) {
-            mode += 1 << (flag.position - 1);
+            mode |= 1 << (flag.position - 1);
         }
 
-        return openLive(device);
+        return openLive(device, mode);
     }
 
     /**
@@ -243,6 +411,10 @@ public class Pcap {
      * @throws IllegalArgumentException if device was not found
      */
     public static Pcap openLive(Device device) {
+        return openLive(device, 0);
+    }
+
+    private static Pcap openLive(Device device, int mode) {
         pcap_t pcap_t = PcapLibrary.pcap_open_live(Pointer.pointerToCString(device.getName()), snaplen, mode, timeout, errbuf);
 
         if (pcap_t == null) {
@@ -277,6 +449,28 @@ public class Pcap {
      * @throws IllegalArgumentException if file could not be opened
      */
     public static Pcap openOffline(File file) {
+        return openOffline(file, OfflineReader.Libpcap);
+    }
+
+    /**
+     * Creates a pcap instance in offline mode with specified {@link File} and {@link OfflineReader}.
+     * <p>
+     * Instances using {@link OfflineReader#Mapped} do not support {@link #filter(String)}.
+     *
+     * @param file   pcap dump
+     * @param reader implementation used to read file
+     * @return instance of {@link Pcap}
+     * @throws IllegalArgumentException if file could not be opened
+     */
+    public static Pcap openOffline(File file, OfflineReader reader) {
+        if (reader == OfflineReader.Mapped) {
+            try {
+                return new Pcap(new PcapFileReader(file), file);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+
         pcap_t pcap_t = PcapLibrary.pcap_open_offline(Pointer.pointerToCString(file.getAbsolutePath()), errbuf);
 
         if (pcap_t == null) {
@@ -310,14 +504,13 @@ public class Pcap {
      * @throws IllegalArgumentException if none device is bound to address
      */
     public static Pcap getInstance(byte[] address) {
-        for (WeakReference<Pcap> reference : references) {
-            Pcap instance = reference.get();
+        synchronized (instances) {
+            for (Pcap instance : instances) {
+                if (instance.getDevice().isBound(address) && instance.isShareable()) {
+                    instance.referenceCount++;
 
-            if (instance != null && instance.getDevice() != null && instance.getDevice().isBound(address)
-                    && instance.filter.isEmpty() && instance.getHandler() instanceof ConnectionHandler) {
-                instance.referenceCount++;
-
-                return instance;
+                    return instance;
+                }
             }
         }
 
@@ -329,8 +522,19 @@ public class Pcap {
 
         return Pcap.openLive();
     }
-    
-    private static Device getDeviceForHost(String host) {
+
+    /**
+     * @return whether instance captures unfiltered for a {@link ConnectionHandler}
+     */
+    private boolean isShareable() {
+        return filter.isEmpty() && loop != null && loop.getHandler() instanceof ConnectionHandler;
+    }
+
+    /**
+     * @return device of the default route to host
+     * @throws InternalError if no device matches the route
+     */
+    public static Device getDeviceForHost(String host) {
         String defaultRoute = Util.getDefaultRoute(host);
 
         System.err.println("default route is " + defaultRoute);
@@ -343,37 +547,43 @@ public class Pcap {
         throw new InternalError("could not find a Device for " + host + " route was " + defaultRoute);
     }
     
+    /**
+     * Looks up a pcap instance on the device routing to host,
+     * if none was found a new pcap instance is created.
+     *
+     * @param host remote host
+     * @return pcap instance
+     * @see de.rub.nds.virtualnetworklayer.connection.pcap.CaptureMultiplexer
+     */
     public static Pcap getInstanceForRemoteHost(String host) {
-    	Device d = getDeviceForHost(host);
-    	System.err.println("trying to get a device for host " + host + " and found device " + d.toString());
-    	for (WeakReference<Pcap> reference : references) {
-            Pcap instance = reference.get();
+        Device device = getDeviceForHost(host);
 
-            if (instance != null && instance.getDevice() != null && instance.getDevice().equals(d)
-                    && instance.filter.isEmpty() && instance.getHandler() instanceof ConnectionHandler) {
-                instance.referenceCount++;
+        synchronized (instances) {
+            for (Pcap instance : instances) {
+                if (instance.getDevice().equals(device) && instance.isShareable()) {
+                    instance.referenceCount++;
 
-                return instance;
+                    return instance;
+                }
             }
         }
-    	
-    	return Pcap.openLive(d);
-    	
 
+        return Pcap.openLive(device);
     }
 
     private Pcap(pcap_t pcap_t) {
         this.pcap_t = pcap_t;
         pcap_datalink.set(PcapLibrary.pcap_datalink(pcap_t));
-
-        referencePosition = references.size();
-        references.add(new WeakReference<>(this));
+        dataLinkType = DataLinkType.valueOf(pcap_datalink.get());
     }
 
     private Pcap(pcap_t pcap_t, Device device) {
         this(pcap_t);
 
         this.device = device;
+        synchronized (instances) {
+            instances.add(this);
+        }
     }
 
     private Pcap(pcap_t pcap_t, File file) {
@@ -382,6 +592,13 @@ public class Pcap {
         this.file = file;
     }
 
+    private Pcap(PcapFileReader reader, File file) {
+        this.reader = reader;
+        this.file = file;
+        pcap_datalink.set(reader.getLinkType());
+        dataLinkType = reader.getDataLinkType();
+    }
+
     /**
      * example: {@code libpcap version 1.1.1}
      *
@@ -396,9 +613,14 @@ public class Pcap {
      *
      * @param filter
      * @return {@link Status}
+     * @throws UnsupportedOperationException if dump is read by {@link OfflineReader#Mapped}
      * @see <a href="http://www.cs.ucr.edu/~marios/ethereal-tcpdump.pdf">cs.ucr.edu/~marios/ethereal-tcpdump.pdf</a>
      */
     public Status filter(String filter) {
+        if (reader != null) {
+            throw new UnsupportedOperationException("filters are only supported by " + OfflineReader.Libpcap);
+        }
+
         this.filter = filter;
         Pointer<bpf_program> bpf_program = Pointer.allocate(bpf_program.class);
 
@@ -409,20 +631,28 @@ public class Pcap {
         }
     }
 
+    /**
+     * Stops the current loop. If the loop is asynchronous, waits until it returned
+     * (unless called from a handler).
+     */
     public void breakloop() {
+        Loop loop = this.loop;
+
         if (loop != null) {
-            PcapLibrary.pcap_breakloop(pcap_t);
+            loop.stopped = true;
 
-            while (loop.asynchronous && status != Status.Terminated) {
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    break;
-                }
+            if (reader != null) {
+                reader.breakloop();
+            } else {
+                PcapLibrary.pcap_breakloop(pcap_t);
+            }
+
+            if (loop.asynchronous) {
+                loop.await();
             }
         }
 
-        loop = null;
+        this.loop = null;
     }
 
     /**
@@ -452,9 +682,97 @@ public class Pcap {
             return Status.AlreadyActivated;
         }
 
-        loop = new Loop(handler, asynchronous);
+        return start(new Loop(handler, asynchronous));
+    }
+
+    /**
+     * Loops with a flow-sharded {@link Pipeline} of {@code workers} decode threads in front of handler.
+     * Packets of the same flow are always delivered by the same worker in capture order,
+     * packets of different flows are delivered concurrently.
+     * <p>
+     * Live captures drop (and count) packets, if a worker can not keep up,
+     * offline captures are throttled instead.
+     *
+     * @param handler      handler, which has to be safe for concurrent calls on different flows
+     * @param asynchronous if true, capturing is done in a separate thread
+     * @param workers      number of decode threads, 0 disables the pipeline
+     * @return {@link Status}
+     * @see #getPipeline()
+     */
+    public Status loop(PcapHandler handler, boolean asynchronous, int workers) {
+        if (workers <= 0) {
+            return loop(handler, asynchronous);
+        }
+
+        if (loop != null) {
+            return Status.AlreadyActivated;
+        }
+
+        Pipeline pipeline = new Pipeline(handler, workers, Pipeline.DefaultCapacity, device == null);
+
+        return start(new Loop(handler, asynchronous, pipeline));
+    }
 
-        if (!asynchronous) {
+    /**
+     * Loops in batch mode: every native transition (pcap_dispatch) captures up to batchSize packets,
+     * which are delivered to handler as one batch.
+     * Live captures deliver smaller batches, if fewer packets arrived within the timeout.
+     *
+     * @param handler      batch handler, e.g. any {@link PcapHandler}
+     * @param batchSize    maximum number of packets per batch
+     * @param asynchronous if true, capturing is done in a separate thread
+     * @return {@link Status}
+     * @see #DefaultBatchSize
+     */
+    public Status loopBatch(BatchHandler handler, int batchSize, boolean asynchronous) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size has to be positive");
+        }
+
+        if (loop != null) {
+            return Status.AlreadyActivated;
+        }
+
+        Loop loop = new Loop(handler, asynchronous);
+        loop.batchSize = batchSize;
+
+        return start(loop);
+    }
+
+    /**
+     * Loops in batch mode with a flow-sharded {@link Pipeline} of {@code workers} decode threads in front of handler.
+     *
+     * @param handler      handler, which has to be safe for concurrent calls on different flows
+     * @param batchSize    maximum number of packets per batch
+     * @param asynchronous if true, capturing is done in a separate thread
+     * @param workers      number of decode threads, 0 disables the pipeline
+     * @return {@link Status}
+     * @see #loopBatch(BatchHandler, int, boolean)
+     * @see #loop(PcapHandler, boolean, int)
+     */
+    public Status loopBatch(PcapHandler handler, int batchSize, boolean asynchronous, int workers) {
+        if (workers <= 0) {
+            return loopBatch(handler, batchSize, asynchronous);
+        }
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size has to be positive");
+        }
+
+        if (loop != null) {
+            return Status.AlreadyActivated;
+        }
+
+        Loop loop = new Loop(handler, asynchronous, new Pipeline(handler, workers, Pipeline.DefaultCapacity, device == null));
+        loop.batchSize = batchSize;
+
+        return start(loop);
+    }
+
+    private Status start(Loop loop) {
+        this.loop = loop;
+
+        if (!loop.asynchronous) {
             loop.run();
         } else {
             Thread thread = new Thread(loop);
@@ -591,6 +909,10 @@ public class Pcap {
      * @return A {@link PcapDumper} suitable to dump packets
      */
     public PcapDumper openDump(File pathname) {
+        if (pcap_t == null && reader != null) {
+            pcap_t = PcapLibrary.pcap_open_dead(reader.getLinkType(), snaplen);
+        }
+
         pcap_dumper_t dumper = PcapLibrary.pcap_dump_open(pcap_t,
                 Pointer.pointerToCString(pathname.getAbsolutePath()));
 
@@ -606,6 +928,10 @@ public class Pcap {
      * @return The last occurred error. Use for functions without errbuf parameter.
      */
     public String getLastError() {
+        if (pcap_t == null) {
+            return null;
+        }
+
         Pointer<Byte> err = PcapLibrary.pcap_geterr(pcap_t);
         if(err == null)
             return null;
@@ -627,6 +953,14 @@ public class Pcap {
         return loop.getHandler();
     }
 
+    /**
+     * @return pipeline of current loop, null if not looping with workers
+     * @see #loop(PcapHandler, boolean, int)
+     */
+    public Pipeline getPipeline() {
+        return loop != null ? loop.pipeline : null;
+    }
+
     public File getFile() {
         return file;
     }
@@ -635,6 +969,13 @@ public class Pcap {
         return device;
     }
 
+    /**
+     * @return link type of this handle, of the first interface for pcapng dumps
+     */
+    public DataLinkType getDataLinkType() {
+        return dataLinkType;
+    }
+
     public static void setSnaplen(int snaplen) {
         Pcap.snaplen = snaplen;
     }
@@ -667,19 +1008,20 @@ public class Pcap {
                 PcapLibrary.pcap_close(pcap_t);
             }
 
-            if (referencePosition < references.size()) {
-                references.remove(referencePosition);
-                //FIXME: invalidates referencePosition in all "later" instances
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    //
+                }
+            }
+
+            synchronized (instances) {
+                instances.remove(this);
             }
         }
     }
 
-    @Override
-    protected void finalize() {
-        referenceCount = 0;
-        close();
-    }
-
     @Override
     public String toString() {
         return getVersion();
@@ -0,0 +1,449 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pure Java reader for pcap dumps, which does not need libpcap.
+ * <p>
+ * Supported formats are classic pcap (both byte orders, micro- and nanosecond timestamps)
+ * and pcapng (section header, interface description, enhanced, simple and obsolete packet blocks,
+ * any number of sections and interfaces). Other pcapng blocks are skipped.
+ * <p>
+ * The file is memory mapped in windows of {@link #WindowSize} bytes, packets are read-only
+ * views of the mapped region. A view stays valid as long as it is referenced,
+ * even after the reader was closed, so packets are never copied by the reader.
+ * <p>
+ * Use {@link Pcap#openOffline(java.io.File, Pcap.OfflineReader)} to loop a {@link PcapHandler}
+ * over a file or {@link #next()} to iterate packets directly.
+ *
+ * @see <a href="http://wiki.wireshark.org/Development/LibpcapFileFormat">wiki.wireshark.org/Development/LibpcapFileFormat</a>
+ * @see <a href="https://github.com/pcapng/pcapng">github.com/pcapng/pcapng</a>
+ */
+public class PcapFileReader implements Closeable {
+    private static final Logger logger = Logger.getLogger(PcapFileReader.class);
+
+    /**
+     * number of bytes mapped at once
+     */
+    public static final int WindowSize = 1 << 26;
+
+    private static final int PcapMagic = 0xa1b2c3d4;
+    private static final int PcapNanosecondMagic = 0xa1b23c4d;
+    private static final int ByteOrderMagic = 0x1a2b3c4d;
+
+    private static final int SectionHeaderBlock = 0x0a0d0d0a;
+    private static final int InterfaceDescriptionBlock = 1;
+    private static final int PacketBlock = 2;
+    private static final int SimplePacketBlock = 3;
+    private static final int EnhancedPacketBlock = 6;
+
+    private static final int EndOfOptions = 0;
+    private static final int TimeStampResolution = 9;
+    private static final int TimeStampOffset = 14;
+
+    public enum Format {
+        Pcap,
+        PcapNanoseconds,
+        PcapNg
+    }
+
+    /**
+     * Interface of a pcapng section, classic pcap files have exactly one.
+     */
+    private static class Interface {
+        private final int linkType;
+        private final Pcap.DataLinkType dataLinkType;
+        private final int snaplen;
+        private int resolution = 6;
+        private boolean binaryResolution = false;
+        private long offset = 0;
+
+        private Interface(int linkType, int snaplen) {
+            this.linkType = linkType;
+            this.dataLinkType = Pcap.DataLinkType.valueOf(linkType);
+            this.snaplen = snaplen;
+        }
+
+        /**
+         * @param timeStamp in units of this interface's resolution
+         * @return time stamp in nanoseconds
+         */
+        private long getNanoseconds(long timeStamp) {
+            long nanoseconds;
+
+            if (binaryResolution) {
+                long seconds = timeStamp >>> resolution;
+                long fraction = timeStamp & ((1L << resolution) - 1);
+                nanoseconds = seconds * 1000000000L + (long) Math.scalb(fraction * 1e9, -resolution);
+            } else if (resolution <= 9) {
+                nanoseconds = timeStamp * pow10(9 - resolution);
+            } else {
+                nanoseconds = timeStamp / pow10(resolution - 9);
+            }
+
+            return nanoseconds + offset * 1000000000L;
+        }
+
+        private static long pow10(int exponent) {
+            long value = 1;
+            for (int i = 0; i < exponent; i++) {
+                value *= 10;
+            }
+
+            return value;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long size;
+    private final Format format;
+    private final List<Interface> interfaces = new ArrayList<>();
+
+    private MappedByteBuffer window;
+    private long windowPosition;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+    private long position;
+    private Interface current;
+    private volatile boolean broken = false;
+
+    /**
+     * @param file pcap or pcapng dump
+     * @throws IOException if file could not be opened or has an unknown format
+     */
+    public PcapFileReader(File file) throws IOException {
+        this.file = file;
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        size = channel.size();
+
+        try {
+            format = readHeader();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private Format readHeader() throws IOException {
+        ByteBuffer header = map(0, 4);
+        if (header == null) {
+            throw new IOException(file + ": empty file");
+        }
+
+        int magic = header.order(ByteOrder.BIG_ENDIAN).getInt(offset(0));
+
+        if (magic == SectionHeaderBlock) {
+            // interfaces have to be described before their first packet
+            while (interfaces.isEmpty() && position < size) {
+                readBlock();
+            }
+
+            if (interfaces.isEmpty()) {
+                throw new IOException(file + ": no interface description found");
+            }
+
+            return Format.PcapNg;
+        }
+
+        Format format;
+        if (magic == PcapMagic || magic == PcapNanosecondMagic) {
+            order = ByteOrder.BIG_ENDIAN;
+            format = magic == PcapMagic ? Format.Pcap : Format.PcapNanoseconds;
+        } else if (Integer.reverseBytes(magic) == PcapMagic || Integer.reverseBytes(magic) == PcapNanosecondMagic) {
+            order = ByteOrder.LITTLE_ENDIAN;
+            format = Integer.reverseBytes(magic) == PcapMagic ? Format.Pcap : Format.PcapNanoseconds;
+        } else {
+            throw new IOException(file + ": unknown capture format " + Integer.toHexString(magic));
+        }
+
+        header = map(0, 24);
+        if (header == null) {
+            throw new IOException(file + ": truncated file header");
+        }
+
+        Interface anInterface = new Interface(header.getInt(offset(20)) & 0xffff, header.getInt(offset(16)));
+        if (format == Format.PcapNanoseconds) {
+            anInterface.resolution = 9;
+        }
+
+        interfaces.add(anInterface);
+        current = anInterface;
+        position = 24;
+
+        return format;
+    }
+
+    /**
+     * Maps length bytes at position (if not mapped yet).
+     *
+     * @return current window in current byte order, null if file is too short
+     * @see #offset(long)
+     */
+    private ByteBuffer map(long position, int length) throws IOException {
+        if (length < 0 || position + length > size) {
+            return null;
+        }
+
+        if (window == null || position < windowPosition || position + length > windowPosition + window.capacity()) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.max(length, Math.min(WindowSize, size - position)));
+            windowPosition = position;
+        }
+
+        window.order(order);
+
+        return window;
+    }
+
+    /**
+     * @return index of file position in current window
+     */
+    private int offset(long position) {
+        return (int) (position - windowPosition);
+    }
+
+    /**
+     * @return read-only view of length bytes at position of current window
+     */
+    private ByteBuffer slice(long position, int length) {
+        ByteBuffer view = window.duplicate();
+        view.position(offset(position));
+        view.limit(offset(position) + length);
+
+        return view.slice();
+    }
+
+    /**
+     * Reads the next packet.
+     *
+     * @return packet, null at end of file
+     * @throws IOException if file is corrupt or could not be read
+     */
+    public PcapHandler.RawPacket next() throws IOException {
+        if (format == Format.PcapNg) {
+            PcapHandler.RawPacket rawPacket;
+            while ((rawPacket = readBlock()) == null && position < size) {
+            }
+
+            return rawPacket;
+        }
+
+        ByteBuffer header = map(position, 16);
+        if (header == null) {
+            warnTruncated(size - position);
+            return null;
+        }
+
+        long seconds = header.getInt(offset(position)) & 0xffffffffL;
+        long fraction = header.getInt(offset(position + 4)) & 0xffffffffL;
+        int caplen = header.getInt(offset(position + 8));
+        int len = header.getInt(offset(position + 12));
+
+        if (caplen < 0) {
+            throw new IOException(file + ": invalid captured length " + caplen + " at " + position);
+        }
+
+        if (map(position + 16, caplen) == null) {
+            warnTruncated(size - position);
+            return null;
+        }
+
+        long timeStamp = seconds * 1000000000L + (format == Format.PcapNanoseconds ? fraction : fraction * 1000);
+        PcapHandler.RawPacket rawPacket = new PcapHandler.RawPacket(timeStamp, caplen, len, slice(position + 16, caplen));
+        position += 16 + caplen;
+
+        return rawPacket;
+    }
+
+    private void warnTruncated(long remaining) {
+        if (remaining > 0) {
+            logger.warn(file + ": ignoring truncated record of " + remaining + " bytes");
+            position = size;
+        }
+    }
+
+    /**
+     * Reads the pcapng block at {@link #position}.
+     *
+     * @return packet or null if block is no packet block (or end of file)
+     */
+    private PcapHandler.RawPacket readBlock() throws IOException {
+        ByteBuffer header = map(position, 12);
+        if (header == null) {
+            warnTruncated(size - position);
+            return null;
+        }
+
+        if (header.getInt(offset(position)) == SectionHeaderBlock) {
+            int magic = header.order(ByteOrder.BIG_ENDIAN).getInt(offset(position + 8));
+
+            if (magic == ByteOrderMagic) {
+                order = ByteOrder.BIG_ENDIAN;
+            } else if (Integer.reverseBytes(magic) == ByteOrderMagic) {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else {
+                throw new IOException(file + ": invalid byte order magic at " + position);
+            }
+
+            header.order(order);
+            interfaces.clear();
+        }
+
+        int type = header.getInt(offset(position));
+        int length = header.getInt(offset(position + 4));
+
+        if (length < 12 || length % 4 != 0) {
+            throw new IOException(file + ": invalid block length " + length + " at " + position);
+        }
+
+        ByteBuffer block = map(position, length);
+        if (block == null) {
+            warnTruncated(size - position);
+            return null;
+        }
+
+        long body = position + 8;
+        int bodyLength = length - 12;
+        PcapHandler.RawPacket rawPacket = null;
+
+        switch (type) {
+            case InterfaceDescriptionBlock:
+                interfaces.add(readInterface(block, body, bodyLength));
+                break;
+            case EnhancedPacketBlock:
+            case PacketBlock:
+                int id = type == PacketBlock ? block.getShort(offset(body)) & 0xffff : block.getInt(offset(body));
+                long timeStamp = (block.getInt(offset(body + 4)) & 0xffffffffL) << 32
+                        | block.getInt(offset(body + 8)) & 0xffffffffL;
+                int caplen = block.getInt(offset(body + 12));
+                int len = block.getInt(offset(body + 16));
+
+                if (caplen < 0 || caplen > bodyLength - 20) {
+                    throw new IOException(file + ": invalid captured length " + caplen + " at " + position);
+                }
+
+                current = getInterface(id);
+                rawPacket = new PcapHandler.RawPacket(current.getNanoseconds(timeStamp), caplen, len, slice(body + 20, caplen));
+                break;
+            case SimplePacketBlock:
+                current = getInterface(0);
+                len = block.getInt(offset(body));
+                caplen = Math.min(len, bodyLength - 4);
+                if (current.snaplen > 0) {
+                    caplen = Math.min(caplen, current.snaplen);
+                }
+
+                rawPacket = new PcapHandler.RawPacket(0, caplen, len, slice(body + 4, caplen));
+                break;
+            default:
+                break;
+        }
+
+        position += length;
+
+        return rawPacket;
+    }
+
+    private Interface readInterface(ByteBuffer block, long body, int bodyLength) {
+        Interface anInterface = new Interface(block.getShort(offset(body)) & 0xffff, block.getInt(offset(body + 4)));
+
+        long option = body + 8;
+        while (option + 4 <= body + bodyLength) {
+            int code = block.getShort(offset(option)) & 0xffff;
+            int length = block.getShort(offset(option + 2)) & 0xffff;
+
+            if (code == EndOfOptions || option + 4 + length > body + bodyLength) {
+                break;
+            } else if (code == TimeStampResolution && length >= 1) {
+                int resolution = block.get(offset(option + 4));
+                anInterface.binaryResolution = (resolution & 0x80) != 0;
+                anInterface.resolution = resolution & 0x7f;
+            } else if (code == TimeStampOffset && length >= 8) {
+                anInterface.offset = block.getLong(offset(option + 4));
+            }
+
+            option += 4 + (length + 3 & ~3);
+        }
+
+        return anInterface;
+    }
+
+    private Interface getInterface(int id) throws IOException {
+        if (id < 0 || id >= interfaces.size()) {
+            throw new IOException(file + ": packet of undescribed interface " + id + " at " + position);
+        }
+
+        return interfaces.get(id);
+    }
+
+    /**
+     * Delivers all remaining packets to handler, until end of file or {@link #breakloop()}.
+     *
+     * @param handler
+     * @return {@link Pcap.Status#Success}, {@link Pcap.Status#Terminated} if loop was broken
+     * or {@link Pcap.Status#Failure} if file is corrupt
+     */
+    public Pcap.Status loop(PcapHandler handler) {
+        broken = false;
+
+        try {
+            PcapHandler.RawPacket rawPacket;
+            while (!broken && (rawPacket = next()) != null) {
+                handler.read(rawPacket, getDataLinkType());
+            }
+        } catch (IOException e) {
+            logger.warn(e.getMessage(), e);
+            return Pcap.Status.Failure;
+        }
+
+        return broken ? Pcap.Status.Terminated : Pcap.Status.Success;
+    }
+
+    /**
+     * Lets {@link #loop(PcapHandler)} return after the current packet.
+     */
+    public void breakloop() {
+        broken = true;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return link type id of the interface of the last packet (initially the first interface)
+     * @see #getDataLinkType()
+     */
+    public int getLinkType() {
+        return current != null ? current.linkType : interfaces.get(0).linkType;
+    }
+
+    /**
+     * @return link type of the interface of the last packet, null if not supported
+     */
+    public Pcap.DataLinkType getDataLinkType() {
+        return current != null ? current.dataLinkType : interfaces.get(0).dataLinkType;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        randomAccessFile.close();
+    }
+}
@@ -9,56 +9,195 @@ import java.nio.ByteBuffer;
 
 /**
  * This is the abstract base callback that is passed to pcap.
- * It also holds the current {@link Pcap.DataLinkType}.
+ * It also holds the current {@link Pcap.DataLinkType}, which {@link Pcap} sets once before looping.
  *
  * @author Marco Faltermeier <faltermeier@me.com>
  */
-public abstract class PcapHandler extends pcap_handler {
+public abstract class PcapHandler extends pcap_handler implements BatchHandler {
     protected Pcap.DataLinkType dataLinkType;
 
     private Pointer<pcap_pkthdr> current_pkt_hdr;
     private Pointer<Byte> current_bytes;
+    private PacketBuffer current_buffer;
+    private BufferPool bufferPool;
+
+    /**
+     * raw packet currently dispatched by a {@link Pipeline} worker on this thread
+     */
+    private final ThreadLocal<RawPacket> dispatchedRawPacket = new ThreadLocal<>();
 
     @Override
     protected void callback(Pointer user, Pointer<pcap_pkthdr> pkt_header, Pointer<Byte> pkt_data) {
         pcap_pkthdr header = pkt_header.get();
         long timeStamp = header.getTimeStamp();
         int length = header.caplen();
-        dataLinkType = Pcap.DataLinkType.valueOf(user.getInt());
 
         current_pkt_hdr = pkt_header;
         current_bytes = pkt_data;
         try {
-            newByteBuffer(timeStamp, length, pkt_data.getByteBuffer(length));
+            if (bufferPool != null) {
+                current_buffer = bufferPool.copy(pkt_data.getByteBuffer(length));
+                newByteBuffer(timeStamp, length, current_buffer.getByteBuffer());
+            } else {
+                newByteBuffer(timeStamp, length, pkt_data.getByteBuffer(length));
+            }
         } finally {
+            if (current_buffer != null) {
+                current_buffer.release();
+            }
+
             current_pkt_hdr = null;
             current_bytes = null;
+            current_buffer = null;
+        }
+    }
+
+    /**
+     * Delivers an already copied packet, as done by {@link Pipeline} workers.
+     * While {@link #newByteBuffer(long, int, java.nio.ByteBuffer)} runs,
+     * {@link #getCurrentRawPacket()} returns rawPacket on the calling thread.
+     *
+     * @param rawPacket copied packet
+     */
+    void dispatch(RawPacket rawPacket) {
+        dispatchedRawPacket.set(rawPacket);
+        try {
+            newByteBuffer(rawPacket.getTimeStamp(), rawPacket.getCaplen(), rawPacket.getBytes());
+        } finally {
+            dispatchedRawPacket.remove();
+        }
+    }
+
+    /**
+     * Delivers the packets of a batch one by one, {@link #getCurrentRawPacket()} returns
+     * the delivered packet meanwhile.
+     */
+    @Override
+    public void newBatch(RawPacket[] packets, int count, Pcap.DataLinkType dataLinkType) {
+        this.dataLinkType = dataLinkType;
+
+        for (int i = 0; i < count; i++) {
+            dispatch(packets[i]);
         }
     }
 
+    /**
+     * Delivers a packet read by {@link PcapFileReader}. Its bytes are a view of the mapped file,
+     * which is only copied if a {@link #setBufferPool(BufferPool) buffer pool} is set.
+     *
+     * @param rawPacket    packet
+     * @param dataLinkType link type of packet's interface
+     */
+    void read(RawPacket rawPacket, Pcap.DataLinkType dataLinkType) {
+        this.dataLinkType = dataLinkType;
+
+        if (bufferPool != null) {
+            rawPacket = new RawPacket(rawPacket, bufferPool.copy(rawPacket.getBytes()));
+        }
+
+        try {
+            dispatch(rawPacket);
+        } finally {
+            rawPacket.release();
+        }
+    }
 
     public Pcap.DataLinkType getDataLinkType() {
         return dataLinkType;
     }
 
+    /**
+     * If set, every packet is copied once into a buffer of pool, which is shared by
+     * {@link #getCurrentRawPacket()} and decoded packets instead of allocating per packet.
+     * Holders have to retain the buffer to use it beyond the current callback.
+     *
+     * @param bufferPool pool or null to disable pooling
+     * @see #getCurrentBuffer()
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return pooled buffer of the current packet, null if not pooled
+     * @see #setBufferPool(BufferPool)
+     */
+    protected PacketBuffer getCurrentBuffer() {
+        RawPacket rawPacket = dispatchedRawPacket.get();
+        if (rawPacket != null) {
+            return rawPacket.buffer;
+        }
+
+        return current_buffer;
+    }
+
     protected abstract void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer);
 
     /**
      *  raw pcap data - use with {@link PcapDumper#dump(org.bridj.Pointer,org.bridj.Pointer)}
+     *  <p>
+     *  If pooling is enabled, the returned packet holds a reference to the pooled buffer,
+     *  which the caller has to {@link RawPacket#release()}.
      */
     public RawPacket getCurrentRawPacket() {
+        RawPacket rawPacket = dispatchedRawPacket.get();
+        if (rawPacket != null) {
+            if (rawPacket.buffer != null) {
+                return new RawPacket(rawPacket, rawPacket.buffer.retain());
+            }
+
+            return rawPacket;
+        }
+
+        if (current_buffer != null) {
+            return new RawPacket(current_pkt_hdr, current_buffer.retain());
+        }
+
         return new RawPacket(current_pkt_hdr, current_bytes);
     }
 
+    /**
+     * Copies the current packet into the ring of flow, straight from the native, pooled or
+     * dispatched bytes, no {@link RawPacket} is created.
+     *
+     * @return whether the packet was retained, false if there is no current packet
+     * @see RawPacketRing.Flow#add(long, int, int, java.nio.ByteBuffer)
+     */
+    protected boolean retainCurrentPacket(RawPacketRing.Flow flow) {
+        RawPacket rawPacket = dispatchedRawPacket.get();
+        if (rawPacket != null) {
+            return flow.add(rawPacket.getTimeStamp(), rawPacket.getCaplen(), rawPacket.getLen(), rawPacket.getBytes());
+        }
+
+        if (current_pkt_hdr == null) {
+            return false;
+        }
+
+        pcap_pkthdr header = current_pkt_hdr.get();
+        ByteBuffer bytes = current_buffer != null ? current_buffer.getByteBuffer()
+                : current_bytes.getByteBuffer(header.caplen());
+
+        return flow.add(header.getTimeStamp(), header.caplen(), header.len(), bytes);
+    }
+
+    /**
+     * Copy of a packet, which stays valid beyond the callback.
+     * If created from a pooled buffer, it holds a reference until {@link #release()}.
+     */
     public static class RawPacket {
-        private TimeT.timeval timeStamp;
+        private long timeStamp;
         private int caplen;
         private int len;
         private ByteBuffer bytes;
+        private PacketBuffer buffer;
 
         private RawPacket(Pointer<pcap_pkthdr> pkt_hdr, Pointer<Byte> bytes) {
             pcap_pkthdr header = pkt_hdr.get();
-            timeStamp = header.ts();
+            timeStamp = header.getTimeStamp();
             caplen = header.caplen();
             len = header.len();
 
@@ -66,10 +205,77 @@ public abstract class PcapHandler extends pcap_handler {
             this.bytes.put(bytes.getByteBuffer(caplen));
         }
 
+        private RawPacket(Pointer<pcap_pkthdr> pkt_hdr, PacketBuffer buffer) {
+            pcap_pkthdr header = pkt_hdr.get();
+            timeStamp = header.getTimeStamp();
+            caplen = header.caplen();
+            len = header.len();
+
+            this.buffer = buffer;
+            this.bytes = buffer.getByteBuffer();
+        }
+
+        private RawPacket(RawPacket rawPacket, PacketBuffer buffer) {
+            this(rawPacket.timeStamp, rawPacket.caplen, rawPacket.len, buffer.getByteBuffer());
+            this.buffer = buffer;
+        }
+
+        /**
+         * @param timeStamp in nanoseconds
+         * @param caplen    captured length
+         * @param len       original length on the wire
+         * @param bytes     captured bytes, owned by this packet afterwards
+         */
+        RawPacket(long timeStamp, int caplen, int len, ByteBuffer bytes) {
+            this.timeStamp = timeStamp;
+            this.caplen = caplen;
+            this.len = len;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return timestamp in nanoseconds
+         */
+        public long getTimeStamp() {
+            return timeStamp;
+        }
+
+        public int getCaplen() {
+            return caplen;
+        }
+
+        public int getLen() {
+            return len;
+        }
+
+        /**
+         * @return view of the captured bytes, positioned at the first byte
+         */
+        public ByteBuffer getBytes() {
+            ByteBuffer view = bytes.duplicate();
+            view.clear();
+
+            return view;
+        }
+
+        /**
+         * Releases the pooled buffer of this packet (if any), bytes must not be accessed afterwards.
+         */
+        public void release() {
+            if (buffer != null) {
+                buffer.release();
+                buffer = null;
+            }
+        }
+
         public Pointer<pcap_pkthdr> getHeaderNative() {
             pcap_pkthdr hdr = new pcap_pkthdr();
 
-            hdr.ts(timeStamp);
+            TimeT.timeval ts = new TimeT.timeval();
+            ts.seconds(timeStamp / 1000000000L);
+            ts.milliseconds((int) (timeStamp / 1000 % 1000000));
+
+            hdr.ts(ts);
             hdr.caplen(caplen);
             hdr.len(len);
 
@@ -32,8 +32,12 @@ public class PcapLibrary {
 
     public static native pcap_t pcap_open_offline(Pointer<Byte> fname, Pointer<Byte> errbuf);
 
+    public static native pcap_t pcap_open_dead(int linktype, int snaplen);
+
     public static native int pcap_loop(pcap_t p, final int cnt, Pointer<?> callback, Pointer<?> user);
 
+    public static native int pcap_dispatch(pcap_t p, final int cnt, Pointer<?> callback, Pointer<?> user);
+
     public static native void pcap_breakloop(pcap_t p);
 
     public static native Pointer<Byte> pcap_lookupdev(Pointer<Byte> errbuf);
@@ -0,0 +1,393 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flow-sharded decode pipeline.
+ * <p>
+ * The capture thread only copies each frame and hands it to one of n shards.
+ * Every shard owns a bounded queue and a worker thread, which delivers the frames
+ * to the wrapped {@link PcapHandler} (header decoding, connection tracking, fingerprinting).
+ * <p>
+ * Ip frames are sharded by a symmetric hash of their address pair, so both directions of a
+ * connection are always handled by the same worker and in capture order. Ports and protocol are
+ * left out on purpose: fragments, frames truncated by the snapshot length and Ip6 packets with
+ * extension headers do not carry them at a fixed offset, but have to reach the worker of their
+ * flow, e.g. for {@link de.rub.nds.virtualnetworklayer.packet.FragmentReassembler reassembly}.
+ * Non-Ip frames are handled by shard 0.
+ * <p>
+ * Unlike a 5-tuple hash, this puts all connections between two hosts on one worker. Traffic
+ * concentrated on a single address pair, e.g. behind a proxy or a NAT gateway, is therefore not
+ * spread over the workers, {@link Shard#getQueueDepth()} and {@link Shard#getDropped()} show such an imbalance.
+ * <p>
+ * The wrapped handler is called concurrently from all workers, so it has to be safe for
+ * concurrent invocations on <i>different</i> flows. A worker, which terminated unexpectedly
+ * (e.g. interrupted), drops and counts the frames of its shard instead of blocking the capture thread.
+ *
+ * @see Pcap#loop(PcapHandler, boolean, int)
+ */
+public class Pipeline extends PcapHandler {
+    private static final Logger logger = Logger.getLogger(Pipeline.class);
+
+    /**
+     * default number of frames each shard queue can hold
+     */
+    public static final int DefaultCapacity = 4096;
+
+    /**
+     * maximum number of frames a worker takes from its queue at once
+     */
+    private static final int DrainSize = 64;
+
+    /**
+     * milliseconds a blocked capture thread waits, before it checks its worker again
+     */
+    private static final long PutTimeout = 100;
+
+    private static final RawPacket EndOfCapture = new RawPacket(0, 0, 0, null);
+
+    /**
+     * A shard consists of a bounded frame queue and the worker draining it.
+     */
+    public class Shard implements Runnable {
+        private final BlockingQueue<RawPacket> queue;
+        private final Thread worker;
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private volatile boolean terminated = false;
+
+        private Shard(int index, int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            worker = new Thread(this);
+            worker.setName("Pcap-Worker-" + index);
+            worker.setDaemon(true);
+        }
+
+        private void offer(RawPacket rawPacket) {
+            if (blocking) {
+                try {
+                    if (!put(rawPacket)) {
+                        drop(rawPacket);
+                    }
+                } catch (InterruptedException e) {
+                    drop(rawPacket);
+                    Thread.currentThread().interrupt();
+                }
+            } else if (terminated || !queue.offer(rawPacket)) {
+                drop(rawPacket);
+            }
+
+            if (terminated) {
+                discard();
+            }
+        }
+
+        /**
+         * Waits for space in the queue, as long as the worker is running.
+         *
+         * @return whether rawPacket was queued
+         */
+        private boolean put(RawPacket rawPacket) throws InterruptedException {
+            while (!terminated) {
+                if (queue.offer(rawPacket, PutTimeout, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void drop(RawPacket rawPacket) {
+            rawPacket.release();
+            dropped.incrementAndGet();
+        }
+
+        /**
+         * Drops all queued frames of a terminated worker.
+         */
+        private void discard() {
+            RawPacket rawPacket;
+            while ((rawPacket = queue.poll()) != null) {
+                if (rawPacket != EndOfCapture) {
+                    drop(rawPacket);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            List<RawPacket> batch = new ArrayList<>(DrainSize);
+
+            try {
+                while (true) {
+                    // wait for one frame, then take whatever else is queued at once
+                    batch.add(queue.take());
+                    queue.drainTo(batch, DrainSize - 1);
+
+                    for (RawPacket rawPacket : batch) {
+                        if (rawPacket == EndOfCapture) {
+                            return;
+                        }
+
+                        try {
+                            handler.dispatch(rawPacket);
+                        } catch (RuntimeException e) {
+                            logger.warn(worker.getName() + ": error handling packet", e);
+                        } catch (Throwable e) {
+                            // e.g. a StackOverflowError of one packet must not stop the flows of this shard
+                            logger.error(worker.getName() + ": error handling packet", e);
+                        } finally {
+                            rawPacket.release();
+                        }
+
+                        processed.incrementAndGet();
+                    }
+
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                logger.debug(worker.getName() + " interrupted");
+            } finally {
+                terminated = true;
+                discard();
+            }
+        }
+
+        /**
+         * @return number of frames waiting in this shard
+         */
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        /**
+         * @return number of frames dropped, because this shard was full or its worker terminated
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * @return number of frames delivered to the handler
+         */
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        @Override
+        public String toString() {
+            return worker.getName() + " [depth " + getQueueDepth() + ", processed " + getProcessed()
+                    + ", dropped " + getDropped() + "]";
+        }
+    }
+
+    private final PcapHandler handler;
+    private final List<Shard> shards;
+    private final boolean blocking;
+    private boolean started = false;
+
+    /**
+     * @param handler  handler the workers deliver to
+     * @param workers  number of shards (and worker threads)
+     * @param capacity frames per shard queue
+     * @param blocking if true, the capture thread waits for a full shard (suitable for
+     *                 offline captures), otherwise the frame is dropped and counted
+     */
+    public Pipeline(PcapHandler handler, int workers, int capacity, boolean blocking) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("workers and capacity have to be positive");
+        }
+
+        this.handler = handler;
+        this.blocking = blocking;
+        setBufferPool(handler.getBufferPool());
+
+        List<Shard> shards = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            shards.add(new Shard(i, capacity));
+        }
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Starts all workers, if not running yet.
+     */
+    synchronized void start() {
+        if (!started) {
+            for (Shard shard : shards) {
+                shard.worker.start();
+            }
+            started = true;
+        }
+    }
+
+    /**
+     * Lets all workers drain their queues and waits for them to terminate.
+     */
+    synchronized void close() {
+        if (!started) {
+            return;
+        }
+
+        for (Shard shard : shards) {
+            try {
+                shard.put(EndOfCapture);
+            } catch (InterruptedException e) {
+                shard.worker.interrupt();
+            }
+        }
+
+        for (Shard shard : shards) {
+            try {
+                shard.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        started = false;
+    }
+
+    @Override
+    protected void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
+        handler.dataLinkType = dataLinkType;
+
+        RawPacket rawPacket = getCurrentRawPacket();
+        int hash = getFlowHash(rawPacket.getBytes(), dataLinkType);
+
+        shards.get((hash & Integer.MAX_VALUE) % shards.size()).offer(rawPacket);
+    }
+
+    public PcapHandler getHandler() {
+        return handler;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return number of frames dropped over all shards
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (Shard shard : shards) {
+            dropped += shard.getDropped();
+        }
+
+        return dropped;
+    }
+
+    /**
+     * Computes a symmetric flow hash of the address pair, i.e. both directions and all fragments
+     * of a flow hash equally. Only fixed offsets are read, nothing is decoded.
+     *
+     * @param frame        link layer frame
+     * @param dataLinkType link type of frame
+     * @return flow hash, 0 if frame is no Ip packet
+     */
+    public static int getFlowHash(ByteBuffer frame, Pcap.DataLinkType dataLinkType) {
+        if (dataLinkType == null) {
+            return 0;
+        }
+
+        int offset;
+        switch (dataLinkType) {
+            case Ethernet:
+                offset = 12;
+                int type = getUShort(frame, offset);
+                // skip (stacked) vlan tags
+                while (type == 0x8100 || type == 0x88a8) {
+                    offset += 4;
+                    type = getUShort(frame, offset);
+                }
+                if (type != 0x0800 && type != 0x86DD) {
+                    return 0;
+                }
+                offset += 2;
+                break;
+            case Sll:
+                offset = 16;
+                break;
+            case Null:
+                offset = 4;
+                break;
+            case Raw:
+                offset = 0;
+                break;
+            default:
+                return 0;
+        }
+
+        if (frame.limit() <= offset) {
+            return 0;
+        }
+
+        switch ((frame.get(offset) & 0xF0) >> 4) {
+            case 4:
+                return getIp4FlowHash(frame, offset);
+            case 6:
+                return getIp6FlowHash(frame, offset);
+            default:
+                return 0;
+        }
+    }
+
+    private static int getIp4FlowHash(ByteBuffer frame, int offset) {
+        if (frame.limit() < offset + 20) {
+            return 0;
+        }
+
+        return mix(0, frame.getInt(offset + 12)) + mix(0, frame.getInt(offset + 16));
+    }
+
+    private static int getIp6FlowHash(ByteBuffer frame, int offset) {
+        if (frame.limit() < offset + 40) {
+            return 0;
+        }
+
+        int source = 0;
+        int destination = 0;
+        for (int i = 0; i < 16; i += 4) {
+            source = mix(source, frame.getInt(offset + 8 + i));
+            destination = mix(destination, frame.getInt(offset + 24 + i));
+        }
+
+        return mix(0, source) + mix(0, destination);
+    }
+
+    private static int getUShort(ByteBuffer frame, int offset) {
+        if (frame.limit() < offset + 2) {
+            return 0;
+        }
+
+        return frame.getShort(offset) & 0xffff;
+    }
+
+    /**
+     * murmur3 style mixing of two values
+     */
+    private static int mix(int hash, int value) {
+        int k = value * 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15) * 0x1b873593;
+
+        hash ^= k;
+        hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+
+        return hash;
+    }
+}
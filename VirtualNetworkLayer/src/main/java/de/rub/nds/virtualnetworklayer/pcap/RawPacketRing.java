@@ -0,0 +1,323 @@
+package de.rub.nds.virtualnetworklayer.pcap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded ring of raw packets, which stores every retained frame once.
+ * <p>
+ * Frames are appended to a single direct buffer as records of timestamp, captured length,
+ * original length and captured bytes. Each {@link Flow} only holds the positions of its records.
+ * If the ring is full, the oldest records are evicted, no matter to which flow they belong.
+ * A flow only keeps its first packets up to the {@link #setFlowLimits(int, int) flow limits}.
+ * <p>
+ * {@link Flow#dump(PcapDumper)} writes the records straight from the ring, without copying them.
+ * All methods are synchronized on the ring, flows may be used by any thread.
+ *
+ * @see PcapHandler#retainCurrentPacket(Flow)
+ */
+public class RawPacketRing {
+    public static final int DefaultCapacity = 32 * 1024 * 1024;
+
+    /**
+     * timestamp, captured length and original length
+     */
+    private static final int HeaderLength = 16;
+    /**
+     * captured length of a record, which pads the rest of the ring
+     */
+    private static final int Padding = -1;
+
+    private static RawPacketRing shared;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+
+    /**
+     * absolute position of the oldest record
+     */
+    private long head;
+    /**
+     * absolute position behind the newest record
+     */
+    private long tail;
+
+    private int maximumPackets;
+    private int maximumBytes;
+
+    private long evicted;
+    private long dropped;
+
+    /**
+     * @param capacity in bytes
+     */
+    public RawPacketRing(int capacity) {
+        if (capacity < HeaderLength) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * @return ring of {@link #DefaultCapacity}, which is shared by all handlers not setting their own
+     */
+    public static synchronized RawPacketRing getShared() {
+        if (shared == null) {
+            shared = new RawPacketRing(DefaultCapacity);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Limits, which new flows are created with.
+     *
+     * @param maximumPackets number of packets a flow keeps, 0 for no limit
+     * @param maximumBytes   number of captured bytes a flow keeps, 0 for no limit
+     */
+    public synchronized void setFlowLimits(int maximumPackets, int maximumBytes) {
+        this.maximumPackets = maximumPackets;
+        this.maximumBytes = maximumBytes;
+    }
+
+    /**
+     * @return new empty flow with the current flow limits
+     */
+    public synchronized Flow newFlow() {
+        return new Flow(maximumPackets, maximumBytes);
+    }
+
+    /**
+     * Appends a record, evicting the oldest ones if needed.
+     *
+     * @return absolute position of the record
+     */
+    private long append(long timeStamp, int caplen, int len, ByteBuffer bytes) {
+        int length = HeaderLength + caplen;
+        int offset = (int) (tail % capacity);
+
+        long start = tail;
+        if (capacity - offset < length) {
+            // records are contiguous, so the rest of the ring is skipped
+            start += capacity - offset;
+        }
+        long end = start + length;
+
+        while (end - head > capacity) {
+            if (head == tail) {
+                head = start;
+                tail = start;
+            } else {
+                evict();
+            }
+        }
+
+        if (start != tail && capacity - offset >= HeaderLength) {
+            ring.putInt(offset + 8, Padding);
+        }
+
+        int position = (int) (start % capacity);
+        ring.putLong(position, timeStamp);
+        ring.putInt(position + 8, caplen);
+        ring.putInt(position + 12, len);
+
+        ByteBuffer source = bytes.duplicate();
+        source.limit(source.position() + caplen);
+        ByteBuffer target = ring.duplicate();
+        target.position(position + HeaderLength);
+        target.put(source);
+
+        tail = end;
+
+        return start;
+    }
+
+    private void evict() {
+        int offset = (int) (head % capacity);
+
+        if (capacity - offset < HeaderLength || ring.getInt(offset + 8) == Padding) {
+            head += capacity - offset;
+        } else {
+            head += HeaderLength + ring.getInt(offset + 8);
+            evicted++;
+        }
+    }
+
+    /**
+     * @return record at absolute position as packet, whose bytes are a view of the ring
+     */
+    private PcapHandler.RawPacket view(long position) {
+        int offset = (int) (position % capacity);
+        int caplen = ring.getInt(offset + 8);
+
+        ByteBuffer bytes = ring.duplicate();
+        bytes.position(offset + HeaderLength);
+        bytes.limit(offset + HeaderLength + caplen);
+
+        return new PcapHandler.RawPacket(ring.getLong(offset), caplen, ring.getInt(offset + 12), bytes.slice());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of bytes occupied by retained records
+     */
+    public synchronized long getRetainedBytes() {
+        return tail - head;
+    }
+
+    /**
+     * @return number of records evicted to make room for newer ones
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return number of packets not retained, because of the flow limits or their size
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Positions of the records of one connection.
+     * Records evicted by the ring are skipped silently.
+     */
+    public class Flow {
+        private long[] positions = new long[8];
+        private int count;
+
+        private int maximumPackets;
+        private int maximumBytes;
+        private int packetCount;
+        private long byteCount;
+
+        private Flow(int maximumPackets, int maximumBytes) {
+            this.maximumPackets = maximumPackets;
+            this.maximumBytes = maximumBytes;
+        }
+
+        /**
+         * Retains a packet, if the flow limits allow it.
+         *
+         * @param timeStamp in nanoseconds
+         * @param caplen    captured length
+         * @param len       original length on the wire
+         * @param bytes     captured bytes from their position on, which are copied into the ring
+         * @return whether packet was retained
+         */
+        public boolean add(long timeStamp, int caplen, int len, ByteBuffer bytes) {
+            synchronized (RawPacketRing.this) {
+                if (HeaderLength + caplen > capacity || (maximumPackets > 0 && packetCount >= maximumPackets)
+                        || (maximumBytes > 0 && byteCount + caplen > maximumBytes)) {
+                    dropped++;
+                    return false;
+                }
+
+                if (count == positions.length) {
+                    compact();
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, count * 2);
+                    }
+                }
+
+                positions[count++] = append(timeStamp, caplen, len, bytes);
+                packetCount++;
+                byteCount += caplen;
+
+                return true;
+            }
+        }
+
+        /**
+         * Drops the positions of evicted records, which are always the first ones.
+         */
+        private void compact() {
+            int first = 0;
+            while (first < count && positions[first] < head) {
+                first++;
+            }
+
+            if (first > 0) {
+                System.arraycopy(positions, first, positions, 0, count - first);
+                count -= first;
+            }
+        }
+
+        /**
+         * Overrides the limits of the ring for this flow.
+         *
+         * @see RawPacketRing#setFlowLimits(int, int)
+         */
+        public void setLimits(int maximumPackets, int maximumBytes) {
+            synchronized (RawPacketRing.this) {
+                this.maximumPackets = maximumPackets;
+                this.maximumBytes = maximumBytes;
+            }
+        }
+
+        /**
+         * Writes the retained packets to dumper, straight from the ring.
+         *
+         * @return number of packets written
+         */
+        public int dump(PcapDumper dumper) {
+            synchronized (RawPacketRing.this) {
+                compact();
+                for (int i = 0; i < count; i++) {
+                    dumper.dump(view(positions[i]));
+                }
+
+                return count;
+            }
+        }
+
+        /**
+         * @return copies of the retained packets
+         */
+        public List<PcapHandler.RawPacket> toList() {
+            synchronized (RawPacketRing.this) {
+                compact();
+
+                List<PcapHandler.RawPacket> rawPackets = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    PcapHandler.RawPacket view = view(positions[i]);
+                    ByteBuffer copy = ByteBuffer.allocate(view.getCaplen());
+                    copy.put(view.getBytes()).clear();
+
+                    rawPackets.add(new PcapHandler.RawPacket(view.getTimeStamp(), view.getCaplen(), view.getLen(), copy));
+                }
+
+                return rawPackets;
+            }
+        }
+
+        /**
+         * @return number of retained packets
+         */
+        public int size() {
+            synchronized (RawPacketRing.this) {
+                compact();
+                return count;
+            }
+        }
+
+        /**
+         * Forgets all packets, the flow limits start over. The ring space is reclaimed by eviction.
+         */
+        public void clear() {
+            synchronized (RawPacketRing.this) {
+                count = 0;
+                packetCount = 0;
+                byteCount = 0;
+            }
+        }
+    }
+}
@@ -80,12 +80,7 @@ public class VNLInputStream extends InputStream {
      * @throws IOException
      */
     public Packet readPacket() throws IOException {
-        Packet result = null;
-        synchronized(connection) {
-            result = connection.read(1000);
-        }
-                
-        return result;
+        return connection.read(1000);
     }
 
     /**
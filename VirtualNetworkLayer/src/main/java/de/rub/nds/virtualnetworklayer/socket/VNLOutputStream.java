@@ -37,9 +37,7 @@ public class VNLOutputStream extends OutputStream {
     
     @Override
     public void write(final byte b[]) throws IOException {
-        synchronized (connection) {
-            connection.write(b);
-        }
+        connection.write(b);
     }
     
     /**
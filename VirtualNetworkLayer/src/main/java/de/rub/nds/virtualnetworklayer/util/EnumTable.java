@@ -0,0 +1,135 @@
+package de.rub.nds.virtualnetworklayer.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable lookup table from protocol codes to enum constants, which replaces linear
+ * scans over {@code values()}.
+ * <p>
+ * Codes spanning a small range are looked up in a dense array, indexed by code minus the
+ * smallest code. Sparse codes (e.g. ethernet types) are looked up in an open-addressing
+ * hash table with linear probing. If several constants share a code, the first one wins.
+ *
+ * @param <T> enum type
+ */
+public final class EnumTable<T extends Enum<T>> {
+    /**
+     * maximum span of a dense table, independent of the number of constants
+     */
+    private static final int DenseSpan = 256;
+
+    /**
+     * Code of an enum constant.
+     */
+    public interface Code<T> {
+        int of(T constant);
+    }
+
+    private final int size;
+
+    // dense table
+    private final int minimum;
+    private final T[] dense;
+
+    // open-addressing table
+    private final int[] keys;
+    private final T[] values;
+    private final int mask;
+
+    /**
+     * @param constants enum constants, usually {@code values()}
+     * @param code      code of a constant
+     */
+    public EnumTable(T[] constants, Code<T> code) {
+        int[] codes = new int[constants.length];
+        long minimum = Long.MAX_VALUE;
+        long maximum = Long.MIN_VALUE;
+
+        for (int i = 0; i < constants.length; i++) {
+            codes[i] = code.of(constants[i]);
+            minimum = Math.min(minimum, codes[i]);
+            maximum = Math.max(maximum, codes[i]);
+        }
+
+        long span = maximum - minimum + 1;
+        if (constants.length > 0 && (span <= DenseSpan || span <= 4L * constants.length)) {
+            this.minimum = (int) minimum;
+            this.dense = Arrays.copyOf(constants, (int) span);
+            Arrays.fill(dense, null);
+            this.keys = null;
+            this.values = null;
+            this.mask = 0;
+
+            for (int i = constants.length - 1; i >= 0; i--) {
+                dense[codes[i] - this.minimum] = constants[i];
+            }
+        } else {
+            int capacity = Integer.highestOneBit(Math.max(constants.length, 1) * 2) * 2;
+
+            this.minimum = 0;
+            this.dense = null;
+            this.keys = new int[capacity];
+            this.values = Arrays.copyOf(constants, capacity);
+            Arrays.fill(values, null);
+            this.mask = capacity - 1;
+
+            for (int i = 0; i < constants.length; i++) {
+                int slot = slot(codes[i]);
+                while (values[slot] != null && keys[slot] != codes[i]) {
+                    slot = (slot + 1) & mask;
+                }
+
+                if (values[slot] == null) {
+                    keys[slot] = codes[i];
+                    values[slot] = constants[i];
+                }
+            }
+        }
+
+        int size = 0;
+        for (T constant : dense != null ? dense : values) {
+            size += constant != null ? 1 : 0;
+        }
+        this.size = size;
+    }
+
+    private int slot(int code) {
+        return (code * 0x9e3779b9 >>> 16) & mask;
+    }
+
+    /**
+     * @return constant with code, null if there is none
+     */
+    public T get(int code) {
+        if (dense != null) {
+            int index = code - minimum;
+
+            return index >= 0 && index < dense.length ? dense[index] : null;
+        }
+
+        int slot = slot(code);
+        T value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == code) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return number of distinct codes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether codes are looked up in a dense array
+     */
+    public boolean isDense() {
+        return dense != null;
+    }
+}
@@ -0,0 +1,226 @@
+package de.rub.nds.virtualnetworklayer.util;
+
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash table mapping {@link FlowKey flow keys} to values.
+ * <p>
+ * Keys are stored unboxed in one long array and probed linearly (open addressing),
+ * so neither lookups nor insertions of known flows allocate. The caller may reuse
+ * the key passed in. Removal shifts following entries back instead of leaving tombstones.
+ * <p>
+ * Not thread-safe, null values are not permitted.
+ *
+ * @param <V> value type
+ */
+public class FlowTable<V> {
+    public static final int DefaultCapacity = 1024;
+
+    private long[] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public FlowTable() {
+        this(DefaultCapacity);
+    }
+
+    /**
+     * @param capacity expected number of flows
+     */
+    public FlowTable(int capacity) {
+        allocate(Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1);
+    }
+
+    private void allocate(int slots) {
+        keys = new long[slots * FlowKey.Length];
+        hashes = new int[slots];
+        values = new Object[slots];
+        mask = slots - 1;
+    }
+
+    private int find(FlowKey key) {
+        int hash = key.hashCode();
+        int slot = hash & mask;
+
+        while (values[slot] != null) {
+            if (hashes[slot] == hash && matches(slot, key)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1 - slot;
+    }
+
+    private boolean matches(int slot, FlowKey key) {
+        int offset = slot * FlowKey.Length;
+        for (int i = 0; i < FlowKey.Length; i++) {
+            if (keys[offset + i] != key.word(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(FlowKey key) {
+        int slot = find(key);
+
+        return slot >= 0 ? (V) values[slot] : null;
+    }
+
+    public boolean containsKey(FlowKey key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return previous value of key or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(FlowKey key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+
+        int slot = find(key);
+        if (slot >= 0) {
+            V previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        if ((size + 1) * 2 > values.length) {
+            resize();
+            slot = find(key);
+        }
+
+        insert(-1 - slot, key, value);
+        return null;
+    }
+
+    /**
+     * @return current value of key, null if value was inserted
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(FlowKey key, V value) {
+        int slot = find(key);
+
+        return slot >= 0 ? (V) values[slot] : put(key, value);
+    }
+
+    private void insert(int slot, FlowKey key, Object value) {
+        int offset = slot * FlowKey.Length;
+        for (int i = 0; i < FlowKey.Length; i++) {
+            keys[offset + i] = key.word(i);
+        }
+        hashes[slot] = key.hashCode();
+        values[slot] = value;
+        size++;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+
+        allocate(values.length * 2);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                System.arraycopy(oldKeys, i * FlowKey.Length, keys, slot * FlowKey.Length, FlowKey.Length);
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(FlowKey key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+
+        V value = (V) values[slot];
+        size--;
+
+        // shift back following entries of the probe sequence
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hashes[next] & mask;
+
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                System.arraycopy(keys, next * FlowKey.Length, keys, hole * FlowKey.Length, FlowKey.Length);
+                hashes[hole] = hashes[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+
+        return value;
+    }
+
+    /**
+     * Removes key only if it is currently mapped to value.
+     *
+     * @return true if removed
+     */
+    public boolean remove(FlowKey key, V value) {
+        int slot = find(key);
+        if (slot < 0 || values[slot] != value) {
+            return false;
+        }
+
+        remove(key);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return snapshot of all values
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+
+        return list;
+    }
+}
@@ -7,7 +7,9 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class
@@ -18,13 +20,29 @@ import java.util.List;
  */
 public class Util {
 
+    /**
+     * enum constants by {@link Enum#toString()}, first one wins
+     */
+    private static final ClassValue<Map<String, Enum<?>>> enumNames = new ClassValue<Map<String, Enum<?>>>() {
+        @Override
+        protected Map<String, Enum<?>> computeValue(Class<?> clazz) {
+            Map<String, Enum<?>> names = new HashMap<>();
+            for (Object enumeration : clazz.getEnumConstants()) {
+                if (!names.containsKey(enumeration.toString())) {
+                    names.put(enumeration.toString(), (Enum<?>) enumeration);
+                }
+            }
+
+            return names;
+        }
+    };
+
     private Util() {}
 
     public static <T extends Enum<T>> T readEnum(Class<T> clazz, String value) {
-        for (T enumeration : clazz.getEnumConstants()) {
-            if (enumeration.toString().equals(value)) {
-                return enumeration;
-            }
+        Enum<?> enumeration = enumNames.get(clazz).get(value);
+        if (enumeration != null) {
+            return clazz.cast(enumeration);
         }
 
         throw new IllegalArgumentException("Could not read enum constant of type " +
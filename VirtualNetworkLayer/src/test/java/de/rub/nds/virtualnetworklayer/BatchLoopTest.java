@@ -0,0 +1,114 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.pcap.BatchHandler;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.pcap.PcapHandler;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class BatchLoopTest {
+    private static final int BatchSize = 16;
+    // packets of httpsGoogle.pcap
+    private static final int Packets = 137;
+
+    private final File file = new File(getClass().getResource("httpsGoogle.pcap").getPath());
+
+    private static class Batches implements BatchHandler {
+        private List<Integer> counts = new ArrayList<>();
+        private List<Long> timeStamps = new ArrayList<>();
+
+        @Override
+        public void newBatch(PcapHandler.RawPacket[] packets, int count, Pcap.DataLinkType dataLinkType) {
+            assertEquals(Pcap.DataLinkType.Ethernet, dataLinkType);
+            counts.add(count);
+
+            for (int i = 0; i < count; i++) {
+                timeStamps.add(packets[i].getTimeStamp());
+            }
+        }
+    }
+
+    private static class TimeStamps extends PcapHandler {
+        private List<Long> timeStamps = Collections.synchronizedList(new ArrayList<Long>());
+
+        @Override
+        protected void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
+            timeStamps.add(timeStamp);
+        }
+    }
+
+    @Test
+    public void batches() {
+        Batches batches = new Batches();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loopBatch(batches, BatchSize, false));
+
+        // offline batches are full, except for the last one
+        assertEquals((Packets + BatchSize - 1) / BatchSize, batches.counts.size());
+        for (int i = 0; i < batches.counts.size() - 1; i++) {
+            assertEquals(BatchSize, (int) batches.counts.get(i));
+        }
+        assertEquals(Packets, batches.timeStamps.size());
+
+        TimeStamps handler = new TimeStamps();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler));
+        assertEquals(handler.timeStamps, batches.timeStamps);
+    }
+
+    @Test
+    public void pcapHandler() {
+        TimeStamps expected = new TimeStamps();
+        Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(expected);
+
+        // every PcapHandler is a batch handler delivering packet by packet
+        TimeStamps handler = new TimeStamps();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loopBatch(handler, BatchSize, false));
+        assertEquals(expected.timeStamps, handler.timeStamps);
+
+        handler = new TimeStamps();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loopBatch(handler, BatchSize, false, 2));
+        Collections.sort(handler.timeStamps);
+        assertEquals(expected.timeStamps, handler.timeStamps);
+    }
+
+    @Test(timeout = 10000)
+    public void breakloopWithinBatch() {
+        final Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+        Batches batches = new Batches() {
+            @Override
+            public void newBatch(PcapHandler.RawPacket[] packets, int count, Pcap.DataLinkType dataLinkType) {
+                super.newBatch(packets, count, dataLinkType);
+                pcap.breakloop();
+            }
+        };
+
+        pcap.loopBatch(batches, BatchSize, false);
+        assertEquals(1, batches.counts.size());
+    }
+
+    @Test(timeout = 10000)
+    public void breakloopAfterEnd() throws InterruptedException {
+        Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+        Batches batches = new Batches();
+
+        assertEquals(Pcap.Status.Success, pcap.loopBatch(batches, BatchSize, true));
+        // waits for the asynchronous loop, which may have ended already
+        pcap.breakloop();
+        int delivered = batches.timeStamps.size();
+        Thread.sleep(100);
+
+        assertEquals(delivered, batches.timeStamps.size());
+        pcap.breakloop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchSize() {
+        Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loopBatch(new Batches(), 0, false);
+    }
+}
@@ -0,0 +1,153 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.pcap.BufferPool;
+import de.rub.nds.virtualnetworklayer.pcap.PacketBuffer;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class BufferPoolTest {
+
+    private static class Handler extends PacketHandler {
+        private final boolean retain;
+        private List<PcapPacket> packets = new ArrayList<>();
+
+        Handler(boolean retain) {
+            super(false);
+            this.retain = retain;
+        }
+
+        @Override
+        protected void newPacket(PcapPacket packet) {
+            assertTrue(packet.isPooled());
+            if (retain) {
+                packets.add(packet.retain());
+            }
+        }
+    }
+
+    @Test
+    public void referenceCount() {
+        BufferPool pool = new BufferPool();
+        PacketBuffer buffer = pool.allocate(100);
+        assertEquals(1, buffer.getReferenceCount());
+        assertEquals(100, buffer.getByteBuffer().capacity());
+
+        assertSame(buffer, buffer.retain());
+        assertEquals(2, buffer.getReferenceCount());
+        assertFalse(buffer.release());
+        assertTrue(buffer.release());
+        assertEquals(0, buffer.getReferenceCount());
+
+        try {
+            buffer.retain();
+            fail("retained released buffer");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            buffer.release();
+            fail("released buffer twice");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void releaseToPool() {
+        BufferPool pool = new BufferPool();
+        PacketBuffer buffer = pool.allocate(100);
+        byte[] array = buffer.getByteBuffer().array();
+        assertEquals(128, array.length);
+
+        // a retained buffer stays out of the pool
+        buffer.retain();
+        buffer.release();
+        assertNotSame(array, pool.allocate(100).getByteBuffer().array());
+        assertEquals(0, pool.getReused());
+
+        buffer.release();
+        PacketBuffer reused = pool.allocate(65);
+        assertSame(array, reused.getByteBuffer().array());
+        assertEquals(65, reused.getLength());
+        assertEquals(1, pool.getReused());
+        assertEquals(2, pool.getAllocated());
+
+        // other size class
+        assertNotSame(array, pool.allocate(64).getByteBuffer().array());
+    }
+
+    @Test
+    public void limits() {
+        // keeps two arrays of 64 bytes
+        BufferPool pool = new BufferPool(128);
+        List<PacketBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            buffers.add(pool.allocate(10));
+        }
+        for (PacketBuffer buffer : buffers) {
+            buffer.release();
+        }
+
+        for (int i = 0; i < 3; i++) {
+            pool.allocate(10);
+        }
+        assertEquals(2, pool.getReused());
+        assertEquals(4, pool.getAllocated());
+
+        // larger packets are not pooled
+        PacketBuffer large = pool.allocate(BufferPool.MaximumSize + 1);
+        byte[] array = large.getByteBuffer().array();
+        large.release();
+        assertNotSame(array, pool.allocate(BufferPool.MaximumSize + 1).getByteBuffer().array());
+        assertEquals(2, pool.getReused());
+    }
+
+    @Test
+    public void copy() {
+        BufferPool pool = new BufferPool();
+        ByteBuffer source = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5});
+        source.position(2);
+
+        ByteBuffer copy = pool.copy(source).getByteBuffer();
+        assertEquals(2, source.position());
+        assertEquals(ByteBuffer.wrap(new byte[]{3, 4, 5}), copy);
+    }
+
+    @Test
+    public void loop() {
+        File file = new File(getClass().getResource("httpsGoogle.pcap").getPath());
+
+        // packets handled within the callback return their buffer right away
+        BufferPool pool = new BufferPool();
+        Handler handler = new Handler(false);
+        handler.setBufferPool(pool);
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler));
+        long packets = pool.getAllocated() + pool.getReused();
+        assertTrue(packets > 100);
+        assertTrue(pool.getAllocated() < 10);
+
+        // retained packets keep their buffer until released
+        pool = new BufferPool();
+        handler = new Handler(true);
+        handler.setBufferPool(pool);
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler));
+        assertEquals(packets, pool.getAllocated());
+        assertEquals(packets, handler.packets.size());
+
+        for (PcapPacket packet : handler.packets) {
+            packet.release();
+            assertFalse(packet.isPooled());
+        }
+        handler.packets.clear();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler));
+        assertEquals(packets, pool.getAllocated());
+        assertTrue(pool.getReused() > packets / 2);
+    }
+}
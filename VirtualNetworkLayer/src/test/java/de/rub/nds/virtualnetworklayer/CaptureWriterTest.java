@@ -0,0 +1,127 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.pcap.CaptureWriter;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.pcap.PcapFileReader;
+import de.rub.nds.virtualnetworklayer.pcap.PcapHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class CaptureWriterTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("captures").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        List<PcapHandler.RawPacket> packets = read(new File(getClass().getResource("httpsGoogle.pcap").getPath()));
+
+        CaptureWriter writer = new CaptureWriter(directory, "test", Pcap.DataLinkType.Ethernet);
+        writer.setRotation(20000, 0);
+        for (int i = 0; i < packets.size(); i += 10) {
+            assertTrue(writer.write("capture " + i, packets.subList(i, Math.min(i + 10, packets.size()))));
+        }
+        writer.close();
+
+        assertEquals(0, writer.getDropped());
+        assertEquals((packets.size() + 9) / 10, writer.getWritten());
+        assertTrue(writer.getFiles() > 1);
+
+        List<PcapHandler.RawPacket> written = new ArrayList<>();
+        for (int i = 0; i < writer.getFiles(); i++) {
+            File file = new File(directory, String.format("test-%04d.pcap", i));
+            assertTrue(file.length() <= 20000);
+            written.addAll(read(file));
+        }
+
+        assertEquals(packets.size(), written.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertEquals(packets.get(i).getTimeStamp(), written.get(i).getTimeStamp());
+            assertEquals(packets.get(i).getLen(), written.get(i).getLen());
+            assertEquals(packets.get(i).getBytes(), written.get(i).getBytes());
+        }
+
+        List<String> index = Files.readAllLines(new File(directory, "test.index").toPath(), StandardCharsets.UTF_8);
+        assertEquals(writer.getWritten(), index.size());
+        for (String line : index) {
+            String[] fields = line.split("\t");
+            int first = Integer.parseInt(fields[0].substring("capture ".length()));
+
+            try (RandomAccessFile file = new RandomAccessFile(new File(directory, fields[1]), "r")) {
+                ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+                file.getChannel().read(header, Long.parseLong(fields[2]));
+
+                assertEquals(packets.get(first).getCaplen(), header.getInt(8));
+            }
+            assertEquals(Math.min(10, packets.size() - first), Integer.parseInt(fields[3]));
+        }
+    }
+
+    @Test
+    public void drop() throws IOException {
+        List<PcapHandler.RawPacket> packets = read(new File(getClass().getResource("httpsGoogle.pcap").getPath()));
+
+        CaptureWriter writer = new CaptureWriter(directory, "test", Pcap.DataLinkType.Ethernet, 16, 1000);
+        assertFalse(writer.write("too large", packets));
+        assertTrue(writer.write("small", packets.subList(0, 1)));
+        writer.close();
+        assertFalse(writer.write("closed", packets.subList(0, 1)));
+
+        assertEquals(1, writer.getWritten());
+        assertEquals(2, writer.getDropped());
+        assertTrue(writer.getDroppedBytes() > 1000);
+    }
+
+    @Test
+    public void nullId() throws IOException {
+        List<PcapHandler.RawPacket> packets = read(new File(getClass().getResource("httpsGoogle.pcap").getPath()));
+
+        CaptureWriter writer = new CaptureWriter(directory, "test", Pcap.DataLinkType.Ethernet);
+        try {
+            writer.write(null, packets.subList(0, 1));
+            fail("null id accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        writer.close();
+
+        assertEquals(0, writer.getWritten());
+        assertEquals(0, writer.getDropped());
+    }
+
+    private static List<PcapHandler.RawPacket> read(File file) throws IOException {
+        List<PcapHandler.RawPacket> packets = new ArrayList<>();
+
+        try (PcapFileReader reader = new PcapFileReader(file)) {
+            PcapHandler.RawPacket rawPacket;
+            while ((rawPacket = reader.next()) != null) {
+                packets.add(rawPacket);
+            }
+        }
+
+        return packets;
+    }
+}
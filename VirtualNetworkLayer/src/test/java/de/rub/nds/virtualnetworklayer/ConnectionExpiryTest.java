@@ -0,0 +1,152 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Idle connections expire after the timeout of their state, counted from their last packet.
+ */
+public class ConnectionExpiryTest {
+    private static final long Second = 1000000000L;
+    private static final int Syn = 0x02;
+    private static final int Ack = 0x10;
+    private static final int Fin = 0x11;
+
+    private static class Handler extends ConnectionHandler {
+        private List<String> events = new ArrayList<>();
+        private List<Integer> expiredPackets = new ArrayList<>();
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+            if (event != Event.Update) {
+                events.add(event + " " + connection.getSession().getSourcePort());
+            }
+
+            if (event == Event.Expired) {
+                // packets are still valid during the callback
+                expiredPackets.add(connection.getTrace().size());
+                assertFalse(getConnections().contains(connection));
+            }
+        }
+
+        /**
+         * Feeds a segment from 10.0.0.1:port to 10.0.0.2:80.
+         */
+        void feed(int port, int flags, long timeStamp) {
+            ByteBuffer frame = ByteBuffer.allocate(54);
+            frame.put(new byte[12]).putShort((short) 0x0800);
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) 40).putInt(0)
+                    .put((byte) 64).put((byte) 6).putShort((short) 0)
+                    .put(new byte[]{10, 0, 0, 1}).put(new byte[]{10, 0, 0, 2});
+            frame.putShort((short) port).putShort((short) 80).putInt(1).putInt(0)
+                    .put((byte) 0x50).put((byte) flags).putShort((short) 8192).putInt(0);
+            frame.flip();
+
+            newPacket(new PcapPacket(frame, timeStamp, PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet)));
+        }
+
+        List<String> poll() {
+            List<String> events = this.events;
+            this.events = new ArrayList<>();
+
+            return events;
+        }
+    }
+
+    private Handler handler;
+
+    @Before
+    public void setUp() {
+        handler = new Handler();
+        handler.setTimeout(PcapConnection.State.Opening, 10 * Second);
+        handler.setTimeout(PcapConnection.State.Established, 100 * Second);
+        handler.setTimeout(PcapConnection.State.Closing, 5 * Second);
+    }
+
+    @Test
+    public void perState() {
+        handler.feed(1001, Syn, 0);
+        handler.feed(1002, Syn, 0);
+        handler.feed(1002, Ack, Second);
+        handler.feed(1003, Syn, 0);
+        handler.feed(1003, Fin, Second);
+        assertEquals("[New 1001, New 1002, New 1003]", handler.poll().toString());
+
+        assertEquals(PcapConnection.State.Closing, getConnection(1003).getState());
+        handler.feed(2000, Ack, 6 * Second);
+        assertEquals("[Expired 1003, New 2000]", handler.poll().toString());
+
+        handler.feed(2000, Ack, 10 * Second);
+        assertEquals("[Expired 1001]", handler.poll().toString());
+
+        handler.feed(2000, Ack, 100 * Second);
+        assertEquals("[]", handler.poll().toString());
+        handler.feed(2000, Ack, 101 * Second);
+        assertEquals("[Expired 1002]", handler.poll().toString());
+
+        assertEquals("[2, 1, 2]", handler.expiredPackets.toString());
+        assertEquals(1, handler.getConnections().size());
+    }
+
+    @Test
+    public void leastRecentlyUsed() {
+        handler.feed(1001, Ack, 0);
+        handler.feed(1002, Ack, 10 * Second);
+        handler.feed(1001, Ack, 20 * Second);
+        handler.poll();
+
+        // 1001 is behind 1002 in the list now
+        handler.feed(2000, Ack, 115 * Second);
+        assertEquals("[Expired 1002, New 2000]", handler.poll().toString());
+        handler.feed(2000, Ack, 119 * Second);
+        assertEquals("[]", handler.poll().toString());
+        handler.feed(2000, Ack, 120 * Second);
+        assertEquals("[Expired 1001]", handler.poll().toString());
+    }
+
+    @Test
+    public void stateChange() {
+        // leaves the opening list, so the opening timeout doesn't apply anymore
+        handler.feed(1001, Syn, 0);
+        handler.feed(1001, Ack, Second);
+        handler.feed(2000, Ack, 50 * Second);
+        handler.poll();
+        assertEquals(PcapConnection.State.Established, getConnection(1001).getState());
+
+        handler.feed(1001, Fin, 60 * Second);
+        handler.feed(2000, Ack, 65 * Second);
+        assertEquals("[Expired 1001]", handler.poll().toString());
+    }
+
+    @Test
+    public void reopen() {
+        handler.feed(1001, Syn, 0);
+        PcapConnection first = getConnection(1001);
+        handler.feed(1001, Syn, 10 * Second);
+
+        assertEquals("[New 1001, Expired 1001, New 1001]", handler.poll().toString());
+        assertNotSame(first, getConnection(1001));
+        assertEquals(1, handler.getConnections().size());
+    }
+
+    private PcapConnection getConnection(int port) {
+        for (PcapConnection connection : handler.getConnections()) {
+            if (connection.getSession().getSourcePort() == port) {
+                return connection;
+            }
+        }
+
+        return null;
+    }
+}
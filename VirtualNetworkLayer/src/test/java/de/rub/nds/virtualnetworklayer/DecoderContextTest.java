@@ -0,0 +1,229 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.DecoderContext;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.packet.header.application.HttpHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.UdpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Decoder contexts on different threads, flyweight and lazy packets have to decode
+ * exactly as a single eager decoder does.
+ */
+public class DecoderContextTest {
+    private static final int Rounds = 20000;
+    private static final String Request = "GET / HTTP/1.1\r\nHost: example.org\r\n\r\n";
+
+    private static class Handler extends PacketHandler {
+        private List<PcapPacket> packets = new ArrayList<>();
+
+        Handler(Decoding decoding) {
+            super(true);
+            dataLinkType = Pcap.DataLinkType.Ethernet;
+            setDecoding(decoding);
+        }
+
+        @Override
+        protected void newPacket(PcapPacket packet) {
+            packets.add(packet);
+        }
+
+        PcapPacket feed(ByteBuffer frame) {
+            newByteBuffer(0, frame.limit(), frame);
+            return packets.get(packets.size() - 1);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentContexts() throws InterruptedException {
+        final List<String> expected = new ArrayList<>();
+        for (ByteBuffer frame : frames()) {
+            expected.add(describe(PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet)));
+        }
+
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int t = 0; t < 2; t++) {
+            final int shift = t;
+
+            new Thread() {
+                @Override
+                public void run() {
+                    DecoderContext context = new DecoderContext();
+                    // own buffers, decoding moves their position
+                    List<ByteBuffer> frames = frames();
+
+                    try {
+                        start.await();
+                        for (int i = 0; i < Rounds; i++) {
+                            // both threads decode different packets at the same time
+                            int index = (i + shift) % frames.size();
+                            ByteBuffer frame = frames.get(index);
+
+                            String actual = describe(context.getPacketHeaders(frame, frame.limit(),
+                                    Pcap.DataLinkType.Ethernet, false));
+                            if (!expected.get(index).equals(actual)) {
+                                failure.set(expected.get(index) + " decoded as " + actual);
+                                break;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failure.set(e.toString());
+                    }
+
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+        assertNull(failure.get(), failure.get());
+    }
+
+    @Test
+    public void flyweight() {
+        for (ByteBuffer frame : frames()) {
+            String expected = describe(PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet));
+            PcapPacket packet = PacketHandler.getDecoderContext().getPacket(frame, 7, frame.limit(), Pcap.DataLinkType.Ethernet);
+
+            assertEquals(7, packet.getTimeStamp());
+            assertEquals(expected.contains("Tcp"), packet.hasHeader(TcpHeader.Id));
+            assertEquals(expected.contains("Udp"), packet.hasHeader(UdpHeader.Id));
+            assertEquals(expected, describe(packet.getHeaders()));
+            if (packet.hasHeader(TcpHeader.Id)) {
+                assertSame(packet.getHeader(TcpHeader.Id), packet.getHeader(TcpHeader.Id));
+            }
+        }
+
+        // headers of one flyweight packet are not affected by decoding the next one
+        List<ByteBuffer> frames = frames();
+        PcapPacket first = new Handler(PacketHandler.Decoding.Flyweight).feed(frames.get(0));
+        new Handler(PacketHandler.Decoding.Flyweight).feed(frames.get(1));
+        assertEquals(8080, ((TcpHeader) first.getHeader(TcpHeader.Id)).getDestinationPort());
+    }
+
+    @Test
+    public void lazy() {
+        Handler handler = new Handler(PacketHandler.Decoding.Lazy);
+
+        for (ByteBuffer frame : frames()) {
+            String expected = describe(PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet));
+            PcapPacket packet = handler.feed(frame);
+
+            if (expected.contains("Tcp")) {
+                TcpHeader tcpHeader = packet.getHeader(TcpHeader.Id);
+                assertTrue(expected.contains("Tcp " + tcpHeader.getSourcePort() + ">" + tcpHeader.getDestinationPort()));
+            }
+            assertEquals(expected.contains("Http"), packet.hasHeader(HttpHeader.Id));
+            assertEquals(expected, describe(packet.getHeaders()));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void lazyOnOtherThread() throws InterruptedException {
+        List<ByteBuffer> frames = frames();
+        final List<String> expected = new ArrayList<>();
+        final List<PcapPacket> packets = new ArrayList<>();
+        Handler handler = new Handler(PacketHandler.Decoding.Lazy);
+        for (ByteBuffer frame : frames) {
+            expected.add(describe(PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet)));
+            packets.add(handler.feed(frame));
+        }
+
+        // packets are decoded by the context of the thread asking for headers first
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < packets.size(); i++) {
+                    String actual = describe(packets.get(i).getHeaders());
+                    if (!expected.get(i).equals(actual)) {
+                        failure.set(expected.get(i) + " decoded as " + actual);
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < Rounds; i++) {
+            ByteBuffer frame = frames.get(i % frames.size());
+            PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet);
+        }
+        reader.join();
+
+        assertNull(failure.get(), failure.get());
+    }
+
+    private static String describe(List<Header> headers) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Header header : headers) {
+            builder.append(header.getClass().getSimpleName().replace("Header", ""))
+                    .append(' ').append(header.getOffset()).append('+').append(header.getLength());
+            if (header instanceof TcpHeader) {
+                TcpHeader tcpHeader = (TcpHeader) header;
+                builder.append(" Tcp ").append(tcpHeader.getSourcePort()).append('>').append(tcpHeader.getDestinationPort());
+            } else if (header instanceof UdpHeader) {
+                UdpHeader udpHeader = (UdpHeader) header;
+                builder.append(" Udp ").append(udpHeader.getSourcePort()).append('>').append(udpHeader.getDestinationPort());
+            }
+            builder.append(", ");
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @return tcp (with and without http), udp and non-ip frames
+     */
+    private static List<ByteBuffer> frames() {
+        List<ByteBuffer> frames = new ArrayList<>();
+
+        frames.add(ip4(6, 40000, 8080, new byte[16]));
+        frames.add(ip4(6, 40001, 80, Request.getBytes()));
+        frames.add(ip4(17, 5060, 5061, new byte[24]));
+        frames.add(ip4(6, 443, 40002, new byte[0]));
+
+        ByteBuffer arp = ByteBuffer.allocate(42);
+        arp.put(new byte[12]).putShort((short) 0x0806)
+                .putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4).putShort((short) 1);
+        arp.clear();
+        frames.add(arp);
+
+        return frames;
+    }
+
+    private static ByteBuffer ip4(int protocol, int sourcePort, int destinationPort, byte[] payload) {
+        int transportLength = (protocol == 6 ? 20 : 8) + payload.length;
+        ByteBuffer frame = ByteBuffer.allocate(34 + transportLength);
+
+        frame.put(new byte[12]).putShort((short) 0x0800);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + transportLength)).putInt(0)
+                .put((byte) 64).put((byte) protocol).putShort((short) 0)
+                .put(new byte[]{10, 0, 0, 1}).put(new byte[]{10, 0, 0, 2});
+        if (protocol == 6) {
+            frame.putShort((short) sourcePort).putShort((short) destinationPort).putInt(1).putInt(0)
+                    .put((byte) 0x50).put((byte) 0x18).putShort((short) 8192).putInt(0);
+        } else {
+            frame.putShort((short) sourcePort).putShort((short) destinationPort)
+                    .putShort((short) transportLength).putShort((short) 0);
+        }
+        frame.put(payload);
+        frame.flip();
+
+        return frame;
+    }
+}
@@ -0,0 +1,159 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Eager, flyweight and lazy decoding have to give the same headers, sessions and lookups
+ * at every depth on all test dumps.
+ */
+public class DecodingTest {
+
+    private static class Handler extends PacketHandler {
+        private List<PcapPacket> packets = new ArrayList<>();
+
+        Handler(Decoding decoding, Headers.Layer depth) {
+            setDecoding(decoding);
+            setDepth(depth);
+        }
+
+        @Override
+        protected void newPacket(PcapPacket packet) {
+            packets.add(packet);
+        }
+    }
+
+    @Test
+    public void modes() {
+        for (File file : getDumps()) {
+            for (Headers.Layer depth : Headers.Layer.values()) {
+                List<PcapPacket> eager = loop(file, PacketHandler.Decoding.Eager, depth);
+                List<PcapPacket> flyweight = loop(file, PacketHandler.Decoding.Flyweight, depth);
+                List<PcapPacket> lazy = loop(file, PacketHandler.Decoding.Lazy, depth);
+                assertEquals(eager.size(), flyweight.size());
+                assertEquals(eager.size(), lazy.size());
+
+                for (int i = 0; i < eager.size(); i++) {
+                    String packet = file.getName() + " " + depth + " #" + i;
+
+                    // lookups first, so lazy packets are decoded step by step
+                    for (Headers header : Headers.values()) {
+                        boolean expected = eager.get(i).hasHeader(header);
+                        assertEquals(packet + " " + header, expected, flyweight.get(i).hasHeader(header));
+                        assertEquals(packet + " " + header, expected, lazy.get(i).hasHeader(header));
+                    }
+
+                    assertEquals(packet, eager.get(i).getSession(), flyweight.get(i).getSession());
+                    assertEquals(packet, eager.get(i).getSession(), lazy.get(i).getSession());
+
+                    String expected = describe(eager.get(i).getHeaders());
+                    assertEquals(packet, expected, describe(flyweight.get(i).getHeaders()));
+                    assertEquals(packet, expected, describe(lazy.get(i).getHeaders()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void content() {
+        byte[] frame = new byte[]{1, 2, 3, 4, 5, 6};
+
+        PcapPacket owner = new PcapPacket(ByteBuffer.wrap(frame), 0, new LinkedList<Header>());
+        assertSame(frame, owner.getContent());
+
+        ByteBuffer slice = ByteBuffer.wrap(frame);
+        slice.position(2);
+        PcapPacket sliced = new PcapPacket(slice.slice(), 0, new LinkedList<Header>());
+        assertTrue(Arrays.equals(new byte[]{3, 4, 5, 6}, sliced.getContent()));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+        direct.put(frame).flip();
+        PcapPacket mapped = new PcapPacket(direct, 0, new LinkedList<Header>());
+        assertTrue(Arrays.equals(frame, mapped.getContent()));
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void depth() {
+        int application = 0;
+        for (File file : getDumps()) {
+            for (PcapPacket packet : loop(file, PacketHandler.Decoding.Eager, Headers.Layer.Application)) {
+                for (Header header : packet.getHeaders()) {
+                    application += Headers.getLayer(header.getId()) == Headers.Layer.Application ? 1 : 0;
+                }
+            }
+
+            for (Headers.Layer depth : Headers.Layer.values()) {
+                for (PcapPacket packet : loop(file, PacketHandler.Decoding.Lazy, depth)) {
+                    for (Header header : packet.getHeaders()) {
+                        assertTrue(file.getName() + " " + depth, Headers.getLayer(header.getId()).compareTo(depth) <= 0);
+                    }
+                }
+            }
+        }
+
+        assertTrue(application > 0);
+    }
+
+    @Test
+    public void lazyLookup() {
+        File file = new File(getClass().getResource("httpsGoogle.pcap").getPath());
+        List<PcapPacket> eager = loop(file, PacketHandler.Decoding.Eager, Headers.Layer.Application);
+        List<PcapPacket> lazy = loop(file, PacketHandler.Decoding.Lazy, Headers.Layer.Application);
+
+        for (int i = 0; i < eager.size(); i++) {
+            Header expected = eager.get(i).getHeader(Headers.Tcp.getId());
+            Header header = lazy.get(i).getHeader(Headers.Tcp.getId());
+
+            if (expected == null) {
+                assertNull(header);
+            } else {
+                assertEquals(expected.getOffset(), header.getOffset());
+                assertSame(header, lazy.get(i).getHeader(Headers.Tcp.getId()));
+            }
+        }
+    }
+
+    private static List<PcapPacket> loop(File file, PacketHandler.Decoding decoding, Headers.Layer depth) {
+        Handler handler = new Handler(decoding, depth);
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler));
+
+        return handler.packets;
+    }
+
+    private static String describe(List<Header> headers) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Header header : headers) {
+            builder.append(Headers.values()[header.getId()]).append(' ').append(header.getOffset())
+                    .append('+').append(header.getLength()).append('+').append(header.getPayloadLength()).append(", ");
+        }
+
+        return builder.toString();
+    }
+
+    private File[] getDumps() {
+        File directory = new File(getClass().getResource("httpsGoogle.pcap").getPath()).getParentFile();
+
+        return directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".pcap");
+            }
+        });
+    }
+}
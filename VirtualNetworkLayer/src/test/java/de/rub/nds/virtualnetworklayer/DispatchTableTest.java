@@ -0,0 +1,105 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.Headers;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Headers are only tried at their bindings: the next header follows from the link type,
+ * ether type, ip protocol and ports of the previous headers.
+ */
+public class DispatchTableTest {
+    private static final byte[] Http = "GET / HTTP/1.1\r\nHost: example.org\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // handshake record with an empty ClientHello
+    private static final byte[] Tls = {22, 3, 1, 0, 4, 1, 0, 0, 0};
+    private static final int Tcp = 6;
+    private static final int Udp = 17;
+
+    @Test
+    public void ethernet() {
+        assertEquals("[Ethernet, Ip4, Tcp, Http]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Tcp, 40000, 80, Http))));
+        assertEquals("[Ethernet, Ip4, Tcp, Tls]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Tcp, 40000, 443, Tls))));
+        assertEquals("[Ethernet, Ip4, Udp]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Udp, 40000, 1234, new byte[8]))));
+    }
+
+    @Test
+    public void etherType() {
+        ByteBuffer vlan = ByteBuffer.allocate(4).putShort((short) 42).putShort((short) 0x0800);
+        byte[] tagged = concat(vlan.array(), ip4(Udp, 40000, 1234, new byte[8]));
+
+        assertEquals("[Ethernet, IEEE802_1Q, Ip4, Udp]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x8100, tagged)));
+        assertEquals("[Ethernet, Arp]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0806,
+                new byte[]{0, 1, 8, 0, 6, 4, 0, 1, 0, 0, 0, 0, 0, 1, 10, 0, 0, 1, 0, 0, 0, 0, 0, 0, 10, 0, 0, 2})));
+    }
+
+    @Test
+    public void linkTypeOnlyFirst() {
+        // payload looks like an ethernet frame, but link types only bind the first header
+        byte[] inner = ethernet(0x0800, ip4(Udp, 1, 2, new byte[8]));
+
+        assertEquals("[Ip4, Udp]", decode(Pcap.DataLinkType.Raw, ip4(Udp, 40000, 1234, inner)));
+        assertEquals("[Ethernet, Ip4, Udp]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Udp, 40000, 1234, inner))));
+    }
+
+    @Test
+    public void greedyTlsOnlyAfterTcp() {
+        assertEquals("[Ethernet, Ip4, Udp]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Udp, 40000, 443, Tls))));
+        // port 80, still Tls by content after Tcp
+        assertEquals("[Ethernet, Ip4, Tcp, Tls]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Tcp, 40000, 8080, Tls))));
+    }
+
+    @Test
+    public void portBinding() {
+        // http without a binding port is found heuristically after Tcp, not after Udp
+        assertEquals("[Ethernet, Ip4, Tcp, Http]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Tcp, 40000, 8080, Http))));
+        assertEquals("[Ethernet, Ip4, Udp]", decode(Pcap.DataLinkType.Ethernet, ethernet(0x0800, ip4(Udp, 40000, 80, Http))));
+    }
+
+    private static String decode(Pcap.DataLinkType dataLinkType, byte[] frame) {
+        List<String> names = new ArrayList<>();
+        for (Header header : PacketHandler.getPacketHeaders(ByteBuffer.wrap(frame), frame.length, dataLinkType)) {
+            names.add(Headers.values()[header.getId()].name());
+        }
+
+        return names.toString();
+    }
+
+    private static byte[] ethernet(int type, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(14 + payload.length);
+        frame.put(new byte[]{0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 1}).putShort((short) type).put(payload);
+
+        return frame.array();
+    }
+
+    private static byte[] ip4(int protocol, int sourcePort, int destinationPort, byte[] payload) {
+        int transportLength = (protocol == Tcp ? 20 : 8) + payload.length;
+        ByteBuffer packet = ByteBuffer.allocate(20 + transportLength);
+
+        packet.put((byte) 0x45).put((byte) 0).putShort((short) (20 + transportLength)).putInt(0)
+                .put((byte) 64).put((byte) protocol).putShort((short) 0)
+                .put(new byte[]{10, 0, 0, 1}).put(new byte[]{10, 0, 0, 2});
+        if (protocol == Tcp) {
+            packet.putShort((short) sourcePort).putShort((short) destinationPort).putInt(1).putInt(0)
+                    .put((byte) 0x50).put((byte) 0x18).putShort((short) 8192).putInt(0);
+        } else {
+            packet.putShort((short) sourcePort).putShort((short) destinationPort)
+                    .putShort((short) transportLength).putShort((short) 0);
+        }
+        packet.put(payload);
+
+        return packet.array();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        return ByteBuffer.allocate(first.length + second.length).put(first).put(second).array();
+    }
+}
@@ -0,0 +1,135 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.p0f.signature.tcp.Quirk;
+import de.rub.nds.virtualnetworklayer.packet.header.application.TlsHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.Util;
+
+import java.util.Random;
+
+/**
+ * Compares the linear {@code values()} scans, which protocol enums did up to now, with their
+ * {@link de.rub.nds.virtualnetworklayer.util.EnumTable} lookups on the codes of a typical frame mix.
+ * <p>
+ * Run with {@code main}, optional argument is the number of lookups per round.
+ */
+public class EnumTableBenchmark {
+    private static final int Rounds = 10;
+
+    public static void main(String[] args) {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        // mostly known codes, some unknown ones
+        Random random = new Random(20);
+        int[] ethernetTypes = {0x0800, 0x0800, 0x0800, 0x86DD, 0x0806, 0x8100, 0x88cc};
+        int[] ipProtocols = {6, 6, 6, 17, 17, 1, 58};
+        int[] contentTypes = {23, 23, 23, 22, 22, 21, 20};
+        int[] dataLinkTypes = {1, 1, 1, 113, 1, 1, 105};
+        String[] quirks = {"df", "id+", "ts1-", "ack+", "df", "opt+", "bad"};
+
+        int[] codes = new int[1024];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = random.nextInt(7);
+        }
+
+        for (int round = 0; round < Rounds; round++) {
+            long sum = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                int code = codes[i & 1023];
+                sum += scanEthernet(ethernetTypes[code]) != null ? 1 : 0;
+                sum += scanIp(ipProtocols[code]) != null ? 1 : 0;
+                sum += scanContentType(contentTypes[code]) != null ? 1 : 0;
+                sum += scanDataLinkType(dataLinkTypes[code]) != null ? 1 : 0;
+            }
+            long scan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                int code = codes[i & 1023];
+                sum += Ethernet.Type.valueOf(ethernetTypes[code]) != null ? 1 : 0;
+                sum += Ip.Protocol.valueOf(ipProtocols[code]) != null ? 1 : 0;
+                sum += TlsHeader.ContentType.valueOf(contentTypes[code]) != null ? 1 : 0;
+                sum += Pcap.DataLinkType.valueOf(dataLinkTypes[code]) != null ? 1 : 0;
+            }
+            long table = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups / 10; i++) {
+                sum += scanQuirk(quirks[codes[i & 1023]]) != null ? 1 : 0;
+            }
+            long readScan = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups / 10; i++) {
+                try {
+                    sum += Util.readEnum(Quirk.class, quirks[codes[i & 1023]]) != null ? 1 : 0;
+                } catch (IllegalArgumentException e) {
+                    sum--;
+                }
+            }
+            long readTable = System.nanoTime() - start;
+
+            System.out.printf("round %d: valueOf scan %.0f, table %.0f frames/ms, readEnum scan %.0f, map %.0f reads/ms (%d)%n",
+                    round, lookups * 1e6 / scan, lookups * 1e6 / table,
+                    lookups / 10 * 1e6 / readScan, lookups / 10 * 1e6 / readTable, sum);
+        }
+    }
+
+    private static Ethernet.Type scanEthernet(int code) {
+        for (Ethernet.Type type : Ethernet.Type.values()) {
+            if (type.getId() == code) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    private static Ip.Protocol scanIp(int code) {
+        for (Ip.Protocol protocol : Ip.Protocol.values()) {
+            if (protocol.getId() == code) {
+                return protocol;
+            }
+        }
+
+        return null;
+    }
+
+    private static TlsHeader.ContentType scanContentType(int code) {
+        for (TlsHeader.ContentType contentType : TlsHeader.ContentType.values()) {
+            // content types are numbered from 20 on
+            if (contentType.ordinal() + 20 == code) {
+                return contentType;
+            }
+        }
+
+        return null;
+    }
+
+    private static Pcap.DataLinkType scanDataLinkType(int code) {
+        for (Pcap.DataLinkType dataLinkType : Pcap.DataLinkType.values()) {
+            if (dataLinkType.getId() == code) {
+                return dataLinkType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * readEnum as done up to now, returning null instead of throwing
+     */
+    private static Quirk scanQuirk(String value) {
+        for (Quirk quirk : Quirk.class.getEnumConstants()) {
+            if (quirk.toString().equals(value)) {
+                return quirk;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.header.application.HttpHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.application.TlsHeader;
+import de.rub.nds.virtualnetworklayer.packet.header.link.ethernet.Ethernet;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.EnumTable;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class EnumTableTest {
+    private enum Code {
+        A(-3), B(1000000), C(7), D(7), E(Integer.MIN_VALUE);
+
+        private final int code;
+
+        private Code(int code) {
+            this.code = code;
+        }
+    }
+
+    private static final EnumTable.Code<Code> code = new EnumTable.Code<Code>() {
+        @Override
+        public int of(Code constant) {
+            return constant.code;
+        }
+    };
+
+    @Test
+    public void sparse() {
+        EnumTable<Code> table = new EnumTable<>(Code.values(), code);
+
+        assertFalse(table.isDense());
+        assertEquals(4, table.size());
+        for (Code constant : new Code[]{Code.A, Code.B, Code.C, Code.E}) {
+            assertSame(constant, table.get(constant.code));
+        }
+        assertNull(table.get(0));
+        assertNull(table.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void dense() {
+        EnumTable<Code> table = new EnumTable<>(new Code[]{Code.A, Code.C, Code.D}, code);
+
+        assertTrue(table.isDense());
+        assertEquals(2, table.size());
+        assertSame(Code.C, table.get(7));
+        assertNull(table.get(8));
+        assertNull(table.get(-4));
+        assertNull(table.get(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void protocolEnums() {
+        for (Ethernet.Type type : Ethernet.Type.values()) {
+            assertSame(type, Ethernet.Type.valueOf(type.getId()));
+        }
+        for (Pcap.DataLinkType dataLinkType : Pcap.DataLinkType.values()) {
+            assertSame(dataLinkType, Pcap.DataLinkType.valueOf(dataLinkType.getId()));
+        }
+
+        assertSame(TlsHeader.Version.TLS1_2, TlsHeader.Version.valueOf(3, 3));
+        assertNull(TlsHeader.Version.valueOf(4, 3));
+        assertNull(TlsHeader.Version.valueOf(3, 3 + 256));
+        assertSame(HttpHeader.Status.ClientError, HttpHeader.Status.valueOf(404));
+        assertSame(HttpHeader.Status.Success, HttpHeader.Status.valueOf(2));
+        assertNull(HttpHeader.Status.valueOf(0));
+        assertNull(HttpHeader.Status.valueOf(-200));
+    }
+}
@@ -0,0 +1,234 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprint;
+import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprints;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Fingerprints are evaluated only on packets meeting their triggers, once per direction unless continuous.
+ */
+public class FingerprintTriggerTest {
+    // test fingerprints only bind to this port, so they don't disturb other tests
+    private static final int Port = 7777;
+    private static final int Syn = 0x02;
+    private static final int Ack = 0x10;
+
+    private static class CountingFingerprint extends Fingerprint {
+        private final int id;
+        private final boolean continuous;
+        private final int minimumPayload;
+        private final int[] evaluations = new int[Packet.Direction.values().length];
+
+        CountingFingerprint(boolean continuous, Trigger... triggers) {
+            this(continuous, 0, triggers);
+        }
+
+        /**
+         * @param minimumPayload tcp payload length bound packets need at least
+         */
+        CountingFingerprint(boolean continuous, int minimumPayload, Trigger... triggers) {
+            super(triggers);
+            this.continuous = continuous;
+            this.minimumPayload = minimumPayload;
+            this.id = ConnectionHandler.getFingerprintCount();
+            ConnectionHandler.registerFingerprint(this);
+        }
+
+        @Override
+        protected void match(Signature signature, PcapPacket packet, PcapConnection connection) {
+            evaluations[packet.getDirection().ordinal()]++;
+        }
+
+        @Override
+        public boolean isBound(PcapPacket packet) {
+            SocketSession session = packet.getSession();
+            if (minimumPayload > 0) {
+                TcpHeader tcpHeader = packet.getHeader(TcpHeader.Id);
+                if (tcpHeader == null || tcpHeader.getPayloadLength() < minimumPayload) {
+                    return false;
+                }
+            }
+
+            return session != null && (session.getSourcePort() == Port || session.getDestinationPort() == Port);
+        }
+
+        @Override
+        public boolean isContinuous() {
+            return continuous;
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        int get(Packet.Direction direction) {
+            return evaluations[direction.ordinal()];
+        }
+    }
+
+    private static final CountingFingerprint FirstPayload = new CountingFingerprint(false, Fingerprint.Trigger.FirstPayload);
+    private static final CountingFingerprint EverySyn = new CountingFingerprint(true, Fingerprint.Trigger.Syn);
+    private static final CountingFingerprint LargePayload = new CountingFingerprint(false, 20, Fingerprint.Trigger.FirstPayload);
+    private static final CountingFingerprint EveryLargePayload = new CountingFingerprint(true, 20, Fingerprint.Trigger.FirstPayload);
+
+    private static class Handler extends ConnectionHandler {
+        private long timeStamp = 0;
+        private long[] sequenceNumbers = {1000, 5000};
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+        }
+
+        void tcp(boolean request, int flags, boolean mss, int payload) {
+            int tcpLength = mss ? 24 : 20;
+            int direction = request ? 0 : 1;
+            ByteBuffer segment = ByteBuffer.allocate(tcpLength + payload);
+
+            segment.putShort((short) (request ? 40000 : Port)).putShort((short) (request ? Port : 40000))
+                    .putInt((int) sequenceNumbers[direction]).putInt(0)
+                    .put((byte) (tcpLength << 2)).put((byte) flags).putShort((short) 8192).putInt(0);
+            if (mss) {
+                segment.put((byte) 2).put((byte) 4).putShort((short) 1460);
+            }
+            sequenceNumbers[direction] += payload + ((flags & Syn) != 0 ? 1 : 0);
+            feed(request, 6, segment.array());
+        }
+
+        /**
+         * @param length value of the udp length field, covering header and payload
+         */
+        void udp(boolean request, int length) {
+            ByteBuffer datagram = ByteBuffer.allocate(length);
+            datagram.putShort((short) (request ? 40000 : Port)).putShort((short) (request ? Port : 40000))
+                    .putShort((short) length).putShort((short) 0);
+            feed(request, 17, datagram.array());
+        }
+
+        private void feed(boolean request, int protocol, byte[] transport) {
+            byte[] client = {10, 0, 0, 1};
+            byte[] server = {10, 0, 0, 2};
+            ByteBuffer frame = ByteBuffer.allocate(34 + transport.length);
+
+            frame.put(new byte[12]).putShort((short) 0x0800);
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + transport.length)).putInt(0)
+                    .put((byte) 64).put((byte) protocol).putShort((short) 0)
+                    .put(request ? client : server).put(request ? server : client);
+            frame.put(transport);
+            frame.flip();
+
+            newPacket(new PcapPacket(frame, timeStamp += 1000,
+                    PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet)));
+        }
+
+        PcapConnection getConnection() {
+            assertEquals(1, getConnections().size());
+
+            return getConnections().get(0);
+        }
+    }
+
+    private Handler handler;
+
+    @Before
+    public void setUp() {
+        handler = new Handler();
+        for (CountingFingerprint print : new CountingFingerprint[]{FirstPayload, EverySyn, LargePayload, EveryLargePayload}) {
+            for (Packet.Direction direction : Packet.Direction.values()) {
+                print.evaluations[direction.ordinal()] = 0;
+            }
+        }
+    }
+
+    @Test
+    public void firstPayloadOncePerDirection() {
+        handler.tcp(true, Syn, false, 0);
+        handler.tcp(false, Syn | Ack, false, 0);
+        handler.tcp(true, Ack, false, 0);
+        assertEquals(0, FirstPayload.get(Packet.Direction.Request));
+
+        handler.tcp(true, Ack, false, 10);
+        handler.tcp(true, Ack, false, 10);
+        assertEquals(1, FirstPayload.get(Packet.Direction.Request));
+        assertEquals(0, FirstPayload.get(Packet.Direction.Response));
+
+        handler.tcp(false, Ack, false, 10);
+        handler.tcp(false, Ack, false, 10);
+        assertEquals(1, FirstPayload.get(Packet.Direction.Response));
+
+        PcapConnection connection = handler.getConnection();
+        assertTrue(connection.isFingerprinted(Packet.Direction.Request, FirstPayload.getId()));
+        assertTrue(connection.isFingerprinted(Packet.Direction.Response, FirstPayload.getId()));
+        assertNotNull(connection.getSignature(Packet.Direction.Request, FirstPayload.getId()));
+    }
+
+    @Test
+    public void firstBoundPayload() {
+        handler.tcp(true, Ack, false, 10);
+        assertEquals(1, FirstPayload.get(Packet.Direction.Request));
+        assertEquals(0, LargePayload.get(Packet.Direction.Request));
+
+        // the trigger is consumed by taking the fingerprint, not by the first payload
+        handler.tcp(true, Ack, false, 30);
+        handler.tcp(true, Ack, false, 30);
+        assertEquals(1, LargePayload.get(Packet.Direction.Request));
+        assertEquals(1, EveryLargePayload.get(Packet.Direction.Request));
+        assertEquals(1, FirstPayload.get(Packet.Direction.Request));
+        assertTrue(handler.getConnection().isFingerprinted(Packet.Direction.Request, LargePayload.getId()));
+        assertFalse(handler.getConnection().isFingerprinted(Packet.Direction.Request, EveryLargePayload.getId()));
+    }
+
+    @Test
+    public void continuous() {
+        handler.tcp(true, Syn, false, 0);
+        handler.tcp(true, Syn, false, 0);
+        handler.tcp(true, Ack, false, 10);
+        handler.tcp(false, Syn | Ack, false, 0);
+
+        assertEquals(2, EverySyn.get(Packet.Direction.Request));
+        assertEquals(1, EverySyn.get(Packet.Direction.Response));
+        assertFalse(handler.getConnection().isFingerprinted(Packet.Direction.Request, EverySyn.getId()));
+    }
+
+    @Test
+    public void udpLength() {
+        // the udp length field includes its 8 byte header, so this datagram is empty
+        handler.udp(true, 8);
+        assertEquals(0, FirstPayload.get(Packet.Direction.Request) + FirstPayload.get(Packet.Direction.Response));
+
+        handler.udp(true, 9);
+        handler.udp(true, 20);
+        // packets without tcp count as responses
+        assertEquals(1, FirstPayload.get(Packet.Direction.Response));
+        assertEquals(0, FirstPayload.get(Packet.Direction.Request));
+        assertEquals(0, EverySyn.get(Packet.Direction.Response));
+    }
+
+    @Test
+    public void maximumSegmentSize() {
+        handler.tcp(true, Syn, false, 0);
+        PcapConnection connection = handler.getConnection();
+        assertFalse(connection.isFingerprinted(Packet.Direction.Request, Fingerprints.Mtu));
+        assertTrue(connection.isFingerprinted(Packet.Direction.Request, Fingerprints.Tcp));
+
+        // Mtu needs a SYN with mss option
+        handler.tcp(true, Ack, true, 0);
+        assertFalse(connection.isFingerprinted(Packet.Direction.Request, Fingerprints.Mtu));
+        handler.tcp(true, Syn, true, 0);
+        assertTrue(connection.isFingerprinted(Packet.Direction.Request, Fingerprints.Mtu));
+        assertEquals((Object) (1460 + 40), connection.getSignature(Packet.Direction.Request, Fingerprints.Mtu).getSign("mtu"));
+    }
+}
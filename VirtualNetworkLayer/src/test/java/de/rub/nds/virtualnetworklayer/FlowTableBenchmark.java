@@ -0,0 +1,92 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.util.FlowTable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares connection lookup via {@link SocketSession} and {@link HashMap} (one session per packet)
+ * with {@link FlowKey} and {@link FlowTable} (no allocation) for NATed clients talking to few servers.
+ * <p>
+ * Run with {@code main}, optional argument is the number of flows.
+ */
+public class FlowTableBenchmark {
+    private static final int Rounds = 10;
+    private static final int Tcp = Ip.Protocol.Tcp.getId();
+
+    public static void main(String[] args) {
+        int flows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        // packets as seen on the wire, every flow in both directions
+        byte[][] clients = new byte[flows][];
+        byte[][] servers = new byte[flows][];
+        int[] ports = new int[flows];
+        for (int i = 0; i < flows; i++) {
+            clients[i] = new byte[]{100, 64, (byte) (i >> 14), (byte) (i >> 12 & 3)};
+            servers[i] = new byte[]{(byte) 198, 51, 100, (byte) (i % 8)};
+            ports[i] = 1024 + i % 4096;
+        }
+
+        printCollisions(clients, servers, ports);
+
+        Map<SocketSession, Integer> map = new HashMap<>();
+        FlowTable<Integer> table = new FlowTable<>(flows);
+        FlowKey key = new FlowKey();
+        for (int i = 0; i < flows; i++) {
+            SocketSession session = new SocketSession(clients[i], servers[i], ports[i], 443);
+            map.put(session, i);
+            table.put(key.set(session, Tcp), i);
+        }
+
+        for (int round = 0; round < Rounds; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < flows; i++) {
+                // copies as Ip4Header.getSourceAddress() does
+                sum += map.get(new SocketSession(clients[i].clone(), servers[i].clone(), ports[i], 443));
+                sum += map.get(new SocketSession(servers[i].clone(), clients[i].clone(), 443, ports[i]));
+            }
+            long hashMap = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < flows; i++) {
+                long client = toLong(clients[i]);
+                long server = toLong(servers[i]);
+                sum -= table.get(key.setIp4(Tcp, client, server, ports[i], 443));
+                sum -= table.get(key.setIp4(Tcp, server, client, 443, ports[i]));
+            }
+            long flowTable = System.nanoTime() - start;
+
+            System.out.printf("round %d: HashMap %.1f ns/lookup, FlowTable %.1f ns/lookup (%d)%n", round,
+                    hashMap / (2.0 * flows), flowTable / (2.0 * flows), sum);
+        }
+    }
+
+    private static void printCollisions(byte[][] clients, byte[][] servers, int[] ports) {
+        Set<Integer> legacy = new HashSet<>();
+        Set<Integer> hashes = new HashSet<>();
+
+        for (int i = 0; i < clients.length; i++) {
+            // SocketSession.hashCode() up to now
+            int firstGroup = Arrays.hashCode(new Object[]{Arrays.hashCode(clients[i]), ports[i]});
+            int secondGroup = Arrays.hashCode(new Object[]{Arrays.hashCode(servers[i]), 443});
+            legacy.add(firstGroup * secondGroup);
+
+            hashes.add(new SocketSession(clients[i], servers[i], ports[i], 443).hashCode());
+        }
+
+        System.out.println(clients.length + " flows, distinct hash codes: product " + legacy.size()
+                + ", mixed sum " + hashes.size());
+    }
+
+    private static long toLong(byte[] address) {
+        return (address[0] & 0xffL) << 24 | (address[1] & 0xffL) << 16 | (address[2] & 0xffL) << 8 | (address[3] & 0xffL);
+    }
+}
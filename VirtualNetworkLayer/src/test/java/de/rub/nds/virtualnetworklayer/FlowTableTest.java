@@ -0,0 +1,136 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.header.Header;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.FlowKey;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.FlowTable;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class FlowTableTest {
+    private static final int Tcp = Ip.Protocol.Tcp.getId();
+    private static final int Udp = Ip.Protocol.Udp.getId();
+
+    @Test
+    public void symmetric() {
+        FlowKey request = new FlowKey().setIp4(Tcp, 0x0a000001L, 0x0a000002L, 50000, 443);
+        FlowKey response = new FlowKey().setIp4(Tcp, 0x0a000002L, 0x0a000001L, 443, 50000);
+
+        assertEquals(request, response);
+        assertEquals(request.hashCode(), response.hashCode());
+        assertTrue(request.isReversed() != response.isReversed());
+
+        SocketSession session = new SocketSession(new byte[]{10, 0, 0, 1}, new byte[]{10, 0, 0, 2}, 50000, 443);
+        assertEquals(request, new FlowKey().set(session, Tcp));
+        assertFalse(request.equals(new FlowKey().setIp6(Tcp, 0, 0xffff0a000001L, 0, 0xffff0a000002L, 50000, 443)));
+    }
+
+    @Test
+    public void protocol() {
+        FlowKey tcp = new FlowKey().setIp4(Tcp, 0x0a000001L, 0x0a000002L, 5060, 5060);
+        FlowKey udp = new FlowKey().setIp4(Udp, 0x0a000001L, 0x0a000002L, 5060, 5060);
+
+        assertFalse(tcp.equals(udp));
+        assertFalse(tcp.hashCode() == udp.hashCode());
+
+        FlowTable<String> table = new FlowTable<>(8);
+        table.put(tcp, "tcp");
+        table.put(udp, "udp");
+        assertEquals("tcp", table.get(new FlowKey().setIp4(Tcp, 0x0a000002L, 0x0a000001L, 5060, 5060)));
+        assertEquals("udp", table.get(new FlowKey().setIp4(Udp, 0x0a000002L, 0x0a000001L, 5060, 5060)));
+    }
+
+    @Test
+    public void ipWithoutFlowKey() {
+        Ip ip = new Ip() {
+            @Override
+            public byte[] getSourceAddress() {
+                return new byte[]{10, 0, 0, 2};
+            }
+
+            @Override
+            public byte[] getDestinationAddress() {
+                return new byte[]{10, 0, 0, 1};
+            }
+
+            @Override
+            public Protocol getNextHeader() {
+                return Protocol.Tcp;
+            }
+
+            @Override
+            public int getHopLimit() {
+                return 64;
+            }
+
+            @Override
+            public int getLength() {
+                return 20;
+            }
+
+            @Override
+            public int getId() {
+                return -1;
+            }
+
+            @Override
+            public boolean isBound(LinkedList<Header> previousHeaders, Pcap.DataLinkType dataLinkType) {
+                return false;
+            }
+        };
+
+        FlowKey key = ip.toFlowKey(new FlowKey(), Ip.Protocol.Tcp, 443, 50000);
+        assertEquals(new FlowKey().setIp4(Tcp, 0x0a000001L, 0x0a000002L, 50000, 443), key);
+        assertTrue(key.isReversed());
+    }
+
+    @Test
+    public void sessionHashCode() {
+        SocketSession request = new SocketSession(new byte[]{10, 0, 0, 1}, new byte[]{10, 0, 0, 2}, 50000, 443);
+        SocketSession response = new SocketSession(new byte[]{10, 0, 0, 2}, new byte[]{10, 0, 0, 1}, 443, 50000);
+
+        assertEquals(request, response);
+        assertEquals(request.hashCode(), response.hashCode());
+        assertEquals(request.hashCode(), request.hashCode());
+        assertFalse(request.hashCode() == new SocketSession(new byte[]{10, 0, 0, 1}, new byte[]{10, 0, 0, 2}, 50001, 443).hashCode());
+    }
+
+    @Test
+    public void hashMapEquivalence() {
+        Random random = new Random(8);
+        FlowTable<Integer> table = new FlowTable<>(8);
+        Map<FlowKey, Integer> map = new HashMap<>();
+        FlowKey key = new FlowKey();
+
+        for (int i = 0; i < 100000; i++) {
+            // few addresses and ports, so keys repeat and removal shifts long probe sequences
+            key.setIp4(random.nextBoolean() ? Tcp : Udp, random.nextInt(4), random.nextInt(4), random.nextInt(64), 443);
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(map.put(key.copy(), i), table.put(key, i));
+                    break;
+                case 1:
+                    assertEquals(map.remove(key), table.remove(key));
+                    break;
+                default:
+                    assertEquals(map.get(key), table.get(key));
+            }
+
+            assertEquals(map.size(), table.size());
+        }
+
+        for (Map.Entry<FlowKey, Integer> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        assertEquals(map.size(), table.values().size());
+    }
+}
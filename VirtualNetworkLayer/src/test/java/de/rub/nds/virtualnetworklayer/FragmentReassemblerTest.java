@@ -0,0 +1,176 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.packet.FragmentReassembler;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.UdpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class FragmentReassemblerTest {
+    private static final long Second = 1000000000L;
+
+    private static class Handler extends PacketHandler {
+        private List<PcapPacket> packets = new ArrayList<>();
+
+        Handler() {
+            dataLinkType = Pcap.DataLinkType.Ethernet;
+        }
+
+        @Override
+        protected void newPacket(PcapPacket packet) {
+            packets.add(packet);
+        }
+
+        void feed(long timeStamp, ByteBuffer frame) {
+            newByteBuffer(timeStamp, frame.limit(), frame);
+        }
+    }
+
+    private Handler handler;
+    private FragmentReassembler reassembler;
+    private byte[] datagram;
+
+    @Before
+    public void setUp() {
+        handler = new Handler();
+        reassembler = new FragmentReassembler(16, 4096, 30 * Second);
+        handler.setFragmentReassembler(reassembler);
+
+        // udp header and 40 bytes payload
+        ByteBuffer udp = ByteBuffer.allocate(48);
+        udp.putShort((short) 5060).putShort((short) 5060).putShort((short) 48).putShort((short) 0);
+        for (int i = 0; i < 40; i++) {
+            udp.put((byte) i);
+        }
+        datagram = udp.array();
+    }
+
+    @Test
+    public void ip4OutOfOrder() {
+        handler.feed(0, ip4(7, 32, false, 32, 48));
+        handler.feed(1, ip4(7, 16, true, 16, 32));
+        assertTrue(handler.packets.isEmpty());
+        assertEquals(32, reassembler.getBufferedBytes());
+
+        handler.feed(2, ip4(7, 0, true, 0, 16));
+
+        assertEquals(1, handler.packets.size());
+        PcapPacket packet = handler.packets.get(0);
+        assertTrue(packet.isReassembled());
+        assertEquals(2, packet.getTimeStamp());
+
+        Ip4Header ip4Header = packet.getHeader(Ip4Header.Id);
+        assertEquals(20 + datagram.length, ip4Header.getTotalLength());
+        assertEquals(0, ip4Header.getFragmentOffset());
+        assertEquals(0xffff, getOnesComplementSum(packet.getContent(), 14, 20));
+
+        assertNotNull(packet.getHeader(UdpHeader.Id));
+        assertTrue(Arrays.equals(datagram, Arrays.copyOfRange(packet.getContent(), 34, packet.getLength())));
+
+        assertEquals(1, reassembler.getReassembled());
+        assertEquals(0, reassembler.getPending());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void ip4Overlapping() {
+        handler.feed(0, ip4(8, 0, true, 0, 24));
+        handler.feed(1, ip4(8, 16, false, 16, 48));
+
+        assertTrue(handler.packets.isEmpty());
+        assertEquals(1, reassembler.getOverlapping());
+        assertEquals(0, reassembler.getPending());
+    }
+
+    @Test
+    public void ip4TimedOut() {
+        handler.feed(0, ip4(9, 0, true, 0, 16));
+        handler.feed(31 * Second, ip4(9, 16, false, 16, 48));
+
+        assertTrue(handler.packets.isEmpty());
+        assertEquals(1, reassembler.getTimedOut());
+        assertEquals(1, reassembler.getPending());
+    }
+
+    @Test
+    public void ip6() {
+        handler.feed(0, ip6(16, false, 16, 48));
+        handler.feed(1, ip6(0, true, 0, 16));
+
+        assertEquals(1, handler.packets.size());
+        PcapPacket packet = handler.packets.get(0);
+        assertTrue(packet.isReassembled());
+
+        Ip6Header ip6Header = packet.getHeader(Ip6Header.Id);
+        assertEquals(datagram.length, ip6Header.getPayloadLength());
+        assertNotNull(packet.getHeader(UdpHeader.Id));
+    }
+
+    @Test
+    public void unfragmented() {
+        handler.feed(0, ip4(10, 0, false, 0, 48));
+
+        assertEquals(1, handler.packets.size());
+        assertFalse(handler.packets.get(0).isReassembled());
+        assertEquals(0, reassembler.getPending());
+    }
+
+    private static int getOnesComplementSum(byte[] content, int offset, int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i += 2) {
+            sum += ((content[i] & 0xff) << 8) | (content[i + 1] & 0xff);
+        }
+
+        return (sum & 0xffff) + (sum >> 16);
+    }
+
+    /**
+     * @return ethernet frame of an ip4 fragment from 10.0.0.1 to 10.0.0.2
+     */
+    private ByteBuffer ip4(int identification, int offset, boolean more, int from, int to) {
+        ByteBuffer frame = ByteBuffer.allocate(34 + to - from);
+
+        frame.put(new byte[12]).putShort((short) 0x0800);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + to - from)).putShort((short) identification)
+                .putShort((short) ((more ? 0x2000 : 0) | offset / 8))
+                .put((byte) 64).put((byte) 17).putShort((short) 0)
+                .put(new byte[]{10, 0, 0, 1}).put(new byte[]{10, 0, 0, 2});
+        frame.put(datagram, from, to - from);
+        frame.flip();
+
+        return frame;
+    }
+
+    /**
+     * @return ethernet frame of an ip6 fragment from fe80::1 to fe80::2
+     */
+    private ByteBuffer ip6(int offset, boolean more, int from, int to) {
+        ByteBuffer frame = ByteBuffer.allocate(62 + to - from);
+        byte[] source = new byte[16];
+        byte[] destination = new byte[16];
+        source[0] = destination[0] = (byte) 0xfe;
+        source[1] = destination[1] = (byte) 0x80;
+        source[15] = 1;
+        destination[15] = 2;
+
+        frame.put(new byte[12]).putShort((short) 0x86dd);
+        frame.putInt(0x60000000).putShort((short) (8 + to - from)).put((byte) 44).put((byte) 64)
+                .put(source).put(destination);
+        frame.put((byte) 17).put((byte) 0).putShort((short) (offset | (more ? 1 : 0))).putInt(0x1234);
+        frame.put(datagram, from, to - from);
+        frame.flip();
+
+        return frame;
+    }
+}
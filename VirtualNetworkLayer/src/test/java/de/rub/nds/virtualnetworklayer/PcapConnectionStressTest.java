@@ -0,0 +1,144 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Hundreds of loopback connections, each read by its own thread, while a single thread captures.
+ */
+public class PcapConnectionStressTest {
+    private static final int Connections = 256;
+    private static final int Segments = 32;
+    private static final int Timeout = 10000;
+    private static final long ServerIsn = 1000;
+
+    private static class Handler extends ConnectionHandler {
+        private Map<Integer, PcapConnection> connections = new ConcurrentHashMap<>();
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+            if (event == Event.New) {
+                connections.put(connection.getSession().getSourcePort(), connection);
+            }
+        }
+
+        void feed(PcapPacket packet) {
+            newPacket(packet);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentReaders() throws InterruptedException {
+        final Handler handler = new Handler();
+        final CountDownLatch done = new CountDownLatch(Connections);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        for (int i = 0; i < Connections; i++) {
+            handler.feed(segment(port(i), true, 0, 0x02, 0));
+        }
+        assertEquals(Connections, handler.connections.size());
+
+        for (int i = 0; i < Connections; i++) {
+            final PcapConnection connection = handler.connections.get(port(i));
+
+            new Thread() {
+                @Override
+                public void run() {
+                    long sequenceNumber = ServerIsn;
+
+                    for (int segment = 0; segment <= Segments; segment++) {
+                        PcapPacket packet = connection.await(Packet.Direction.Response, Timeout);
+                        if (packet == null) {
+                            failure.set(connection + " timed out at segment " + segment);
+                            break;
+                        }
+
+                        TcpHeader tcpHeader = packet.getHeader(TcpHeader.Id);
+                        if (tcpHeader.getSequenceNumber() != sequenceNumber) {
+                            failure.set(connection + " read " + tcpHeader.getSequenceNumber()
+                                    + " instead of " + sequenceNumber);
+                            break;
+                        }
+
+                        sequenceNumber = tcpHeader.getNextSequenceNumber();
+                        received.incrementAndGet();
+                    }
+
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // interleave connections and directions, as a capture thread would see them
+        for (int segment = 0; segment <= Segments; segment++) {
+            for (int i = 0; i < Connections; i++) {
+                if (segment == 0) {
+                    handler.feed(segment(port(i), false, ServerIsn, 0x12, 0));
+                } else {
+                    handler.feed(segment(port(i), true, 1, 0x10, 0));
+                    handler.feed(segment(port(i), false, ServerIsn + 1 + (segment - 1) * 8, 0x18, 8));
+                }
+            }
+        }
+
+        assertTrue(done.await(Timeout, TimeUnit.MILLISECONDS));
+        assertNull(failure.get(), failure.get());
+        assertEquals(Connections * (Segments + 1), received.get());
+    }
+
+    @Test(timeout = 10000)
+    public void timeout() {
+        Handler handler = new Handler();
+        handler.feed(segment(port(0), true, 0, 0x02, 0));
+        PcapConnection connection = handler.connections.get(port(0));
+
+        long start = System.nanoTime();
+        assertNull(connection.await(Packet.Direction.Response, 100));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("returned after " + elapsed + " ms", elapsed >= 100 && elapsed < 1000);
+        assertTrue(connection.awaitTrace(1, 100));
+    }
+
+    private static int port(int connection) {
+        return 20000 + connection;
+    }
+
+    /**
+     * @return ethernet frame of a tcp segment between 127.0.0.1:port and 127.0.0.1:7
+     */
+    private static PcapPacket segment(int port, boolean request, long sequenceNumber, int flags, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(54 + length);
+
+        frame.put(new byte[12]).putShort((short) 0x0800);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (40 + length)).putInt(0)
+                .put((byte) 64).put((byte) 6).putShort((short) 0)
+                .put(new byte[]{127, 0, 0, 1}).put(new byte[]{127, 0, 0, 1});
+        frame.putShort((short) (request ? port : 7)).putShort((short) (request ? 7 : port))
+                .putInt((int) sequenceNumber).putInt(0)
+                .put((byte) 0x50).put((byte) flags).putShort((short) 8192).putInt(0);
+        for (int i = 0; i < length; i++) {
+            frame.put((byte) 'x');
+        }
+        frame.flip();
+
+        return new PcapPacket(frame, 0, PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet));
+    }
+}
@@ -0,0 +1,93 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.pcap.PcapFileReader;
+import de.rub.nds.virtualnetworklayer.pcap.PcapHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class PcapFileReaderTest {
+    private static int count;
+
+    @Before
+    public void setUp() {
+        count = 0;
+    }
+
+    @Test
+    public void pcapHandler() {
+        File file = new File(getClass().getResource("httpsGoogle.pcap").getPath());
+        Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+
+        Pcap.Status status = pcap.loop(new PcapHandler() {
+            @Override
+            public void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
+                count++;
+            }
+        });
+
+        assertEquals(Pcap.Status.Success, status);
+        assertEquals(137, count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormat() {
+        File file = new File(getClass().getResource("PcapFileReaderTest.class").getPath());
+        Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+    }
+
+    /**
+     * Compares {@link PcapFileReader} with libpcap for all test dumps.
+     */
+    @Test
+    public void conformance() throws IOException {
+        File directory = new File(getClass().getResource("httpsGoogle.pcap").getPath()).getParentFile();
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".pcap");
+            }
+        });
+
+        for (File file : files) {
+            final List<PcapHandler.RawPacket> packets = new LinkedList<>();
+            final List<Pcap.DataLinkType> dataLinkTypes = new LinkedList<>();
+
+            Pcap pcap = Pcap.openOffline(file);
+            pcap.loop(new PcapHandler() {
+                @Override
+                protected void newByteBuffer(long timeStamp, int length, ByteBuffer byteBuffer) {
+                    packets.add(getCurrentRawPacket());
+                    dataLinkTypes.add(getDataLinkType());
+                }
+            });
+            pcap.close();
+
+            try (PcapFileReader reader = new PcapFileReader(file)) {
+                assertEquals(PcapFileReader.Format.Pcap, reader.getFormat());
+
+                PcapHandler.RawPacket rawPacket;
+                while ((rawPacket = reader.next()) != null) {
+                    PcapHandler.RawPacket packet = packets.remove(0);
+
+                    assertEquals(file.getName(), packet.getTimeStamp(), rawPacket.getTimeStamp());
+                    assertEquals(file.getName(), packet.getCaplen(), rawPacket.getCaplen());
+                    assertEquals(file.getName(), packet.getLen(), rawPacket.getLen());
+                    assertEquals(file.getName(), packet.getBytes(), rawPacket.getBytes());
+                    assertEquals(file.getName(), dataLinkTypes.remove(0), reader.getDataLinkType());
+                }
+            }
+
+            assertTrue(file.getName(), packets.isEmpty());
+        }
+    }
+}
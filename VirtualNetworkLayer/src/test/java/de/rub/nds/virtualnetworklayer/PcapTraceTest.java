@@ -0,0 +1,185 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapTrace;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.*;
+
+public class PcapTraceTest {
+    private static final int Payload = 8;
+
+    private static class Handler extends ConnectionHandler {
+        private long timeStamp = 0;
+        private long[] sequenceNumbers = {1000, 5000};
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+        }
+
+        /**
+         * Feeds the next in-order segment between 10.0.0.1:40000 and 10.0.0.2:80.
+         */
+        PcapPacket feed(boolean request) {
+            ByteBuffer frame = ByteBuffer.allocate(54 + Payload);
+            byte[] client = {10, 0, 0, 1};
+            byte[] server = {10, 0, 0, 2};
+            int direction = request ? 0 : 1;
+
+            frame.put(new byte[12]).putShort((short) 0x0800);
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) (40 + Payload)).putInt(0)
+                    .put((byte) 64).put((byte) 6).putShort((short) 0)
+                    .put(request ? client : server).put(request ? server : client);
+            frame.putShort((short) (request ? 40000 : 80)).putShort((short) (request ? 80 : 40000))
+                    .putInt((int) sequenceNumbers[direction]).putInt(0)
+                    .put((byte) 0x50).put((byte) 0x18).putShort((short) 8192).putInt(0);
+            frame.put(new byte[Payload]);
+            frame.flip();
+            sequenceNumbers[direction] += Payload;
+
+            PcapPacket packet = new PcapPacket(frame, timeStamp += 1000,
+                    PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet));
+            newPacket(packet);
+
+            return packet;
+        }
+
+        PcapTrace getTrace() {
+            return getConnections().get(0).getTrace();
+        }
+    }
+
+    private Handler handler;
+
+    @Before
+    public void setUp() {
+        handler = new Handler();
+    }
+
+    @Test
+    public void appendOnly() {
+        PcapPacket first = handler.feed(true);
+        PcapTrace trace = handler.getTrace();
+        Iterator<PcapPacket> snapshot = trace.getSequenceOrder();
+        Iterator<PcapPacket> arrivalSnapshot = trace.getArrivalOrder();
+
+        PcapPacket second = handler.feed(false);
+        assertSame(first, trace.get(0));
+        assertSame(second, trace.get(1));
+        assertEquals(2, trace.size());
+        assertEquals(2, trace.getArrivalCount());
+
+        // iterators only see the packets added before they were created
+        assertSame(first, snapshot.next());
+        assertFalse(snapshot.hasNext());
+        assertSame(first, arrivalSnapshot.next());
+        assertFalse(arrivalSnapshot.hasNext());
+
+        try {
+            trace.get(2);
+            fail("read behind end");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void directions() {
+        PcapPacket request = handler.feed(true);
+        PcapTrace trace = handler.getTrace();
+        assertSame(request, trace.getLast(Packet.Direction.Request));
+        assertSame(request, trace.getLast());
+
+        PcapPacket response = handler.feed(false);
+        handler.feed(false);
+        PcapPacket lastResponse = handler.feed(false);
+        assertSame(request, trace.getLast(Packet.Direction.Request));
+        assertSame(lastResponse, trace.getLast(Packet.Direction.Response));
+        assertEquals(Packet.Direction.Response, response.getDirection());
+
+        PcapPacket lastRequest = handler.feed(true);
+        assertSame(lastRequest, trace.getLast(Packet.Direction.Request));
+        assertSame(lastResponse, trace.getLast(Packet.Direction.Response));
+        assertSame(lastRequest, trace.getLast());
+        assertEquals(lastRequest.getTimeStamp(), trace.getLastTimeStamp());
+    }
+
+    @Test
+    public void cursors() {
+        handler.feed(true);
+        PcapTrace trace = handler.getTrace();
+        int sequencePosition = 0;
+        int arrivalPosition = 0;
+
+        for (int round = 1; round < 50; round++) {
+            for (int i = 0; i < round; i++) {
+                handler.feed(i % 3 == 0);
+            }
+
+            // continue where the last read stopped
+            int read = 0;
+            Iterator<PcapPacket> packets = trace.getSequenceOrder(sequencePosition);
+            while (packets.hasNext()) {
+                assertSame(trace.get(sequencePosition + read), packets.next());
+                read++;
+            }
+            sequencePosition += read;
+
+            Iterator<PcapPacket> arrivals = trace.getArrivalOrder(arrivalPosition);
+            while (arrivals.hasNext()) {
+                arrivals.next();
+                arrivalPosition++;
+            }
+
+            assertEquals(trace.size(), sequencePosition);
+            assertEquals(trace.getArrivalCount(), arrivalPosition);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentReader() throws InterruptedException {
+        final int packets = 20000;
+        handler.feed(true);
+        final PcapTrace trace = handler.getTrace();
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                int position = 0;
+                long timeStamp = Long.MIN_VALUE;
+
+                while (position < packets && failure.get() == null) {
+                    Iterator<PcapPacket> iterator = trace.getArrivalOrder(position);
+                    while (iterator.hasNext()) {
+                        PcapPacket packet = iterator.next();
+                        if (packet == null || packet.getTimeStamp() <= timeStamp) {
+                            failure.set("position " + position + ": " + packet);
+                            return;
+                        }
+                        timeStamp = packet.getTimeStamp();
+                        position++;
+                    }
+                }
+            }
+        };
+        reader.start();
+
+        for (int i = 1; i < packets; i++) {
+            handler.feed(i % 2 == 0);
+        }
+        reader.join();
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(packets, trace.size());
+    }
+}
@@ -0,0 +1,353 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.packet.FragmentReassembler;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip4Header;
+import de.rub.nds.virtualnetworklayer.packet.header.internet.Ip6Header;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.pcap.Pipeline;
+import de.rub.nds.virtualnetworklayer.util.formatter.IpFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+/**
+ * A dump of interleaved Ip4 and Ip6 flows, partly fragmented or truncated by the snapshot length,
+ * looped with several workers: every flow has to be handled by one worker in capture order.
+ */
+public class PipelineTest {
+    private static final int Workers = 4;
+    private static final int Ip4Flows = 32;
+    private static final int Ip6Flows = 16;
+    private static final int Segments = 16;
+    private static final int Payload = 32;
+    private static final int ServerPort = 443;
+
+    private static class Handler extends PacketHandler {
+        private ConcurrentHashMap<String, List<Thread>> threads = new ConcurrentHashMap<>();
+        private ConcurrentHashMap<String, List<Long>> timeStamps = new ConcurrentHashMap<>();
+
+        @Override
+        protected void newPacket(PcapPacket packet) {
+            Ip ipHeader = packet.hasHeader(Ip4Header.Id) ? (Ip) packet.getHeader(Ip4Header.Id) : (Ip) packet.getHeader(Ip6Header.Id);
+            String source = IpFormatter.toString(ipHeader.getSourceAddress());
+            String destination = IpFormatter.toString(ipHeader.getDestinationAddress());
+            String pair = source.compareTo(destination) < 0 ? source + " " + destination : destination + " " + source;
+
+            record(threads, pair, Thread.currentThread());
+            record(timeStamps, pair, packet.getTimeStamp());
+        }
+    }
+
+    private static class FlowHandler extends ConnectionHandler {
+        private ConcurrentHashMap<PcapConnection, List<Thread>> threads = new ConcurrentHashMap<>();
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+            record(threads, connection, Thread.currentThread());
+        }
+    }
+
+    private static <K, V> void record(ConcurrentHashMap<K, List<V>> map, K key, V value) {
+        List<V> values = map.get(key);
+        if (values == null) {
+            map.putIfAbsent(key, Collections.synchronizedList(new ArrayList<V>()));
+            values = map.get(key);
+        }
+
+        values.add(value);
+    }
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("pipeline", ".pcap");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test(timeout = 60000)
+    public void addressPairAffinity() throws IOException {
+        writeCapture(file, false);
+
+        Handler handler = new Handler();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler, false, Workers));
+
+        assertEquals(Ip4Flows + Ip6Flows, handler.threads.size());
+        Set<Thread> workers = new HashSet<>();
+        for (Map.Entry<String, List<Thread>> entry : handler.threads.entrySet()) {
+            Set<Thread> threads = new HashSet<>(entry.getValue());
+            assertEquals(entry.getKey() + " handled by " + threads, 1, threads.size());
+            workers.addAll(threads);
+
+            assertIncreasing(entry.getKey(), handler.timeStamps.get(entry.getKey()).iterator());
+        }
+        assertTrue("flows not sharded", workers.size() > 1);
+    }
+
+    @Test(timeout = 60000)
+    public void connectionAffinity() throws IOException {
+        writeCapture(file, false);
+
+        FlowHandler handler = new FlowHandler();
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler, false, Workers));
+
+        int flows = 0;
+        for (Map.Entry<PcapConnection, List<Thread>> entry : handler.threads.entrySet()) {
+            PcapConnection connection = entry.getKey();
+            Set<Thread> threads = new HashSet<>(entry.getValue());
+            assertEquals(connection + " handled by " + threads, 1, threads.size());
+
+            List<Long> timeStamps = new ArrayList<>();
+            Iterator<PcapPacket> packets = connection.getTrace().getArrivalOrder();
+            while (packets.hasNext()) {
+                timeStamps.add(packets.next().getTimeStamp());
+            }
+            assertIncreasing(connection.toString(), timeStamps.iterator());
+
+            SocketSession session = connection.getSession();
+            if (session.getSourcePort() == ServerPort || session.getDestinationPort() == ServerPort) {
+                // whole segments, first fragments and truncated segments
+                assertEquals(connection.toString(), Segments, timeStamps.size());
+                flows++;
+            }
+        }
+        assertEquals(Ip4Flows + Ip6Flows, flows);
+    }
+
+    @Test(timeout = 60000)
+    public void reassembledOnFlowWorker() throws IOException {
+        writeCapture(file, true);
+
+        FlowHandler handler = new FlowHandler();
+        handler.setFragmentReassembler(new FragmentReassembler());
+        assertEquals(Pcap.Status.Success, Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler, false, Workers));
+
+        assertEquals(Ip4Flows + Ip6Flows, handler.threads.size());
+        for (Map.Entry<PcapConnection, List<Thread>> entry : handler.threads.entrySet()) {
+            PcapConnection connection = entry.getKey();
+            Set<Thread> threads = new HashSet<>(entry.getValue());
+            assertEquals(connection + " handled by " + threads, 1, threads.size());
+
+            int reassembled = 0;
+            List<Long> timeStamps = new ArrayList<>();
+            Iterator<PcapPacket> packets = connection.getTrace().getArrivalOrder();
+            while (packets.hasNext()) {
+                PcapPacket packet = packets.next();
+                timeStamps.add(packet.getTimeStamp());
+                reassembled += packet.isReassembled() ? 1 : 0;
+            }
+            assertIncreasing(connection.toString(), timeStamps.iterator());
+            assertEquals(connection.toString(), Segments, timeStamps.size());
+            assertEquals(connection.toString(), Segments / 4, reassembled);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void errorInHandler() throws IOException {
+        int frames = writeCapture(file, false);
+
+        final AtomicInteger calls = new AtomicInteger();
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            protected void newPacket(PcapPacket packet) {
+                if (calls.incrementAndGet() <= Workers) {
+                    throw new StackOverflowError();
+                }
+            }
+        };
+        Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+        assertEquals(Pcap.Status.Success, pcap.loop(handler, false, Workers));
+
+        // the workers survive errors and deliver every frame
+        assertEquals(frames, calls.get());
+        assertEquals(0, pcap.getPipeline().getDropped());
+    }
+
+    @Test(timeout = 60000)
+    public void terminatedWorker() throws IOException {
+        // one address pair, more frames than its shard can queue
+        List<ByteBuffer> records = new ArrayList<>();
+        for (int segment = 0; segment < 3 * Pipeline.DefaultCapacity; segment++) {
+            byte[] tcp = tcp(0, true, segment);
+            records.add(ip(0, true, segment, tcp, 0, tcp.length, false));
+        }
+        int frames = writeRecords(file, records);
+
+        final AtomicInteger calls = new AtomicInteger();
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            protected void newPacket(PcapPacket packet) {
+                calls.incrementAndGet();
+                // the worker terminates, when it waits for the next frames
+                Thread.currentThread().interrupt();
+            }
+        };
+        Pcap pcap = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+        assertEquals(Pcap.Status.Success, pcap.loop(handler, false, Workers));
+
+        // the blocking capture did not wait for the terminated worker
+        long dropped = pcap.getPipeline().getDropped();
+        assertTrue(dropped > 0);
+        assertEquals(frames, calls.get() + dropped);
+    }
+
+    private static void assertIncreasing(String flow, Iterator<Long> timeStamps) {
+        long previous = Long.MIN_VALUE;
+        while (timeStamps.hasNext()) {
+            long timeStamp = timeStamps.next();
+            assertTrue(flow + " reordered", timeStamp > previous);
+            previous = timeStamp;
+        }
+    }
+
+    /**
+     * Writes all flows interleaved, every segment alternates direction and is sent whole,
+     * as two fragments (the first one with transport header), or truncated to its transport header.
+     * Every record has its own time stamp.
+     *
+     * @param ip6Fragments if true, Ip6 segments are fragmented too
+     */
+    private static int writeCapture(File file, boolean ip6Fragments) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>();
+
+        for (int segment = 0; segment < Segments; segment++) {
+            for (int flow = 0; flow < Ip4Flows + Ip6Flows; flow++) {
+                boolean ip6 = flow >= Ip4Flows;
+                boolean request = segment % 2 == 0;
+                byte[] tcp = tcp(flow, request, segment);
+
+                switch (segment % 4) {
+                    case 1:
+                        if (!ip6 || ip6Fragments) {
+                            int split = 24;
+                            records.add(ip(flow, request, segment, tcp, 0, split, true));
+                            records.add(ip(flow, request, segment, tcp, split, tcp.length, false));
+                            break;
+                        }
+                    case 0:
+                    case 3:
+                        records.add(ip(flow, request, segment, tcp, 0, tcp.length, false));
+                        break;
+                    case 2:
+                        ByteBuffer frame = ip(flow, request, segment, tcp, 0, tcp.length, false);
+                        // snapshot length cuts the payload
+                        frame.limit(frame.limit() - Payload);
+                        records.add(frame);
+                        break;
+                }
+            }
+        }
+
+        return writeRecords(file, records);
+    }
+
+    /**
+     * @return number of records written
+     */
+    private static int writeRecords(File file, List<ByteBuffer> records) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(24);
+            header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                    .putInt(65535).putInt(1);
+            out.write(header.array());
+
+            int timeStamp = 0;
+            for (ByteBuffer frame : records) {
+                ByteBuffer record = ByteBuffer.allocate(16 + frame.limit());
+                record.putInt(0).putInt(timeStamp++).putInt(frame.limit()).putInt(frame.capacity());
+                record.put(frame.array(), 0, frame.limit());
+                out.write(record.array());
+            }
+        } finally {
+            out.close();
+        }
+
+        return records.size();
+    }
+
+    /**
+     * @return tcp segment between client port 40000 + flow and {@link #ServerPort}, checksums are not set
+     */
+    private static byte[] tcp(int flow, boolean request, int segment) {
+        ByteBuffer tcp = ByteBuffer.allocate(20 + Payload);
+        int clientPort = 40000 + flow;
+
+        tcp.putShort((short) (request ? clientPort : ServerPort)).putShort((short) (request ? ServerPort : clientPort))
+                .putInt(1 + segment / 2 * Payload).putInt(0)
+                .put((byte) 0x50).put((byte) 0x18).putShort((short) 8192).putInt(0);
+        for (int i = 0; i < Payload; i++) {
+            tcp.put((byte) 'x');
+        }
+
+        return tcp.array();
+    }
+
+    /**
+     * @return ethernet frame of tcp[from, to), a fragment, unless it covers all of tcp
+     */
+    private static ByteBuffer ip(int flow, boolean request, int segment, byte[] tcp, int from, int to, boolean more) {
+        boolean fragment = from > 0 || to < tcp.length;
+
+        if (flow < Ip4Flows) {
+            byte[] client = {10, 0, (byte) (flow >> 8), (byte) (flow + 1)};
+            byte[] server = {10, 1, 0, 1};
+
+            ByteBuffer frame = ByteBuffer.allocate(34 + to - from);
+            frame.put(new byte[12]).putShort((short) 0x0800);
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + to - from)).putShort((short) segment)
+                    .putShort((short) ((more ? 0x2000 : 0) | from / 8))
+                    .put((byte) 64).put((byte) 6).putShort((short) 0)
+                    .put(request ? client : server).put(request ? server : client);
+            frame.put(tcp, from, to - from);
+
+            return frame;
+        }
+
+        byte[] client = new byte[16];
+        byte[] server = new byte[16];
+        client[0] = server[0] = (byte) 0x20;
+        client[1] = server[1] = (byte) 0x01;
+        client[14] = (byte) (flow >> 8);
+        client[15] = (byte) flow;
+        server[15] = 1;
+
+        ByteBuffer frame = ByteBuffer.allocate(54 + (fragment ? 8 : 0) + to - from);
+        frame.put(new byte[12]).putShort((short) 0x86dd);
+        frame.putInt(0x60000000).putShort((short) ((fragment ? 8 : 0) + to - from))
+                .put((byte) (fragment ? 44 : 6)).put((byte) 64)
+                .put(request ? client : server).put(request ? server : client);
+        if (fragment) {
+            frame.put((byte) 6).put((byte) 0).putShort((short) (from | (more ? 1 : 0))).putInt(segment);
+        }
+        frame.put(tcp, from, to - from);
+
+        return frame;
+    }
+}
@@ -0,0 +1,85 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.pcap.PcapHandler;
+import de.rub.nds.virtualnetworklayer.pcap.RawPacketRing;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class RawPacketRingTest {
+
+    @Test
+    public void flowLimits() {
+        RawPacketRing ring = new RawPacketRing(4096);
+        ring.setFlowLimits(3, 0);
+
+        RawPacketRing.Flow flow = ring.newFlow();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i < 3, flow.add(i, 10, 60, frame(i, 10)));
+        }
+        assertEquals(3, flow.size());
+        assertEquals(2, ring.getDropped());
+
+        RawPacketRing.Flow bytes = ring.newFlow();
+        bytes.setLimits(0, 25);
+        assertTrue(bytes.add(0, 10, 10, frame(0, 10)));
+        assertTrue(bytes.add(1, 15, 15, frame(1, 15)));
+        assertFalse(bytes.add(2, 1, 1, frame(2, 1)));
+
+        bytes.clear();
+        assertEquals(0, bytes.size());
+        assertTrue(bytes.add(3, 10, 10, frame(3, 10)));
+    }
+
+    @Test
+    public void evictOldest() {
+        Random random = new Random(18);
+        RawPacketRing ring = new RawPacketRing(1000);
+        List<RawPacketRing.Flow> flows = new ArrayList<>();
+        List<List<Integer>> added = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            flows.add(ring.newFlow());
+            added.add(new LinkedList<Integer>());
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            int flow = random.nextInt(flows.size());
+            int caplen = 1 + random.nextInt(100);
+
+            assertTrue(flows.get(flow).add(i, caplen, caplen, frame(i, caplen)));
+            added.get(flow).add(i);
+            assertTrue(ring.getRetainedBytes() <= ring.getCapacity());
+
+            // every flow keeps its newest packets, in order and intact
+            List<PcapHandler.RawPacket> packets = flows.get(flow).toList();
+            List<Integer> expected = added.get(flow).subList(added.get(flow).size() - packets.size(), added.get(flow).size());
+            for (int j = 0; j < packets.size(); j++) {
+                PcapHandler.RawPacket packet = packets.get(j);
+                assertEquals((long) expected.get(j), packet.getTimeStamp());
+                assertEquals(frame((int) packet.getTimeStamp(), packet.getCaplen()), packet.getBytes());
+            }
+            assertTrue(packets.size() > 0);
+        }
+
+        assertTrue(ring.getEvicted() > 0);
+        assertEquals(0, ring.getDropped());
+        assertFalse(ring.newFlow().add(0, 1000, 1000, frame(0, 1000)));
+    }
+
+    private static ByteBuffer frame(int seed, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            frame.put((byte) (seed + i));
+        }
+        frame.flip();
+
+        return frame;
+    }
+}
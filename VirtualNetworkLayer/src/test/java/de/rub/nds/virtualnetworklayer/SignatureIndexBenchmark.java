@@ -0,0 +1,184 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprint;
+import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprints;
+import de.rub.nds.virtualnetworklayer.fingerprint.SignatureIndex;
+import de.rub.nds.virtualnetworklayer.p0f.Group;
+import de.rub.nds.virtualnetworklayer.p0f.Label;
+import de.rub.nds.virtualnetworklayer.p0f.P0fFile;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.TcpHeader;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import de.rub.nds.virtualnetworklayer.util.Util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares p0f lookups in one {@link HashMap} per label type (exact, then fuzzy with matching hash code)
+ * with {@link SignatureIndex}, using the tcp and mtu signatures observed in the test captures.
+ * <p>
+ * Run with {@code main}, optional argument is the number of lookups per round.
+ */
+public class SignatureIndexBenchmark {
+    private static final int Rounds = 10;
+
+    /**
+     * Signature with the hash code it had up to now: options layout of tcp signatures, values otherwise.
+     */
+    private static class LegacyKey {
+        private final Fingerprint.Signature signature;
+
+        private LegacyKey(Fingerprint.Signature signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LegacyKey && signature.equals(((LegacyKey) o).signature);
+        }
+
+        @Override
+        public int hashCode() {
+            List<TcpHeader.Option> optionsLayout = signature.getSign("optionsLayout");
+            if (optionsLayout != null) {
+                return Util.enumHashCode(optionsLayout);
+            }
+
+            return Arrays.hashCode(signature.getSigns().values().toArray());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        List<Fingerprint.Signature> observed = getObservedSignatures();
+
+        Map<LegacyKey, Label>[] maps = createMaps();
+        SignatureIndex index = new SignatureIndex(0, "direction", "version", "optionsLayout", "windowSize", "mtu");
+        SignatureIndex cachedIndex = new SignatureIndex("direction", "version", "optionsLayout", "windowSize", "mtu");
+
+        P0fFile file = new P0fFile(P0fFile.class.getResourceAsStream("p0f.fp"));
+        for (Group group : file.getGroups()) {
+            for (Fingerprint.Signature signature : group.getSignatures()) {
+                Map<LegacyKey, Label> map = maps[group.getLabel().getType().ordinal()];
+                LegacyKey key = new LegacyKey(signature);
+                if (!map.containsKey(key)) {
+                    map.put(key, group.getLabel());
+                }
+
+                try {
+                    index.register(signature, group.getLabel());
+                    cachedIndex.register(signature, group.getLabel());
+                } catch (IllegalArgumentException e) {
+                    // doubles are skipped, as by ConnectionHandler
+                }
+            }
+        }
+
+        int legacyKnown = 0;
+        int indexKnown = 0;
+        for (Fingerprint.Signature signature : observed) {
+            Label legacy = lookupLegacy(maps, signature);
+            Label label = index.lookup(signature).getLabel();
+
+            legacyKnown += legacy != null ? 1 : 0;
+            indexKnown += label != null ? 1 : 0;
+            if (legacy != null && label != null && !legacy.toString().equals(label.toString())) {
+                System.out.println("differs: HashMap " + legacy + ", SignatureIndex " + label);
+            }
+        }
+
+        System.out.println(index.size() + " signatures, " + observed.size() + " observed, labeled: HashMap "
+                + legacyKnown + ", SignatureIndex " + indexKnown);
+
+        for (int round = 0; round < Rounds; round++) {
+            long sum = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                sum += lookupLegacy(maps, observed.get(i % observed.size())) != null ? 1 : 0;
+            }
+            long hashMap = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                sum += index.lookup(observed.get(i % observed.size())).getLabel() != null ? 1 : 0;
+            }
+            long uncached = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                sum += cachedIndex.lookup(observed.get(i % observed.size())).getLabel() != null ? 1 : 0;
+            }
+            long cached = System.nanoTime() - start;
+
+            System.out.printf("round %d: HashMap %.0f, SignatureIndex %.0f, cached %.0f lookups/ms (%d)%n", round,
+                    lookups * 1e6 / hashMap, lookups * 1e6 / uncached, lookups * 1e6 / cached, sum);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<LegacyKey, Label>[] createMaps() {
+        Map<LegacyKey, Label>[] maps = (Map<LegacyKey, Label>[]) new Map<?, ?>[Label.Type.values().length];
+        for (int i = 0; i < maps.length; i++) {
+            maps[i] = new HashMap<>();
+        }
+
+        return maps;
+    }
+
+    /**
+     * Lookup as done by ConnectionHandler up to now.
+     */
+    private static Label lookupLegacy(Map<LegacyKey, Label>[] maps, Fingerprint.Signature signature) {
+        LegacyKey key = new LegacyKey(signature);
+        signature.setFuzzy(false);
+
+        for (Map<LegacyKey, Label> map : maps) {
+            if (map.containsKey(key)) {
+                return map.get(key);
+            }
+
+            signature.setFuzzy(true);
+            if (map.containsKey(key)) {
+                return map.get(key);
+            }
+        }
+
+        return null;
+    }
+
+    private static List<Fingerprint.Signature> getObservedSignatures() {
+        final List<Fingerprint.Signature> observed = new ArrayList<>();
+        File[] files = new File(SignatureIndexBenchmark.class.getResource("tcpHandshake.pcap").getPath()).getParentFile().listFiles();
+
+        for (File file : files) {
+            if (!file.getName().endsWith(".pcap")) {
+                continue;
+            }
+
+            ConnectionHandler handler = new ConnectionHandler.Quiet();
+            Pcap.openOffline(file, Pcap.OfflineReader.Mapped).loop(handler);
+
+            for (PcapConnection connection : handler.getConnections()) {
+                for (Packet.Direction direction : Packet.Direction.values()) {
+                    for (Fingerprints print : new Fingerprints[]{Fingerprints.Tcp, Fingerprints.Mtu}) {
+                        Fingerprint.Signature signature = connection.getSignature(direction, print);
+                        if (signature != null) {
+                            observed.add(signature);
+                        }
+                    }
+                }
+            }
+        }
+
+        return observed;
+    }
+}
@@ -0,0 +1,85 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.fingerprint.Fingerprint;
+import de.rub.nds.virtualnetworklayer.fingerprint.SignatureIndex;
+import de.rub.nds.virtualnetworklayer.p0f.Label;
+import de.rub.nds.virtualnetworklayer.p0f.signature.TCPSignature;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class SignatureIndexTest {
+    private static final String Tru64 = "4:64:0:1460:mss*25,0:mss:df,id+:0";
+    // df disappeared, which still matches fuzzy
+    private static final String Tru64WithoutDf = "4:64:0:1460:mss*25,0:mss:id+:0";
+
+    private SignatureIndex index;
+
+    @Before
+    public void setUp() {
+        index = new SignatureIndex("version", "optionsLayout", "windowSize");
+        index.register(new TCPSignature(Tru64), new Label("s:unix:Tru64:"));
+    }
+
+    @Test
+    public void exact() {
+        SignatureIndex.Match match = index.lookup(Fingerprint.intern(new TCPSignature(Tru64)));
+
+        assertEquals("Tru64", match.getLabel().getName());
+        assertFalse(match.isFuzzy());
+    }
+
+    @Test
+    public void fuzzyLeavesSignatureUnchanged() {
+        Fingerprint.Signature signature = Fingerprint.intern(new TCPSignature(Tru64WithoutDf));
+
+        for (int i = 0; i < 2; i++) {
+            SignatureIndex.Match match = index.lookup(signature);
+
+            assertEquals("Tru64", match.getLabel().getName());
+            assertTrue(match.isFuzzy());
+            assertFalse(signature.isFuzzy());
+        }
+        assertEquals(1, index.getCacheHits());
+
+        Fingerprint.Signature fuzzy = signature.toFuzzy();
+        assertNotSame(signature, fuzzy);
+        assertTrue(fuzzy.isFuzzy());
+        assertEquals(signature.getSigns(), fuzzy.getSigns());
+        assertEquals(signature.getQuirks(), fuzzy.getQuirks());
+        assertSame(fuzzy, fuzzy.toFuzzy());
+        assertSame(signature, Fingerprint.intern(new TCPSignature(Tru64WithoutDf)));
+    }
+
+    @Test
+    public void cachePerThread() throws InterruptedException {
+        final Fingerprint.Signature signature = Fingerprint.intern(new TCPSignature(Tru64WithoutDf));
+        assertTrue(index.lookup(signature).isFuzzy());
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                index.lookup(signature);
+                index.register(new TCPSignature(Tru64WithoutDf), new Label("s:unix:Tru64 without df:"));
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(2, index.getCacheMisses());
+        assertEquals(0, index.getCacheHits());
+
+        // registered by the other thread, invalidates the cache of this one
+        SignatureIndex.Match match = index.lookup(signature);
+        assertEquals("Tru64 without df", match.getLabel().getName());
+        assertFalse(match.isFuzzy());
+    }
+
+    @Test
+    public void unknown() {
+        SignatureIndex.Match match = index.lookup(new TCPSignature("6:64:0:1460:mss*25,0:mss:df,id+:0"));
+
+        assertNull(match.getLabel());
+        assertTrue(match.isFuzzy());
+    }
+}
@@ -0,0 +1,163 @@
+package de.rub.nds.virtualnetworklayer;
+
+import de.rub.nds.virtualnetworklayer.connection.pcap.ConnectionHandler;
+import de.rub.nds.virtualnetworklayer.connection.pcap.PcapConnection;
+import de.rub.nds.virtualnetworklayer.connection.pcap.TcpReassembler;
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class TcpReassemblerTest {
+    private static final long Isn = 0xfffffffaL;
+
+    private static class Handler extends ConnectionHandler {
+
+        @Override
+        public void newConnection(Event event, PcapConnection connection) {
+        }
+
+        void feed(PcapPacket packet) {
+            newPacket(packet);
+        }
+    }
+
+    private Handler handler;
+    private StringBuilder stream;
+    private StringBuilder gaps;
+    private List<ByteBuffer> data;
+
+    @Before
+    public void setUp() {
+        handler = new Handler();
+        stream = new StringBuilder();
+        gaps = new StringBuilder();
+        data = new ArrayList<>();
+
+        handler.setStreamListener(new TcpReassembler.Listener() {
+            @Override
+            public void newData(PcapConnection connection, Packet.Direction direction, long offset, ByteBuffer data) {
+                assertEquals(stream.length() + gaps.length(), offset);
+                TcpReassemblerTest.this.data.add(data);
+                stream.append(StandardCharsets.US_ASCII.decode(data));
+            }
+
+            @Override
+            public void newGap(PcapConnection connection, Packet.Direction direction, long offset, long length) {
+                for (int i = 0; i < length; i++) {
+                    gaps.append('?');
+                }
+            }
+        });
+    }
+
+    @Test
+    public void outOfOrderWraparound() {
+        handler.feed(segment(Isn, 0x02, ""));
+        handler.feed(segment(Isn + 7, 0x18, "ghi"));
+        handler.feed(segment(Isn + 5, 0x18, "efgh"));
+        handler.feed(segment(Isn + 1, 0x18, "abcd"));
+        handler.feed(segment(Isn + 10, 0x19, "jkl"));
+
+        assertEquals("abcdefghijkl", stream.toString());
+        assertEquals(0, handler.getBufferedStreamBytes());
+        assertTrue(getReassembler().isFinished());
+    }
+
+    @Test
+    public void overlapFirst() {
+        feedOverlapping();
+
+        assertEquals("....xxxxyy", stream.toString());
+    }
+
+    @Test
+    public void overlapLast() {
+        handler.setOverlap(TcpReassembler.Overlap.Last);
+        feedOverlapping();
+
+        assertEquals("....xxyyyy", stream.toString());
+    }
+
+    @Test
+    public void budget() {
+        handler.setStreamBudget(4, 1024);
+
+        handler.feed(segment(Isn, 0x02, ""));
+        handler.feed(segment(Isn + 5, 0x18, "efgh"));
+        assertEquals(4, handler.getBufferedStreamBytes());
+
+        handler.feed(segment(Isn + 13, 0x18, "mnop"));
+        assertEquals("????", gaps.toString());
+        assertEquals("efgh", stream.toString());
+        assertEquals(4, getReassembler().getBufferedBytes());
+        assertEquals(4, handler.getBufferedStreamBytes());
+
+        for (PcapConnection connection : handler.getConnections()) {
+            connection.release();
+        }
+        assertEquals(0, handler.getBufferedStreamBytes());
+    }
+
+    @Test
+    public void zeroCopy() {
+        // frames shorter than their buffer, like pooled ones, are copied by getContent()
+        PcapPacket syn = segment(Isn, 0x02, "", 16);
+        PcapPacket second = segment(Isn + 5, 0x18, "efgh", 16);
+        PcapPacket first = segment(Isn + 1, 0x18, "abcd", 16);
+        handler.feed(syn);
+        handler.feed(second);
+        handler.feed(first);
+
+        assertEquals("abcdefgh", stream.toString());
+        assertEquals(2, data.size());
+        assertSame(first.getContent(0, 0).array(), data.get(0).array());
+        assertSame(second.getContent(0, 0).array(), data.get(1).array());
+    }
+
+    private void feedOverlapping() {
+        handler.feed(segment(Isn, 0x02, ""));
+        handler.feed(segment(Isn + 5, 0x18, "xxxx"));
+        handler.feed(segment(Isn + 7, 0x18, "yyyy"));
+        handler.feed(segment(Isn + 1, 0x18, "...."));
+    }
+
+    private TcpReassembler getReassembler() {
+        return handler.getConnections().get(0).getReassembler(Packet.Direction.Request);
+    }
+
+    /**
+     * @return ethernet frame of a tcp segment from 10.0.0.1:1000 to 10.0.0.2:80
+     */
+    private static PcapPacket segment(long sequenceNumber, int flags, String payload) {
+        return segment(sequenceNumber, flags, payload, 0);
+    }
+
+    /**
+     * @param slack unused bytes at the end of the frame's buffer
+     */
+    private static PcapPacket segment(long sequenceNumber, int flags, String payload, int slack) {
+        byte[] data = payload.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer frame = ByteBuffer.allocate(54 + data.length + slack);
+
+        frame.put(new byte[12]).putShort((short) 0x0800);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) (40 + data.length)).putInt(0)
+                .put((byte) 64).put((byte) 6).putShort((short) 0)
+                .put(new byte[]{10, 0, 0, 1}).put(new byte[]{10, 0, 0, 2});
+        frame.putShort((short) 1000).putShort((short) 80).putInt((int) sequenceNumber).putInt(0)
+                .put((byte) 0x50).put((byte) flags).putShort((short) 8192).putInt(0);
+        frame.put(data);
+        frame.flip();
+
+        return new PcapPacket(frame, 0, PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet));
+    }
+}
@@ -0,0 +1,231 @@
+package de.rub.nds.virtualnetworklayer.connection.pcap;
+
+import de.rub.nds.virtualnetworklayer.packet.Packet;
+import de.rub.nds.virtualnetworklayer.packet.PacketHandler;
+import de.rub.nds.virtualnetworklayer.packet.PcapPacket;
+import de.rub.nds.virtualnetworklayer.packet.header.transport.SocketSession;
+import de.rub.nds.virtualnetworklayer.pcap.Device;
+import de.rub.nds.virtualnetworklayer.pcap.Pcap;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+/**
+ * The filter of a multiplexer has to be recompiled exactly when the first connection to an endpoint
+ * is registered or the last one is unregistered, the handle is opened and closed with the first and
+ * last connection.
+ */
+public class CaptureMultiplexerTest {
+    private static final byte[] Local = {10, 0, 0, 1};
+    private static final byte[] Remote = {10, 0, 0, 2};
+    private static final byte[] OtherRemote = {10, 0, 0, 3};
+
+    private static final String RemoteClause = "(tcp and host 10.0.0.2 and port 443)";
+    private static final String OtherRemoteClause = "(tcp and host 10.0.0.3 and port 80)";
+
+    /**
+     * Records handle operations instead of capturing live, unless a live handle is given.
+     */
+    private static class Multiplexer extends CaptureMultiplexer {
+        private List<String> operations = new ArrayList<>();
+        private boolean failing;
+        private Pcap live;
+
+        Multiplexer() {
+            super(Device.Any);
+        }
+
+        @Override
+        void open(String filter) {
+            if (failing) {
+                throw new IllegalArgumentException("no such device");
+            }
+            operations.add("open " + filter);
+
+            if (live != null) {
+                super.open(filter);
+            }
+        }
+
+        @Override
+        Pcap openLive() {
+            return live;
+        }
+
+        @Override
+        void compile(String filter) {
+            operations.add("compile " + filter);
+        }
+
+        @Override
+        void close() {
+            operations.add("close");
+
+            if (live != null) {
+                super.close();
+            }
+        }
+    }
+
+    @Test
+    public void firstAndLastRegistration() {
+        Multiplexer multiplexer = new Multiplexer();
+        assertFalse(multiplexer.isOpen());
+
+        PcapConnection first = multiplexer.register(new SocketSession(Local, Remote, 40000, 443));
+        assertTrue(multiplexer.isOpen());
+        assertEquals(RemoteClause, multiplexer.getFilter());
+        assertEquals(1, multiplexer.getCompilations());
+
+        // same endpoint, the filter already matches
+        PcapConnection second = multiplexer.register(new SocketSession(Local, Remote, 40001, 443));
+        assertNotSame(first, second);
+        assertEquals(2, multiplexer.getConnectionCount());
+        assertEquals(1, multiplexer.getCompilations());
+
+        // registering a connection twice changes nothing
+        assertSame(first, multiplexer.register(new SocketSession(Local, Remote, 40000, 443)));
+        assertEquals(2, multiplexer.getConnectionCount());
+
+        PcapConnection other = multiplexer.register(new SocketSession(Local, OtherRemote, 40002, 80));
+        assertEquals(RemoteClause + " or " + OtherRemoteClause, multiplexer.getFilter());
+        assertEquals(2, multiplexer.getCompilations());
+
+        // endpoint still has a connection
+        multiplexer.unregister(first);
+        multiplexer.unregister(first);
+        assertEquals(2, multiplexer.getConnectionCount());
+        assertEquals(2, multiplexer.getCompilations());
+
+        multiplexer.unregister(second);
+        assertEquals(OtherRemoteClause, multiplexer.getFilter());
+        assertEquals(3, multiplexer.getCompilations());
+        assertTrue(multiplexer.isOpen());
+
+        multiplexer.unregister(other);
+        assertFalse(multiplexer.isOpen());
+        assertEquals("", multiplexer.getFilter());
+        assertEquals(0, multiplexer.getConnectionCount());
+
+        List<String> expected = new ArrayList<>();
+        expected.add("open " + RemoteClause);
+        expected.add("compile " + RemoteClause + " or " + OtherRemoteClause);
+        expected.add("compile " + OtherRemoteClause);
+        expected.add("close");
+        assertEquals(expected, multiplexer.operations);
+
+        // the next registration opens the handle again
+        multiplexer.register(new SocketSession(Local, Remote, 40003, 443));
+        assertTrue(multiplexer.isOpen());
+        assertEquals("open " + RemoteClause, multiplexer.operations.get(4));
+    }
+
+    @Test
+    public void failedOpen() {
+        Multiplexer multiplexer = new Multiplexer();
+        multiplexer.failing = true;
+
+        try {
+            multiplexer.register(new SocketSession(Local, Remote, 40000, 443));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        assertFalse(multiplexer.isOpen());
+        assertEquals(0, multiplexer.getConnectionCount());
+        assertEquals(0, multiplexer.getCompilations());
+
+        // nothing was left registered, so the same endpoint opens the handle once it is available
+        multiplexer.failing = false;
+        multiplexer.register(new SocketSession(Local, Remote, 40000, 443));
+        assertEquals(RemoteClause, multiplexer.getFilter());
+        assertEquals(1, multiplexer.operations.size());
+    }
+
+    @Test
+    public void failedFilter() {
+        Multiplexer multiplexer = new Multiplexer();
+        // a mapped dump does not support filters
+        File file = new File(getClass().getResource("/de/rub/nds/virtualnetworklayer/tcpHandshake.pcap").getPath());
+        multiplexer.live = Pcap.openOffline(file, Pcap.OfflineReader.Mapped);
+
+        try {
+            multiplexer.register(new SocketSession(Local, Remote, 40000, 443));
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+
+        List<String> expected = new ArrayList<>();
+        expected.add("open " + RemoteClause);
+        expected.add("close");
+        assertEquals(expected, multiplexer.operations);
+        assertFalse(multiplexer.isOpen());
+        assertEquals(0, multiplexer.getConnectionCount());
+    }
+
+    @Test
+    public void unregisterExpired() {
+        Multiplexer multiplexer = new Multiplexer();
+        PcapConnection connection = multiplexer.register(new SocketSession(Local, Remote, 40000, 443));
+        multiplexer.register(new SocketSession(Local, OtherRemote, 40002, 80));
+
+        feed(multiplexer, Remote, 443, Local, 40000, 1, 0);
+        feed(multiplexer, OtherRemote, 80, Local, 40002, 1, 200 * 1000000000L);
+
+        assertEquals(1, multiplexer.getConnectionCount());
+        assertEquals(OtherRemoteClause, multiplexer.getFilter());
+
+        // unregistering an expired connection again changes nothing
+        multiplexer.unregister(connection);
+        assertEquals(1, multiplexer.getConnectionCount());
+
+        // the remaining connection expires too, which closes the handle
+        feed(multiplexer, Remote, 443, Local, 40001, 1, 400 * 1000000000L);
+        assertFalse(multiplexer.isOpen());
+        assertEquals("close", multiplexer.operations.get(multiplexer.operations.size() - 1));
+    }
+
+    @Test
+    public void readAfterExpiry() throws IOException {
+        Multiplexer multiplexer = new Multiplexer();
+        PcapConnection connection = multiplexer.register(new SocketSession(Local, Remote, 40000, 443));
+        connection.socket = new Socket();
+
+        feed(multiplexer, Remote, 443, Local, 40000, 1, 0);
+        feed(multiplexer, Remote, 443, Local, 40000, 2, 1000000000L);
+        assertEquals(2, connection.getTrace().size());
+
+        // another flow expires the idle connection
+        feed(multiplexer, OtherRemote, 80, Local, 40002, 1, 200 * 1000000000L);
+        assertFalse(multiplexer.handler.getConnections().contains(connection));
+
+        // the trace is kept for its owner
+        assertEquals(2, connection.getTrace().size());
+        PcapPacket packet = connection.read(0);
+        assertSame(connection.getTrace().get(1), packet);
+        assertEquals(Packet.Direction.Response, packet.getDirection());
+        assertNull(connection.await(Packet.Direction.Response, 0));
+    }
+
+    private static void feed(CaptureMultiplexer multiplexer, byte[] source, int sourcePort,
+                             byte[] destination, int destinationPort, int sequenceNumber, long timeStamp) {
+        ByteBuffer frame = ByteBuffer.allocate(54);
+        frame.put(new byte[12]).putShort((short) 0x0800);
+        frame.put((byte) 0x45).put((byte) 0).putShort((short) 40).putInt(0)
+                .put((byte) 64).put((byte) 6).putShort((short) 0)
+                .put(source).put(destination);
+        frame.putShort((short) sourcePort).putShort((short) destinationPort).putInt(sequenceNumber).putInt(0)
+                .put((byte) 0x50).put((byte) 0x10).putShort((short) 8192).putInt(0);
+        frame.flip();
+
+        multiplexer.handler.newPacket(new PcapPacket(frame, timeStamp,
+                PacketHandler.getPacketHeaders(frame, frame.limit(), Pcap.DataLinkType.Ethernet)));
+    }
+}